@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+import com.matthewcasperson.validation.audit.AuditEvent;
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.auditimpl.AggregatingAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RingBufferAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RollingFileAuditWriterImpl;
+
+/**
+ * Compares logging a violation from four request threads through a java.util.logging FileHandler
+ * with queueing it on the audit log, and with counting it against a summary
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AuditLogBenchmark {
+	private static final String RULE_NAME = "com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule";
+
+	private static final String MESSAGE = "PVF-SECURITY-0001: Parameter found to have special HTML characters.\nNAME: comment\nVALUE: <script>alert(1)</script>\nURL: http://localhost/app/page.jsp";
+
+	/**
+	 * Where the violation is sent
+	 */
+	@Param({"logger", "audit", "aggregated"})
+	public String sink;
+
+	private File directory;
+	private Logger logger;
+	private FileHandler fileHandler;
+	private AuditLog auditLog;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDir();
+
+		if ("logger".equals(sink)) {
+			logger = Logger.getLogger(AuditLogBenchmark.class.getName());
+			logger.setUseParentHandlers(false);
+			fileHandler = new FileHandler(new File(directory, "pvf.log").getPath(), 10 * 1024 * 1024, 5);
+			fileHandler.setFormatter(new SimpleFormatter());
+			logger.addHandler(fileHandler);
+		} else {
+			auditLog = new RingBufferAuditLogImpl(
+					new RollingFileAuditWriterImpl(new File(directory, "audit.log"), 10 * 1024 * 1024, 5),
+					8192,
+					RingBufferAuditLogImpl.DROP_POLICY);
+
+			if ("aggregated".equals(sink)) {
+				auditLog = new AggregatingAuditLogImpl(auditLog, 60, TimeUnit.SECONDS, 10000);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (fileHandler != null) {
+			logger.removeHandler(fileHandler);
+			fileHandler.close();
+		}
+		if (auditLog != null) {
+			auditLog.close();
+		}
+	}
+
+	@Benchmark
+	public void recordViolation() {
+		if (auditLog != null) {
+			auditLog.record(new AuditRecord(AuditEvent.FAILED, "PVF-SECURITY-0001", 0, RULE_NAME, "/app/page.jsp", "comment", "<script>"));
+		} else {
+			logger.log(Level.WARNING, MESSAGE);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import com.google.common.base.Charsets;
+import com.matthewcasperson.validation.filter.ParameterValidationFilter;
+
+/**
+ * Measures ParameterValidationFilter.doFilter() end to end, over requests with a varying
+ * number of parameters and configurations with a varying number of chains.
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+	private static final String CONFIG_FILE = "/WEB-INF/xml/pvf.xml";
+
+	/**
+	 * The rules applied by the chains, in turn. None of them fail the values in the request.
+	 */
+	private static final String[] RULES = new String[] {
+		"com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule",
+		"com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule",
+		"com.matthewcasperson.validation.ruleimpl.ReplaceNonBreakingSpaceWithSpaceValidationRule",
+		"com.matthewcasperson.validation.ruleimpl.FailIfNotCanonicalizedValidationRule"
+	};
+
+	/**
+	 * The number of parameters in the request
+	 */
+	@Param({"10", "100", "1000"})
+	public int paramCount;
+
+	/**
+	 * The number of chains in the configuration
+	 */
+	@Param({"10", "100", "1000"})
+	public int chainCount;
+
+	/**
+	 * One in this many requests is timed by JMXMetrics, or 0 to leave JMXMetrics disabled. Run
+	 * with -p metricsSampleRate=0,1,16 to measure the cost of the metrics.
+	 */
+	@Param({"0"})
+	public int metricsSampleRate;
+
+	private ParameterValidationFilter filter;
+	private MockHttpServletRequest request;
+
+	@Setup
+	public void setup() throws Exception {
+		final String config = metricsSampleRate == 0 ? createConfig(chainCount) : createConfig(chainCount).replace(
+				"<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><JMXMetrics>true</JMXMetrics><MetricsSampleRate>" + metricsSampleRate + "</MetricsSampleRate>");
+		final MockServletContext servletContext = new MockServletContext() {
+			@Override
+			public InputStream getResourceAsStream(final String path) {
+				if (CONFIG_FILE.equals(path)) {
+					return new ByteArrayInputStream(config.getBytes(Charsets.UTF_8));
+				}
+
+				return super.getResourceAsStream(path);
+			}
+		};
+
+		final MockFilterConfig filterConfig = new MockFilterConfig(servletContext);
+		filterConfig.addInitParameter("configFile", CONFIG_FILE);
+
+		filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+
+		request = new MockHttpServletRequest("POST", "/app/form.jsp");
+		for (int index = 0; index < paramCount; ++index) {
+			/*
+			 * Every tenth value needs trimming, the rest are left alone
+			 */
+			request.addParameter("field" + index, index % 10 == 0 ? " value " + index + " " : "value " + index);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		filter.destroy();
+	}
+
+	/**
+	 * Builds a configuration with one chain that applies to every parameter, and the rest
+	 * applying to a subset of parameters selected by a suffix of their name.
+	 * @param chainCount The number of chains
+	 * @return The XML configuration
+	 */
+	static String createConfig(final int chainCount) {
+		final StringBuilder config = new StringBuilder();
+		config.append("<ParameterValidationChainDatabase>\n");
+		config.append("    <EnforcingMode>true</EnforcingMode>\n");
+		config.append("    <ParameterValidationChains>\n");
+
+		for (int index = 0; index < chainCount; ++index) {
+			config.append("        <ParameterValidationDefinition>\n");
+			config.append("            <ParameterValidationRuleList>\n");
+			config.append("                <ParameterValidationRule>\n");
+			config.append("                    <validationRuleName>").append(RULES[index % RULES.length]).append("</validationRuleName>\n");
+			config.append("                </ParameterValidationRule>\n");
+			config.append("            </ParameterValidationRuleList>\n");
+			config.append("            <paramNamePatternString>").append(index == 0 ? ".*" : "^field\\d*" + index + "$").append("</paramNamePatternString>\n");
+			config.append("            <requestURIPatternString>").append(index % 2 == 0 ? ".*" : "^/app/").append("</requestURIPatternString>\n");
+			config.append("            <paramNamePatternNegated>false</paramNamePatternNegated>\n");
+			config.append("            <requestURIPatternNegated>false</requestURIPatternNegated>\n");
+			config.append("        </ParameterValidationDefinition>\n");
+		}
+
+		config.append("    </ParameterValidationChains>\n");
+		config.append("</ParameterValidationChainDatabase>");
+		return config.toString();
+	}
+
+	@Benchmark
+	public ServletRequest doFilter() throws Exception {
+		final MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(request, new MockHttpServletResponse(), chain);
+		return chain.getRequest();
+	}
+}
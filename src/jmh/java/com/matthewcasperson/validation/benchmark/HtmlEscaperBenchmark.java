@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.matthewcasperson.validation.text.HtmlEscaper;
+
+/**
+ * Compares HtmlEscaper with the commons-lang escapeHtml4() method it replaced
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlEscaperBenchmark {
+	/**
+	 * The kind of value that is escaped
+	 */
+	@Param({"shortAscii", "longUnicode", "html", "encoded"})
+	public String input;
+
+	private String value;
+
+	@Setup
+	public void setup() {
+		value = RuleBenchmark.createInput(input);
+	}
+
+	@Benchmark
+	public String commonsLang() {
+		return StringEscapeUtils.escapeHtml4(value);
+	}
+
+	@Benchmark
+	public String html4() {
+		return HtmlEscaper.HTML4.escape(value);
+	}
+
+	@Benchmark
+	public String minimal() {
+		return HtmlEscaper.MINIMAL.escape(value);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.matthewcasperson.validation.regex.MultiPatternMatcher;
+
+/**
+ * Compares testing a parameter name against each chain's param name pattern in turn with
+ * testing them all at once with a MultiPatternMatcher.
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamNameMatchingBenchmark {
+	/**
+	 * The number of chains whose param name pattern is tested
+	 */
+	@Param({"10", "50", "200"})
+	public int chainCount;
+
+	/**
+	 * The param names that are tested. "repeated" cycles through a few ASCII names, so the DFA
+	 * is warm. "unique" and "nonAscii" use many random 32 character names, which keep building
+	 * new DFA states, and in the case of "nonAscii" use Cyrillic characters.
+	 */
+	@Param({"repeated", "unique", "nonAscii"})
+	public String names;
+
+	/**
+	 * The number of random param names
+	 */
+	private static final int UNIQUE_NAME_COUNT = 20000;
+	private static final int UNIQUE_NAME_LENGTH = 32;
+
+	private Pattern[] patterns;
+	private MultiPatternMatcher matcher;
+	private BitSet allChains;
+	private String[] paramNames;
+	private int nextParamName;
+
+	@Setup
+	public void setup() {
+		final List<Pattern> patternList = new ArrayList<Pattern>();
+		for (int index = 0; index < chainCount; ++index) {
+			/*
+			 * A mix of the literal, prefix and character class patterns seen in real configurations
+			 */
+			switch (index % 3) {
+				case 0:
+					patternList.add(Pattern.compile("^field" + index + "$"));
+					break;
+				case 1:
+					patternList.add(Pattern.compile("^form" + index + "\\."));
+					break;
+				default:
+					patternList.add(Pattern.compile("^[a-z]+_" + index + "$"));
+					break;
+			}
+		}
+
+		patterns = patternList.toArray(new Pattern[patternList.size()]);
+		matcher = new MultiPatternMatcher(patternList);
+		allChains = new BitSet(chainCount);
+		allChains.set(0, chainCount);
+
+		if ("unique".equals(names)) {
+			paramNames = randomNames("abcdefghijklmnopqrstuvwxyz_0123456789");
+		} else if ("nonAscii".equals(names)) {
+			paramNames = randomNames("\u0430\u0431\u0432\u0433\u0434\u0435\u0436\u0437\u0438\u043a\u043b\u043c\u043d\u043e\u043f_0123456789");
+		} else {
+			paramNames = new String[] {
+				"field0", "form1.firstName", "address_" + (chainCount - 1), "unmatchedParameterName", "field" + (chainCount / 2)
+			};
+		}
+	}
+
+	private static String[] randomNames(final String alphabet) {
+		final Random random = new Random(42);
+		final String[] randomNames = new String[UNIQUE_NAME_COUNT];
+		for (int index = 0; index < randomNames.length; ++index) {
+			final StringBuilder name = new StringBuilder(UNIQUE_NAME_LENGTH);
+			for (int character = 0; character < UNIQUE_NAME_LENGTH; ++character) {
+				name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			randomNames[index] = name.toString();
+		}
+		return randomNames;
+	}
+
+	@Benchmark
+	public int patternLoop() {
+		final String paramName = nextParamName();
+		int matches = 0;
+		for (final Pattern pattern : patterns) {
+			if (pattern.matcher(paramName).find()) {
+				++matches;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int multiPatternMatcher() {
+		return matcher.find(nextParamName(), allChains).cardinality();
+	}
+
+	private String nextParamName() {
+		nextParamName = (nextParamName + 1) % paramNames.length;
+		return paramNames[nextParamName];
+	}
+}
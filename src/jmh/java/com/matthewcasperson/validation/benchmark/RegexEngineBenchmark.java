@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
+
+/**
+ * Compares the jdk and linear regex engines of RemoveRegexMatches. The pathological patterns
+ * are given a run of matching characters followed by one that makes the match fail, which takes
+ * java.util.regex time that grows exponentially, or as a high power, with the length of the run.
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegexEngineBenchmark {
+	/**
+	 * The engine setting of the rule
+	 */
+	@Param({"jdk", "linear"})
+	public String engine;
+
+	/**
+	 * nested is a repeated repeat, which is exponential on Java 8 but is caught by the memoization
+	 * added to java.util.regex in Java 9. polynomial is a chain of overlapping repeats, and bounded
+	 * is a bounded repeat of a wildcard, neither of which the memoization helps with. typical is an
+	 * ordinary pattern that doesn't backtrack much, to show what the linear engine costs when there
+	 * is nothing to gain.
+	 */
+	@Param({"nested", "polynomial", "bounded", "typical"})
+	public String pattern;
+
+	/**
+	 * The length of the run of characters in the value. Much beyond 20, the pathological patterns
+	 * take java.util.regex seconds per value.
+	 */
+	@Param({"12", "16", "20"})
+	public int length;
+
+	private RemoveRegexMatches rule;
+	private String[] params;
+
+	@Setup
+	public void setup() {
+		final StringBuilder value = new StringBuilder();
+		final String regex;
+		if ("nested".equals(pattern)) {
+			regex = "^(a+)+$";
+			appendRun(value, 'a');
+			value.append('!');
+		} else if ("polynomial".equals(pattern)) {
+			regex = "a*a*a*a*b";
+			appendRun(value, 'a');
+			value.append('!');
+		} else if ("bounded".equals(pattern)) {
+			regex = "(.*a){10}b";
+			appendRun(value, 'a');
+			value.append('!');
+		} else {
+			regex = "<script[^>]*>";
+			appendRun(value, 'a');
+			value.append("<script src=x>");
+		}
+
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", regex);
+		settings.put("engine", engine);
+		rule = new RemoveRegexMatches();
+		rule.configure(settings);
+		params = new String[] {value.toString()};
+	}
+
+	private void appendRun(final StringBuilder value, final char character) {
+		for (int index = 0; index < length; ++index) {
+			value.append(character);
+		}
+	}
+
+	@Benchmark
+	public String[] fixParams() throws ValidationFailedException {
+		return rule.fixParams("param", "http://localhost/page", params);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
+
+/**
+ * Shows how RemoveRegexMatches scales with the length of the value and the number of matches,
+ * compared to the old approach of removing a match and then scanning the value again from the start.
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoveRegexMatchesBenchmark {
+	private static final String PATTERN = "<[^<>]*>";
+
+	/**
+	 * The length of the value
+	 */
+	@Param({"1000", "10000", "50000"})
+	public int length;
+
+	/**
+	 * How the tags to be removed are spread through the value. Every tag is different, so each
+	 * one has to be found separately.
+	 */
+	@Param({"sparse", "dense", "nested"})
+	public String matches;
+
+	private RemoveRegexMatches rule;
+	private Pattern pattern;
+	private String[] params;
+
+	@Setup
+	public void setup() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", PATTERN);
+		rule = new RemoveRegexMatches();
+		rule.configure(settings);
+		pattern = Pattern.compile(PATTERN);
+
+		final StringBuilder value = new StringBuilder();
+		for (int index = 0; value.length() < length; ++index) {
+			if ("sparse".equals(matches)) {
+				value.append("<tag").append(index).append('>');
+				for (int padding = 0; padding < 1000; ++padding) {
+					value.append('x');
+				}
+			} else if ("dense".equals(matches)) {
+				value.append("<b").append(index).append(">text");
+			} else {
+				/*
+				 * Each removal joins the text either side of it into a new tag
+				 */
+				value.append("<s<i").append(index).append(">").append(index).append('>');
+			}
+		}
+		params = new String[] {value.substring(0, length)};
+	}
+
+	@Benchmark
+	public String[] fixParams() throws ValidationFailedException {
+		return rule.fixParams("param", "http://localhost/page", params);
+	}
+
+	/**
+	 * The implementation RemoveRegexMatches used to have
+	 */
+	@Benchmark
+	public String restartFromScratch() {
+		String fixedString = params[0];
+		while (true) {
+			final Matcher matcher = pattern.matcher(fixedString);
+			if (!matcher.find()) {
+				break;
+			}
+			fixedString = fixedString.replace(matcher.group(), "");
+		}
+		return fixedString;
+	}
+}
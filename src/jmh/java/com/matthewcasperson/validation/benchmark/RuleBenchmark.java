@@ -0,0 +1,162 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+
+/**
+ * Measures each of the built in rules against the kinds of values seen in real requests.
+ * Rules that fail a value are measured up to the point where they throw.
+ * @author mcasperson
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleBenchmark {
+	private static final String NAME = "param";
+	private static final String URL = "http://localhost/page";
+
+	/**
+	 * The name of a class in com.matthewcasperson.validation.ruleimpl
+	 */
+	@Param({
+		"CanonicalizeTextValidationRule",
+		"FailIfContainsHTMLValidationRule",
+		"FailIfNotCanonicalizedValidationRule",
+		"FailIfNotRegexMatchValidationRule",
+		"HTMLEncodeTextValidationRule",
+		"KeepCharactersValidationRule",
+		"NumbersOnlyValidationRule",
+		"RemoveRegexMatches",
+		"ReplaceLiteralsValidationRule",
+		"ReplaceNonBreakingSpaceWithSpaceValidationRule",
+		"SanitizeHTMLValidationRule",
+		"TrimTextValidationRule"
+	})
+	public String rule;
+
+	/**
+	 * The kind of value passed to the rule
+	 */
+	@Param({"shortAscii", "longUnicode", "html", "encoded"})
+	public String input;
+
+	private ParameterValidationRule validationRule;
+	private String[] params;
+
+	@Setup
+	public void setup() throws Exception {
+		validationRule = (ParameterValidationRule)Class.forName("com.matthewcasperson.validation.ruleimpl." + rule).newInstance();
+
+		/*
+		 * The regex rules need a pattern, and the character and literal rules need something to keep
+		 * or replace. These are typical of the settings used to strip script tags and to whitelist identifiers.
+		 */
+		final Map<String, String> settings = new HashMap<String, String>();
+		if ("RemoveRegexMatches".equals(rule)) {
+			settings.put("pattern", "(?i)<script.*?>.*?</script.*?>");
+		} else if ("FailIfNotRegexMatchValidationRule".equals(rule)) {
+			settings.put("pattern", "^[\\w\\s.,-]*$");
+		} else if ("KeepCharactersValidationRule".equals(rule)) {
+			settings.put("characters", "[\\w\\s.,-]");
+		} else if ("ReplaceLiteralsValidationRule".equals(rule)) {
+			settings.put("literal1", "<script>");
+			settings.put("literal2", "</script>");
+			settings.put("literal3", "javascript:");
+		}
+		validationRule.configure(settings);
+
+		params = new String[] {createInput(input)};
+	}
+
+	/**
+	 * @param input The kind of value to create
+	 * @return A value of the requested kind
+	 */
+	static String createInput(final String input) {
+		if ("shortAscii".equals(input)) {
+			return "John Smith 42";
+		}
+
+		if ("longUnicode".equals(input)) {
+			final StringBuilder retValue = new StringBuilder();
+			while (retValue.length() < 4096) {
+				retValue.append("Café crème brûlée — 日本語のテキスト ");
+				retValue.append("¿Qué tal? Здравствуйте ");
+			}
+			return retValue.toString();
+		}
+
+		if ("html".equals(input)) {
+			final StringBuilder retValue = new StringBuilder();
+			while (retValue.length() < 4096) {
+				retValue.append("<p>Hello <b>world</b>, see <a href=\"http://example.org/?a=1&b=2\">this link</a></p>");
+				retValue.append("<script type=\"text/javascript\">alert('x');</script><img src=x onerror=alert(1)>");
+			}
+			return retValue.toString();
+		}
+
+		if ("encoded".equals(input)) {
+			final StringBuilder retValue = new StringBuilder();
+			while (retValue.length() < 4096) {
+				retValue.append("%3Cscript%3Ealert(1)%3C%2Fscript%3E &lt;b&gt;bold&lt;/b&gt; ");
+				retValue.append("&#x27;quoted&#39; %2541 &nbsp;spaced&#160; \\u003c ");
+			}
+			return retValue.toString();
+		}
+
+		throw new IllegalArgumentException("Unknown input " + input);
+	}
+
+	@Benchmark
+	public Object fixParams() {
+		try {
+			return validationRule.fixParams(NAME, URL, params);
+		} catch (final ValidationFailedException ex) {
+			return ex;
+		}
+	}
+}
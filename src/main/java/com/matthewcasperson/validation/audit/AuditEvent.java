@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.audit;
+
+/**
+ * The kinds of record written to the audit log
+ * @author mcasperson
+ *
+ */
+public enum AuditEvent {
+	/**
+	 * A parameter failed validation, and the request was blocked because the filter is enforcing
+	 */
+	BLOCKED,
+	/**
+	 * A parameter failed validation, and the request was let through because the filter is not enforcing
+	 */
+	FAILED,
+	/**
+	 * A parameter was not matched by any validation chain
+	 */
+	UNVALIDATED,
+	/**
+	 * Matching the request URI or a parameter name against the patterns of a chain, or a value against the
+	 * regex of a rule, exceeded the regex budget
+	 */
+	REGEX_BUDGET
+}
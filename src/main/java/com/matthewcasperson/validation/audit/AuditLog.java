@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.audit;
+
+/**
+ * Records violations and other security events away from the request threads. Implementations
+ * must be safe to call from any number of request threads at once, and must not block them on I/O.
+ * @author mcasperson
+ *
+ */
+public interface AuditLog {
+	/**
+	 * Queues a record to be written
+	 * @param record The record
+	 * @return true if the record was queued, and false if it was dropped
+	 */
+	boolean record(final AuditRecord record);
+
+	/**
+	 *
+	 * @return The number of records that have been written
+	 */
+	long getWrittenCount();
+
+	/**
+	 *
+	 * @return The number of records that were dropped because the queue was full, the log was closed,
+	 * or they could not be written
+	 */
+	long getDroppedCount();
+
+	/**
+	 * Writes any queued records and closes the log. Records made after the log is closed are dropped.
+	 */
+	void close();
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.audit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One entry in the audit log. This is either a single event, or a summary of a number of
+ * identical events, in which case the value is an example taken from one of them.
+ * @author mcasperson
+ *
+ */
+public final class AuditRecord {
+	/**
+	 * The chain index of records that don't belong to a chain
+	 */
+	public static final int NO_CHAIN = -1;
+
+	private final long timestamp;
+	private final AuditEvent event;
+	private final String code;
+	private final int chainIndex;
+	private final String ruleName;
+	private final String requestURI;
+	private final String paramName;
+	private final String value;
+	private final long count;
+
+	/**
+	 * Creates a record of a single event that happened now
+	 * @param event The kind of event
+	 * @param code The PVF code of the message, like PVF-SECURITY-0001
+	 * @param chainIndex The index of the validation chain, or NO_CHAIN
+	 * @param ruleName The name of the validation rule, or null if it is not known
+	 * @param requestURI The URI of the request, or null if it is not known
+	 * @param paramName The name of the parameter, or null if it is not known
+	 * @param value The value of the parameter, or null if it is not known
+	 */
+	public AuditRecord(final AuditEvent event, final String code, final int chainIndex, final String ruleName, final String requestURI, final String paramName, final String value) {
+		this(System.currentTimeMillis(), event, code, chainIndex, ruleName, requestURI, paramName, value, 1);
+	}
+
+	/**
+	 * @param timestamp When the record was made, in milliseconds since the epoch
+	 * @param event The kind of event
+	 * @param code The PVF code of the message, like PVF-SECURITY-0001
+	 * @param chainIndex The index of the validation chain, or NO_CHAIN
+	 * @param ruleName The name of the validation rule, or null if it is not known
+	 * @param requestURI The URI of the request, or null if it is not known
+	 * @param paramName The name of the parameter, or null if it is not known
+	 * @param value The value of the parameter, or null if it is not known
+	 * @param count The number of events the record stands for
+	 */
+	public AuditRecord(final long timestamp, final AuditEvent event, final String code, final int chainIndex, final String ruleName, final String requestURI, final String paramName, final String value, final long count) {
+		checkNotNull(event);
+		checkNotNull(code);
+		checkArgument(count > 0);
+
+		this.timestamp = timestamp;
+		this.event = event;
+		this.code = code;
+		this.chainIndex = chainIndex;
+		this.ruleName = ruleName;
+		this.requestURI = requestURI;
+		this.paramName = paramName;
+		this.value = value;
+		this.count = count;
+	}
+
+	/**
+	 *
+	 * @return When the record was made, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 *
+	 * @return The kind of event
+	 */
+	public AuditEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 *
+	 * @return The PVF code of the message, like PVF-SECURITY-0001
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 *
+	 * @return The index of the validation chain, or NO_CHAIN
+	 */
+	public int getChainIndex() {
+		return chainIndex;
+	}
+
+	/**
+	 *
+	 * @return The name of the validation rule, or null if it is not known
+	 */
+	public String getRuleName() {
+		return ruleName;
+	}
+
+	/**
+	 *
+	 * @return The URI of the request, or null if it is not known
+	 */
+	public String getRequestURI() {
+		return requestURI;
+	}
+
+	/**
+	 *
+	 * @return The name of the parameter, or null if it is not known
+	 */
+	public String getParamName() {
+		return paramName;
+	}
+
+	/**
+	 *
+	 * @return The value of the parameter, or an example value if this is a summary, or null if it is not known
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 *
+	 * @return The number of events the record stands for
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return code + ": " + event + " x" + count
+				+ (chainIndex == NO_CHAIN ? "" : " CHAIN: " + chainIndex)
+				+ (ruleName == null ? "" : " RULE: " + ruleName)
+				+ (requestURI == null ? "" : " URI: " + requestURI)
+				+ (paramName == null ? "" : " NAME: " + paramName)
+				+ (value == null ? "" : " VALUE: " + value);
+	}
+}
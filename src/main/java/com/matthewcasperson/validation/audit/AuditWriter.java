@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.audit;
+
+import java.io.IOException;
+
+/**
+ * Writes the records taken off an AuditLog's queue. Writers are only ever called from the
+ * audit log's background thread, so they don't need to be safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public interface AuditWriter {
+	/**
+	 * Writes a record. The record may be buffered until flush() is called.
+	 * @param record The record
+	 * @throws IOException if the record could not be written
+	 */
+	void write(final AuditRecord record) throws IOException;
+
+	/**
+	 * Writes any buffered records. This is called at the end of each batch.
+	 * @throws IOException if the records could not be written
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flushes and closes the writer
+	 * @throws IOException if the records could not be written
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,419 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.auditimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Objects;
+import com.matthewcasperson.validation.audit.AuditEvent;
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * An AuditLog that de-duplicates records before they reach another AuditLog. Records are counted
+ * against the violation they describe, which is the event, code, chain, rule, parameter name and
+ * request URI template, and at the end of each window one summary record is passed on for each
+ * violation that was seen, with the count and the first value that was recorded for it.
+ * <p>
+ * The request URI is reduced to a template, so /orders/1234 and /orders/5678 are counted as the
+ * same violation. A request thread only looks up the violation and increments its counter.
+ * <p>
+ * Once maxTuples distinct violations are being counted, records for new violations are passed
+ * straight on to the other log. Violations that were not seen for a whole window are forgotten.
+ * <p>
+ * Request threads count themselves in and out of record() on striped counters. close() stops new
+ * records, and waits until every record that got in has been counted before the last summary is
+ * written and the other log is closed.
+ * @author mcasperson
+ *
+ */
+public final class AggregatingAuditLogImpl implements AuditLog {
+	private static final Logger LOGGER = Logger.getLogger(AggregatingAuditLogImpl.class.getName());
+
+	/**
+	 * The number of cells in each violation's counter. There can be thousands of violations, so
+	 * this is kept smaller than the default.
+	 */
+	private static final int TUPLE_STRIPES = 4;
+
+	/**
+	 * The shortest run of hex digits in a path segment that is treated as an id
+	 */
+	private static final int MIN_ID_LENGTH = 16;
+
+	/**
+	 * How long close() waits for a flush that is already running, and then for the records being counted
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+	private final AuditLog delegate;
+	private final int maxTuples;
+	private final ConcurrentMap<Key, Tuple> tuples = new ConcurrentHashMap<Key, Tuple>();
+	private final StripedCounter overflowCount = new StripedCounter();
+	private final StripedCounter droppedCount = new StripedCounter();
+	private final StripedCounter enteredCount = new StripedCounter();
+	private final StripedCounter exitedCount = new StripedCounter();
+	private final ScheduledExecutorService scheduler;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the log and starts the thread that flushes it at the end of each window
+	 * @param delegate The log the summary records are passed on to
+	 * @param window The length of the window
+	 * @param unit The unit of the window
+	 * @param maxTuples The number of distinct violations that are counted in a window
+	 */
+	public AggregatingAuditLogImpl(final AuditLog delegate, final long window, final TimeUnit unit, final int maxTuples) {
+		checkNotNull(delegate);
+		checkNotNull(unit);
+		checkArgument(window > 0, "PVF-CONFIGURATION-0030: The audit window must be greater than 0");
+		checkArgument(maxTuples > 0, "PVF-CONFIGURATION-0031: AuditMaxTuples must be greater than 0");
+
+		this.delegate = delegate;
+		this.maxTuples = maxTuples;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "PVF audit aggregator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, window, window, unit);
+	}
+
+	@Override
+	public boolean record(final AuditRecord record) {
+		checkNotNull(record);
+
+		/*
+		 * The thread is counted in before it checks whether the log is closed, so close() either
+		 * sees it and waits for it, or it sees that the log is closed
+		 */
+		enteredCount.increment();
+		try {
+			if (closed) {
+				droppedCount.increment();
+				return false;
+			}
+
+			return count(record);
+		} finally {
+			exitedCount.increment();
+		}
+	}
+
+	/**
+	 * Counts the record against its violation
+	 * @param record The record
+	 * @return true if the record was counted or passed on, and false if it was dropped
+	 */
+	private boolean count(final AuditRecord record) {
+		final Key key = new Key(record);
+
+		while (true) {
+			Tuple tuple = tuples.get(key);
+			if (tuple == null) {
+				if (tuples.size() >= maxTuples) {
+					overflowCount.increment();
+					return delegate.record(record);
+				}
+
+				final Tuple newTuple = new Tuple(key);
+				tuple = tuples.putIfAbsent(key, newTuple);
+				if (tuple == null) {
+					tuple = newTuple;
+				}
+			}
+
+			if (tuple.example == null && record.getValue() != null) {
+				/*
+				 * Racing threads may each set the example, which is fine as any one of them will do
+				 */
+				tuple.example = record.getValue();
+			}
+			tuple.count.add(record.getCount());
+
+			/*
+			 * A tuple that was forgotten while this thread was counting against it may not have
+			 * been included in the last summary, so count against a new one. This can count the
+			 * record twice, but never loses it.
+			 */
+			if (!tuple.removed) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Passes a summary record for each violation seen since the last flush on to the other log,
+	 * and forgets the violations that were not seen. This is called at the end of each window.
+	 */
+	public synchronized void flush() {
+		final Iterator<Map.Entry<Key, Tuple>> iter = tuples.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Tuple tuple = iter.next().getValue();
+
+			long count = tuple.count.sumThenReset();
+			if (count == 0) {
+				tuple.removed = true;
+				iter.remove();
+
+				/*
+				 * Pick up anything counted before the tuple was marked as removed
+				 */
+				count = tuple.count.sumThenReset();
+				if (count == 0) {
+					continue;
+				}
+			}
+
+			final String example = tuple.example;
+			tuple.example = null;
+
+			final Key key = tuple.key;
+			delegate.record(new AuditRecord(System.currentTimeMillis(), key.event, key.code, key.chainIndex, key.ruleName,
+					key.uriTemplate, key.paramName, example, count));
+		}
+
+		final long overflow = overflowCount.sumThenReset();
+		if (overflow != 0) {
+			LOGGER.log(Level.WARNING, "PVF-AUDIT-0003: " + overflow + " records were not aggregated because "
+					+ maxTuples + " distinct violations were already being counted. Consider increasing AuditMaxTuples.");
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of distinct violations being counted
+	 */
+	public int getTupleCount() {
+		return tuples.size();
+	}
+
+	@Override
+	public long getWrittenCount() {
+		return delegate.getWrittenCount();
+	}
+
+	@Override
+	public long getDroppedCount() {
+		return delegate.getDroppedCount() + droppedCount.sum();
+	}
+
+	/**
+	 * Stops new records, waits for the ones being counted, flushes the counts, then closes the other log.
+	 * Records that arrive once the log is closed are counted as dropped.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		/*
+		 * The exits are summed before the entries, so a thread that is still counting always leaves
+		 * the entries ahead
+		 */
+		while (exitedCount.sum() != enteredCount.sum()) {
+			if (System.nanoTime() - deadline > 0) {
+				LOGGER.log(Level.WARNING, "PVF-AUDIT-0005: Records were still being counted after " + CLOSE_TIMEOUT_MILLIS
+						+ " ms. They may be missing from the last summary.");
+				break;
+			}
+			Thread.yield();
+		}
+
+		flush();
+		delegate.close();
+	}
+
+	/**
+	 * Reduces a request URI to a template, so requests for different records are counted as the
+	 * same violation. Path segments made of digits become {n}, segments holding a long run of hex
+	 * digits, like a hash or a UUID, become {id}, and path parameters like ;jsessionid are removed.
+	 * @param uri The request URI
+	 * @return The template, or null if the uri is null
+	 */
+	public static String toURITemplate(final String uri) {
+		if (uri == null) {
+			return null;
+		}
+
+		final StringBuilder template = new StringBuilder(uri.length());
+		int start = 0;
+		while (start <= uri.length()) {
+			int end = uri.indexOf('/', start);
+			if (end == -1) {
+				end = uri.length();
+			}
+
+			int segmentEnd = uri.indexOf(';', start);
+			if (segmentEnd == -1 || segmentEnd > end) {
+				segmentEnd = end;
+			}
+
+			if (start != 0) {
+				template.append('/');
+			}
+
+			if (isNumber(uri, start, segmentEnd)) {
+				template.append("{n}");
+			} else if (isId(uri, start, segmentEnd)) {
+				template.append("{id}");
+			} else {
+				template.append(uri, start, segmentEnd);
+			}
+
+			start = end + 1;
+		}
+		return template.toString();
+	}
+
+	private static boolean isNumber(final String uri, final int start, final int end) {
+		if (start == end) {
+			return false;
+		}
+
+		for (int index = start; index < end; ++index) {
+			final char c = uri.charAt(index);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the segment is made of hex digits and dashes, and has at least MIN_ID_LENGTH hex digits
+	 */
+	private static boolean isId(final String uri, final int start, final int end) {
+		int digits = 0;
+		for (int index = start; index < end; ++index) {
+			final char c = uri.charAt(index);
+			if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')) {
+				++digits;
+			} else if (c != '-') {
+				return false;
+			}
+		}
+		return digits >= MIN_ID_LENGTH;
+	}
+
+	/**
+	 * The details that identify a violation
+	 */
+	private static final class Key {
+		private final AuditEvent event;
+		private final String code;
+		private final int chainIndex;
+		private final String ruleName;
+		private final String paramName;
+		private final String uriTemplate;
+		private final int hashCode;
+
+		Key(final AuditRecord record) {
+			this.event = record.getEvent();
+			this.code = record.getCode();
+			this.chainIndex = record.getChainIndex();
+			this.ruleName = record.getRuleName();
+			this.paramName = record.getParamName();
+			this.uriTemplate = toURITemplate(record.getRequestURI());
+			int hash = event.hashCode();
+			hash = 31 * hash + chainIndex;
+			hash = 31 * hash + (code == null ? 0 : code.hashCode());
+			hash = 31 * hash + (ruleName == null ? 0 : ruleName.hashCode());
+			hash = 31 * hash + (paramName == null ? 0 : paramName.hashCode());
+			hash = 31 * hash + (uriTemplate == null ? 0 : uriTemplate.hashCode());
+			this.hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			final Key other = (Key)obj;
+			return hashCode == other.hashCode
+					&& event == other.event
+					&& chainIndex == other.chainIndex
+					&& Objects.equal(code, other.code)
+					&& Objects.equal(ruleName, other.ruleName)
+					&& Objects.equal(paramName, other.paramName)
+					&& Objects.equal(uriTemplate, other.uriTemplate);
+		}
+	}
+
+	/**
+	 * The count for a violation
+	 */
+	private static final class Tuple {
+		private final Key key;
+		private final StripedCounter count = new StripedCounter(TUPLE_STRIPES);
+		private volatile String example;
+		private volatile boolean removed;
+
+		Tuple(final Key key) {
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.auditimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.matthewcasperson.validation.audit.AuditEvent;
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * An AuditLog that logs each record with java.util.logging, on the calling thread. Unvalidated
+ * parameters are logged at INFO, as they might be intentional, and everything else as a warning.
+ * <p>
+ * This is used to write the summaries from an AggregatingAuditLogImpl when no AuditLogFile is configured.
+ * @author mcasperson
+ *
+ */
+public final class LoggerAuditLogImpl implements AuditLog {
+	private final Logger logger;
+	private final StripedCounter writtenCount = new StripedCounter();
+
+	/**
+	 * @param logger The logger the records are logged to
+	 */
+	public LoggerAuditLogImpl(final Logger logger) {
+		checkNotNull(logger);
+
+		this.logger = logger;
+	}
+
+	@Override
+	public boolean record(final AuditRecord record) {
+		checkNotNull(record);
+
+		logger.log(record.getEvent() == AuditEvent.UNVALIDATED ? Level.INFO : Level.WARNING, record.toString());
+		writtenCount.increment();
+		return true;
+	}
+
+	@Override
+	public long getWrittenCount() {
+		return writtenCount.sum();
+	}
+
+	@Override
+	public long getDroppedCount() {
+		return 0;
+	}
+
+	@Override
+	public void close() {
+		/*
+		 * Nothing is queued, so there is nothing to do
+		 */
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.auditimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.audit.AuditWriter;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * An AuditLog that queues records in a bounded, lock free ring buffer, and writes them in batches
+ * from a background thread. A request thread only ever claims a slot with a compare and set, and
+ * fills it in, so it is never held up by a lock or by the disk.
+ * <p>
+ * Each slot has a sequence number. A slot is free for the record at position p when its sequence
+ * is p, and holds that record once its sequence is p + 1. The writer sets the sequence to
+ * p + capacity once it has taken the record, which frees the slot for the next lap of the buffer.
+ * <p>
+ * When the buffer is full, the overflow policy decides whether the record is dropped, or the
+ * request thread waits for a free slot.
+ * <p>
+ * When the log is closed, the background thread seals the tail so no more slots can be claimed,
+ * writes every record that was claimed before that, and then closes the writer. Records made
+ * after the tail is sealed are counted as dropped.
+ * @author mcasperson
+ *
+ */
+public final class RingBufferAuditLogImpl implements AuditLog {
+	private static final Logger LOGGER = Logger.getLogger(RingBufferAuditLogImpl.class.getName());
+
+	/**
+	 * The overflow policy that drops records when the buffer is full
+	 */
+	public static final String DROP_POLICY = "drop";
+
+	/**
+	 * The overflow policy that makes the request thread wait for a free slot when the buffer is full
+	 */
+	public static final String BLOCK_POLICY = "block";
+
+	/**
+	 * The most records written before the writer is flushed
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * How long the background thread sleeps when there is nothing to write
+	 */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * How long a blocked request thread sleeps between attempts to claim a slot
+	 */
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 * How long close() waits for the background thread to write the queued records
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Returned by claim() when the buffer is full
+	 */
+	private static final long FULL = -1;
+
+	/**
+	 * Returned by claim() once the tail has been sealed
+	 */
+	private static final long SEALED = -2;
+
+	/**
+	 * The value of the tail once the background thread has stopped slots being claimed
+	 */
+	private static final long SEALED_TAIL = Long.MAX_VALUE;
+
+	private final AuditWriter writer;
+	private final boolean blockWhenFull;
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final AuditRecord[] records;
+
+	/**
+	 * The position of the next slot to be claimed by a request thread
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * The position of the next slot to be taken by the background thread. Only the background thread uses this.
+	 */
+	private long head;
+
+	private final StripedCounter droppedCount = new StripedCounter();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * Creates the log and starts its background thread
+	 * @param writer The writer the records are written to
+	 * @param capacity The number of records the buffer holds, which must be a power of 2
+	 * @param overflowPolicy drop to drop records when the buffer is full, or block to wait for a free slot
+	 */
+	public RingBufferAuditLogImpl(final AuditWriter writer, final int capacity, final String overflowPolicy) {
+		checkNotNull(writer);
+		checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "PVF-CONFIGURATION-0026: AuditBufferSize must be a power of 2");
+		checkArgument(DROP_POLICY.equals(overflowPolicy) || BLOCK_POLICY.equals(overflowPolicy),
+				"PVF-CONFIGURATION-0027: AuditOverflowPolicy must be " + DROP_POLICY + " or " + BLOCK_POLICY);
+
+		this.writer = writer;
+		this.blockWhenFull = BLOCK_POLICY.equals(overflowPolicy);
+		this.mask = capacity - 1;
+		this.sequences = new AtomicLongArray(capacity);
+		this.records = new AuditRecord[capacity];
+
+		for (int index = 0; index < capacity; ++index) {
+			sequences.set(index, index);
+		}
+
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRecords();
+			}
+		}, "PVF audit writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public boolean record(final AuditRecord record) {
+		checkNotNull(record);
+
+		while (!closed) {
+			final long position = claim();
+			if (position == SEALED) {
+				break;
+			}
+			if (position != FULL) {
+				final int index = (int)position & mask;
+				records[index] = record;
+
+				/*
+				 * Publishing the sequence makes the record visible to the background thread
+				 */
+				sequences.lazySet(index, position + 1);
+				return true;
+			}
+
+			if (!blockWhenFull) {
+				break;
+			}
+
+			LockSupport.unpark(thread);
+			LockSupport.parkNanos(this, FULL_PARK_NANOS);
+		}
+
+		droppedCount.increment();
+		return false;
+	}
+
+	/**
+	 * Claims the next free slot
+	 * @return The position of the slot, FULL if the buffer is full, or SEALED if the log has been closed
+	 */
+	private long claim() {
+		long position = tail.get();
+		while (true) {
+			if (position == SEALED_TAIL) {
+				return SEALED;
+			}
+
+			final long sequence = sequences.get((int)position & mask);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+				position = tail.get();
+			} else if (sequence < position) {
+				/*
+				 * The slot still holds the record from the last lap, which has not been written yet
+				 */
+				return FULL;
+			} else {
+				/*
+				 * Another thread claimed this slot first
+				 */
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * The loop run by the background thread. It writes records until the log is closed, then writes
+	 * every record that was claimed before the tail was sealed, and closes the writer.
+	 */
+	private void writeRecords() {
+		while (!closed) {
+			final int written = writeBatch();
+
+			if (written < BATCH_SIZE) {
+				flush();
+				if (written == 0) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+			}
+		}
+
+		/*
+		 * Every position before the sealed tail has been claimed. A request thread may still be
+		 * filling in its slot, which takes no time at all, so wait for it rather than miss the record.
+		 */
+		final long end = tail.getAndSet(SEALED_TAIL);
+		while (head < end) {
+			if (writeBatch() == 0) {
+				Thread.yield();
+			}
+		}
+		flush();
+
+		/*
+		 * The writer is only closed by this thread, so it is never closed while a record is being written
+		 */
+		try {
+			writer.close();
+		} catch (final IOException ex) {
+			LOGGER.log(Level.WARNING, "PVF-AUDIT-0002: The audit log could not be closed. " + ex);
+		}
+	}
+
+	/**
+	 * Writes up to BATCH_SIZE records
+	 * @return The number of records taken off the buffer
+	 */
+	private int writeBatch() {
+		int taken = 0;
+		while (taken < BATCH_SIZE) {
+			final int index = (int)head & mask;
+			if (sequences.get(index) != head + 1) {
+				break;
+			}
+
+			try {
+				writer.write(records[index]);
+				writtenCount.incrementAndGet();
+			} catch (final IOException ex) {
+				droppedCount.increment();
+				LOGGER.log(Level.WARNING, "PVF-AUDIT-0001: The audit record could not be written. " + ex);
+			}
+
+			records[index] = null;
+			sequences.lazySet(index, head + mask + 1);
+			++head;
+			++taken;
+		}
+		return taken;
+	}
+
+	private void flush() {
+		try {
+			writer.flush();
+		} catch (final IOException ex) {
+			LOGGER.log(Level.WARNING, "PVF-AUDIT-0001: The audit records could not be written. " + ex);
+		}
+	}
+
+	@Override
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	@Override
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		LockSupport.unpark(thread);
+		try {
+			thread.join(CLOSE_TIMEOUT_MILLIS);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (thread.isAlive()) {
+			LOGGER.log(Level.WARNING, "PVF-AUDIT-0004: The audit records were not written within " + CLOSE_TIMEOUT_MILLIS
+					+ " ms. They will be written, and the audit log closed, in the background.");
+		}
+	}
+}
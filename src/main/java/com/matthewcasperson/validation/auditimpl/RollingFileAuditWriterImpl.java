@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.auditimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.audit.AuditWriter;
+
+/**
+ * Writes audit records to a file, one tab separated line per record, holding the time, event,
+ * code, count, chain index, rule, URI, parameter name and value. Fields that are not known are
+ * written as -, and rules are written without their package.
+ * <pre>
+ * 2014-12-17T10:15:30.000Z	FAILED	PVF-SECURITY-0001	1	2	FailIfContainsHTMLValidationRule	/app/page.jsp	comment	&lt;script&gt;
+ * </pre>
+ * When the file grows past a size it is renamed to file.1, any older files are renamed to file.2,
+ * file.3 and so on, and a new file is started. URIs, parameter names and values come from the client,
+ * so tabs, line breaks and backslashes in them are escaped, and they are truncated to MAX_FIELD_LENGTH.
+ * <p>
+ * Instances are not safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class RollingFileAuditWriterImpl implements AuditWriter {
+	/**
+	 * The number of characters of a URI, parameter name or value that are written
+	 */
+	public static final int MAX_FIELD_LENGTH = 256;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxFiles;
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+	private final StringBuilder line = new StringBuilder();
+	private OutputStream output;
+	private long fileSize;
+
+	/**
+	 * Opens the file, appending to it if it already exists
+	 * @param file The file to write to
+	 * @param maxFileSize The size in bytes the file can grow to before it is rolled over
+	 * @param maxFiles The number of rolled over files to keep
+	 * @throws IOException if the file could not be opened
+	 */
+	public RollingFileAuditWriterImpl(final File file, final long maxFileSize, final int maxFiles) throws IOException {
+		checkNotNull(file);
+		checkArgument(maxFileSize > 0, "PVF-CONFIGURATION-0028: AuditMaxFileSize must be greater than 0");
+		checkArgument(maxFiles >= 0, "PVF-CONFIGURATION-0029: AuditMaxFiles can not be negative");
+
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = maxFiles;
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		open();
+	}
+
+	private void open() throws IOException {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create the directory " + parent);
+		}
+
+		fileSize = file.length();
+		output = new BufferedOutputStream(new FileOutputStream(file, true));
+	}
+
+	@Override
+	public void write(final AuditRecord record) throws IOException {
+		checkNotNull(record);
+
+		final String ruleName = record.getRuleName();
+		line.setLength(0);
+		line.append(dateFormat.format(new Date(record.getTimestamp())))
+			.append('\t').append(record.getEvent())
+			.append('\t').append(record.getCode())
+			.append('\t').append(record.getCount())
+			.append('\t');
+		if (record.getChainIndex() == AuditRecord.NO_CHAIN) {
+			line.append('-');
+		} else {
+			line.append(record.getChainIndex());
+		}
+		line.append('\t');
+		appendField(ruleName == null ? null : ruleName.substring(ruleName.lastIndexOf('.') + 1));
+		line.append('\t');
+		appendField(record.getRequestURI());
+		line.append('\t');
+		appendField(record.getParamName());
+		line.append('\t');
+		appendField(record.getValue());
+		line.append('\n');
+
+		final byte[] bytes = line.toString().getBytes(UTF8);
+		if (fileSize != 0 && fileSize + bytes.length > maxFileSize) {
+			roll();
+		}
+
+		output.write(bytes);
+		fileSize += bytes.length;
+	}
+
+	/**
+	 * Appends a value from the client, escaped and truncated
+	 * @param value The value, or null if it is not known
+	 */
+	private void appendField(final String value) {
+		if (value == null) {
+			line.append('-');
+			return;
+		}
+
+		final int length = Math.min(value.length(), MAX_FIELD_LENGTH);
+		for (int index = 0; index < length; ++index) {
+			final char next = value.charAt(index);
+			switch (next) {
+				case '\t':
+					line.append("\\t");
+					break;
+				case '\n':
+					line.append("\\n");
+					break;
+				case '\r':
+					line.append("\\r");
+					break;
+				case '\\':
+					line.append("\\\\");
+					break;
+				default:
+					line.append(next);
+			}
+		}
+
+		if (length != value.length()) {
+			line.append("...");
+		}
+	}
+
+	/**
+	 * Closes the file, shuffles the older files along, and starts a new file
+	 * @throws IOException if the files could not be renamed
+	 */
+	private void roll() throws IOException {
+		output.close();
+
+		if (maxFiles == 0) {
+			if (!file.delete()) {
+				throw new IOException("Could not delete " + file);
+			}
+		} else {
+			final File oldest = rolledFile(maxFiles);
+			if (oldest.exists() && !oldest.delete()) {
+				throw new IOException("Could not delete " + oldest);
+			}
+
+			for (int index = maxFiles - 1; index >= 1; --index) {
+				final File rolled = rolledFile(index);
+				if (rolled.exists() && !rolled.renameTo(rolledFile(index + 1))) {
+					throw new IOException("Could not rename " + rolled);
+				}
+			}
+
+			if (!file.renameTo(rolledFile(1))) {
+				throw new IOException("Could not rename " + file);
+			}
+		}
+
+		open();
+	}
+
+	private File rolledFile(final int index) {
+		return new File(file.getPath() + "." + index);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
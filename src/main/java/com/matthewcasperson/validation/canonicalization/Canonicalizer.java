@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalization;
+
+/**
+ * Decodes any encoding, like HTML entities or percent encoding, that has been applied to a value
+ * @author mcasperson
+ *
+ */
+public interface Canonicalizer {
+	/**
+	 * Returned by the encoding counts of a canonicalizer that does not count them
+	 */
+	long NOT_COUNTED = -1;
+
+	/**
+	 * Canonicalizes a value
+	 * @param input The value to be canonicalized
+	 * @return The canonicalized value. This is the input itself if it was not encoded.
+	 */
+	String canonicalize(final String input);
+
+	/**
+	 *
+	 * @return The number of values that were proven not to be encoded without decoding them
+	 */
+	long getSkippedCount();
+
+	/**
+	 *
+	 * @return The number of values that had to be decoded
+	 */
+	long getCanonicalizedCount();
+
+	/**
+	 *
+	 * @return The number of values found to have been encoded more than once, or NOT_COUNTED
+	 */
+	long getMultipleEncodingCount();
+
+	/**
+	 *
+	 * @return The number of values found to have been encoded with more than one codec, or NOT_COUNTED
+	 */
+	long getMixedEncodingCount();
+}
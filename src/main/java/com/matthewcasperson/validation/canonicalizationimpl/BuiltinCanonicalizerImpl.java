@@ -0,0 +1,493 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalizationimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * Canonicalizes values the same way as ESAPI's DefaultEncoder, without using ESAPI.
+ * <p>
+ * The HTML entity, percent, JavaScript and CSS codecs are implemented here to decode exactly what
+ * the ESAPI codecs of the same name decode. Each codec is a single scan of the value for its trigger
+ * character, and returns the value itself when there is nothing to decode, so a clean value is never
+ * copied. Named HTML entities are looked up in a trie.
+ * <p>
+ * Like ESAPI, the codecs are applied in turn until none of them change the value, and multiple or
+ * mixed encoding is logged and counted. The codecs are not merged into one pass, because text
+ * decoded by one codec has to be seen by the codecs that run after it for the results to match ESAPI.
+ * @author mcasperson
+ *
+ */
+public final class BuiltinCanonicalizerImpl extends GatedCanonicalizer {
+	private static final Logger LOGGER = Logger.getLogger(BuiltinCanonicalizerImpl.class.getName());
+
+	private static final int HTML_ENTITY_CODEC = 0;
+	private static final int PERCENT_CODEC = 1;
+	private static final int JAVASCRIPT_CODEC = 2;
+	private static final int CSS_CODEC = 3;
+
+	/**
+	 * Returned by the decodeXXX() methods when there is nothing to decode
+	 */
+	private static final long NOT_DECODED = -1;
+	/**
+	 * Set in the result of the decodeXXX() methods when the decoded text produces a character
+	 */
+	private static final long HAS_CHAR = 1L << 16;
+	/**
+	 * Set in the result of decodeCss() for an escaped line break at the end of the value
+	 */
+	private static final long HAS_NULL = 1L << 17;
+
+	private final int[] codecs;
+	private final StripedCounter multipleEncodings = new StripedCounter();
+	private final StripedCounter mixedEncodings = new StripedCounter();
+
+	/**
+	 * Lazily creates the shared instance
+	 */
+	private static final class Holder {
+		private static final BuiltinCanonicalizerImpl INSTANCE = new BuiltinCanonicalizerImpl(EsapiCanonicalizerImpl.DEFAULT_ENCODER_CODECS);
+	}
+
+	/**
+	 *
+	 * @return The instance shared by the rules, which uses the same codecs as the default ESAPI encoder
+	 */
+	public static BuiltinCanonicalizerImpl getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * @param codecNames The names of the ESAPI codecs to implement, in the order they are applied.
+	 * HTMLEntityCodec, PercentCodec, JavaScriptCodec and CSSCodec are supported.
+	 */
+	public BuiltinCanonicalizerImpl(final List<String> codecNames) {
+		super(codecNames);
+
+		codecs = new int[codecNames.size()];
+		for (int codecIndex = 0; codecIndex < codecs.length; ++codecIndex) {
+			final String simpleName = getSimpleCodecName(codecNames.get(codecIndex));
+			if ("HTMLEntityCodec".equals(simpleName)) {
+				codecs[codecIndex] = HTML_ENTITY_CODEC;
+			} else if ("PercentCodec".equals(simpleName)) {
+				codecs[codecIndex] = PERCENT_CODEC;
+			} else if ("JavaScriptCodec".equals(simpleName)) {
+				codecs[codecIndex] = JAVASCRIPT_CODEC;
+			} else if ("CSSCodec".equals(simpleName)) {
+				codecs[codecIndex] = CSS_CODEC;
+			} else {
+				checkArgument(false, "PVF-CONFIGURATION-0011: The builtin canonicalizer does not support the codec " + codecNames.get(codecIndex));
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMultipleEncodingCount() {
+		return multipleEncodings.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMixedEncodingCount() {
+		return mixedEncodings.sum();
+	}
+
+	/**
+	 * Applies the codecs until none of them change the value. This mirrors DefaultEncoder.canonicalize(),
+	 * including how multiple and mixed encoding are counted.
+	 */
+	@Override
+	protected String decode(final String input) {
+		String working = input;
+		int codecFound = -1;
+		int mixedCount = 1;
+		int foundCount = 0;
+		boolean clean = false;
+
+		while (!clean) {
+			clean = true;
+			for (int codecIndex = 0; codecIndex < codecs.length; ++codecIndex) {
+				final String old = working;
+				working = decode(codecs[codecIndex], working);
+
+				/*
+				 * The codecs return the value itself when there is nothing to decode, so this is
+				 * usually a reference comparison
+				 */
+				if (working.equals(old)) {
+					continue;
+				}
+
+				if (codecFound != -1 && codecFound != codecIndex) {
+					++mixedCount;
+				}
+				codecFound = codecIndex;
+				if (clean) {
+					++foundCount;
+				}
+				clean = false;
+			}
+		}
+
+		if (foundCount >= 2 && mixedCount > 1) {
+			multipleEncodings.increment();
+			mixedEncodings.increment();
+			LOGGER.log(Level.WARNING, "PVF-SECURITY-0004: Multiple (" + foundCount + "x) and mixed encoding (" + mixedCount + "x) detected in " + input);
+		} else if (foundCount >= 2) {
+			multipleEncodings.increment();
+			LOGGER.log(Level.WARNING, "PVF-SECURITY-0004: Multiple (" + foundCount + "x) encoding detected in " + input);
+		} else if (mixedCount > 1) {
+			mixedEncodings.increment();
+			LOGGER.log(Level.WARNING, "PVF-SECURITY-0004: Mixed encoding (" + mixedCount + "x) detected in " + input);
+		}
+
+		return working.equals(input) ? input : working;
+	}
+
+	/**
+	 * Makes one pass over the value with a codec
+	 * @param codec The codec
+	 * @param input The value
+	 * @return The decoded value, or the input itself if there was nothing to decode
+	 */
+	private static String decode(final int codec, final String input) {
+		final char trigger = codec == HTML_ENTITY_CODEC ? '&' : codec == PERCENT_CODEC ? '%' : '\\';
+		int index = input.indexOf(trigger);
+		if (index == -1) {
+			return input;
+		}
+
+		StringBuilder retValue = null;
+		int copyFrom = 0;
+
+		while (index != -1) {
+			final long decoded;
+			switch (codec) {
+				case HTML_ENTITY_CODEC:
+					decoded = decodeHtmlEntity(input, index);
+					break;
+				case PERCENT_CODEC:
+					decoded = decodePercent(input, index);
+					break;
+				case JAVASCRIPT_CODEC:
+					decoded = decodeJavaScript(input, index);
+					break;
+				default:
+					decoded = decodeCss(input, index);
+					break;
+			}
+
+			if (decoded == NOT_DECODED) {
+				index = input.indexOf(trigger, index + 1);
+				continue;
+			}
+
+			if (retValue == null) {
+				retValue = new StringBuilder(input.length());
+			}
+			retValue.append(input, copyFrom, index);
+			if ((decoded & HAS_CHAR) != 0) {
+				retValue.append((char)decoded);
+			} else if ((decoded & HAS_NULL) != 0) {
+				retValue.append("null");
+			}
+
+			copyFrom = (int)(decoded >>> 32);
+			index = input.indexOf(trigger, copyFrom);
+		}
+
+		if (retValue == null) {
+			return input;
+		}
+
+		retValue.append(input, copyFrom, input.length());
+		return retValue.toString();
+	}
+
+	/**
+	 * @param end The index after the decoded text
+	 * @param c The character the text decoded to
+	 * @return The result of a decodeXXX() method
+	 */
+	private static long decoded(final int end, final char c) {
+		return ((long)end << 32) | HAS_CHAR | c;
+	}
+
+	/**
+	 * @param input The value
+	 * @param end The index after the decoded text
+	 * @return The result of decodeCss() for an escaped line break
+	 */
+	private static long removed(final String input, final int end) {
+		/*
+		 * CSSCodec appends the result of reading past the end of the value when an escaped line
+		 * break is the last thing in it, which is the text "null"
+		 */
+		return ((long)end << 32) | (end == input.length() ? HAS_NULL : 0);
+	}
+
+	private static boolean isHexDigit(final char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	private static boolean isOctalDigit(final char c) {
+		return c >= '0' && c <= '7';
+	}
+
+	/**
+	 * Decodes the HTML entity that starts at an ampersand, like HTMLEntityCodec.decodeCharacter()
+	 * @param input The value
+	 * @param start The index of the ampersand
+	 * @return The index after the entity and the character it represents, or NOT_DECODED
+	 */
+	private static long decodeHtmlEntity(final String input, final int start) {
+		final int length = input.length();
+		if (start + 1 >= length) {
+			return NOT_DECODED;
+		}
+
+		final char second = input.charAt(start + 1);
+		if (second == '#') {
+			int index = start + 2;
+			if (index >= length) {
+				return NOT_DECODED;
+			}
+
+			final boolean hex = input.charAt(index) == 'x' || input.charAt(index) == 'X';
+			if (hex) {
+				++index;
+			}
+
+			/*
+			 * Digits are read until the first character that isn't a digit, and a trailing semicolon
+			 * is consumed. Values that overflow an int are rejected, like Integer.parseInt() does.
+			 */
+			long value = 0;
+			int digits = 0;
+			for (; index < length; ++index) {
+				final char c = input.charAt(index);
+				final int digit;
+				if (hex) {
+					digit = isHexDigit(c) ? Character.digit(c, 16) : -1;
+				} else {
+					digit = Character.isDigit(c) ? Character.digit(c, 10) : -1;
+				}
+
+				if (digit == -1) {
+					if (c == ';') {
+						++index;
+					}
+					break;
+				}
+
+				++digits;
+				if (value <= Integer.MAX_VALUE) {
+					value = value * (hex ? 16 : 10) + digit;
+				}
+			}
+
+			if (digits == 0 || value > Integer.MAX_VALUE || !Character.isValidCodePoint((int)value)) {
+				return NOT_DECODED;
+			}
+
+			/*
+			 * ESAPI truncates code points outside the BMP to a char
+			 */
+			return decoded(index, (char)value);
+		}
+
+		if (Character.isLetter(second)) {
+			final long match = HtmlEntityTrie.getInstance().getLongestMatch(input, start + 1);
+			if (match == -1) {
+				return NOT_DECODED;
+			}
+
+			int end = start + 1 + (int)(match >>> 32);
+			if (end < length && input.charAt(end) == ';') {
+				++end;
+			}
+			return decoded(end, (char)match);
+		}
+
+		return NOT_DECODED;
+	}
+
+	/**
+	 * Decodes the percent encoded character that starts at a percent sign, like PercentCodec.decodeCharacter()
+	 * @param input The value
+	 * @param start The index of the percent sign
+	 * @return The index after the encoded character and the character itself, or NOT_DECODED
+	 */
+	private static long decodePercent(final String input, final int start) {
+		if (start + 2 >= input.length()) {
+			return NOT_DECODED;
+		}
+
+		final char high = input.charAt(start + 1);
+		final char low = input.charAt(start + 2);
+		if (!isHexDigit(high) || !isHexDigit(low)) {
+			return NOT_DECODED;
+		}
+
+		return decoded(start + 3, (char)(Character.digit(high, 16) * 16 + Character.digit(low, 16)));
+	}
+
+	/**
+	 * Decodes the JavaScript escape that starts at a backslash, like JavaScriptCodec.decodeCharacter()
+	 * @param input The value
+	 * @param start The index of the backslash
+	 * @return The index after the escape and the character it represents, or NOT_DECODED
+	 */
+	private static long decodeJavaScript(final String input, final int start) {
+		final int length = input.length();
+		if (start + 1 >= length) {
+			return NOT_DECODED;
+		}
+
+		final char second = input.charAt(start + 1);
+		switch (second) {
+			case 'b':
+				return decoded(start + 2, '\b');
+			case 't':
+				return decoded(start + 2, '\t');
+			case 'n':
+				return decoded(start + 2, '\n');
+			case 'v':
+				return decoded(start + 2, '\u000b');
+			case 'f':
+				return decoded(start + 2, '\f');
+			case 'r':
+				return decoded(start + 2, '\r');
+			case '"':
+			case '\'':
+			case '\\':
+				return decoded(start + 2, second);
+			default:
+				break;
+		}
+
+		final char lowerSecond = Character.toLowerCase(second);
+		if (lowerSecond == 'x' || lowerSecond == 'u') {
+			final int digits = lowerSecond == 'x' ? 2 : 4;
+			if (start + 2 + digits > length) {
+				return NOT_DECODED;
+			}
+
+			int value = 0;
+			for (int index = start + 2; index < start + 2 + digits; ++index) {
+				final char c = input.charAt(index);
+				if (!isHexDigit(c)) {
+					return NOT_DECODED;
+				}
+				value = value * 16 + Character.digit(c, 16);
+			}
+			return decoded(start + 2 + digits, (char)value);
+		}
+
+		if (isOctalDigit(second)) {
+			/*
+			 * Up to three octal digits
+			 */
+			int value = second - '0';
+			int index = start + 2;
+			for (int digits = 1; digits < 3 && index < length && isOctalDigit(input.charAt(index)); ++digits, ++index) {
+				value = value * 8 + (input.charAt(index) - '0');
+			}
+			return decoded(index, (char)value);
+		}
+
+		/*
+		 * Any other escaped character is just the character itself
+		 */
+		return decoded(start + 2, second);
+	}
+
+	/**
+	 * Decodes the CSS escape that starts at a backslash, like CSSCodec.decodeCharacter()
+	 * @param input The value
+	 * @param start The index of the backslash
+	 * @return The index after the escape and the character it represents, or NOT_DECODED
+	 */
+	private static long decodeCss(final String input, final int start) {
+		final int length = input.length();
+		if (start + 1 >= length) {
+			return NOT_DECODED;
+		}
+
+		final char second = input.charAt(start + 1);
+		switch (second) {
+			case '\r':
+				/*
+				 * An escaped line break is removed
+				 */
+				if (start + 2 < length && input.charAt(start + 2) == '\n') {
+					return removed(input, start + 3);
+				}
+				return removed(input, start + 2);
+			case '\u0000':
+			case '\n':
+			case '\f':
+				return removed(input, start + 2);
+			default:
+				break;
+		}
+
+		if (!isHexDigit(second)) {
+			return decoded(start + 2, second);
+		}
+
+		/*
+		 * Up to six hex digits, optionally followed by a single whitespace character
+		 */
+		int value = Character.digit(second, 16);
+		int index = start + 2;
+		for (int digits = 1; digits < 6 && index < length; ++digits) {
+			final char c = input.charAt(index);
+			if (Character.isWhitespace(c)) {
+				++index;
+				break;
+			}
+			if (!isHexDigit(c)) {
+				break;
+			}
+			value = value * 16 + Character.digit(c, 16);
+			++index;
+		}
+
+		return decoded(index, Character.isValidCodePoint(value) ? (char)value : '\uFFFD');
+	}
+}
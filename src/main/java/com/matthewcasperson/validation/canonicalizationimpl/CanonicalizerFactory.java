@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalizationimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+
+/**
+ * Finds the shared canonicalizer for the engine named in a rule's settings
+ * @author mcasperson
+ *
+ */
+public final class CanonicalizerFactory {
+	/**
+	 * The engine that canonicalizes values with ESAPI's DefaultEncoder
+	 */
+	public static final String ESAPI_ENGINE = "esapi";
+
+	/**
+	 * The engine that canonicalizes values with BuiltinCanonicalizerImpl
+	 */
+	public static final String BUILTIN_ENGINE = "builtin";
+
+	/**
+	 * The shared canonicalizers that have been handed out, keyed by engine, so their counts can be
+	 * published without creating the ones that aren't used
+	 */
+	private static final ConcurrentMap<String, Canonicalizer> CREATED = new ConcurrentSkipListMap<String, Canonicalizer>();
+	private static final Map<String, Canonicalizer> CREATED_VIEW = Collections.unmodifiableMap(CREATED);
+
+	private CanonicalizerFactory() {
+
+	}
+
+	/**
+	 *
+	 * @return The canonicalizer used when no engine is configured
+	 */
+	public static Canonicalizer getDefaultCanonicalizer() {
+		return getCanonicalizer(ESAPI_ENGINE);
+	}
+
+	/**
+	 *
+	 * @param engine The name of the engine, either esapi or builtin
+	 * @return The shared canonicalizer for the engine
+	 */
+	public static Canonicalizer getCanonicalizer(final String engine) {
+		checkNotNull(engine);
+
+		final Canonicalizer created = CREATED.get(engine);
+		if (created != null) {
+			return created;
+		}
+
+		final Canonicalizer canonicalizer;
+		if (ESAPI_ENGINE.equals(engine)) {
+			canonicalizer = EsapiCanonicalizerImpl.getInstance();
+		} else {
+			checkArgument(BUILTIN_ENGINE.equals(engine), "PVF-CONFIGURATION-0012: The canonicalization engine must be " + ESAPI_ENGINE + " or " + BUILTIN_ENGINE);
+			canonicalizer = BuiltinCanonicalizerImpl.getInstance();
+		}
+
+		CREATED.putIfAbsent(engine, canonicalizer);
+		return canonicalizer;
+	}
+
+	/**
+	 *
+	 * @return The shared canonicalizers that have been handed out so far, keyed by engine. This is a live view.
+	 */
+	public static Map<String, Canonicalizer> getCreatedCanonicalizers() {
+		return CREATED_VIEW;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalizationimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.owasp.esapi.Encoder;
+import org.owasp.esapi.reference.DefaultEncoder;
+
+/**
+ * Canonicalizes values with an ESAPI encoder. ESAPI logs multiple and mixed encoding itself,
+ * and doesn't say when it finds them, so they are not counted.
+ * @author mcasperson
+ *
+ */
+public final class EsapiCanonicalizerImpl extends GatedCanonicalizer {
+	/**
+	 * The codecs used by DefaultEncoder.getInstance(). The shared encoder always uses these,
+	 * whatever Encoder.DefaultCodecList is set to in ESAPI.properties.
+	 */
+	public static final List<String> DEFAULT_ENCODER_CODECS = Collections.unmodifiableList(Arrays.asList("HTMLEntityCodec", "PercentCodec", "JavaScriptCodec"));
+
+	private final Encoder encoder;
+
+	/**
+	 * Lazily creates the shared instance, so ESAPI is only configured when it is first needed
+	 */
+	private static final class Holder {
+		private static final EsapiCanonicalizerImpl INSTANCE = new EsapiCanonicalizerImpl(DefaultEncoder.getInstance(), DEFAULT_ENCODER_CODECS);
+	}
+
+	/**
+	 *
+	 * @return The instance shared by the rules, which uses the default ESAPI encoder
+	 */
+	public static EsapiCanonicalizerImpl getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * @param encoder The encoder that does the canonicalization
+	 * @param codecNames The names of the codecs used by the encoder
+	 */
+	public EsapiCanonicalizerImpl(final Encoder encoder, final List<String> codecNames) {
+		super(codecNames);
+		checkNotNull(encoder);
+
+		this.encoder = encoder;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected String decode(final String input) {
+		final String retValue = encoder.canonicalize(input, false);
+		return retValue.equals(input) ? input : retValue;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMultipleEncodingCount() {
+		return NOT_COUNTED;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMixedEncodingCount() {
+		return NOT_COUNTED;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalizationimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * A canonicalizer that skips values none of its codecs can change.
+ * <p>
+ * Each codec only decodes text that starts with one of a few characters, like the &amp; of an
+ * HTML entity or the % of a percent encoded character. Values that contain none of these characters
+ * are returned without being decoded. If a codec whose trigger characters are not known is used,
+ * every value is decoded.
+ * @author mcasperson
+ *
+ */
+public abstract class GatedCanonicalizer implements Canonicalizer {
+	private static final Logger LOGGER = Logger.getLogger(GatedCanonicalizer.class.getName());
+
+	/**
+	 * A bit for each ASCII character that a codec starts decoding from. Bits 0 to 63
+	 * are held in the low mask, and 64 to 127 in the high mask.
+	 */
+	private final long triggerMaskLow;
+	private final long triggerMaskHigh;
+	private final boolean gated;
+	private final StripedCounter skipped = new StripedCounter();
+	private final StripedCounter canonicalized = new StripedCounter();
+
+	/**
+	 * @param codecNames The names of the codecs used to decode values
+	 */
+	protected GatedCanonicalizer(final List<String> codecNames) {
+		checkNotNull(codecNames);
+
+		long maskLow = 0;
+		long maskHigh = 0;
+		boolean allCodecsKnown = true;
+
+		for (final String codecName : codecNames) {
+			final String triggers = getTriggerChars(codecName);
+			if (triggers == null) {
+				LOGGER.log(Level.INFO, "PVF-INFO-0003: Every value will be canonicalized, because the trigger characters of the codec " + codecName + " are not known");
+				allCodecsKnown = false;
+				break;
+			}
+
+			for (int triggerIndex = 0; triggerIndex < triggers.length(); ++triggerIndex) {
+				final char trigger = triggers.charAt(triggerIndex);
+				if (trigger < 64) {
+					maskLow |= 1L << trigger;
+				} else {
+					maskHigh |= 1L << (trigger - 64);
+				}
+			}
+		}
+
+		this.triggerMaskLow = maskLow;
+		this.triggerMaskHigh = maskHigh;
+		this.gated = allCodecsKnown;
+	}
+
+	/**
+	 * @param codecName The name of an ESAPI codec, with or without its package
+	 * @return The name of the codec without its package
+	 */
+	static String getSimpleCodecName(final String codecName) {
+		return codecName.substring(codecName.lastIndexOf('.') + 1).trim();
+	}
+
+	/**
+	 * @param codecName The name of an ESAPI codec, with or without its package
+	 * @return The characters the codec starts decoding from, or null if they are not known
+	 */
+	private static String getTriggerChars(final String codecName) {
+		final String simpleName = getSimpleCodecName(codecName);
+
+		if ("HTMLEntityCodec".equals(simpleName) || "XMLEntityCodec".equals(simpleName)) {
+			return "&";
+		}
+
+		if ("PercentCodec".equals(simpleName)) {
+			return "%";
+		}
+
+		if ("JavaScriptCodec".equals(simpleName) || "CSSCodec".equals(simpleName)) {
+			return "\\";
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param input The value
+	 * @return true if the value contains a character that a codec starts decoding from
+	 */
+	private boolean containsTrigger(final String input) {
+		/*
+		 * A simple loop over the characters with a mask lookup, which the JIT compiles to tight code
+		 */
+		final long maskLow = triggerMaskLow;
+		final long maskHigh = triggerMaskHigh;
+		for (int charIndex = 0, length = input.length(); charIndex < length; ++charIndex) {
+			final char c = input.charAt(charIndex);
+			if (c < 128 && ((c < 64 ? maskLow >>> c : maskHigh >>> (c - 64)) & 1) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final String canonicalize(final String input) {
+		checkNotNull(input);
+
+		if (gated && !containsTrigger(input)) {
+			skipped.increment();
+			return input;
+		}
+
+		canonicalized.increment();
+		return decode(input);
+	}
+
+	/**
+	 * Decodes a value that may be encoded
+	 * @param input The value
+	 * @return The decoded value, or the input itself if it was not encoded
+	 */
+	protected abstract String decode(final String input);
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getSkippedCount() {
+		return skipped.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCanonicalizedCount() {
+		return canonicalized.sum();
+	}
+}
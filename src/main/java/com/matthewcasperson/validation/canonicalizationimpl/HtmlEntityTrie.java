@@ -0,0 +1,375 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.canonicalizationimpl;
+
+import java.util.Arrays;
+
+/**
+ * A trie of the named HTML entities recognised by ESAPI's HTMLEntityCodec. Entity names are
+ * stored as they are written, but are looked up by lower casing the text being decoded, which
+ * is how ESAPI matches them.
+ * @author mcasperson
+ *
+ */
+final class HtmlEntityTrie {
+	private static final HtmlEntityTrie INSTANCE = build();
+
+	private char[] keys = new char[0];
+	private HtmlEntityTrie[] children = new HtmlEntityTrie[0];
+	private boolean hasValue;
+	private char value;
+
+	private HtmlEntityTrie() {
+
+	}
+
+	/**
+	 *
+	 * @return The trie of every named entity
+	 */
+	static HtmlEntityTrie getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Finds the longest entity name that starts at an index in the text
+	 * @param input The text being decoded
+	 * @param start The index of the first character of the name
+	 * @return The length of the name in the high 32 bits and the character it represents in the low
+	 * 16 bits, or -1 if no entity name starts at the index
+	 */
+	long getLongestMatch(final String input, final int start) {
+		HtmlEntityTrie node = this;
+		long retValue = -1;
+
+		for (int index = start, length = input.length(); index < length; ++index) {
+			node = node.getChild(Character.toLowerCase(input.charAt(index)));
+			if (node == null) {
+				break;
+			}
+
+			if (node.hasValue) {
+				retValue = ((long)(index + 1 - start) << 32) | node.value;
+			}
+		}
+
+		return retValue;
+	}
+
+	private HtmlEntityTrie getChild(final char key) {
+		final int index = Arrays.binarySearch(keys, key);
+		return index < 0 ? null : children[index];
+	}
+
+	private void add(final String name, final char entityValue) {
+		HtmlEntityTrie node = this;
+		for (int index = 0; index < name.length(); ++index) {
+			final char key = name.charAt(index);
+			HtmlEntityTrie child = node.getChild(key);
+			if (child == null) {
+				child = new HtmlEntityTrie();
+				final int insertAt = -(Arrays.binarySearch(node.keys, key) + 1);
+
+				final char[] keys = new char[node.keys.length + 1];
+				System.arraycopy(node.keys, 0, keys, 0, insertAt);
+				keys[insertAt] = key;
+				System.arraycopy(node.keys, insertAt, keys, insertAt + 1, node.keys.length - insertAt);
+
+				final HtmlEntityTrie[] children = new HtmlEntityTrie[node.children.length + 1];
+				System.arraycopy(node.children, 0, children, 0, insertAt);
+				children[insertAt] = child;
+				System.arraycopy(node.children, insertAt, children, insertAt + 1, node.children.length - insertAt);
+
+				node.keys = keys;
+				node.children = children;
+			}
+			node = child;
+		}
+
+		node.hasValue = true;
+		node.value = entityValue;
+	}
+
+	private static void put(final HtmlEntityTrie trie, final String name, final char entityValue) {
+		trie.add(name, entityValue);
+	}
+
+	private static HtmlEntityTrie build() {
+		final HtmlEntityTrie trie = new HtmlEntityTrie();
+		put(trie, "quot", '\u0022');
+		put(trie, "amp", '\u0026');
+		put(trie, "lt", '\u003C');
+		put(trie, "gt", '\u003E');
+		put(trie, "nbsp", '\u00A0');
+		put(trie, "iexcl", '\u00A1');
+		put(trie, "cent", '\u00A2');
+		put(trie, "pound", '\u00A3');
+		put(trie, "curren", '\u00A4');
+		put(trie, "yen", '\u00A5');
+		put(trie, "brvbar", '\u00A6');
+		put(trie, "sect", '\u00A7');
+		put(trie, "uml", '\u00A8');
+		put(trie, "copy", '\u00A9');
+		put(trie, "ordf", '\u00AA');
+		put(trie, "laquo", '\u00AB');
+		put(trie, "not", '\u00AC');
+		put(trie, "shy", '\u00AD');
+		put(trie, "reg", '\u00AE');
+		put(trie, "macr", '\u00AF');
+		put(trie, "deg", '\u00B0');
+		put(trie, "plusmn", '\u00B1');
+		put(trie, "sup2", '\u00B2');
+		put(trie, "sup3", '\u00B3');
+		put(trie, "acute", '\u00B4');
+		put(trie, "micro", '\u00B5');
+		put(trie, "para", '\u00B6');
+		put(trie, "middot", '\u00B7');
+		put(trie, "cedil", '\u00B8');
+		put(trie, "sup1", '\u00B9');
+		put(trie, "ordm", '\u00BA');
+		put(trie, "raquo", '\u00BB');
+		put(trie, "frac14", '\u00BC');
+		put(trie, "frac12", '\u00BD');
+		put(trie, "frac34", '\u00BE');
+		put(trie, "iquest", '\u00BF');
+		put(trie, "Agrave", '\u00C0');
+		put(trie, "Aacute", '\u00C1');
+		put(trie, "Acirc", '\u00C2');
+		put(trie, "Atilde", '\u00C3');
+		put(trie, "Auml", '\u00C4');
+		put(trie, "Aring", '\u00C5');
+		put(trie, "AElig", '\u00C6');
+		put(trie, "Ccedil", '\u00C7');
+		put(trie, "Egrave", '\u00C8');
+		put(trie, "Eacute", '\u00C9');
+		put(trie, "Ecirc", '\u00CA');
+		put(trie, "Euml", '\u00CB');
+		put(trie, "Igrave", '\u00CC');
+		put(trie, "Iacute", '\u00CD');
+		put(trie, "Icirc", '\u00CE');
+		put(trie, "Iuml", '\u00CF');
+		put(trie, "ETH", '\u00D0');
+		put(trie, "Ntilde", '\u00D1');
+		put(trie, "Ograve", '\u00D2');
+		put(trie, "Oacute", '\u00D3');
+		put(trie, "Ocirc", '\u00D4');
+		put(trie, "Otilde", '\u00D5');
+		put(trie, "Ouml", '\u00D6');
+		put(trie, "times", '\u00D7');
+		put(trie, "Oslash", '\u00D8');
+		put(trie, "Ugrave", '\u00D9');
+		put(trie, "Uacute", '\u00DA');
+		put(trie, "Ucirc", '\u00DB');
+		put(trie, "Uuml", '\u00DC');
+		put(trie, "Yacute", '\u00DD');
+		put(trie, "THORN", '\u00DE');
+		put(trie, "szlig", '\u00DF');
+		put(trie, "agrave", '\u00E0');
+		put(trie, "aacute", '\u00E1');
+		put(trie, "acirc", '\u00E2');
+		put(trie, "atilde", '\u00E3');
+		put(trie, "auml", '\u00E4');
+		put(trie, "aring", '\u00E5');
+		put(trie, "aelig", '\u00E6');
+		put(trie, "ccedil", '\u00E7');
+		put(trie, "egrave", '\u00E8');
+		put(trie, "eacute", '\u00E9');
+		put(trie, "ecirc", '\u00EA');
+		put(trie, "euml", '\u00EB');
+		put(trie, "igrave", '\u00EC');
+		put(trie, "iacute", '\u00ED');
+		put(trie, "icirc", '\u00EE');
+		put(trie, "iuml", '\u00EF');
+		put(trie, "eth", '\u00F0');
+		put(trie, "ntilde", '\u00F1');
+		put(trie, "ograve", '\u00F2');
+		put(trie, "oacute", '\u00F3');
+		put(trie, "ocirc", '\u00F4');
+		put(trie, "otilde", '\u00F5');
+		put(trie, "ouml", '\u00F6');
+		put(trie, "divide", '\u00F7');
+		put(trie, "oslash", '\u00F8');
+		put(trie, "ugrave", '\u00F9');
+		put(trie, "uacute", '\u00FA');
+		put(trie, "ucirc", '\u00FB');
+		put(trie, "uuml", '\u00FC');
+		put(trie, "yacute", '\u00FD');
+		put(trie, "thorn", '\u00FE');
+		put(trie, "yuml", '\u00FF');
+		put(trie, "OElig", '\u0152');
+		put(trie, "oelig", '\u0153');
+		put(trie, "Scaron", '\u0160');
+		put(trie, "scaron", '\u0161');
+		put(trie, "Yuml", '\u0178');
+		put(trie, "fnof", '\u0192');
+		put(trie, "circ", '\u02C6');
+		put(trie, "tilde", '\u02DC');
+		put(trie, "Alpha", '\u0391');
+		put(trie, "Beta", '\u0392');
+		put(trie, "Gamma", '\u0393');
+		put(trie, "Delta", '\u0394');
+		put(trie, "Epsilon", '\u0395');
+		put(trie, "Zeta", '\u0396');
+		put(trie, "Eta", '\u0397');
+		put(trie, "Theta", '\u0398');
+		put(trie, "Iota", '\u0399');
+		put(trie, "Kappa", '\u039A');
+		put(trie, "Lambda", '\u039B');
+		put(trie, "Mu", '\u039C');
+		put(trie, "Nu", '\u039D');
+		put(trie, "Xi", '\u039E');
+		put(trie, "Omicron", '\u039F');
+		put(trie, "Pi", '\u03A0');
+		put(trie, "Rho", '\u03A1');
+		put(trie, "Sigma", '\u03A3');
+		put(trie, "Tau", '\u03A4');
+		put(trie, "Upsilon", '\u03A5');
+		put(trie, "Phi", '\u03A6');
+		put(trie, "Chi", '\u03A7');
+		put(trie, "Psi", '\u03A8');
+		put(trie, "Omega", '\u03A9');
+		put(trie, "alpha", '\u03B1');
+		put(trie, "beta", '\u03B2');
+		put(trie, "gamma", '\u03B3');
+		put(trie, "delta", '\u03B4');
+		put(trie, "epsilon", '\u03B5');
+		put(trie, "zeta", '\u03B6');
+		put(trie, "eta", '\u03B7');
+		put(trie, "theta", '\u03B8');
+		put(trie, "iota", '\u03B9');
+		put(trie, "kappa", '\u03BA');
+		put(trie, "lambda", '\u03BB');
+		put(trie, "mu", '\u03BC');
+		put(trie, "nu", '\u03BD');
+		put(trie, "xi", '\u03BE');
+		put(trie, "omicron", '\u03BF');
+		put(trie, "pi", '\u03C0');
+		put(trie, "rho", '\u03C1');
+		put(trie, "sigmaf", '\u03C2');
+		put(trie, "sigma", '\u03C3');
+		put(trie, "tau", '\u03C4');
+		put(trie, "upsilon", '\u03C5');
+		put(trie, "phi", '\u03C6');
+		put(trie, "chi", '\u03C7');
+		put(trie, "psi", '\u03C8');
+		put(trie, "omega", '\u03C9');
+		put(trie, "thetasym", '\u03D1');
+		put(trie, "upsih", '\u03D2');
+		put(trie, "piv", '\u03D6');
+		put(trie, "ensp", '\u2002');
+		put(trie, "emsp", '\u2003');
+		put(trie, "thinsp", '\u2009');
+		put(trie, "zwnj", '\u200C');
+		put(trie, "zwj", '\u200D');
+		put(trie, "lrm", '\u200E');
+		put(trie, "rlm", '\u200F');
+		put(trie, "ndash", '\u2013');
+		put(trie, "mdash", '\u2014');
+		put(trie, "lsquo", '\u2018');
+		put(trie, "rsquo", '\u2019');
+		put(trie, "sbquo", '\u201A');
+		put(trie, "ldquo", '\u201C');
+		put(trie, "rdquo", '\u201D');
+		put(trie, "bdquo", '\u201E');
+		put(trie, "dagger", '\u2020');
+		put(trie, "Dagger", '\u2021');
+		put(trie, "bull", '\u2022');
+		put(trie, "hellip", '\u2026');
+		put(trie, "permil", '\u2030');
+		put(trie, "prime", '\u2032');
+		put(trie, "Prime", '\u2033');
+		put(trie, "lsaquo", '\u2039');
+		put(trie, "rsaquo", '\u203A');
+		put(trie, "oline", '\u203E');
+		put(trie, "frasl", '\u2044');
+		put(trie, "euro", '\u20AC');
+		put(trie, "image", '\u2111');
+		put(trie, "weierp", '\u2118');
+		put(trie, "real", '\u211C');
+		put(trie, "trade", '\u2122');
+		put(trie, "alefsym", '\u2135');
+		put(trie, "larr", '\u2190');
+		put(trie, "uarr", '\u2191');
+		put(trie, "rarr", '\u2192');
+		put(trie, "darr", '\u2193');
+		put(trie, "harr", '\u2194');
+		put(trie, "crarr", '\u21B5');
+		put(trie, "lArr", '\u21D0');
+		put(trie, "uArr", '\u21D1');
+		put(trie, "rArr", '\u21D2');
+		put(trie, "dArr", '\u21D3');
+		put(trie, "hArr", '\u21D4');
+		put(trie, "forall", '\u2200');
+		put(trie, "part", '\u2202');
+		put(trie, "exist", '\u2203');
+		put(trie, "empty", '\u2205');
+		put(trie, "nabla", '\u2207');
+		put(trie, "isin", '\u2208');
+		put(trie, "notin", '\u2209');
+		put(trie, "ni", '\u220B');
+		put(trie, "prod", '\u220F');
+		put(trie, "sum", '\u2211');
+		put(trie, "minus", '\u2212');
+		put(trie, "lowast", '\u2217');
+		put(trie, "radic", '\u221A');
+		put(trie, "prop", '\u221D');
+		put(trie, "infin", '\u221E');
+		put(trie, "ang", '\u2220');
+		put(trie, "and", '\u2227');
+		put(trie, "or", '\u2228');
+		put(trie, "cap", '\u2229');
+		put(trie, "cup", '\u222A');
+		put(trie, "int", '\u222B');
+		put(trie, "there4", '\u2234');
+		put(trie, "sim", '\u223C');
+		put(trie, "cong", '\u2245');
+		put(trie, "asymp", '\u2248');
+		put(trie, "ne", '\u2260');
+		put(trie, "equiv", '\u2261');
+		put(trie, "le", '\u2264');
+		put(trie, "ge", '\u2265');
+		put(trie, "sub", '\u2282');
+		put(trie, "sup", '\u2283');
+		put(trie, "nsub", '\u2284');
+		put(trie, "sube", '\u2286');
+		put(trie, "supe", '\u2287');
+		put(trie, "oplus", '\u2295');
+		put(trie, "otimes", '\u2297');
+		put(trie, "perp", '\u22A5');
+		put(trie, "sdot", '\u22C5');
+		put(trie, "lceil", '\u2308');
+		put(trie, "rceil", '\u2309');
+		put(trie, "lfloor", '\u230A');
+		put(trie, "rfloor", '\u230B');
+		put(trie, "lang", '\u2329');
+		put(trie, "rang", '\u232A');
+		put(trie, "loz", '\u25CA');
+		put(trie, "spades", '\u2660');
+		put(trie, "clubs", '\u2663');
+		put(trie, "hearts", '\u2665');
+		put(trie, "diams", '\u2666');
+		return trie;
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.matthewcasperson.validation.regex.MultiPatternMatcher;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan.CompiledChain;
+
+/**
+ * Works out which validation chains apply to a request URI and parameter name. The URI does not
+ * change while a request is being filtered, so the URI regex of each chain only needs to be evaluated
+ * once per request rather than once per parameter. The set of surviving chains is also remembered
+ * in a bounded LRU cache, so repeated requests to the same endpoint skip the URI regexes entirely.
+ * <p>
+ * URIs that select the same chains form an equivalence class. The chains that match a parameter
+ * name within an equivalence class are remembered in a second bounded cache, so once the cache
+ * has warmed up resolving the chains for a parameter costs a single hash lookup.
+ * <p>
+ * Cache misses can optionally be resolved with a MultiPatternMatcher, which tests the parameter
+ * name against the param name pattern of every chain in a single pass.
+ * @author mcasperson
+ *
+ */
+public final class ChainDispatchIndex {
+	/**
+	 * Returned when no chain matches a parameter
+	 */
+	private static final CompiledChain[] NO_CHAINS = new CompiledChain[0];
+
+	/**
+	 * The id given to equivalence classes that are not interned, and so can not be used
+	 * as part of a cache key.
+	 */
+	private static final int UNCACHED_ID = -1;
+
+	private final CompiledChain[] chains;
+
+	/**
+	 * Maps a request URI to the equivalence class of chains whose URI pattern (after negation) accepts it.
+	 */
+	private final Cache<String, URIChains> uriCache;
+
+	/**
+	 * Maps a set of chains to its equivalence class, so URIs that select the same chains share
+	 * cache entries in paramNameCache.
+	 */
+	private final ConcurrentMap<BitSet, URIChains> equivalenceClasses = new ConcurrentHashMap<BitSet, URIChains>();
+
+	/**
+	 * The maximum number of equivalence classes that will be interned
+	 */
+	private final int maxEquivalenceClasses;
+
+	private final AtomicInteger nextEquivalenceClassId = new AtomicInteger();
+
+	/**
+	 * Maps an equivalence class and parameter name to the ordered list of chains that
+	 * apply to the parameter.
+	 */
+	private final Cache<ParamNameKey, CompiledChain[]> paramNameCache;
+
+	/**
+	 * Matches the param name patterns of all the chains at once, or null if each
+	 * pattern is tested in turn.
+	 */
+	private final MultiPatternMatcher paramNameMatcher;
+
+	/**
+	 * @param plan The compiled validation chains, in the order they are to be applied
+	 * @param uriCacheSize The maximum number of request URIs to remember. 0 disables the cache.
+	 * @param paramNameCacheSize The maximum number of parameter names to remember. 0 disables the cache.
+	 * @param paramNameAutomaton true to match parameter names with a MultiPatternMatcher, and false to
+	 * test each param name pattern in turn
+	 */
+	public ChainDispatchIndex(final CompiledRulePlan plan, final int uriCacheSize, final int paramNameCacheSize, final boolean paramNameAutomaton) {
+		checkNotNull(plan);
+		checkArgument(uriCacheSize >= 0, "PVF-CONFIGURATION-0002: The URI cache size can not be negative");
+		checkArgument(paramNameCacheSize >= 0, "PVF-CONFIGURATION-0003: The parameter name cache size can not be negative");
+
+		this.chains = new CompiledChain[plan.getChainCount()];
+		for (int chainIndex = 0; chainIndex < chains.length; ++chainIndex) {
+			chains[chainIndex] = plan.getChain(chainIndex);
+		}
+
+		this.uriCache = uriCacheSize == 0 ? null : CacheBuilder.newBuilder().maximumSize(uriCacheSize).<String, URIChains>build();
+		this.paramNameCache = paramNameCacheSize == 0 ? null : CacheBuilder.newBuilder().maximumSize(paramNameCacheSize).recordStats().<ParamNameKey, CompiledChain[]>build();
+		this.maxEquivalenceClasses = Math.max(uriCacheSize, 1);
+
+		if (paramNameAutomaton) {
+			final List<Pattern> paramNamePatterns = new ArrayList<Pattern>();
+			for (final CompiledChain chain : this.chains) {
+				paramNamePatterns.add(chain.getParamNamePattern());
+			}
+			this.paramNameMatcher = new MultiPatternMatcher(paramNamePatterns, plan.getRegexBudget());
+		} else {
+			this.paramNameMatcher = null;
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of chains in this index
+	 */
+	public int getChainCount() {
+		return chains.length;
+	}
+
+	/**
+	 *
+	 * @param index The index of the chain
+	 * @return The chain at the supplied index
+	 */
+	public CompiledChain getChain(final int index) {
+		return chains[index];
+	}
+
+	/**
+	 * Returns the chains whose request URI pattern, after negation, accepts the supplied URI.
+	 * @param requestURI The URI of the request being filtered
+	 * @return The equivalence class holding the index of each surviving chain
+	 */
+	public URIChains getChainsForURI(final String requestURI) {
+		return getChainsForURI(requestURI, new BitSet());
+	}
+
+	/**
+	 * Returns the chains whose request URI pattern, after negation, accepts the supplied URI.
+	 * @param requestURI The URI of the request being filtered
+	 * @param exceeded An empty set, which has the index set of each chain whose request URI pattern
+	 * exceeded the regex budget and was applied anyway
+	 * @return The equivalence class holding the index of each surviving chain
+	 */
+	public URIChains getChainsForURI(final String requestURI, final BitSet exceeded) {
+		checkNotNull(requestURI);
+		checkNotNull(exceeded);
+
+		if (uriCache != null) {
+			final URIChains cached = uriCache.getIfPresent(requestURI);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		final BitSet surviving = new BitSet(chains.length);
+		for (int chainIndex = 0; chainIndex < chains.length; ++chainIndex) {
+			if (chains[chainIndex].appliesToURI(requestURI, exceeded)) {
+				surviving.set(chainIndex);
+			}
+		}
+
+		final URIChains uriChains = intern(surviving);
+
+		/*
+		 * A pattern that ran out of budget might have matched with more time, so the result
+		 * depends on the load at the time and is not remembered
+		 */
+		if (uriCache != null && exceeded.isEmpty()) {
+			/*
+			 * Two threads may race to populate the same URI. They both compute the same
+			 * result, so it doesn't matter which one wins.
+			 */
+			uriCache.put(requestURI, uriChains);
+		}
+
+		return uriChains;
+	}
+
+	/**
+	 * Returns the chains that apply to a parameter sent to a URI.
+	 * @param uriChains The chains selected by the request URI
+	 * @param paramName The name of the parameter
+	 * @return The matching chains, in the order they are to be applied. The returned array
+	 * may be shared, and must not be modified.
+	 */
+	public CompiledChain[] getChainsForParam(final URIChains uriChains, final String paramName) {
+		return getChainsForParam(uriChains, paramName, new BitSet());
+	}
+
+	/**
+	 * Returns the chains that apply to a parameter sent to a URI.
+	 * @param uriChains The chains selected by the request URI
+	 * @param paramName The name of the parameter
+	 * @param exceeded An empty set, which has the index set of each chain whose param name pattern
+	 * exceeded the regex budget and was applied anyway
+	 * @return The matching chains, in the order they are to be applied. The returned array
+	 * may be shared, and must not be modified.
+	 */
+	public CompiledChain[] getChainsForParam(final URIChains uriChains, final String paramName, final BitSet exceeded) {
+		checkNotNull(uriChains);
+		checkNotNull(paramName);
+		checkNotNull(exceeded);
+
+		if (paramNameCache == null || uriChains.id == UNCACHED_ID) {
+			return matchParamName(uriChains, paramName, exceeded);
+		}
+
+		final ParamNameKey key = new ParamNameKey(uriChains.id, paramName);
+		final CompiledChain[] cached = paramNameCache.getIfPresent(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		final CompiledChain[] matching = matchParamName(uriChains, paramName, exceeded);
+
+		/*
+		 * As with URIs, a result that depended on running out of budget is not remembered
+		 */
+		if (exceeded.isEmpty()) {
+			paramNameCache.put(key, matching);
+		}
+		return matching;
+	}
+
+	/**
+	 *
+	 * @return The hit, miss and eviction counts of the parameter name cache, or null if the cache is disabled
+	 */
+	public CacheStats getParamNameCacheStats() {
+		return paramNameCache == null ? null : paramNameCache.stats();
+	}
+
+	/**
+	 *
+	 * @return The number of entries in the parameter name cache
+	 */
+	public long getParamNameCacheSize() {
+		return paramNameCache == null ? 0 : paramNameCache.size();
+	}
+
+	/**
+	 *
+	 * @return The matcher used to test parameter names, or null if each param name pattern is tested in turn
+	 */
+	public MultiPatternMatcher getParamNameMatcher() {
+		return paramNameMatcher;
+	}
+
+	/**
+	 * Tests the param name patterns of the chains selected by the URI
+	 * @param uriChains The chains selected by the request URI
+	 * @param paramName The name of the parameter
+	 * @param exceeded Has the index set of each chain whose param name pattern exceeded the regex budget
+	 * @return The chains whose param name pattern, after negation, accepts the parameter name
+	 */
+	private CompiledChain[] matchParamName(final URIChains uriChains, final String paramName, final BitSet exceeded) {
+		List<CompiledChain> matching = null;
+
+		final BitSet surviving = uriChains.chains;
+		final BitSet found = paramNameMatcher == null ? null : paramNameMatcher.find(paramName, surviving, exceeded);
+
+		for (int chainIndex = surviving.nextSetBit(0); chainIndex >= 0; chainIndex = surviving.nextSetBit(chainIndex + 1)) {
+			final CompiledChain chain = chains[chainIndex];
+			final boolean applies;
+			if (found == null) {
+				applies = chain.appliesToParamName(paramName, exceeded);
+			} else if (exceeded.get(chainIndex)) {
+				applies = chain.appliesToParamNameWhenBudgetExceeded(paramName, "The budget is " + paramNameMatcher.getBudget());
+			} else {
+				applies = chain.appliesToParamName(found.get(chainIndex));
+			}
+			if (applies) {
+				if (matching == null) {
+					matching = new ArrayList<CompiledChain>();
+				}
+				matching.add(chain);
+			}
+		}
+
+		return matching == null ? NO_CHAINS : matching.toArray(new CompiledChain[matching.size()]);
+	}
+
+	/**
+	 * Finds the equivalence class for a set of chains
+	 * @param surviving The index of each chain selected by a URI
+	 * @return The shared equivalence class
+	 */
+	private URIChains intern(final BitSet surviving) {
+		final URIChains existing = equivalenceClasses.get(surviving);
+		if (existing != null) {
+			return existing;
+		}
+
+		/*
+		 * A pathological set of URI patterns could produce a huge number of equivalence classes.
+		 * Once we have seen enough of them, new ones are not given an id and are never cached.
+		 */
+		if (equivalenceClasses.size() >= maxEquivalenceClasses) {
+			return new URIChains(UNCACHED_ID, surviving);
+		}
+
+		final URIChains created = new URIChains(nextEquivalenceClassId.getAndIncrement(), surviving);
+		final URIChains raced = equivalenceClasses.putIfAbsent(surviving, created);
+		return raced == null ? created : raced;
+	}
+
+	/**
+	 * The set of chains selected by a request URI. All URIs that select the same chains
+	 * share the same instance.
+	 */
+	public static final class URIChains {
+		private final int id;
+		private final BitSet chains;
+
+		private URIChains(final int id, final BitSet chains) {
+			this.id = id;
+			this.chains = chains;
+		}
+
+		/**
+		 *
+		 * @return The number of chains selected by the URI
+		 */
+		public int getChainCount() {
+			return chains.cardinality();
+		}
+
+		/**
+		 *
+		 * @param index The index of a chain
+		 * @return true if the chain at the index was selected by the URI
+		 */
+		public boolean contains(final int index) {
+			return chains.get(index);
+		}
+	}
+
+	/**
+	 * The key used by the parameter name cache
+	 */
+	private static final class ParamNameKey {
+		private final int equivalenceClassId;
+		private final String paramName;
+		private final int hash;
+
+		private ParamNameKey(final int equivalenceClassId, final String paramName) {
+			this.equivalenceClassId = equivalenceClassId;
+			this.paramName = paramName;
+			this.hash = 31 * equivalenceClassId + paramName.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof ParamNameKey)) {
+				return false;
+			}
+
+			final ParamNameKey other = (ParamNameKey)obj;
+			return equivalenceClassId == other.equivalenceClassId && paramName.equals(other.paramName);
+		}
+	}
+}
@@ -24,15 +24,28 @@
 
 package com.matthewcasperson.validation.filter;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -42,16 +55,36 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import com.google.common.cache.CacheStats;
+import com.matthewcasperson.validation.audit.AuditEvent;
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.audit.AuditWriter;
+import com.matthewcasperson.validation.auditimpl.AggregatingAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.LoggerAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RingBufferAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RollingFileAuditWriterImpl;
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.metrics.RequestTrace;
+import com.matthewcasperson.validation.metricsimpl.TraceBufferImpl;
+import com.matthewcasperson.validation.metricsimpl.ValidationMetricsImpl;
+import com.matthewcasperson.validation.metricsimpl.ValidationMetricsRegistry;
+import com.matthewcasperson.validation.rule.ParameterOverlayRequestWrapper;
 import com.matthewcasperson.validation.rule.ParameterValidationRule;
-import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationChain;
-import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.ValidationContext;
+import com.matthewcasperson.validation.rule.ValidationFailure;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan.CompiledChain;
 import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionsImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.RuleInstanceRegistry;
 import com.matthewcasperson.validation.utils.SerialisationUtils;
 import com.matthewcasperson.validation.utilsimpl.JaxBSerialisationUtilsImpl;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * This filter intercepts the parameters sent by the client and cleans them up based on some
@@ -69,17 +102,133 @@ public class ParameterValidationFilter implements Filter {
 	 * config xml file.
 	 */
 	private static final String CONFIG_PARAMETER_NAME = "configFile";
+
+	/**
+	 * The ParamNameMatchingEngine value that tests each param name pattern in turn
+	 */
+	private static final String JDK_ENGINE = "jdk";
+
+	/**
+	 * The ParamNameMatchingEngine value that tests all the param name patterns in a single pass
+	 */
+	private static final String AUTOMATON_ENGINE = "automaton";
+
+	/**
+	 * Sorts chains into the order they were defined in
+	 */
+	private static final Comparator<CompiledChain> CHAIN_ORDER = new Comparator<CompiledChain>() {
+		@Override
+		public int compare(final CompiledChain first, final CompiledChain second) {
+			return first.getIndex() < second.getIndex() ? -1 : first.getIndex() == second.getIndex() ? 0 : 1;
+		}
+	};
 	
 	/**
-	 * The list of validation rules that are to be applied 
+	 * The validation rules that are to be applied, compiled from the config file when the
+	 * filter is initialised. This is null if no chains were configured.
+	 */
+	private CompiledRulePlan compiledRulePlan;
+
+	/**
+	 * The index used to find the chains that apply to a request URI. This is built from
+	 * compiledRulePlan when the filter is initialised.
+	 */
+	private ChainDispatchIndex chainDispatchIndex;
+
+	/**
+	 * The log that violations are queued on, or null if they are logged with LOGGER as they happen
+	 */
+	private AuditLog auditLog;
+
+	/**
+	 * The counts and timings of the filter, and of each chain and rule, or null if neither
+	 * JMXMetrics nor ServletMetrics is enabled
+	 */
+	private ValidationMetricsRegistry validationMetrics;
+
+	/**
+	 * The servlet context the metrics were published to, or null if ServletMetrics is not enabled
 	 */
-	private ParameterValidationDefinitionsImpl parameterValidationDefinitions;
+	private ServletContext metricsServletContext;
+
+	/**
+	 * The traces of recent requests, or null if neither TraceSampleRate nor TraceHeader is set
+	 */
+	private TraceBufferImpl traceBuffer;
 
 	@Override
 	public void destroy() {
 		/*
-		 * Nothing to do here
+		 * Log how well the parameter name cache performed, which is useful when sizing it
 		 */
+		final CacheStats stats = getParamNameCacheStats();
+		if (stats != null) {
+			LOGGER.log(Level.INFO, "PVF-INFO-0002: Parameter name cache " + stats);
+		}
+
+		if (getRegexBudgetExceededCount() != 0) {
+			LOGGER.log(Level.INFO, "PVF-INFO-0004: The regex budget was exceeded " + getRegexBudgetExceededCount() + " times while matching request URIs and parameter names");
+		}
+
+		if (validationMetrics != null) {
+			validationMetrics.unregister();
+		}
+
+		if (traceBuffer != null) {
+			traceBuffer.unregister();
+		}
+
+		if (metricsServletContext != null && metricsServletContext.getAttribute(ValidationMetricsRegistry.SERVLET_CONTEXT_ATTRIBUTE) == validationMetrics) {
+			metricsServletContext.removeAttribute(ValidationMetricsRegistry.SERVLET_CONTEXT_ATTRIBUTE);
+		}
+
+		if (auditLog != null) {
+			auditLog.close();
+			LOGGER.log(Level.INFO, "PVF-INFO-0006: The audit log wrote " + auditLog.getWrittenCount() + " records and dropped " + auditLog.getDroppedCount());
+		}
+	}
+
+	/**
+	 * 
+	 * @return The counts and timings of the filter, and of each chain and rule, or null if neither
+	 * JMXMetrics nor ServletMetrics is enabled
+	 */
+	public ValidationMetricsRegistry getValidationMetrics() {
+		return validationMetrics;
+	}
+
+	/**
+	 * 
+	 * @return The traces of recent requests, or null if neither TraceSampleRate nor TraceHeader is set
+	 */
+	public TraceBufferImpl getTraceBuffer() {
+		return traceBuffer;
+	}
+
+	/**
+	 * 
+	 * @return The log that violations are written to, or null if neither AuditLogFile nor AuditWindowSeconds was configured
+	 */
+	public AuditLog getAuditLog() {
+		return auditLog;
+	}
+
+	/**
+	 * 
+	 * @return The number of times matching a request URI or parameter name against the patterns of a chain
+	 * exceeded the regex budget
+	 */
+	public long getRegexBudgetExceededCount() {
+		return compiledRulePlan == null ? 0 : compiledRulePlan.getRegexBudget().getExceededCount();
+	}
+
+	/**
+	 * 
+	 * @return The hit, miss and eviction counts of the cache that maps parameter names to
+	 * validation chains, or null if the cache is disabled or the filter has not been configured
+	 */
+	public CacheStats getParamNameCacheStats() {
+		return chainDispatchIndex == null ? null : chainDispatchIndex.getParamNameCacheStats();
 	}
 
 	/**
@@ -94,7 +243,7 @@ public class ParameterValidationFilter implements Filter {
 		ServletRequest requestWrapper = request;
 		
 		try {		
-			if (parameterValidationDefinitions != null && parameterValidationDefinitions.getParameterValidationDefinitions() != null) {
+			if (compiledRulePlan != null) {
 				
 				LOGGER.log(Level.FINE, "Parameter Validation Filter has loaded the config file");
 				
@@ -103,125 +252,174 @@ public class ParameterValidationFilter implements Filter {
 					//LOGGER.log(Level.INFO, "Parameter Validation Filter is filtering a HttpServletRequest");
 					
 					final HttpServletRequest httpServletRequest = (HttpServletRequest)requestWrapper;
-										
+
 					/*
-					 * Loop over each param. Note that while the validation rules may well
-					 * create wrappers that return different values for the params (i.e. requestWrapper is
-					 * updated to reference a new wrapper), we use this original copy for the list of 
-					 * param keys to loop over.
+					 * The context reads the URI, URL and other request details once, and is
+					 * recycled between requests on the same thread.
 					 */
-					final Enumeration<String> iter = httpServletRequest.getParameterNames();
+					final ValidationContext context = ValidationContext.acquire(httpServletRequest, compiledRulePlan.isEnforcingMode());
 
-					paramaterNameLoop:
-					while (iter.hasMoreElements()) {
+					/*
+					 * Every request is counted, but only a sample are timed. Requests that are not
+					 * traced only ever check that trace is null.
+					 */
+					final boolean timed = validationMetrics != null && validationMetrics.isTimed();
+					final RequestTrace trace = traceBuffer == null ? null : traceBuffer.start(httpServletRequest);
+					final long requestStart = timed || trace != null ? System.nanoTime() : 0;
+					int dispatchedParams = 0;
+					int matchedChains = 0;
+
+					try {
 						/*
-						 * Get the param name and move the enumerator along
+						 * The URI doesn't change while we process the parameters, so work out which
+						 * chains apply to it once up front. Chains whose patterns ran out of regex budget
+						 * are applied anyway, and are reported as they are found.
 						 */
-						final String paramName = iter.nextElement();
+						final BitSet exceeded = new BitSet();
+						final ChainDispatchIndex.URIChains uriChains = chainDispatchIndex.getChainsForURI(context.getRequestURI(), exceeded);
+						recordChainBudgetOverruns(exceeded, context, null);
 
-						boolean paramValidated = false;
-						
-						LOGGER.log(Level.FINE, "Parameter Validation Filter processing " + paramName);
-						
 						/*
-						 * Loop over each validation rule in the chain
+						 * Every rule that changes a parameter records the new value in this one wrapper,
+						 * rather than wrapping the request again.
+						 */
+						final ParameterOverlayRequestWrapper overlay = new ParameterOverlayRequestWrapper(httpServletRequest);
+						requestWrapper = overlay;
+										
+						/*
+						 * Work out which chains apply to each param. Rules are then run a chain at a time,
+						 * in the order the chains were defined, with each rule being handed every param its
+						 * chain selected in a single call.
 						 */
-						final List<ParameterValidationChain> validationChains = parameterValidationDefinitions.getParameterValidationDefinitions();
-						for (final ParameterValidationChain validationChain : validationChains) {
-							
-							checkState(validationChain != null, "A validation rule should never be null");
-							
+						final Map<CompiledChain, List<String>> paramsByChain = new IdentityHashMap<CompiledChain, List<String>>();
+						final Enumeration<String> iter = httpServletRequest.getParameterNames();
+
+						while (iter.hasMoreElements()) {
 							/*
-							 * Test this validation rule against the param name
+							 * Get the param name and move the enumerator along
 							 */
-							
-							final boolean paramMatches = validationChain.getParamNamePattern().matcher(paramName).find();
-							final boolean uriMatches = validationChain.getRequestURIPattern().matcher(httpServletRequest.getRequestURI()).find();
-																				
-							final boolean paramMatchesAfterNegation = paramMatches ^ validationChain.isParamNamePatternNegated();
-							final boolean uriMatchesAfterNegation = uriMatches ^ validationChain.isRequestURIPatternNegated();
-							
-							if (paramMatchesAfterNegation && uriMatchesAfterNegation) {
-								
-								LOGGER.log(Level.FINE, "Parameter Validation Filter found matching chain");
+							final String paramName = iter.nextElement();
+							++dispatchedParams;
+						
+							LOGGER.log(Level.FINE, "Parameter Validation Filter processing " + paramName);
 
+							final long matchStart = trace == null ? 0 : System.nanoTime();
+							final CompiledChain[] validationChains = chainDispatchIndex.getChainsForParam(uriChains, paramName, exceeded);
+							recordChainBudgetOverruns(exceeded, context, paramName);
+							if (trace != null) {
+								trace.recordChainMatch(paramName, getChainIndexes(validationChains), System.nanoTime() - matchStart);
+							}
+
+							if (validationChains.length == 0) {
 								/*
-								 * Make a note that this parameter has been validated by at least one rule
-								 */
-								paramValidated = true;
-								
-								/*
-								 * Loop over each rule in the chain 
+								 * This might be intentional, so log it as an INFO
 								 */
-								for (final ParameterValidationDefinitionImpl validationRule : validationChain.getList()) {
-									LOGGER.log(Level.FINE, "Processing " + paramName + " with " + validationRule.getValidationRuleName());
-									
-									/*
-									 * Get the object that will actually do the validation
-									 */
-									final ParameterValidationRule rule = validationRule.getRule();
-									
-									/*
-									 * It is possible that a bad configuration will result in rule being null
-									 */
-									checkState(rule != null, "A validation rule should never be null. Check the class name defined in the configuration xml file.");
-
-									try {
-										/*
-											Process the parameter
-										 */
-										final ServletRequest processRequest = rule.processParameter(requestWrapper, paramName);
-
-										checkState(processRequest != null, "A validation rule should never return null when processing a paramemter");
-
-										/*
-										 * The validation rule is expected to return a valid request regardless of the
-										 * processing that should or should not be done.
-										 */
-										requestWrapper = processRequest;
-									} catch (final ValidationFailedException ex) {
-										/*
-										 * Log this as a warning as we are probably interested in knowing when our apps
-										 * are getting hit with invalid data.
-										 */
-										LOGGER.log(Level.WARNING, ex.toString());
-
-
-										if (parameterValidationDefinitions.getEnforcingMode()) {
-											/*
-												If we are enforcing, rethrow so the outer catch block can block the
-												request
-										 	*/
-											throw ex;
-										} else {
-											/*
-												Otherwise move to the next parameter name. This allows us to be notified
-												of every param that will fail instead of just bailing with the first
-												one that fails.
-											 */
-											continue paramaterNameLoop;
-										}
-									}
-
+								if (auditLog != null) {
+									auditLog.record(new AuditRecord(AuditEvent.UNVALIDATED, "PVF-INFO-0001", AuditRecord.NO_CHAIN, null,
+											context.getRequestURI(), paramName, httpServletRequest.getParameter(paramName)));
+								} else {
+									LOGGER.log(Level.INFO, "PVF-INFO-0001: " + paramName + " has not been validated.");
 								}
+								continue;
+							}
+						
+							for (final CompiledChain validationChain : validationChains) {
+								List<String> paramNames = paramsByChain.get(validationChain);
+								if (paramNames == null) {
+									paramNames = new ArrayList<String>();
+									paramsByChain.put(validationChain, paramNames);
+								}
+								paramNames.add(paramName);
 							}
 						}
 
-						if (!paramValidated) {
-							/*
-								 * This might be intentional, so log it as an INFO
-								 */
-							LOGGER.log(Level.INFO, "PVF-INFO-0001: " + paramName + " has not been validated.");
+						final CompiledChain[] selectedChains = paramsByChain.keySet().toArray(new CompiledChain[paramsByChain.size()]);
+						Arrays.sort(selectedChains, CHAIN_ORDER);
+
+						matchedChains = selectedChains.length;
+
+						if (validationMetrics != null) {
+							validationMetrics.getDispatchMetrics().record(dispatchedParams, 0, 0,
+									timed ? System.nanoTime() - requestStart : ValidationMetricsImpl.NOT_TIMED);
+						}
+
+						for (final CompiledChain validationChain : selectedChains) {
+							runChain(validationChain, paramsByChain.get(validationChain), overlay, context, timed, trace);
+						}
+
+						/*
+						 * When we are not enforcing, the rules record the params that failed and move on.
+						 * This allows us to be notified of every param that will fail instead of just
+						 * bailing with the first one that fails.
+						 */
+						for (final ValidationFailure failure : context.getValidationFailures()) {
+							if (auditLog != null) {
+								auditLog.record(new AuditRecord(AuditEvent.FAILED, getCode(failure.getException()), failure.getChainIndex(),
+										failure.getRuleName(), context.getRequestURI(), failure.getParamName(), failure.getValue()));
+							} else {
+								LOGGER.log(Level.WARNING, failure.getException().toString());
+							}
+						}
+
+						/*
+						 * The rest of the application can read the parameters, but not change them
+						 */
+						overlay.freeze();
+
+						if (LOGGER.isLoggable(Level.FINE)) {
+							LOGGER.log(Level.FINE, "Applied " + context.getRuleApplications() + " rules, which changed " + context.getChangedParams() + " params");
 						}
-					}					
+					} finally {
+						if (trace != null) {
+							trace.finish(System.nanoTime() - requestStart, context.getFailures().size());
+							traceBuffer.add(trace);
+						}
+
+						/*
+						 * Values the rules let through because their regex ran out of budget
+						 */
+						for (final ValidationFailure overrun : context.getRegexBudgetOverruns()) {
+							recordRegexBudgetOverrun(getCode(overrun.getException()), overrun.getChainIndex(), overrun.getRuleName(),
+									context, overrun.getParamName(), overrun.getValue());
+						}
+
+						if (validationMetrics != null) {
+							for (final ValidationFailure failure : context.getValidationFailures()) {
+								validationMetrics.recordFailure(getCode(failure.getException()));
+							}
+							validationMetrics.recordRequest(matchedChains, context.getRuleApplications(), context.getChangedParams(),
+									timed ? System.nanoTime() - requestStart : ValidationMetricsImpl.NOT_TIMED);
+						}
+
+						context.release();
+					}
 				}
 			}			
 		} catch (final ValidationFailedException ex) {					
 			/*
 			 * Stop processing and return a HTTP error code if we are enforcing the rules
 			 */
-			if (parameterValidationDefinitions != null &&
-                    parameterValidationDefinitions.getEnforcingMode()) {
+			if (compiledRulePlan != null && compiledRulePlan.isEnforcingMode()) {
+				respondWithBadRequest(response);
+				return;
+			}
+		} catch (final RegexBudgetExceededException ex) {
+			/*
+			 * A chain's request URI or param name pattern took too long to match. This is a hostile
+			 * request rather than a bug, so it is treated like a parameter that failed validation.
+			 */
+			if (auditLog != null) {
+				auditLog.record(new AuditRecord(AuditEvent.REGEX_BUDGET, getCode(ex), AuditRecord.NO_CHAIN, null,
+						request instanceof HttpServletRequest ? ((HttpServletRequest)request).getRequestURI() : null, null, null));
+			} else {
+				LOGGER.log(Level.WARNING, ex.getMessage());
+			}
+
+			if (validationMetrics != null) {
+				validationMetrics.recordFailure(getCode(ex));
+			}
+
+			if (compiledRulePlan != null && compiledRulePlan.isEnforcingMode()) {
 				respondWithBadRequest(response);
 				return;
 			}
@@ -238,8 +436,7 @@ public class ParameterValidationFilter implements Filter {
 			 * Don't allow apps to process raw parameters if this filter has failed and we are
 			 * enforcing the rules
 			 */
-			if (parameterValidationDefinitions != null &&
-                    parameterValidationDefinitions.getEnforcingMode()) {
+			if (compiledRulePlan != null && compiledRulePlan.isEnforcingMode()) {
 				respondWithBadRequest(response);
 				return;
 			}
@@ -248,8 +445,7 @@ public class ParameterValidationFilter implements Filter {
 		/*
 		 * Continue to the next filter
 		 */
-		if (parameterValidationDefinitions != null &&
-                parameterValidationDefinitions.getEnforcingMode()) {
+		if (compiledRulePlan != null && compiledRulePlan.isEnforcingMode()) {
 			/*
 				In enforcing mode we pass the wrapper onto the next filter
 			 */
@@ -262,6 +458,330 @@ public class ParameterValidationFilter implements Filter {
 		}
 	}
 	
+	/**
+	 * Runs the rules in a chain against the params it selected
+	 * @param validationChain The chain to run
+	 * @param paramNames The names of the params selected by the chain
+	 * @param overlay The wrapper holding the current param values
+	 * @param context The details of the request being validated
+	 * @param timed true if the chain and its rules should be timed
+	 * @param trace The trace of the request, or null if it is not being traced
+	 * @throws ValidationFailedException if a param failed validation and we are enforcing the rules
+	 */
+	private void runChain(final CompiledChain validationChain, final List<String> paramNames, final ParameterOverlayRequestWrapper overlay, final ValidationContext context, final boolean timed, final RequestTrace trace) throws ValidationFailedException {
+		final int chainApplications = context.getRuleApplications();
+		final int chainChangedParams = context.getChangedParams();
+		final int chainFailures = context.getFailures().size();
+		final long chainStart = timed ? System.nanoTime() : 0;
+
+		try {
+			runRules(validationChain, paramNames, overlay, context, timed, trace);
+		} finally {
+			if (validationMetrics != null) {
+				recordMetrics(validationMetrics.getChainMetrics(validationChain.getIndex()), context,
+						chainApplications, chainChangedParams, chainFailures, timed, chainStart);
+			}
+		}
+	}
+
+	/**
+	 * Runs the rules in a chain against the params it selected, and records the values they changed
+	 * @param validationChain The chain to run
+	 * @param paramNames The names of the params selected by the chain
+	 * @param overlay The wrapper holding the current param values
+	 * @param context The details of the request being validated
+	 * @param timed true if the rules should be timed
+	 * @param trace The trace of the request, or null if it is not being traced
+	 * @throws ValidationFailedException if a param failed validation and we are enforcing the rules
+	 */
+	private void runRules(final CompiledChain validationChain, final List<String> paramNames, final ParameterOverlayRequestWrapper overlay, final ValidationContext context, final boolean timed, final RequestTrace trace) throws ValidationFailedException {
+		/*
+		 * Collect the current values. Params that failed an earlier chain are not validated again.
+		 */
+		final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+		for (final String paramName : paramNames) {
+			if (!context.isFailed(paramName)) {
+				params.put(paramName, overlay.getParameterValues(paramName));
+			}
+		}
+
+		/*
+		 * Loop over each rule in the chain
+		 */
+		for (int ruleIndex = 0; ruleIndex < validationChain.getRuleCount() && !params.isEmpty(); ++ruleIndex) {
+			LOGGER.log(Level.FINE, "Processing " + params.keySet() + " with " + validationChain.getRuleName(ruleIndex));
+
+			/*
+			 * Get the object that will actually do the validation. These were all
+			 * created, and checked for null, when the plan was compiled.
+			 */
+			final ParameterValidationRule rule = validationChain.getRule(ruleIndex);
+			context.setCurrentRule(validationChain.getIndex(), validationChain.getRuleName(ruleIndex));
+
+			final int ruleApplications = context.getRuleApplications();
+			final int ruleChangedParams = context.getChangedParams();
+			final int ruleFailures = context.getFailures().size();
+			final String[] traceNames = trace == null ? null : params.keySet().toArray(new String[params.size()]);
+			final int[] traceLengths = trace == null ? null : getValueLengths(traceNames, params);
+			final long ruleStart = timed || trace != null ? System.nanoTime() : 0;
+
+			try {
+				fixAll(rule, overlay, context, params);
+			} catch (final ValidationFailedException ex) {
+				/*
+				 * Log this as a warning as we are probably interested in knowing when our apps
+				 * are getting hit with invalid data. Rules only throw when we are enforcing, so
+				 * rethrow so the request is blocked.
+				 */
+				if (auditLog != null) {
+					auditLog.record(getBlockedRecord(ex, context));
+				} else {
+					LOGGER.log(Level.WARNING, ex.toString());
+				}
+				throw ex;
+			} finally {
+				if (validationMetrics != null) {
+					recordMetrics(validationMetrics.getRuleMetrics(validationChain.getIndex(), ruleIndex), context,
+							ruleApplications, ruleChangedParams, ruleFailures, timed, ruleStart);
+				}
+
+				if (trace != null) {
+					trace.recordRuleInvocation(getRuleInvocation(validationChain, ruleIndex, context, params, traceNames, traceLengths, ruleStart));
+				}
+			}
+		}
+
+		/*
+		 * Record the values that the rules changed
+		 */
+		for (final Map.Entry<String, String[]> param : params.entrySet()) {
+			if (param.getValue() != overlay.getParameterValues(param.getKey())) {
+				overlay.setParameterValues(param.getKey(), param.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Applies a rule to every param in a batch. Rules built on ParameterValidationRuleTemplate
+	 * fix the batch themselves. Other rules only implement ParameterValidationRule, so they are
+	 * given each param through processParameter, as they always have been.
+	 * @param rule The rule to apply
+	 * @param request The request the params belong to
+	 * @param context The details of the request being validated
+	 * @param params Maps the name of each param to its values. Changed values are replaced, and
+	 * params that fail validation when we are not enforcing the rules are removed.
+	 * @throws ValidationFailedException if a param failed validation and we are enforcing the rules
+	 */
+	private static void fixAll(final ParameterValidationRule rule, final HttpServletRequest request, final ValidationContext context,
+			final Map<String, String[]> params) throws ValidationFailedException {
+		if (rule instanceof ParameterValidationRuleTemplate) {
+			((ParameterValidationRuleTemplate)rule).fixAll(context, params);
+			return;
+		}
+
+		final Iterator<Map.Entry<String, String[]>> iter = params.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<String, String[]> param = iter.next();
+			final String[] values = param.getValue();
+
+			/*
+			 * The param's current value may not have been written to the overlay yet
+			 */
+			final ParameterOverlayRequestWrapper paramRequest = new ParameterOverlayRequestWrapper(request);
+			paramRequest.setParameterValues(param.getKey(), values);
+
+			try {
+				final ServletRequest processRequest = rule.processParameter(paramRequest, param.getKey());
+				checkState(processRequest != null && processRequest.getParameterValues(param.getKey()) != null,
+						"PVF-BUG-0009: A validation rule should never return null or remove the parameter when processing a parameter");
+
+				final String[] processedParams = processRequest.getParameterValues(param.getKey());
+				final boolean changed = processedParams != values && !Arrays.equals(processedParams, values);
+				context.recordRuleApplication(changed);
+
+				if (changed) {
+					param.setValue(processedParams);
+				}
+			} catch (final ValidationFailedException ex) {
+				context.addFailure(param.getKey(), ex, values.length == 0 ? null : values[0]);
+
+				if (context.isEnforcingMode()) {
+					throw ex;
+				}
+
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Works out what a rule did to the params it was applied to, for a trace
+	 * @param validationChain The chain the rule belongs to
+	 * @param ruleIndex The index of the rule in the chain
+	 * @param context The details of the request being validated
+	 * @param params The params after the rule was applied
+	 * @param names The names of the params before the rule was applied
+	 * @param lengths The lengths of the params before the rule was applied
+	 * @param start The value of System.nanoTime() before the rule was applied
+	 * @return The rule invocation
+	 */
+	private static RequestTrace.RuleInvocation getRuleInvocation(final CompiledChain validationChain, final int ruleIndex, final ValidationContext context,
+			final Map<String, String[]> params, final String[] names, final int[] lengths, final long start) {
+		final RequestTrace.RuleInvocation invocation = new RequestTrace.RuleInvocation(validationChain.getIndex(), ruleIndex, validationChain.getRuleName(ruleIndex));
+		invocation.setNanos(System.nanoTime() - start);
+
+		for (int index = 0; index < names.length; ++index) {
+			final String[] values = params.get(names[index]);
+			invocation.recordValueChange(names[index], lengths[index],
+					values == null || context.isFailed(names[index]) ? RequestTrace.FAILED : getValueLength(values));
+		}
+		return invocation;
+	}
+
+	/**
+	 * @param names The names of the params
+	 * @param params The params
+	 * @return The total length of the values of each param
+	 */
+	private static int[] getValueLengths(final String[] names, final Map<String, String[]> params) {
+		final int[] lengths = new int[names.length];
+		for (int index = 0; index < names.length; ++index) {
+			lengths[index] = getValueLength(params.get(names[index]));
+		}
+		return lengths;
+	}
+
+	/**
+	 * @param values The values of a param
+	 * @return The total length of the values
+	 */
+	private static int getValueLength(final String[] values) {
+		int length = 0;
+		for (final String value : values) {
+			length += value == null ? 0 : value.length();
+		}
+		return length;
+	}
+
+	/**
+	 * @param chains The chains that apply to a param
+	 * @return The indexes of the chains
+	 */
+	private static int[] getChainIndexes(final CompiledChain[] chains) {
+		final int[] indexes = new int[chains.length];
+		for (int index = 0; index < chains.length; ++index) {
+			indexes[index] = chains[index].getIndex();
+		}
+		return indexes;
+	}
+
+	/**
+	 * Records the work done since a snapshot of the context was taken
+	 * @param metrics The metrics to record the work against
+	 * @param context The details of the request being validated
+	 * @param ruleApplications The number of rule applications when the snapshot was taken
+	 * @param changedParams The number of changed params when the snapshot was taken
+	 * @param failures The number of failed params when the snapshot was taken
+	 * @param timed true if the request is being timed
+	 * @param start The value of System.nanoTime() when the snapshot was taken
+	 */
+	private static void recordMetrics(final ValidationMetricsImpl metrics, final ValidationContext context, final int ruleApplications,
+			final int changedParams, final int failures, final boolean timed, final long start) {
+		final int failed = context.getFailures().size() - failures;
+		metrics.record(
+				context.getRuleApplications() - ruleApplications + failed,
+				context.getChangedParams() - changedParams,
+				failed,
+				timed ? System.nanoTime() - start : ValidationMetricsImpl.NOT_TIMED);
+	}
+
+	/**
+	 * Reports the chains whose request URI or param name pattern ran out of regex budget, and were
+	 * applied anyway, and then clears them.
+	 * @param exceeded Has the index set of each chain that ran out of budget
+	 * @param context The details of the request being validated
+	 * @param paramName The param being dispatched, or null if the chains were matched against the URI
+	 */
+	private void recordChainBudgetOverruns(final BitSet exceeded, final ValidationContext context, final String paramName) {
+		if (exceeded.isEmpty()) {
+			return;
+		}
+
+		for (int chainIndex = exceeded.nextSetBit(0); chainIndex >= 0; chainIndex = exceeded.nextSetBit(chainIndex + 1)) {
+			recordRegexBudgetOverrun("PVF-SECURITY-0006", chainIndex, null, context, paramName, null);
+		}
+		exceeded.clear();
+	}
+
+	/**
+	 * Audits and counts a regex that ran out of budget while the budget lets requests through. A
+	 * hostile client can trigger this on every request, so without an audit log only a summary
+	 * is logged, and never the value.
+	 * @param code The PVF code of the overrun
+	 * @param chainIndex The chain that ran out of budget
+	 * @param ruleName The rule that ran out of budget, or null if it was the chain's own pattern
+	 * @param context The details of the request being validated
+	 * @param paramName The param being validated, or null if it was the request URI
+	 * @param value The value that was let through, or null
+	 */
+	private void recordRegexBudgetOverrun(final String code, final int chainIndex, final String ruleName, final ValidationContext context,
+			final String paramName, final String value) {
+		if (auditLog != null) {
+			auditLog.record(new AuditRecord(AuditEvent.REGEX_BUDGET, code, chainIndex, ruleName, context.getRequestURI(), paramName, value));
+		} else {
+			LOGGER.log(Level.WARNING, code + ": Validation chain " + chainIndex + (ruleName == null ? "" : " rule " + ruleName)
+					+ " exceeded the regex budget on " + (paramName == null ? "the request URI " : paramName + " sent to ")
+					+ context.getRequestURI() + ", and was allowed.");
+		}
+
+		if (validationMetrics != null) {
+			validationMetrics.recordFailure(code);
+		}
+	}
+
+	/**
+	 * 
+	 * @param ex The exception a rule threw to block the request
+	 * @param context The details of the request being validated
+	 * @return The audit record for the blocked request, with the details of the failure the rule recorded
+	 */
+	private static AuditRecord getBlockedRecord(final ValidationFailedException ex, final ValidationContext context) {
+		for (final ValidationFailure failure : context.getValidationFailures()) {
+			if (failure.getException() == ex) {
+				return new AuditRecord(AuditEvent.BLOCKED, getCode(ex), failure.getChainIndex(), failure.getRuleName(),
+						context.getRequestURI(), failure.getParamName(), failure.getValue());
+			}
+		}
+		return new AuditRecord(AuditEvent.BLOCKED, getCode(ex), AuditRecord.NO_CHAIN, null, context.getRequestURI(), null, null);
+	}
+
+	/**
+	 * 
+	 * @param ex An exception thrown while validating a request
+	 * @return The PVF code at the start of the exception's message, like PVF-SECURITY-0001, or the
+	 * name of the exception if the message has no code
+	 */
+	private static String getCode(final Exception ex) {
+		final String message = ex.getMessage();
+		if (message != null && message.startsWith("PVF-")) {
+			final int end = message.indexOf(':');
+			if (end != -1) {
+				return message.substring(0, end);
+			}
+		}
+		return ex.getClass().getSimpleName();
+	}
+
+	/**
+	 * 
+	 * @param config The filter's config
+	 * @return The name the filter's MBeans are registered under
+	 */
+	private static String getFilterName(final FilterConfig config) {
+		return config.getFilterName() == null || config.getFilterName().isEmpty()
+				? ParameterValidationFilter.class.getSimpleName() : config.getFilterName();
+	}
+
 	/**
 	 * Return with a status code of 400
 	 * @param response The servlet request
@@ -273,6 +793,10 @@ public class ParameterValidationFilter implements Filter {
 		 * This is thrown when one of the validation rules determined that a parameter was
 		 * sent with invalid data and could not, or should not, be sanitised.
 		 */
+		if (validationMetrics != null) {
+			validationMetrics.recordBadRequest();
+		}
+
 		if (response instanceof HttpServletResponse) {
 			try {
 				final HttpServletResponse httpServletResponse = (HttpServletResponse)response;
@@ -298,7 +822,109 @@ public class ParameterValidationFilter implements Filter {
 				LOGGER.log(Level.FINE, "Attempting to unmarshall " + configFile);
 				final String configXml = IOUtils.toString(config.getServletContext().getResourceAsStream(configFile));
 				LOGGER.log(Level.FINE, "configXml is \n" + configXml);
-				parameterValidationDefinitions = SERIALISATION_UTILS.readFromXML(configXml, ParameterValidationDefinitionsImpl.class);
+				final ParameterValidationDefinitionsImpl parameterValidationDefinitions = SERIALISATION_UTILS.readFromXML(configXml, ParameterValidationDefinitionsImpl.class);
+
+				if (parameterValidationDefinitions != null && parameterValidationDefinitions.getParameterValidationDefinitions() != null) {
+					final String engine = parameterValidationDefinitions.getParamNameMatchingEngine();
+					checkArgument(JDK_ENGINE.equals(engine) || AUTOMATON_ENGINE.equals(engine),
+							"PVF-CONFIGURATION-0004: ParamNameMatchingEngine must be " + JDK_ENGINE + " or " + AUTOMATON_ENGINE);
+
+					checkArgument(parameterValidationDefinitions.getRuleInstantiationThreads() > 0,
+							"PVF-CONFIGURATION-0009: RuleInstantiationThreads must be greater than 0");
+
+					/*
+					 * Resolve every rule up front, so a bad class name fails here rather than
+					 * on the first request, and the JAXB beans are never touched again. Chains
+					 * that use the same rule with the same settings share one instance.
+					 */
+					final RuleInstanceRegistry ruleInstanceRegistry = new RuleInstanceRegistry();
+					compiledRulePlan = CompiledRulePlan.compile(
+							parameterValidationDefinitions,
+							ruleInstanceRegistry,
+							parameterValidationDefinitions.getRuleInstantiationThreads());
+					LOGGER.log(Level.FINE, "Created " + ruleInstanceRegistry.size() + " distinct validation rules");
+
+					chainDispatchIndex = new ChainDispatchIndex(
+							compiledRulePlan,
+							parameterValidationDefinitions.getURICacheSize(),
+							parameterValidationDefinitions.getParamNameCacheSize(),
+							AUTOMATON_ENGINE.equals(engine));
+
+					checkArgument(parameterValidationDefinitions.getAuditWindowSeconds() >= 0, "PVF-CONFIGURATION-0030: AuditWindowSeconds can not be negative");
+					checkArgument(parameterValidationDefinitions.getMetricsSampleRate() > 0, "PVF-CONFIGURATION-0032: MetricsSampleRate must be greater than 0");
+
+					if (parameterValidationDefinitions.getTraceSampleRate() != 0 || parameterValidationDefinitions.getTraceHeader() != null) {
+						/*
+						 * Built before the audit log, so a bad setting doesn't leave its thread running
+						 */
+						traceBuffer = new TraceBufferImpl(
+								parameterValidationDefinitions.getTraceBufferSize(),
+								parameterValidationDefinitions.getTraceSampleRate(),
+								parameterValidationDefinitions.getTraceHeader(),
+								parameterValidationDefinitions.getTraceTrustedAddresses() == null
+										? Collections.<String>emptySet()
+										: new HashSet<String>(Arrays.asList(parameterValidationDefinitions.getTraceTrustedAddresses().trim().split("\\s*,\\s*"))));
+					}
+
+					if (parameterValidationDefinitions.getAuditLogFile() != null) {
+						/*
+						 * Violations are queued for a background thread to write, rather than
+						 * being logged on the request thread
+						 */
+						final AuditWriter auditWriter = new RollingFileAuditWriterImpl(
+								new File(parameterValidationDefinitions.getAuditLogFile()),
+								parameterValidationDefinitions.getAuditMaxFileSize(),
+								parameterValidationDefinitions.getAuditMaxFiles());
+						try {
+							auditLog = new RingBufferAuditLogImpl(
+									auditWriter,
+									parameterValidationDefinitions.getAuditBufferSize(),
+									parameterValidationDefinitions.getAuditOverflowPolicy());
+						} catch (final IllegalArgumentException ex) {
+							auditWriter.close();
+							throw ex;
+						}
+					}
+
+					if (parameterValidationDefinitions.getAuditWindowSeconds() != 0) {
+						/*
+						 * Repeated violations are counted, and summarised once per window
+						 */
+						final AuditLog summaryLog = auditLog == null ? new LoggerAuditLogImpl(LOGGER) : auditLog;
+						try {
+							auditLog = new AggregatingAuditLogImpl(
+									summaryLog,
+									parameterValidationDefinitions.getAuditWindowSeconds(),
+									TimeUnit.SECONDS,
+									parameterValidationDefinitions.getAuditMaxTuples());
+						} catch (final IllegalArgumentException ex) {
+							summaryLog.close();
+							auditLog = null;
+							throw ex;
+						}
+					}
+
+					/*
+					 * Publish the counts and timings last, so nothing is left registered if the
+					 * configuration turns out to be invalid
+					 */
+					if (parameterValidationDefinitions.getJMXMetrics() || parameterValidationDefinitions.getServletMetrics()) {
+						validationMetrics = new ValidationMetricsRegistry(compiledRulePlan, parameterValidationDefinitions.getMetricsSampleRate());
+					}
+
+					if (parameterValidationDefinitions.getJMXMetrics()) {
+						validationMetrics.register(getFilterName(config));
+					}
+
+					if (traceBuffer != null) {
+						traceBuffer.register(getFilterName(config));
+					}
+
+					if (parameterValidationDefinitions.getServletMetrics()) {
+						metricsServletContext = config.getServletContext();
+						metricsServletContext.setAttribute(ValidationMetricsRegistry.SERVLET_CONTEXT_ATTRIBUTE, validationMetrics);
+					}
+				}
 			}
 		} catch (final Exception ex) {
 			/*
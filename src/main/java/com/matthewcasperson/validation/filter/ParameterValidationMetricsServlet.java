@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.filter;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.matthewcasperson.validation.metricsimpl.PrometheusMetricsFormatter;
+import com.matthewcasperson.validation.metricsimpl.ValidationMetricsRegistry;
+
+/**
+ * Renders the metrics of the ParameterValidationFilter in the same web application in the
+ * Prometheus text exposition format. The filter publishes its metrics to the servlet context
+ * when ServletMetrics is enabled in its config file, and this servlet responds with a 404
+ * until it has.
+ * @author mcasperson
+ *
+ */
+public class ParameterValidationMetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The initial size of the response, which is enough for the metrics of a filter that has seen
+	 * a handful of failure codes
+	 */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		final Object registry = getServletContext().getAttribute(ValidationMetricsRegistry.SERVLET_CONTEXT_ATTRIBUTE);
+		if (!(registry instanceof ValidationMetricsRegistry)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "ServletMetrics is not enabled for the Parameter Validation Filter");
+			return;
+		}
+
+		final StringBuilder output = new StringBuilder(INITIAL_CAPACITY);
+		PrometheusMetricsFormatter.format((ValidationMetricsRegistry)registry, output);
+
+		response.setContentType(PrometheusMetricsFormatter.CONTENT_TYPE);
+		response.getWriter().append(output);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in nanoseconds. The buckets are log-linear: each power of 2
+ * is split into SUB_BUCKETS equal buckets, so a recorded value is off by at most 1/SUB_BUCKETS of
+ * itself, from 1ns up to Long.MAX_VALUE, with a fixed number of buckets.
+ * <p>
+ * Recording a value is one atomic increment, and a compare and set when the value is a new maximum.
+ * Percentiles are read from a copy of the buckets, so they may miss values recorded while they are
+ * worked out. Instances are safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class LatencyHistogram {
+	/**
+	 * The log2 of the number of buckets each power of 2 is split into
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below SUB_BUCKETS each have their own bucket, and every power of 2 from there up to
+	 * 2^62 has SUB_BUCKETS buckets
+	 */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a duration
+	 * @param nanos The duration in nanoseconds. Negative values are recorded as 0.
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		buckets.getAndIncrement(bucketIndex(value));
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of durations recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int index = 0; index < BUCKET_COUNT; ++index) {
+			count += buckets.get(index);
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @return The longest duration recorded, or 0 if none have been
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The duration that percentile of the recorded durations are no longer than, to within
+	 * the width of a bucket, or 0 if none have been recorded
+	 */
+	public long getPercentile(final double percentile) {
+		checkArgument(percentile >= 0 && percentile <= 100, "PVF-BUG-0007: The percentile must be between 0 and 100");
+
+		final long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int index = 0; index < BUCKET_COUNT; ++index) {
+			counts[index] = buckets.get(index);
+			total += counts[index];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int index = 0; index < BUCKET_COUNT; ++index) {
+			seen += counts[index];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(index), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @param value A duration, which is not negative
+	 * @return The bucket the duration is counted in
+	 */
+	static int bucketIndex(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)value;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param index A bucket
+	 * @return The largest duration counted in the bucket
+	 */
+	static long bucketUpperBound(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lower = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", p50=" + getPercentile(50) + "ns, p99=" + getPercentile(99) + "ns, max=" + getMax() + "ns";
+	}
+}
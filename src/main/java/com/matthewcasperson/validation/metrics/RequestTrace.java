@@ -0,0 +1,378 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A record of how the filter processed one request: which chains matched each parameter, and
+ * how long each rule took and what it did to the length of each value. Values themselves are
+ * never recorded.
+ * <p>
+ * A trace is filled in by the request thread, and must not be changed once it has been handed
+ * to a TraceBuffer.
+ * @author mcasperson
+ *
+ */
+public final class RequestTrace {
+	/**
+	 * The length recorded for a value that failed validation
+	 */
+	public static final int FAILED = -1;
+
+	private final long sequence;
+	private final long timestamp;
+	private final String method;
+	private final String requestURI;
+	private final String trigger;
+	private final List<ChainMatch> chainMatches = new ArrayList<ChainMatch>();
+	private final List<RuleInvocation> ruleInvocations = new ArrayList<RuleInvocation>();
+	private long nanos;
+	private int failures;
+
+	/**
+	 * @param sequence The number of the trace, which orders it among the other traces
+	 * @param timestamp The time the request was received, in milliseconds since the epoch
+	 * @param method The HTTP method
+	 * @param requestURI The request URI
+	 * @param trigger Why the request was traced
+	 */
+	public RequestTrace(final long sequence, final long timestamp, final String method, final String requestURI, final String trigger) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.method = method;
+		this.requestURI = requestURI;
+		this.trigger = trigger;
+	}
+
+	/**
+	 * Records the chains that matched a parameter
+	 * @param paramName The name of the parameter
+	 * @param chains The indexes of the chains that matched
+	 * @param matchNanos How long it took to find the chains
+	 */
+	public void recordChainMatch(final String paramName, final int[] chains, final long matchNanos) {
+		chainMatches.add(new ChainMatch(paramName, chains, matchNanos));
+	}
+
+	/**
+	 * Records a rule being applied to the parameters selected by its chain
+	 * @param invocation The invocation
+	 */
+	public void recordRuleInvocation(final RuleInvocation invocation) {
+		checkNotNull(invocation);
+
+		ruleInvocations.add(invocation);
+	}
+
+	/**
+	 * Records the end of the request
+	 * @param requestNanos How long the filter spent on the request
+	 * @param failureCount The number of parameters that failed validation
+	 */
+	public void finish(final long requestNanos, final int failureCount) {
+		this.nanos = requestNanos;
+		this.failures = failureCount;
+	}
+
+	/**
+	 *
+	 * @return The number of the trace, which orders it among the other traces
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 *
+	 * @return The time the request was received, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 *
+	 * @return The HTTP method
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 *
+	 * @return The request URI
+	 */
+	public String getRequestURI() {
+		return requestURI;
+	}
+
+	/**
+	 *
+	 * @return Why the request was traced
+	 */
+	public String getTrigger() {
+		return trigger;
+	}
+
+	/**
+	 *
+	 * @return The chains that matched each parameter, in the order the parameters were read
+	 */
+	public List<ChainMatch> getChainMatches() {
+		return Collections.unmodifiableList(chainMatches);
+	}
+
+	/**
+	 *
+	 * @return The rules that were applied, in the order they were run
+	 */
+	public List<RuleInvocation> getRuleInvocations() {
+		return Collections.unmodifiableList(ruleInvocations);
+	}
+
+	/**
+	 *
+	 * @return How long the filter spent on the request, in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 *
+	 * @return The number of parameters that failed validation
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	@Override
+	public String toString() {
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final StringBuilder retValue = new StringBuilder();
+		retValue.append('#').append(sequence).append(' ').append(dateFormat.format(new Date(timestamp)))
+			.append(' ').append(method).append(' ').append(requestURI)
+			.append(" (").append(trigger).append(") ").append(nanos).append("ns, ")
+			.append(failures).append(" failures");
+
+		for (final ChainMatch chainMatch : chainMatches) {
+			retValue.append("\n  ").append(chainMatch);
+		}
+		for (final RuleInvocation ruleInvocation : ruleInvocations) {
+			retValue.append("\n  ").append(ruleInvocation);
+		}
+		return retValue.toString();
+	}
+
+	/**
+	 * The chains that matched a parameter
+	 */
+	public static final class ChainMatch {
+		private final String paramName;
+		private final int[] chains;
+		private final long nanos;
+
+		ChainMatch(final String paramName, final int[] chains, final long nanos) {
+			this.paramName = paramName;
+			this.chains = chains;
+			this.nanos = nanos;
+		}
+
+		/**
+		 *
+		 * @return The name of the parameter
+		 */
+		public String getParamName() {
+			return paramName;
+		}
+
+		/**
+		 *
+		 * @return The indexes of the chains that matched
+		 */
+		public int[] getChains() {
+			return chains.clone();
+		}
+
+		/**
+		 *
+		 * @return How long it took to find the chains, in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return "match " + paramName + " -> chains " + Arrays.toString(chains) + " " + nanos + "ns";
+		}
+	}
+
+	/**
+	 * A rule being applied to the parameters selected by its chain
+	 */
+	public static final class RuleInvocation {
+		private final int chainIndex;
+		private final int ruleIndex;
+		private final String ruleName;
+		private final List<ValueChange> valueChanges = new ArrayList<ValueChange>();
+		private long nanos;
+
+		/**
+		 * @param chainIndex The index of the chain
+		 * @param ruleIndex The index of the rule in the chain
+		 * @param ruleName The class name of the rule
+		 */
+		public RuleInvocation(final int chainIndex, final int ruleIndex, final String ruleName) {
+			this.chainIndex = chainIndex;
+			this.ruleIndex = ruleIndex;
+			this.ruleName = ruleName;
+		}
+
+		/**
+		 * Records what the rule did to the length of a parameter's values
+		 * @param paramName The name of the parameter
+		 * @param lengthBefore The total length of the values before the rule was applied
+		 * @param lengthAfter The total length of the values after the rule was applied, or FAILED
+		 */
+		public void recordValueChange(final String paramName, final int lengthBefore, final int lengthAfter) {
+			valueChanges.add(new ValueChange(paramName, lengthBefore, lengthAfter));
+		}
+
+		/**
+		 * @param ruleNanos How long the rule took
+		 */
+		public void setNanos(final long ruleNanos) {
+			this.nanos = ruleNanos;
+		}
+
+		/**
+		 *
+		 * @return The index of the chain
+		 */
+		public int getChainIndex() {
+			return chainIndex;
+		}
+
+		/**
+		 *
+		 * @return The index of the rule in the chain
+		 */
+		public int getRuleIndex() {
+			return ruleIndex;
+		}
+
+		/**
+		 *
+		 * @return The class name of the rule
+		 */
+		public String getRuleName() {
+			return ruleName;
+		}
+
+		/**
+		 *
+		 * @return What the rule did to each parameter it was applied to
+		 */
+		public List<ValueChange> getValueChanges() {
+			return Collections.unmodifiableList(valueChanges);
+		}
+
+		/**
+		 *
+		 * @return How long the rule took, in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder retValue = new StringBuilder();
+			retValue.append("chain ").append(chainIndex).append(" rule ").append(ruleIndex).append(' ')
+				.append(ruleName.substring(ruleName.lastIndexOf('.') + 1)).append(' ').append(nanos).append("ns");
+			for (final ValueChange valueChange : valueChanges) {
+				retValue.append("\n    ").append(valueChange);
+			}
+			return retValue.toString();
+		}
+	}
+
+	/**
+	 * What a rule did to the length of a parameter's values
+	 */
+	public static final class ValueChange {
+		private final String paramName;
+		private final int lengthBefore;
+		private final int lengthAfter;
+
+		ValueChange(final String paramName, final int lengthBefore, final int lengthAfter) {
+			this.paramName = paramName;
+			this.lengthBefore = lengthBefore;
+			this.lengthAfter = lengthAfter;
+		}
+
+		/**
+		 *
+		 * @return The name of the parameter
+		 */
+		public String getParamName() {
+			return paramName;
+		}
+
+		/**
+		 *
+		 * @return The total length of the values before the rule was applied
+		 */
+		public int getLengthBefore() {
+			return lengthBefore;
+		}
+
+		/**
+		 *
+		 * @return The total length of the values after the rule was applied, or FAILED
+		 */
+		public int getLengthAfter() {
+			return lengthAfter;
+		}
+
+		@Override
+		public String toString() {
+			return paramName + " " + lengthBefore + " -> " + (lengthAfter == FAILED ? "failed" : Integer.toString(lengthAfter));
+		}
+	}
+}
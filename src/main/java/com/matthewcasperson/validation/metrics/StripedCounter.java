@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment at once without fighting over a single cache line.
+ * The count is split across a number of cells, each on its own cache line, and each thread adds
+ * to the cell picked by its id. Reading the count adds up the cells.
+ * <p>
+ * This is the same idea as Java 8's LongAdder, for Java 7. Instances are safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class StripedCounter {
+	/**
+	 * The number of longs between cells, so each cell sits on its own 64 byte cache line
+	 */
+	private static final int PADDING = 8;
+
+	/**
+	 * The number of cells used by default, which is a few per processor
+	 */
+	private static final int DEFAULT_STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4);
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	/**
+	 * Creates a counter with a few cells per processor
+	 */
+	public StripedCounter() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes The number of cells, which must be a power of 2
+	 */
+	public StripedCounter(final int stripes) {
+		checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1, "PVF-BUG-0006: The number of stripes must be a power of 2");
+
+		this.cells = new AtomicLongArray(stripes * PADDING);
+		this.mask = stripes - 1;
+	}
+
+	/**
+	 * Adds one to the count
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * @param delta The amount to add to the count
+	 */
+	public void add(final long delta) {
+		cells.getAndAdd(cell(), delta);
+	}
+
+	/**
+	 * Adds up the cells. The result is exact if no other thread is adding to the counter.
+	 * @return The count
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int index = 0; index < cells.length(); index += PADDING) {
+			sum += cells.get(index);
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds up the cells, setting each one back to zero. Additions made while this runs are either
+	 * included in the result or left in the counter, so none are lost.
+	 * @return The count since the counter was last reset
+	 */
+	public long sumThenReset() {
+		long sum = 0;
+		for (int index = 0; index < cells.length(); index += PADDING) {
+			sum += cells.getAndSet(index, 0);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The index of the current thread's cell
+	 */
+	private int cell() {
+		/*
+		 * Thread ids are handed out in sequence, so spread them before masking
+		 */
+		long id = Thread.currentThread().getId();
+		id ^= id >>> 16;
+		id *= 0x45d9f3b;
+		id ^= id >>> 16;
+		return ((int)id & mask) * PADDING;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+}
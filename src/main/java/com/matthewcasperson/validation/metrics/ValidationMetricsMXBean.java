@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metrics;
+
+/**
+ * The counts and timings published over JMX for the matching of chains to a request, for a
+ * validation chain, or for one rule in a chain. The counts are exact. Timings are only taken
+ * for a sample of requests, so they are based on TimedCount requests.
+ * @author mcasperson
+ *
+ */
+public interface ValidationMetricsMXBean {
+	/**
+	 *
+	 * @return What is being measured, like the chain's patterns or the rule's class
+	 */
+	String getName();
+
+	/**
+	 *
+	 * @return The number of parameters processed
+	 */
+	long getInvocations();
+
+	/**
+	 *
+	 * @return The number of parameters whose values were changed
+	 */
+	long getModifications();
+
+	/**
+	 *
+	 * @return The number of parameters that failed validation
+	 */
+	long getFailures();
+
+	/**
+	 *
+	 * @return The number of calls that were timed
+	 */
+	long getTimedCount();
+
+	/**
+	 *
+	 * @return The median time of the timed calls, in nanoseconds
+	 */
+	long getP50Nanos();
+
+	/**
+	 *
+	 * @return The 99th percentile time of the timed calls, in nanoseconds
+	 */
+	long getP99Nanos();
+
+	/**
+	 *
+	 * @return The longest time of the timed calls, in nanoseconds
+	 */
+	long getMaxNanos();
+
+	/**
+	 *
+	 * @return The total time of the timed calls, in nanoseconds
+	 */
+	long getTotalNanos();
+}
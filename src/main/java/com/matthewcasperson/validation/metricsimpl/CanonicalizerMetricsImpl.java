@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.metrics.CanonicalizerMXBean;
+
+/**
+ * Publishes the counts of a shared canonicalizer over JMX. Each filter registers its own
+ * instance, so the bean can be removed with the filter's other beans.
+ * @author mcasperson
+ *
+ */
+public final class CanonicalizerMetricsImpl implements CanonicalizerMXBean {
+	private final String engine;
+	private final Canonicalizer canonicalizer;
+
+	/**
+	 * @param engine The canonicalization engine
+	 * @param canonicalizer The shared canonicalizer for the engine
+	 */
+	public CanonicalizerMetricsImpl(final String engine, final Canonicalizer canonicalizer) {
+		checkNotNull(engine);
+		checkNotNull(canonicalizer);
+
+		this.engine = engine;
+		this.canonicalizer = canonicalizer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getEngine() {
+		return engine;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getSkippedCount() {
+		return canonicalizer.getSkippedCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCanonicalizedCount() {
+		return canonicalizer.getCanonicalizedCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMultipleEncodingCount() {
+		return canonicalizer.getMultipleEncodingCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMixedEncodingCount() {
+		return canonicalizer.getMixedEncodingCount();
+	}
+}
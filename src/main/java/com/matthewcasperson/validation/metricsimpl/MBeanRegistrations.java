@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The MBeans registered with the platform MBean server by one filter, so they can be removed
+ * when it is destroyed. A bean that can't be registered is logged and skipped, as the filter
+ * works without it.
+ * @author mcasperson
+ *
+ */
+final class MBeanRegistrations {
+	private static final Logger LOGGER = Logger.getLogger(MBeanRegistrations.class.getName());
+
+	private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+
+	/**
+	 * @param name The name to register the bean under
+	 * @param bean The bean
+	 */
+	synchronized void register(final String name, final Object bean) {
+		try {
+			final ObjectName objectName = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+			registeredNames.add(objectName);
+		} catch (final JMException ex) {
+			LOGGER.log(Level.WARNING, "PVF-JMX-0001: Could not register " + name + ". " + ex);
+		}
+	}
+
+	/**
+	 * Removes every bean registered through this object
+	 */
+	synchronized void unregisterAll() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (final ObjectName name : registeredNames) {
+			try {
+				server.unregisterMBean(name);
+			} catch (final JMException ex) {
+				LOGGER.log(Level.WARNING, "PVF-JMX-0002: Could not unregister " + name + ". " + ex);
+			}
+		}
+		registeredNames.clear();
+	}
+
+	/**
+	 *
+	 * @return The names the beans are registered under
+	 */
+	synchronized List<ObjectName> getRegisteredNames() {
+		return new ArrayList<ObjectName>(registeredNames);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.metrics.LatencyHistogram;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * Renders the filter's metrics in the Prometheus text exposition format. The counters are read
+ * without locking, and numbers are appended straight to the output, so a scrape allocates little
+ * more than the output itself.
+ * @author mcasperson
+ *
+ */
+public final class PrometheusMetricsFormatter {
+	/**
+	 * The content type of the Prometheus text exposition format
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private PrometheusMetricsFormatter() {
+
+	}
+
+	/**
+	 * Renders the metrics
+	 * @param registry The filter's metrics
+	 * @param output The builder the metrics are appended to
+	 */
+	public static void format(final ValidationMetricsRegistry registry, final StringBuilder output) {
+		checkNotNull(registry);
+		checkNotNull(output);
+
+		appendCounter(output, "pvf_requests_total", "Requests validated by the filter.", registry.getRequests());
+		appendCounter(output, "pvf_params_checked_total", "Parameters matched against the validation chains.", registry.getParamsChecked());
+		appendCounter(output, "pvf_chains_matched_total", "Validation chains that applied to the parameters of a request.", registry.getChainsMatched());
+		appendCounter(output, "pvf_rules_run_total", "Validation rules applied to a parameter.", registry.getRulesRun());
+		appendCounter(output, "pvf_values_modified_total", "Parameter values changed by a validation rule.", registry.getValuesModified());
+		appendCounter(output, "pvf_bad_requests_total", "Requests rejected with a 400 response.", registry.getBadRequests());
+
+		appendHeader(output, "pvf_failures_total", "Parameters and requests that failed validation, by PVF code.", "counter");
+		for (final Map.Entry<String, StripedCounter> failure : registry.getFailuresByCode().entrySet()) {
+			output.append("pvf_failures_total{code=\"");
+			appendLabelValue(output, failure.getKey());
+			output.append("\"} ").append(failure.getValue().sum()).append('\n');
+		}
+
+		/*
+		 * The canonicalizers are shared by every filter in the JVM
+		 */
+		final Map<String, Canonicalizer> canonicalizers = registry.getCanonicalizers();
+		appendHeader(output, "pvf_canonicalizer_skipped_total", "Values the shared canonicalizers proved were not encoded, by engine.", "counter");
+		for (final Map.Entry<String, Canonicalizer> canonicalizer : canonicalizers.entrySet()) {
+			appendEngineSample(output, "pvf_canonicalizer_skipped_total", canonicalizer.getKey(), canonicalizer.getValue().getSkippedCount());
+		}
+		appendHeader(output, "pvf_canonicalizer_decoded_total", "Values the shared canonicalizers had to decode, by engine.", "counter");
+		for (final Map.Entry<String, Canonicalizer> canonicalizer : canonicalizers.entrySet()) {
+			appendEngineSample(output, "pvf_canonicalizer_decoded_total", canonicalizer.getKey(), canonicalizer.getValue().getCanonicalizedCount());
+		}
+		appendHeader(output, "pvf_canonicalizer_multiple_encoding_total", "Values found to have been encoded more than once, by engine.", "counter");
+		for (final Map.Entry<String, Canonicalizer> canonicalizer : canonicalizers.entrySet()) {
+			appendEngineSample(output, "pvf_canonicalizer_multiple_encoding_total", canonicalizer.getKey(), canonicalizer.getValue().getMultipleEncodingCount());
+		}
+		appendHeader(output, "pvf_canonicalizer_mixed_encoding_total", "Values found to have been encoded with more than one codec, by engine.", "counter");
+		for (final Map.Entry<String, Canonicalizer> canonicalizer : canonicalizers.entrySet()) {
+			appendEngineSample(output, "pvf_canonicalizer_mixed_encoding_total", canonicalizer.getKey(), canonicalizer.getValue().getMixedEncodingCount());
+		}
+
+		final LatencyHistogram latency = registry.getRequestLatency();
+		appendHeader(output, "pvf_filter_time_seconds", "Time the filter spent on a sample of requests.", "summary");
+		output.append("pvf_filter_time_seconds{quantile=\"0.5\"} ");
+		appendSeconds(output, latency.getPercentile(50));
+		output.append("\npvf_filter_time_seconds{quantile=\"0.99\"} ");
+		appendSeconds(output, latency.getPercentile(99));
+		output.append("\npvf_filter_time_seconds_sum ");
+		appendSeconds(output, registry.getRequestNanos());
+		output.append("\npvf_filter_time_seconds_count ").append(latency.getCount()).append('\n');
+
+		appendHeader(output, "pvf_filter_time_seconds_max", "The longest time the filter spent on a sampled request.", "gauge");
+		output.append("pvf_filter_time_seconds_max ");
+		appendSeconds(output, latency.getMax());
+		output.append('\n');
+	}
+
+	private static void appendCounter(final StringBuilder output, final String name, final String help, final long value) {
+		appendHeader(output, name, help, "counter");
+		output.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Appends a sample labelled with a canonicalization engine. Counts the engine doesn't keep are left out.
+	 */
+	private static void appendEngineSample(final StringBuilder output, final String name, final String engine, final long value) {
+		if (value == Canonicalizer.NOT_COUNTED) {
+			return;
+		}
+		output.append(name).append("{engine=\"");
+		appendLabelValue(output, engine);
+		output.append("\"} ").append(value).append('\n');
+	}
+
+	private static void appendHeader(final StringBuilder output, final String name, final String help, final String type) {
+		output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Appends a number of nanoseconds as seconds, without going through a double
+	 */
+	static void appendSeconds(final StringBuilder output, final long nanos) {
+		output.append(nanos / NANOS_PER_SECOND).append('.');
+
+		final long fraction = nanos % NANOS_PER_SECOND;
+		for (long digit = NANOS_PER_SECOND / 10; digit > fraction && digit > 1; digit /= 10) {
+			output.append('0');
+		}
+		output.append(fraction);
+	}
+
+	/**
+	 * Appends a label value, escaping backslashes, quotes and new lines
+	 */
+	private static void appendLabelValue(final StringBuilder output, final String value) {
+		for (int index = 0; index < value.length(); ++index) {
+			final char c = value.charAt(index);
+			if (c == '\\' || c == '"') {
+				output.append('\\').append(c);
+			} else if (c == '\n') {
+				output.append("\\n");
+			} else {
+				output.append(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletRequest;
+
+import com.matthewcasperson.validation.metrics.RequestTrace;
+import com.matthewcasperson.validation.metrics.TraceBufferMXBean;
+
+/**
+ * Decides which requests are traced, and keeps the most recent traces in a bounded, lock free
+ * buffer that can be read over JMX. A request is traced if it is picked by the sample rate, or
+ * if it carries the trigger header and comes from a trusted address.
+ * @author mcasperson
+ *
+ */
+public final class TraceBufferImpl implements TraceBufferMXBean {
+	/**
+	 * The trigger recorded for requests picked by the sample rate
+	 */
+	public static final String SAMPLED_TRIGGER = "sampled";
+
+	/**
+	 * The trigger recorded for requests that carried the trigger header
+	 */
+	public static final String HEADER_TRIGGER = "header";
+
+	private static final Comparator<RequestTrace> SEQUENCE_ORDER = new Comparator<RequestTrace>() {
+		@Override
+		public int compare(final RequestTrace trace1, final RequestTrace trace2) {
+			return Long.compare(trace1.getSequence(), trace2.getSequence());
+		}
+	};
+
+	private final int sampleRate;
+	private final String triggerHeader;
+	private final Set<String> trustedAddresses;
+	private final AtomicReferenceArray<RequestTrace> traces;
+	private final AtomicLong sequence = new AtomicLong();
+	private final MBeanRegistrations registrations = new MBeanRegistrations();
+
+	/**
+	 * @param capacity The number of traces that are kept
+	 * @param sampleRate One in this many requests is traced, or 0 to only trace requests with the trigger header
+	 * @param triggerHeader The header that asks for a request to be traced, or null
+	 * @param trustedAddresses The remote addresses the trigger header is accepted from
+	 */
+	public TraceBufferImpl(final int capacity, final int sampleRate, final String triggerHeader, final Set<String> trustedAddresses) {
+		checkArgument(capacity > 0, "PVF-CONFIGURATION-0034: TraceBufferSize must be greater than 0");
+		checkArgument(sampleRate >= 0, "PVF-CONFIGURATION-0033: TraceSampleRate can not be negative");
+		checkNotNull(trustedAddresses);
+		checkArgument(triggerHeader == null || !trustedAddresses.isEmpty(),
+				"PVF-CONFIGURATION-0035: TraceHeader needs at least one address in TraceTrustedAddresses");
+
+		this.sampleRate = sampleRate;
+		this.triggerHeader = triggerHeader;
+		this.trustedAddresses = Collections.unmodifiableSet(new HashSet<String>(trustedAddresses));
+		this.traces = new AtomicReferenceArray<RequestTrace>(capacity);
+	}
+
+	/**
+	 * Starts a trace for a request, if it should be traced
+	 * @param request The request
+	 * @return The trace to fill in, or null if the request is not traced
+	 */
+	public RequestTrace start(final HttpServletRequest request) {
+		final String trigger;
+		if (sampleRate != 0 && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+			trigger = SAMPLED_TRIGGER;
+		} else if (triggerHeader != null && request.getHeader(triggerHeader) != null && trustedAddresses.contains(request.getRemoteAddr())) {
+			trigger = HEADER_TRIGGER;
+		} else {
+			return null;
+		}
+
+		return new RequestTrace(sequence.getAndIncrement(), System.currentTimeMillis(), request.getMethod(), request.getRequestURI(), trigger);
+	}
+
+	/**
+	 * Keeps a finished trace, replacing the oldest one if the buffer is full
+	 * @param trace The trace
+	 */
+	public void add(final RequestTrace trace) {
+		checkNotNull(trace);
+
+		traces.set((int)(trace.getSequence() % traces.length()), trace);
+	}
+
+	@Override
+	public int getCapacity() {
+		return traces.length();
+	}
+
+	@Override
+	public long getTracedCount() {
+		return sequence.get();
+	}
+
+	@Override
+	public List<RequestTrace> getTraces() {
+		final List<RequestTrace> retValue = new ArrayList<RequestTrace>(traces.length());
+		for (int index = 0; index < traces.length(); ++index) {
+			final RequestTrace trace = traces.get(index);
+			if (trace != null) {
+				retValue.add(trace);
+			}
+		}
+		Collections.sort(retValue, SEQUENCE_ORDER);
+		return retValue;
+	}
+
+	@Override
+	public String dump() {
+		final StringBuilder retValue = new StringBuilder();
+		for (final RequestTrace trace : getTraces()) {
+			retValue.append(trace).append('\n');
+		}
+		return retValue.toString();
+	}
+
+	@Override
+	public void clear() {
+		for (int index = 0; index < traces.length(); ++index) {
+			traces.set(index, null);
+		}
+	}
+
+	/**
+	 * Publishes the traces with the platform MBean server
+	 * @param filterName The name of the filter, which keeps the traces of each filter apart
+	 */
+	public void register(final String filterName) {
+		checkNotNull(filterName);
+
+		registrations.register(ValidationMetricsRegistry.DOMAIN + ":type=Trace,filter=" + ObjectName.quote(filterName), this);
+	}
+
+	/**
+	 * Removes the traces from the platform MBean server
+	 */
+	public void unregister() {
+		registrations.unregisterAll();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.matthewcasperson.validation.metrics.LatencyHistogram;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+import com.matthewcasperson.validation.metrics.ValidationMetricsMXBean;
+
+/**
+ * The counts and timings for one thing the filter measures. Request threads only ever add to
+ * striped counters and the histogram, so they don't contend with each other.
+ * @author mcasperson
+ *
+ */
+public final class ValidationMetricsImpl implements ValidationMetricsMXBean {
+	/**
+	 * Passed to record() when the call was not timed
+	 */
+	public static final long NOT_TIMED = -1;
+
+	private final String name;
+	private final StripedCounter invocations = new StripedCounter();
+	private final StripedCounter modifications = new StripedCounter();
+	private final StripedCounter failures = new StripedCounter();
+	private final StripedCounter totalNanos = new StripedCounter();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * @param name What is being measured
+	 */
+	public ValidationMetricsImpl(final String name) {
+		checkNotNull(name);
+
+		this.name = name;
+	}
+
+	/**
+	 * Records a call
+	 * @param invocationCount The number of parameters processed
+	 * @param modificationCount The number of parameters whose values were changed
+	 * @param failureCount The number of parameters that failed validation
+	 * @param nanos How long the call took, or NOT_TIMED
+	 */
+	public void record(final int invocationCount, final int modificationCount, final int failureCount, final long nanos) {
+		if (invocationCount != 0) {
+			invocations.add(invocationCount);
+		}
+		if (modificationCount != 0) {
+			modifications.add(modificationCount);
+		}
+		if (failureCount != 0) {
+			failures.add(failureCount);
+		}
+		if (nanos != NOT_TIMED) {
+			latency.record(nanos);
+			totalNanos.add(nanos);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getInvocations() {
+		return invocations.sum();
+	}
+
+	@Override
+	public long getModifications() {
+		return modifications.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public long getTimedCount() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getP50Nanos() {
+		return latency.getPercentile(50);
+	}
+
+	@Override
+	public long getP99Nanos() {
+		return latency.getPercentile(99);
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return latency.getMax();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": invocations=" + getInvocations() + ", modifications=" + getModifications()
+				+ ", failures=" + getFailures() + ", " + latency;
+	}
+}
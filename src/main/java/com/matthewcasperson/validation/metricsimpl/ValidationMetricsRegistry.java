@@ -0,0 +1,346 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.metricsimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.ObjectName;
+
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.canonicalizationimpl.CanonicalizerFactory;
+import com.matthewcasperson.validation.metrics.LatencyHistogram;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan;
+import com.matthewcasperson.validation.ruledefinitionimpl.CompiledRulePlan.CompiledChain;
+
+/**
+ * Holds the metrics for the requests passing through the filter, for the matching of chains to
+ * requests, for each chain, and for each rule in each chain. The chain and rule metrics can be
+ * published as MXBeans under the com.matthewcasperson.validation domain, along with the counts
+ * of the shared canonicalizers.
+ * <p>
+ * Counts are kept for every request, but only one in sampleRate requests is timed, which bounds
+ * the cost of reading the clock.
+ * @author mcasperson
+ *
+ */
+public final class ValidationMetricsRegistry {
+	/**
+	 * The JMX domain the metrics are published under
+	 */
+	public static final String DOMAIN = "com.matthewcasperson.validation";
+
+	/**
+	 * The servlet context attribute the filter publishes its metrics under when ServletMetrics is enabled
+	 */
+	public static final String SERVLET_CONTEXT_ATTRIBUTE = ValidationMetricsRegistry.class.getName();
+
+	/**
+	 * The code failures are counted under once MAX_FAILURE_CODES distinct codes have been seen
+	 */
+	public static final String OTHER_CODE = "other";
+
+	/**
+	 * The most distinct failure codes that are counted separately. Codes come from the rules, and
+	 * custom rules could make up any number of them.
+	 */
+	private static final int MAX_FAILURE_CODES = 100;
+
+	/**
+	 * The number of cells in each failure code's counter
+	 */
+	private static final int FAILURE_CODE_STRIPES = 4;
+
+	private final int sampleRate;
+	private final ValidationMetricsImpl dispatchMetrics;
+	private final ValidationMetricsImpl[] chainMetrics;
+	private final ValidationMetricsImpl[][] ruleMetrics;
+	private final MBeanRegistrations registrations = new MBeanRegistrations();
+
+	private final StripedCounter requests = new StripedCounter();
+	private final StripedCounter chainsMatched = new StripedCounter();
+	private final StripedCounter rulesRun = new StripedCounter();
+	private final StripedCounter valuesModified = new StripedCounter();
+	private final StripedCounter badRequests = new StripedCounter();
+	private final StripedCounter requestNanos = new StripedCounter();
+	private final LatencyHistogram requestLatency = new LatencyHistogram();
+	private final ConcurrentMap<String, StripedCounter> failuresByCode = new ConcurrentHashMap<String, StripedCounter>();
+	private final Map<String, StripedCounter> failuresByCodeView = Collections.unmodifiableMap(failuresByCode);
+	private final Map<String, Canonicalizer> canonicalizers = CanonicalizerFactory.getCreatedCanonicalizers();
+
+	/**
+	 * @param plan The compiled chains
+	 * @param sampleRate One in this many requests is timed
+	 */
+	public ValidationMetricsRegistry(final CompiledRulePlan plan, final int sampleRate) {
+		checkNotNull(plan);
+		checkArgument(sampleRate > 0, "PVF-CONFIGURATION-0032: MetricsSampleRate must be greater than 0");
+
+		this.sampleRate = sampleRate;
+		this.dispatchMetrics = new ValidationMetricsImpl("Matching chains to request URIs and parameter names");
+		this.chainMetrics = new ValidationMetricsImpl[plan.getChainCount()];
+		this.ruleMetrics = new ValidationMetricsImpl[plan.getChainCount()][];
+
+		for (int chainIndex = 0; chainIndex < plan.getChainCount(); ++chainIndex) {
+			final CompiledChain chain = plan.getChain(chainIndex);
+			chainMetrics[chainIndex] = new ValidationMetricsImpl("Validation chain " + chainIndex
+					+ " requestURIPatternString " + chain.getRequestURIPattern().pattern()
+					+ " paramNamePatternString " + chain.getParamNamePattern().pattern());
+
+			ruleMetrics[chainIndex] = new ValidationMetricsImpl[chain.getRuleCount()];
+			for (int ruleIndex = 0; ruleIndex < chain.getRuleCount(); ++ruleIndex) {
+				ruleMetrics[chainIndex][ruleIndex] = new ValidationMetricsImpl("Validation chain " + chainIndex
+						+ " rule " + ruleIndex + " " + chain.getRuleName(ruleIndex));
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if the current request should be timed
+	 */
+	public boolean isTimed() {
+		return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+	}
+
+	/**
+	 * Records a request that the filter validated
+	 * @param chainCount The number of chains that applied to the request's parameters
+	 * @param ruleApplications The number of times a rule was applied to a parameter
+	 * @param changedParams The number of times a rule changed a parameter
+	 * @param nanos How long the filter spent on the request, or ValidationMetricsImpl.NOT_TIMED
+	 */
+	public void recordRequest(final int chainCount, final int ruleApplications, final int changedParams, final long nanos) {
+		requests.increment();
+		if (chainCount != 0) {
+			chainsMatched.add(chainCount);
+		}
+		if (ruleApplications != 0) {
+			rulesRun.add(ruleApplications);
+		}
+		if (changedParams != 0) {
+			valuesModified.add(changedParams);
+		}
+		if (nanos != ValidationMetricsImpl.NOT_TIMED) {
+			requestLatency.record(nanos);
+			requestNanos.add(nanos);
+		}
+	}
+
+	/**
+	 * Records a parameter or request that failed validation
+	 * @param code The PVF code of the failure
+	 */
+	public void recordFailure(final String code) {
+		checkNotNull(code);
+
+		StripedCounter counter = failuresByCode.get(code);
+		if (counter == null) {
+			final String key = failuresByCode.size() < MAX_FAILURE_CODES ? code : OTHER_CODE;
+			final StripedCounter newCounter = new StripedCounter(FAILURE_CODE_STRIPES);
+			counter = failuresByCode.putIfAbsent(key, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		counter.increment();
+	}
+
+	/**
+	 * Records a request that was rejected with a 400 response
+	 */
+	public void recordBadRequest() {
+		badRequests.increment();
+	}
+
+	/**
+	 *
+	 * @return The number of requests the filter validated
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 *
+	 * @return The number of parameters that were matched against the chains
+	 */
+	public long getParamsChecked() {
+		return dispatchMetrics.getInvocations();
+	}
+
+	/**
+	 *
+	 * @return The number of times a chain applied to the parameters of a request
+	 */
+	public long getChainsMatched() {
+		return chainsMatched.sum();
+	}
+
+	/**
+	 *
+	 * @return The number of times a rule was applied to a parameter
+	 */
+	public long getRulesRun() {
+		return rulesRun.sum();
+	}
+
+	/**
+	 *
+	 * @return The number of times a rule changed the value of a parameter
+	 */
+	public long getValuesModified() {
+		return valuesModified.sum();
+	}
+
+	/**
+	 *
+	 * @return The number of requests rejected with a 400 response
+	 */
+	public long getBadRequests() {
+		return badRequests.sum();
+	}
+
+	/**
+	 *
+	 * @return The failure counters, keyed by PVF code. This is a live view.
+	 */
+	public Map<String, StripedCounter> getFailuresByCode() {
+		return failuresByCodeView;
+	}
+
+	/**
+	 *
+	 * @return The shared canonicalizers that have been created, keyed by engine. This is a live view.
+	 */
+	public Map<String, Canonicalizer> getCanonicalizers() {
+		return canonicalizers;
+	}
+
+	/**
+	 *
+	 * @return The time the filter spent on each timed request, in nanoseconds
+	 */
+	public LatencyHistogram getRequestLatency() {
+		return requestLatency;
+	}
+
+	/**
+	 *
+	 * @return The total time the filter spent on the timed requests, in nanoseconds
+	 */
+	public long getRequestNanos() {
+		return requestNanos.sum();
+	}
+
+	/**
+	 *
+	 * @return The metrics for matching chains to request URIs and parameter names
+	 */
+	public ValidationMetricsImpl getDispatchMetrics() {
+		return dispatchMetrics;
+	}
+
+	/**
+	 * @param chainIndex The index of the chain
+	 * @return The metrics for the chain
+	 */
+	public ValidationMetricsImpl getChainMetrics(final int chainIndex) {
+		return chainMetrics[chainIndex];
+	}
+
+	/**
+	 * @param chainIndex The index of the chain
+	 * @param ruleIndex The index of the rule in the chain
+	 * @return The metrics for the rule
+	 */
+	public ValidationMetricsImpl getRuleMetrics(final int chainIndex, final int ruleIndex) {
+		return ruleMetrics[chainIndex][ruleIndex];
+	}
+
+	/**
+	 * Publishes the metrics with the platform MBean server. A metric that can't be published is
+	 * logged and skipped, as the filter works without it.
+	 * @param filterName The name of the filter, which keeps the metrics of each filter apart
+	 */
+	public void register(final String filterName) {
+		checkNotNull(filterName);
+
+		final String filter = ObjectName.quote(filterName);
+		registrations.register(DOMAIN + ":type=Dispatch,filter=" + filter, dispatchMetrics);
+
+		for (int chainIndex = 0; chainIndex < chainMetrics.length; ++chainIndex) {
+			registrations.register(DOMAIN + ":type=Chain,filter=" + filter + ",chain=" + chainIndex, chainMetrics[chainIndex]);
+
+			for (int ruleIndex = 0; ruleIndex < ruleMetrics[chainIndex].length; ++ruleIndex) {
+				registrations.register(DOMAIN + ":type=Rule,filter=" + filter + ",chain=" + chainIndex + ",rule=" + ruleIndex,
+						ruleMetrics[chainIndex][ruleIndex]);
+			}
+		}
+
+		/*
+		 * The rules have been configured, so every canonicalizer they use has been created
+		 */
+		for (final Map.Entry<String, Canonicalizer> canonicalizer : canonicalizers.entrySet()) {
+			registrations.register(DOMAIN + ":type=Canonicalizer,filter=" + filter + ",engine=" + canonicalizer.getKey(),
+					new CanonicalizerMetricsImpl(canonicalizer.getKey(), canonicalizer.getValue()));
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server
+	 */
+	public void unregister() {
+		registrations.unregisterAll();
+	}
+
+	/**
+	 *
+	 * @return The names the metrics are published under
+	 */
+	public List<ObjectName> getRegisteredNames() {
+		return registrations.getRegisteredNames();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder retValue = new StringBuilder(dispatchMetrics.toString());
+		for (int chainIndex = 0; chainIndex < chainMetrics.length; ++chainIndex) {
+			retValue.append('\n').append(chainMetrics[chainIndex]);
+			for (final ValidationMetricsImpl metrics : ruleMetrics[chainIndex]) {
+				retValue.append("\n\t").append(metrics);
+			}
+		}
+		return retValue.toString();
+	}
+}
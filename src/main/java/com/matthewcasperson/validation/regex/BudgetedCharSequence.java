@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+/**
+ * A value being matched by java.util.regex, which counts every character the matcher reads.
+ * java.util.regex reads the value through charAt() at every step it takes, including the steps
+ * it takes again when it backtracks, so the count is a measure of the work done on the value.
+ * <p>
+ * The count and the deadline belong to the RegexBudget.Session that wrapped the value, so every
+ * sequence wrapped by the same session draws on the same budget. Sub sequences are not counted,
+ * as the matcher only asks for them once a match has been found.
+ * <p>
+ * Instances are not safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class BudgetedCharSequence implements CharSequence {
+	private final CharSequence input;
+	private final RegexBudget.Session session;
+
+	BudgetedCharSequence(final CharSequence input, final RegexBudget.Session session) {
+		this.input = input;
+		this.session = session;
+	}
+
+	/**
+	 * Starts a new step budget for the session, for when the matcher is about to look for another
+	 * match. The timeout still counts from when the session was started.
+	 */
+	public void resetSteps() {
+		session.resetSteps();
+	}
+
+	/**
+	 *
+	 * @return The number of characters read in the session since the step budget was last started
+	 */
+	public long getSteps() {
+		return session.getSteps();
+	}
+
+	@Override
+	public int length() {
+		return input.length();
+	}
+
+	@Override
+	public char charAt(final int index) {
+		session.step();
+		return input.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		return input.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return input.toString();
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable set of code points, stored as sorted, non-overlapping ranges. Membership
+ * of ASCII code points is answered from a bitmap.
+ * @author mcasperson
+ *
+ */
+final class CharClass {
+	private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+	/**
+	 * The characters that java.util.regex treats as line terminators when UNIX_LINES is not set
+	 */
+	static final CharClass LINE_TERMINATORS = builder().add('\n').add('\r').add(0x0085).add(0x2028).add(0x2029).build();
+	/**
+	 * The . character class
+	 */
+	static final CharClass DOT = LINE_TERMINATORS.negate();
+	/**
+	 * The \d character class
+	 */
+	static final CharClass DIGIT = builder().addRange('0', '9').build();
+	/**
+	 * The \w character class
+	 */
+	static final CharClass WORD = builder().addRange('a', 'z').addRange('A', 'Z').add('_').addRange('0', '9').build();
+	/**
+	 * The \s character class
+	 */
+	static final CharClass SPACE = builder().add(' ').add('\t').add('\n').add('\u000B').add('\f').add('\r').build();
+
+	/**
+	 * Pairs of inclusive range bounds, sorted and merged
+	 */
+	private final int[] ranges;
+	private final long asciiLow;
+	private final long asciiHigh;
+
+	private CharClass(final int[] ranges) {
+		this.ranges = ranges;
+
+		long low = 0;
+		long high = 0;
+		for (int codePoint = 0; codePoint < 128; ++codePoint) {
+			if (searchRanges(codePoint)) {
+				if (codePoint < 64) {
+					low |= 1L << codePoint;
+				} else {
+					high |= 1L << (codePoint - 64);
+				}
+			}
+		}
+		this.asciiLow = low;
+		this.asciiHigh = high;
+	}
+
+	/**
+	 *
+	 * @return A builder used to create a new character class
+	 */
+	static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 *
+	 * @param codePoint The code point to test
+	 * @return true if the code point is in this class
+	 */
+	boolean contains(final int codePoint) {
+		if (codePoint < 64) {
+			return (asciiLow & (1L << codePoint)) != 0;
+		}
+
+		if (codePoint < 128) {
+			return (asciiHigh & (1L << (codePoint - 64))) != 0;
+		}
+
+		return searchRanges(codePoint);
+	}
+
+	/**
+	 *
+	 * @return A class holding every code point not in this class
+	 */
+	CharClass negate() {
+		final Builder builder = builder();
+		int next = 0;
+		for (int index = 0; index < ranges.length; index += 2) {
+			if (ranges[index] > next) {
+				builder.addRange(next, ranges[index] - 1);
+			}
+			next = ranges[index + 1] + 1;
+		}
+		if (next <= MAX_CODE_POINT) {
+			builder.addRange(next, MAX_CODE_POINT);
+		}
+		return builder.build();
+	}
+
+	/**
+	 *
+	 * @return The number of ranges in this class
+	 */
+	int getRangeCount() {
+		return ranges.length / 2;
+	}
+
+	/**
+	 * Adds the code points where membership of this class changes, which are the first code
+	 * point of each range and the code point after it.
+	 * @param boundaries The collection to add the boundaries to
+	 */
+	void addBoundaries(final Collection<Integer> boundaries) {
+		for (int index = 0; index < ranges.length; index += 2) {
+			boundaries.add(ranges[index]);
+			if (ranges[index + 1] < MAX_CODE_POINT) {
+				boundaries.add(ranges[index + 1] + 1);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return The lowest code point in this class
+	 */
+	int first() {
+		return ranges[0];
+	}
+
+	/**
+	 *
+	 * @return The number of code points in this class
+	 */
+	long size() {
+		long size = 0;
+		for (int index = 0; index < ranges.length; index += 2) {
+			size += ranges[index + 1] - ranges[index] + 1;
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @param other Another character class
+	 * @return true if any code point is in both classes
+	 */
+	boolean intersects(final CharClass other) {
+		int mine = 0;
+		int theirs = 0;
+		while (mine < ranges.length && theirs < other.ranges.length) {
+			if (ranges[mine + 1] < other.ranges[theirs]) {
+				mine += 2;
+			} else if (other.ranges[theirs + 1] < ranges[mine]) {
+				theirs += 2;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean searchRanges(final int codePoint) {
+		int low = 0;
+		int high = ranges.length / 2 - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (codePoint < ranges[mid * 2]) {
+				high = mid - 1;
+			} else if (codePoint > ranges[mid * 2 + 1]) {
+				low = mid + 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collects ranges, and then sorts and merges them into a CharClass
+	 */
+	static final class Builder {
+		private final List<int[]> ranges = new ArrayList<int[]>();
+
+		Builder add(final int codePoint) {
+			return addRange(codePoint, codePoint);
+		}
+
+		Builder addRange(final int start, final int end) {
+			ranges.add(new int[] {start, end});
+			return this;
+		}
+
+		Builder addClass(final CharClass charClass) {
+			for (int index = 0; index < charClass.ranges.length; index += 2) {
+				addRange(charClass.ranges[index], charClass.ranges[index + 1]);
+			}
+			return this;
+		}
+
+		CharClass build() {
+			final int[][] sorted = ranges.toArray(new int[ranges.size()][]);
+			Arrays.sort(sorted, new Comparator<int[]>() {
+				@Override
+				public int compare(final int[] first, final int[] second) {
+					return first[0] < second[0] ? -1 : first[0] == second[0] ? 0 : 1;
+				}
+			});
+
+			final int[] merged = new int[sorted.length * 2];
+			int size = 0;
+			for (final int[] range : sorted) {
+				if (size != 0 && range[0] <= merged[size - 1] + 1) {
+					merged[size - 1] = Math.max(merged[size - 1], range[1]);
+				} else {
+					merged[size++] = range[0];
+					merged[size++] = range[1];
+				}
+			}
+
+			return new CharClass(Arrays.copyOf(merged, size));
+		}
+	}
+}
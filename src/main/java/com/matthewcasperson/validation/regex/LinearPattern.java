@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndex;
+
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+
+/**
+ * A regular expression that is matched in time proportional to the length of the input,
+ * no matter what the input is. The pattern is compiled into an NFA, and every path through
+ * the NFA is followed at once, so there is no backtracking for a hostile input to exploit.
+ * <p>
+ * Only the subset of the java.util.regex syntax accepted by RegexParser can be compiled. Within
+ * that subset, find() reports the same match as Matcher.find(), including the extent of the match
+ * for greedy and reluctant quantifiers, because the paths are followed in the order a backtracking
+ * engine would try them.
+ * <p>
+ * Instances are safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class LinearPattern {
+	/**
+	 * The engine setting that matches patterns with java.util.regex
+	 */
+	public static final String JDK_ENGINE = "jdk";
+
+	/**
+	 * The engine setting that matches patterns with LinearPattern
+	 */
+	public static final String LINEAR_ENGINE = "linear";
+
+	private final String pattern;
+	private final Nfa nfa;
+	private final int startState;
+
+	private LinearPattern(final String pattern, final Nfa nfa, final int startState) {
+		this.pattern = pattern;
+		this.nfa = nfa;
+		this.startState = startState;
+	}
+
+	/**
+	 * Compiles a regular expression
+	 * @param pattern The regular expression, using the java.util.regex syntax
+	 * @return The compiled pattern
+	 * @throws UnsupportedRegexException if the regular expression uses a feature that needs backtracking,
+	 * or would compile into an automaton that is too large
+	 */
+	public static LinearPattern compile(final String pattern) throws UnsupportedRegexException {
+		checkNotNull(pattern);
+
+		final Nfa nfa = new Nfa();
+		final int startState = nfa.addPattern(RegexParser.parse(pattern), 0);
+		return new LinearPattern(pattern, nfa, startState);
+	}
+
+	/**
+	 * Compiles a regular expression for the engine named in a rule's settings
+	 * @param engine The name of the engine, either jdk or linear
+	 * @param pattern The regular expression, using the java.util.regex syntax
+	 * @return The compiled pattern, or null if the engine is jdk
+	 */
+	public static LinearPattern compileForEngine(final String engine, final String pattern) {
+		checkNotNull(engine);
+		checkNotNull(pattern);
+
+		if (JDK_ENGINE.equals(engine)) {
+			return null;
+		}
+
+		checkArgument(LINEAR_ENGINE.equals(engine), "PVF-CONFIGURATION-0018: The regex engine must be " + JDK_ENGINE + " or " + LINEAR_ENGINE);
+
+		try {
+			return compile(pattern);
+		} catch (final UnsupportedRegexException ex) {
+			throw new IllegalArgumentException("PVF-CONFIGURATION-0019: The regex " + pattern + " can not be matched by the " + LINEAR_ENGINE + " engine. " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 *
+	 * @return The regular expression this pattern was compiled from
+	 */
+	public String pattern() {
+		return pattern;
+	}
+
+	/**
+	 * The equivalent of Pattern.matcher(input).find()
+	 * @param input The text to search
+	 * @return true if the pattern matches somewhere in the input
+	 */
+	public boolean find(final CharSequence input) {
+		checkNotNull(input);
+
+		return run(input, 0, true) != -1;
+	}
+
+	/**
+	 * Finds the first match that starts at or after an index. Like a Matcher with transparent,
+	 * non-anchoring bounds, ^ and $ only match at the start and end of the whole input.
+	 * @param input The text to search
+	 * @param from The index to start searching from
+	 * @return The match, packed as (start << 32) | end, or -1 if there is no match. Use
+	 * matchStart() and matchEnd() to unpack it.
+	 */
+	public long find(final CharSequence input, final int from) {
+		checkNotNull(input);
+		checkPositionIndex(from, input.length());
+
+		return run(input, from, false);
+	}
+
+	/**
+	 *
+	 * @param match A match returned by find()
+	 * @return The index of the first character of the match
+	 */
+	public static int matchStart(final long match) {
+		return (int)(match >>> 32);
+	}
+
+	/**
+	 *
+	 * @param match A match returned by find()
+	 * @return The index after the last character of the match
+	 */
+	public static int matchEnd(final long match) {
+		return (int)match;
+	}
+
+	/**
+	 * Runs the NFA over the input, keeping a list of the states that are active at each index.
+	 * Each active state remembers where the path that reached it started, and the lists are kept
+	 * in the order a backtracking engine would try the paths, so the first path to reach the match
+	 * state wins and every lower priority path can be dropped.
+	 * <p>
+	 * A supplementary character moves its paths forward two indexes, while a match can still start
+	 * at its low surrogate, as it can with java.util.regex. So there are three lists in use: the
+	 * current index, and the next two.
+	 * @param input The text to search
+	 * @param from The index to start searching from
+	 * @param anyMatch true to stop at the first match that is found, without working out its extent
+	 * @return The match, packed as (start << 32) | end, or -1 if there is no match
+	 */
+	private long run(final CharSequence input, final int from, final boolean anyMatch) {
+		final int length = input.length();
+		final int stateCount = nfa.size();
+		final ThreadList[] lists = {new ThreadList(stateCount), new ThreadList(stateCount), new ThreadList(stateCount)};
+		final int[] stack = new int[stateCount * 2 + 1];
+		long match = -1;
+
+		for (int index = from; index <= length; ++index) {
+			final ThreadList current = lists[index % 3];
+			current.prepare(index);
+
+			/*
+			 * A path starting here has a lower priority than every path that is already active
+			 */
+			if (match == -1) {
+				addThread(input, current, startState, index, stack);
+			}
+
+			if (current.count == 0) {
+				if (match != -1 && lists[(index + 1) % 3].isEmptyAt(index + 1) && lists[(index + 2) % 3].isEmptyAt(index + 2)) {
+					break;
+				}
+				continue;
+			}
+
+			final int codePoint = index < length ? Character.codePointAt(input, index) : -1;
+			final int nextIndex = index + (codePoint == -1 ? 0 : Character.charCount(codePoint));
+			final ThreadList next = codePoint == -1 ? null : lists[nextIndex % 3];
+			if (next != null) {
+				next.prepare(nextIndex);
+			}
+
+			for (int thread = 0; thread < current.count; ++thread) {
+				final int state = current.states[thread];
+				final int start = current.starts[thread];
+
+				if (nfa.type(state) == Nfa.MATCH) {
+					match = ((long)start << 32) | index;
+					if (anyMatch) {
+						return match;
+					}
+
+					/*
+					 * Every path after this one has a lower priority, so it can never win
+					 */
+					break;
+				}
+
+				if (next != null && nfa.charClass(state).contains(codePoint)) {
+					addThread(input, next, nfa.out(state), start, stack);
+				}
+			}
+		}
+
+		return match;
+	}
+
+	/**
+	 * Adds a state to a list, following the epsilon transitions in priority order
+	 * @param input The text being searched
+	 * @param list The list for the index the state is active at
+	 * @param state The state to add
+	 * @param start The start of the path that reached the state
+	 * @param stack Working space for the states waiting to be followed
+	 */
+	private void addThread(final CharSequence input, final ThreadList list, final int state, final int start, final int[] stack) {
+		int stackSize = 0;
+		stack[stackSize++] = state;
+
+		while (stackSize != 0) {
+			final int nfaState = stack[--stackSize];
+
+			/*
+			 * States are marked when they are taken off the stack rather than when they are pushed,
+			 * so a state is placed by the highest priority path that reaches it
+			 */
+			if (!list.mark(nfaState)) {
+				continue;
+			}
+
+			final int type = nfa.type(nfaState);
+			if (type == Nfa.SPLIT) {
+				stack[stackSize++] = nfa.out2(nfaState);
+				stack[stackSize++] = nfa.out(nfaState);
+			} else if (type == Nfa.BEGIN) {
+				if (list.index == 0) {
+					stack[stackSize++] = nfa.out(nfaState);
+				}
+			} else if (type == Nfa.END) {
+				if (Nfa.isEndAnchorMatch(input, list.index, input.length())) {
+					stack[stackSize++] = nfa.out(nfaState);
+				}
+			} else {
+				list.add(nfaState, start);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * The CHAR and MATCH states that are active at an index, in priority order
+	 */
+	private static final class ThreadList {
+		private final int[] states;
+		private final int[] starts;
+		/**
+		 * Holds index + 1 for each state that has been placed in the list at the index, so the
+		 * list can be reused without clearing it
+		 */
+		private final int[] marks;
+		private int count;
+		private int index = -1;
+
+		ThreadList(final int stateCount) {
+			states = new int[stateCount];
+			starts = new int[stateCount];
+			marks = new int[stateCount];
+		}
+
+		/**
+		 * Makes sure the list is for an index, clearing it if it was last used for an earlier one.
+		 * The list may already hold states that a supplementary character moved forward to the index.
+		 * @param listIndex The index in the input
+		 */
+		void prepare(final int listIndex) {
+			if (index != listIndex) {
+				index = listIndex;
+				count = 0;
+			}
+		}
+
+		/**
+		 * @param listIndex The index in the input
+		 * @return true if no states are active at the index
+		 */
+		boolean isEmptyAt(final int listIndex) {
+			return index != listIndex || count == 0;
+		}
+
+		/**
+		 * @param state The state to mark
+		 * @return true if the state had not already been marked at this index
+		 */
+		boolean mark(final int state) {
+			if (marks[state] == index + 1) {
+				return false;
+			}
+			marks[state] = index + 1;
+			return true;
+		}
+
+		void add(final int state, final int start) {
+			states[count] = state;
+			starts[count] = start;
+			++count;
+		}
+	}
+}
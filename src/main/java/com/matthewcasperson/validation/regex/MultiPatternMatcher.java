@@ -0,0 +1,577 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+
+/**
+ * Tests a string against many regular expressions at once. The patterns are combined into
+ * a single NFA, which is turned into a DFA lazily as inputs are seen, so finding every pattern
+ * that matches a string is one linear pass regardless of how many patterns there are.
+ * Transitions are cached per interval of code points that every character class in the
+ * automaton treats the same way, so non-ASCII input is as cheap as ASCII once the DFA is warm.
+ * <p>
+ * The results are the same as calling Pattern.matcher(input).find() on each pattern. Patterns
+ * that the automaton can't handle, or that were compiled with flags, are tested individually
+ * with java.util.regex instead, held to a RegexBudget.
+ * <p>
+ * Instances are safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class MultiPatternMatcher {
+	private static final Logger LOGGER = Logger.getLogger(MultiPatternMatcher.class.getName());
+
+	/**
+	 * Once this many DFA states have been built, the states are thrown away and built again
+	 * as later inputs need them
+	 */
+	private static final int MAX_DFA_STATES = 10000;
+
+	/**
+	 * The most transitions that the DFA states can hold between them, which limits the number of
+	 * states when the code points are split into many intervals
+	 */
+	private static final int MAX_CACHED_TRANSITIONS = 1 << 20;
+
+	/**
+	 * The number of code points whose interval is looked up in a table rather than searched for
+	 */
+	private static final int ASCII_CODE_POINTS = 128;
+
+	private final Pattern[] patterns;
+	private final RegexBudget budget;
+	/**
+	 * The index of each pattern that is tested with java.util.regex
+	 */
+	private final int[] fallbackIndexes;
+	private final int compiledCount;
+	private final Nfa nfa;
+	private final int[] startStates;
+	/**
+	 * The first code point of each interval of code points that every character class in the
+	 * automaton either wholly contains or wholly excludes. Code points in the same interval
+	 * always lead to the same DFA state.
+	 */
+	private final int[] intervalStarts;
+	/**
+	 * The interval of each ASCII code point
+	 */
+	private final int[] asciiIntervals = new int[ASCII_CODE_POINTS];
+	private final int maxDfaStates;
+	private volatile DfaCache dfaCache;
+	/**
+	 * The working arrays used to build DFA states, which are sized to the NFA
+	 */
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch(nfa.size(), startStates.length);
+		}
+	};
+
+	/**
+	 * @param patterns The patterns to match. The index of a pattern in this list is the index
+	 * reported by find().
+	 */
+	public MultiPatternMatcher(final List<Pattern> patterns) {
+		this(patterns, RegexBudget.UNLIMITED);
+	}
+
+	/**
+	 * @param patterns The patterns to match. The index of a pattern in this list is the index
+	 * reported by find().
+	 * @param budget The limit on the work done by the patterns that are tested with java.util.regex
+	 */
+	public MultiPatternMatcher(final List<Pattern> patterns, final RegexBudget budget) {
+		checkNotNull(patterns);
+		checkNotNull(budget);
+
+		this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+		this.budget = budget;
+
+		final Nfa combined = new Nfa();
+		final List<Integer> starts = new ArrayList<Integer>();
+		final List<Integer> fallbacks = new ArrayList<Integer>();
+
+		for (int index = 0; index < this.patterns.length; ++index) {
+			final Pattern pattern = this.patterns[index];
+			checkNotNull(pattern);
+
+			try {
+				if (pattern.flags() != 0) {
+					throw new UnsupportedRegexException("PVF-REGEX-0003: The regex " + pattern.pattern() + " has flags set");
+				}
+				starts.add(combined.addPattern(RegexParser.parse(pattern.pattern()), index));
+			} catch (final UnsupportedRegexException ex) {
+				LOGGER.log(Level.FINE, ex.getMessage() + ". It will be matched with java.util.regex.");
+				fallbacks.add(index);
+			}
+		}
+
+		this.nfa = combined;
+		this.startStates = toArray(starts);
+		this.fallbackIndexes = toArray(fallbacks);
+		this.compiledCount = this.patterns.length - fallbackIndexes.length;
+		this.intervalStarts = buildIntervals(combined);
+		for (int codePoint = 0; codePoint < ASCII_CODE_POINTS; ++codePoint) {
+			asciiIntervals[codePoint] = searchIntervals(codePoint);
+		}
+		this.maxDfaStates = Math.max(1, Math.min(MAX_DFA_STATES, MAX_CACHED_TRANSITIONS / intervalStarts.length));
+		this.dfaCache = newCache();
+	}
+
+	/**
+	 *
+	 * @return The number of patterns
+	 */
+	public int getPatternCount() {
+		return patterns.length;
+	}
+
+	/**
+	 *
+	 * @return The limit on the work done by the patterns that are tested with java.util.regex
+	 */
+	public RegexBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 *
+	 * @return The number of patterns that are matched by the automaton
+	 */
+	public int getCompiledCount() {
+		return compiledCount;
+	}
+
+	/**
+	 * Finds the patterns that match somewhere in the input.
+	 * @param input The string to test
+	 * @param candidates The index of each pattern that should be tested
+	 * @return The index of each candidate pattern that was found in the input
+	 */
+	public BitSet find(final CharSequence input, final BitSet candidates) {
+		return find(input, candidates, null);
+	}
+
+	/**
+	 * Finds the patterns that match somewhere in the input.
+	 * @param input The string to test
+	 * @param candidates The index of each pattern that should be tested
+	 * @param exceeded If not null, the index of each pattern that exceeded the regex budget is set in
+	 * this BitSet rather than the exception being thrown. These patterns are not in the returned set.
+	 * @return The index of each candidate pattern that was found in the input
+	 * @throws RegexBudgetExceededException if a pattern exceeded the regex budget, and exceeded is null
+	 */
+	public BitSet find(final CharSequence input, final BitSet candidates, final BitSet exceeded) {
+		checkNotNull(input);
+		checkNotNull(candidates);
+
+		final BitSet found = new BitSet(patterns.length);
+
+		if (compiledCount != 0) {
+			runAutomaton(input, found);
+			found.and(candidates);
+		}
+
+		for (final int index : fallbackIndexes) {
+			if (!candidates.get(index)) {
+				continue;
+			}
+
+			try {
+				if (budget.find(patterns[index], input)) {
+					found.set(index);
+				}
+			} catch (final RegexBudgetExceededException ex) {
+				if (exceeded == null) {
+					throw ex;
+				}
+				exceeded.set(index);
+			}
+		}
+
+		return found;
+	}
+
+	private void runAutomaton(final CharSequence input, final BitSet found) {
+		final int length = input.length();
+		final DfaCache current = dfaCache;
+		DfaState state = current.initialState;
+		int index = 0;
+
+		while (true) {
+			if (state.matches != null) {
+				found.or(state.matches);
+			}
+			if (state.endMatches != null && Nfa.isEndAnchorMatch(input, index, length)) {
+				found.or(state.endMatches);
+			}
+			if (index >= length) {
+				break;
+			}
+
+			final int codePoint = Character.codePointAt(input, index);
+			index += Character.charCount(codePoint);
+			state = next(current.states, state, codePoint);
+		}
+
+		if (current.states.size() >= maxDfaStates && dfaCache == current) {
+			/*
+			 * Start again with an empty cache. Inputs that are being matched against the full
+			 * cache carry on with it, and it is collected once they are done.
+			 */
+			dfaCache = newCache();
+		}
+	}
+
+	private DfaState next(final ConcurrentMap<DfaStateKey, DfaState> dfaStates, final DfaState state, final int codePoint) {
+		final int interval = codePoint < ASCII_CODE_POINTS ? asciiIntervals[codePoint] : searchIntervals(codePoint);
+		if (state.next != null) {
+			final DfaState cached = state.next[interval];
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		/*
+		 * Advance every character state that accepts the code point. The start states are
+		 * added at every position, which is what makes this a search rather than a match
+		 * that is anchored at the start of the input.
+		 */
+		final Scratch work = scratch.get();
+		final int[] seeds = work.seeds;
+		int seedCount = 0;
+		for (final int nfaState : state.states) {
+			if (nfa.type(nfaState) == Nfa.CHAR && nfa.charClass(nfaState).contains(codePoint)) {
+				seeds[seedCount++] = nfa.out(nfaState);
+			}
+		}
+		System.arraycopy(startStates, 0, seeds, seedCount, startStates.length);
+		seedCount += startStates.length;
+
+		final DfaState nextState = buildState(dfaStates, closure(work, seeds, seedCount, false), false);
+
+		if (state.next != null && nextState.next != null) {
+			/*
+			 * This is a benign race. DfaState only has final fields, so any thread that sees
+			 * the reference also sees a fully constructed object.
+			 */
+			state.next[interval] = nextState;
+		}
+
+		return nextState;
+	}
+
+	/**
+	 *
+	 * @return An empty DFA state cache holding only the state at the start of the input
+	 */
+	private DfaCache newCache() {
+		final ConcurrentMap<DfaStateKey, DfaState> dfaStates = new ConcurrentHashMap<DfaStateKey, DfaState>();
+		final DfaState initialState = buildState(dfaStates, closure(scratch.get(), startStates, startStates.length, true), true);
+		return new DfaCache(dfaStates, initialState);
+	}
+
+	/**
+	 * Follows the epsilon transitions from the seed states
+	 * @param work The working arrays of the current thread
+	 * @param seeds The states to start from
+	 * @param seedCount The number of seeds
+	 * @param atStart true if we are at the start of the input, which is the only place ^ matches
+	 * @return The sorted CHAR, END and MATCH states that were reached
+	 */
+	private int[] closure(final Scratch work, final int[] seeds, final int seedCount, final boolean atStart) {
+		final int mark = work.nextMark();
+		final int[] stack = work.stack;
+		final int[] reached = work.reached;
+		int stackSize = 0;
+		int reachedCount = 0;
+
+		for (int index = 0; index < seedCount; ++index) {
+			stackSize = push(seeds[index], work.marks, mark, stack, stackSize);
+		}
+
+		while (stackSize != 0) {
+			final int nfaState = stack[--stackSize];
+			final int type = nfa.type(nfaState);
+
+			if (type == Nfa.SPLIT) {
+				stackSize = push(nfa.out2(nfaState), work.marks, mark, stack, stackSize);
+				stackSize = push(nfa.out(nfaState), work.marks, mark, stack, stackSize);
+			} else if (type == Nfa.BEGIN) {
+				if (atStart) {
+					stackSize = push(nfa.out(nfaState), work.marks, mark, stack, stackSize);
+				}
+			} else {
+				reached[reachedCount++] = nfaState;
+			}
+		}
+
+		final int[] result = Arrays.copyOf(reached, reachedCount);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static int push(final int nfaState, final int[] marks, final int mark, final int[] stack, final int stackSize) {
+		if (marks[nfaState] == mark) {
+			return stackSize;
+		}
+		marks[nfaState] = mark;
+		stack[stackSize] = nfaState;
+		return stackSize + 1;
+	}
+
+	/**
+	 * Finds or creates the DFA state for a set of NFA states
+	 * @param dfaStates The cache to find the state in, and to add it to
+	 * @param states The sorted CHAR, END and MATCH states
+	 * @param atStart true if this is the state at the start of the input
+	 * @return The DFA state
+	 */
+	private DfaState buildState(final ConcurrentMap<DfaStateKey, DfaState> dfaStates, final int[] states, final boolean atStart) {
+		final DfaStateKey key = new DfaStateKey(states, atStart);
+		final DfaState existing = dfaStates.get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		BitSet matches = null;
+		final List<Integer> endStates = new ArrayList<Integer>();
+		for (final int nfaState : states) {
+			if (nfa.type(nfaState) == Nfa.MATCH) {
+				if (matches == null) {
+					matches = new BitSet(patterns.length);
+				}
+				matches.set(nfa.matchId(nfaState));
+			} else if (nfa.type(nfaState) == Nfa.END) {
+				endStates.add(nfa.out(nfaState));
+			}
+		}
+
+		final BitSet endMatches = endStates.isEmpty() ? null : matchesAtEnd(scratch.get(), toArray(endStates), atStart);
+
+		final boolean cache = dfaStates.size() < maxDfaStates;
+		final DfaState created = new DfaState(states, matches, endMatches, cache ? intervalStarts.length : 0);
+		if (!cache) {
+			return created;
+		}
+
+		final DfaState raced = dfaStates.putIfAbsent(key, created);
+		return raced == null ? created : raced;
+	}
+
+	/**
+	 * Works out which patterns match if the $ anchors that are waiting in a state are satisfied.
+	 * @param work The working arrays of the current thread
+	 * @param afterEnd The states that follow the waiting $ anchors
+	 * @param atStart true if this is the state at the start of the input
+	 * @return The patterns that match, or null if there are none
+	 */
+	private BitSet matchesAtEnd(final Scratch work, final int[] afterEnd, final boolean atStart) {
+		BitSet matches = null;
+		final int mark = work.nextMark();
+		final int[] stack = work.stack;
+		int stackSize = 0;
+
+		for (final int seed : afterEnd) {
+			stackSize = push(seed, work.marks, mark, stack, stackSize);
+		}
+
+		while (stackSize != 0) {
+			final int nfaState = stack[--stackSize];
+			final int type = nfa.type(nfaState);
+
+			if (type == Nfa.SPLIT) {
+				stackSize = push(nfa.out2(nfaState), work.marks, mark, stack, stackSize);
+				stackSize = push(nfa.out(nfaState), work.marks, mark, stack, stackSize);
+			} else if (type == Nfa.END || (type == Nfa.BEGIN && atStart)) {
+				stackSize = push(nfa.out(nfaState), work.marks, mark, stack, stackSize);
+			} else if (type == Nfa.MATCH) {
+				if (matches == null) {
+					matches = new BitSet(patterns.length);
+				}
+				matches.set(nfa.matchId(nfaState));
+			}
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Splits the code points into intervals that every character class in the automaton
+	 * either wholly contains or wholly excludes
+	 * @param nfa The automaton
+	 * @return The first code point of each interval, starting with 0
+	 */
+	private static int[] buildIntervals(final Nfa nfa) {
+		final SortedSet<Integer> boundaries = new TreeSet<Integer>();
+		boundaries.add(0);
+		for (int state = 0; state < nfa.size(); ++state) {
+			if (nfa.type(state) == Nfa.CHAR) {
+				nfa.charClass(state).addBoundaries(boundaries);
+			}
+		}
+		return toArray(new ArrayList<Integer>(boundaries));
+	}
+
+	/**
+	 *
+	 * @param codePoint A code point
+	 * @return The index of the interval holding the code point
+	 */
+	private int searchIntervals(final int codePoint) {
+		final int found = Arrays.binarySearch(intervalStarts, codePoint);
+		return found >= 0 ? found : -found - 2;
+	}
+
+	private static int[] toArray(final List<Integer> list) {
+		final int[] array = new int[list.size()];
+		for (int index = 0; index < array.length; ++index) {
+			array[index] = list.get(index);
+		}
+		return array;
+	}
+
+	/**
+	 * A state in the lazily built DFA
+	 */
+	private static final class DfaState {
+		/**
+		 * The NFA states that make up this DFA state
+		 */
+		final int[] states;
+		/**
+		 * The patterns that have matched once this state is reached, or null for none
+		 */
+		final BitSet matches;
+		/**
+		 * The patterns that match if $ matches at the current position, or null for none
+		 */
+		final BitSet endMatches;
+		/**
+		 * Cached transitions indexed by code point interval, or null if this state is not held in
+		 * the state cache. Only cached states can be the target of a cached transition.
+		 */
+		final DfaState[] next;
+
+		DfaState(final int[] states, final BitSet matches, final BitSet endMatches, final int intervalCount) {
+			this.states = states;
+			this.matches = matches;
+			this.endMatches = endMatches;
+			this.next = intervalCount == 0 ? null : new DfaState[intervalCount];
+		}
+	}
+
+	/**
+	 * The DFA states built so far, which are replaced as a whole once there are too many
+	 */
+	private static final class DfaCache {
+		final ConcurrentMap<DfaStateKey, DfaState> states;
+		final DfaState initialState;
+
+		DfaCache(final ConcurrentMap<DfaStateKey, DfaState> states, final DfaState initialState) {
+			this.states = states;
+			this.initialState = initialState;
+		}
+	}
+
+	/**
+	 * The arrays one thread uses to follow epsilon transitions. A state has been visited by the
+	 * current walk when its entry in marks equals the walk's mark, so nothing is cleared between walks.
+	 */
+	private static final class Scratch {
+		final int[] marks;
+		final int[] stack;
+		final int[] reached;
+		final int[] seeds;
+		int mark;
+
+		Scratch(final int nfaSize, final int startCount) {
+			this.marks = new int[nfaSize];
+			this.stack = new int[nfaSize];
+			this.reached = new int[nfaSize];
+			this.seeds = new int[nfaSize + startCount];
+		}
+
+		/**
+		 *
+		 * @return The mark for a new walk
+		 */
+		int nextMark() {
+			if (++mark == 0) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+			return mark;
+		}
+	}
+
+	/**
+	 * Identifies a DFA state by its NFA states
+	 */
+	private static final class DfaStateKey {
+		private final int[] states;
+		private final boolean atStart;
+		private final int hash;
+
+		DfaStateKey(final int[] states, final boolean atStart) {
+			this.states = states;
+			this.atStart = atStart;
+			this.hash = Arrays.hashCode(states) * 31 + (atStart ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof DfaStateKey)) {
+				return false;
+			}
+
+			final DfaStateKey other = (DfaStateKey)obj;
+			return atStart == other.atStart && Arrays.equals(states, other.states);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import java.util.Arrays;
+
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+
+/**
+ * A Thompson NFA built from one or more regex syntax trees. Each state is either a
+ * character test, an epsilon split, an anchor assertion, or a match state that
+ * records which of the source patterns has matched.
+ * <p>
+ * Split states list their preferred branch first, so walking them in order gives the same
+ * match priorities as a backtracking engine.
+ * @author mcasperson
+ *
+ */
+final class Nfa {
+	static final int CHAR = 0;
+	static final int SPLIT = 1;
+	static final int BEGIN = 2;
+	static final int END = 3;
+	static final int MATCH = 4;
+
+	/**
+	 * Stops a handful of bounded repeats from producing an enormous automaton
+	 */
+	private static final int MAX_STATES = 50000;
+
+	private int[] type = new int[16];
+	private CharClass[] charClass = new CharClass[16];
+	private int[] out = new int[16];
+	private int[] out2 = new int[16];
+	private int size;
+
+	/**
+	 * Adds a pattern to the automaton
+	 * @param root The syntax tree of the pattern
+	 * @param matchId The id recorded by the match state of this pattern
+	 * @return The start state of the pattern
+	 * @throws UnsupportedRegexException if the automaton would be too large
+	 */
+	int addPattern(final RegexNode root, final int matchId) throws UnsupportedRegexException {
+		final int first = size;
+		final int match = newState(MATCH, null, matchId, -1);
+		final int start = compile(root, match);
+
+		/*
+		 * java.util.regex lets characters be matched after a $ that sits before a trailing line
+		 * terminator, as in "a$\n". We only evaluate $ when looking for matches, so reject
+		 * patterns that can consume characters after a $.
+		 */
+		for (int state = first; state < size; ++state) {
+			if (type[state] == END && reachesChar(out[state])) {
+				throw new UnsupportedRegexException("PVF-REGEX-0001: The regex uses an unsupported feature ($ followed by characters)");
+			}
+		}
+
+		return start;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int type(final int state) {
+		return type[state];
+	}
+
+	CharClass charClass(final int state) {
+		return charClass[state];
+	}
+
+	/**
+	 *
+	 * @param state A CHAR, BEGIN or END state, or the preferred branch of a SPLIT state
+	 * @return The next state
+	 */
+	int out(final int state) {
+		return out[state];
+	}
+
+	/**
+	 *
+	 * @param state A SPLIT state
+	 * @return The less preferred branch
+	 */
+	int out2(final int state) {
+		return out2[state];
+	}
+
+	/**
+	 *
+	 * @param state A MATCH state
+	 * @return The id of the pattern that matched
+	 */
+	int matchId(final int state) {
+		return out[state];
+	}
+
+	/**
+	 * Compiles a node so that it continues to the supplied state
+	 * @param node The node to compile
+	 * @param next The state to continue with once the node has matched
+	 * @return The start state of the node
+	 * @throws UnsupportedRegexException if the automaton would be too large
+	 */
+	private int compile(final RegexNode node, final int next) throws UnsupportedRegexException {
+		switch (node.type) {
+			case EMPTY:
+				return next;
+			case CHARS:
+				return newState(CHAR, node.charClass, next, -1);
+			case BEGIN:
+				return newState(BEGIN, null, next, -1);
+			case END:
+				return newState(END, null, next, -1);
+			case CONCAT: {
+				int current = next;
+				for (int index = node.children.size() - 1; index >= 0; --index) {
+					current = compile(node.children.get(index), current);
+				}
+				return current;
+			}
+			case ALTERNATE: {
+				int current = compile(node.children.get(node.children.size() - 1), next);
+				for (int index = node.children.size() - 2; index >= 0; --index) {
+					final int alternative = compile(node.children.get(index), next);
+					current = newState(SPLIT, null, alternative, current);
+				}
+				return current;
+			}
+			case REPEAT:
+				return compileRepeat(node, next);
+			default:
+				throw new IllegalStateException("Unknown node type " + node.type);
+		}
+	}
+
+	private int compileRepeat(final RegexNode node, final int next) throws UnsupportedRegexException {
+		final RegexNode child = node.children.get(0);
+		int current;
+
+		if (node.max == RegexNode.UNBOUNDED) {
+			/*
+			 * The loop state is created first and patched once the body exists
+			 */
+			final int loop = newState(SPLIT, null, -1, -1);
+			final int body = compile(child, loop);
+			setBranches(loop, body, next, node.greedy);
+			current = loop;
+		} else {
+			current = next;
+			for (int optional = node.max - node.min; optional > 0; --optional) {
+				final int body = compile(child, current);
+				final int split = newState(SPLIT, null, -1, -1);
+				setBranches(split, body, next, node.greedy);
+				current = split;
+			}
+		}
+
+		for (int required = 0; required < node.min; ++required) {
+			current = compile(child, current);
+		}
+
+		return current;
+	}
+
+	/**
+	 * @param state The state to start from
+	 * @return true if a CHAR state can be reached through epsilon transitions
+	 */
+	private boolean reachesChar(final int state) {
+		final boolean[] visited = new boolean[size];
+		final int[] stack = new int[size];
+		int stackSize = 0;
+		stack[stackSize++] = state;
+		visited[state] = true;
+
+		while (stackSize != 0) {
+			final int current = stack[--stackSize];
+			if (type[current] == CHAR) {
+				return true;
+			}
+			if (type[current] == MATCH) {
+				continue;
+			}
+
+			final int[] successors = type[current] == SPLIT ? new int[] {out[current], out2[current]} : new int[] {out[current]};
+			for (final int successor : successors) {
+				if (!visited[successor]) {
+					visited[successor] = true;
+					stack[stackSize++] = successor;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private void setBranches(final int split, final int body, final int exit, final boolean greedy) {
+		out[split] = greedy ? body : exit;
+		out2[split] = greedy ? exit : body;
+	}
+
+	private int newState(final int stateType, final CharClass stateClass, final int stateOut, final int stateOut2) throws UnsupportedRegexException {
+		if (size == MAX_STATES) {
+			throw new UnsupportedRegexException("PVF-REGEX-0002: The regex is too large to compile into an automaton");
+		}
+
+		if (size == type.length) {
+			final int capacity = size * 2;
+			type = Arrays.copyOf(type, capacity);
+			charClass = Arrays.copyOf(charClass, capacity);
+			out = Arrays.copyOf(out, capacity);
+			out2 = Arrays.copyOf(out2, capacity);
+		}
+
+		type[size] = stateType;
+		charClass[size] = stateClass;
+		out[size] = stateOut;
+		out2[size] = stateOut2;
+		return size++;
+	}
+
+	/**
+	 * Tests whether the $ anchor matches at a position. Without the MULTILINE flag, java.util.regex
+	 * allows $ to match at the end of the input, or just before a line terminator that ends the input.
+	 * @param input The input being matched
+	 * @param index The position to test
+	 * @param end The end of the input
+	 * @return true if $ matches at the position
+	 */
+	static boolean isEndAnchorMatch(final CharSequence input, final int index, final int end) {
+		if (index == end) {
+			return true;
+		}
+
+		if (index == end - 2) {
+			return input.charAt(index) == '\r' && input.charAt(index + 1) == '\n';
+		}
+
+		if (index == end - 1) {
+			final char last = input.charAt(index);
+			if (last == '\n') {
+				/*
+				 * $ doesn't match between \r and \n
+				 */
+				return index == 0 || input.charAt(index - 1) != '\r';
+			}
+			return last == '\r' || last == 0x0085 || (last | 1) == 0x2029;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * Limits the work java.util.regex can do matching a single value, so a value crafted to make a
+ * pattern backtrack can't hold a request thread. The value is wrapped in a BudgetedCharSequence,
+ * which counts the characters the matcher reads and checks the clock as it goes, and throws a
+ * RegexBudgetExceededException once either limit is reached. Code that matches a value more than
+ * once, or matches copies of it, starts a Session and wraps each copy with it, so they share one deadline.
+ * <p>
+ * Each budget counts the number of times it has been exceeded. Instances are safe to share between threads.
+ * @author mcasperson
+ *
+ */
+public final class RegexBudget {
+	/**
+	 * The setting that holds the number of characters the matcher may read while looking for a match
+	 */
+	public static final String MAX_STEPS_KEY_NAME = "maxSteps";
+
+	/**
+	 * The setting that holds the number of milliseconds the matcher may spend on a value
+	 */
+	public static final String TIMEOUT_KEY_NAME = "timeoutMillis";
+
+	/**
+	 * The setting that holds what happens to a value when the budget is exceeded
+	 */
+	public static final String EXCEEDED_KEY_NAME = "budgetExceeded";
+
+	/**
+	 * The action that fails validation when the budget is exceeded
+	 */
+	public static final String FAIL_ACTION = "fail";
+
+	/**
+	 * The action that lets the value through when the budget is exceeded
+	 */
+	public static final String ALLOW_ACTION = "allow";
+
+	/**
+	 * A budget that never runs out
+	 */
+	public static final RegexBudget UNLIMITED = new RegexBudget(0, 0, true);
+
+	private final long maxSteps;
+	private final long timeoutMillis;
+	private final boolean failWhenExceeded;
+	private final StripedCounter exceededCount = new StripedCounter();
+
+	/**
+	 * @param maxSteps The number of characters the matcher may read while looking for a match, or 0 for no limit
+	 * @param timeoutMillis The number of milliseconds the matcher may spend on a value, or 0 for no limit
+	 * @param failWhenExceeded true if validation should fail when the budget is exceeded, and false if the
+	 * value should be let through
+	 */
+	public RegexBudget(final long maxSteps, final long timeoutMillis, final boolean failWhenExceeded) {
+		checkArgument(maxSteps >= 0, "PVF-CONFIGURATION-0020: The regex step budget can not be negative");
+		checkArgument(timeoutMillis >= 0, "PVF-CONFIGURATION-0036: The regex timeout can not be negative");
+
+		this.maxSteps = maxSteps;
+		this.timeoutMillis = timeoutMillis;
+		this.failWhenExceeded = failWhenExceeded;
+	}
+
+	/**
+	 * Creates a budget from the maxSteps, timeoutMillis and budgetExceeded settings of a rule
+	 * @param settings The rule's settings
+	 * @return The budget, or UNLIMITED if neither limit is set
+	 */
+	public static RegexBudget fromSettings(final Map<String, String> settings) {
+		checkNotNull(settings);
+
+		final long maxSteps = settings.containsKey(MAX_STEPS_KEY_NAME) ? Long.parseLong(settings.get(MAX_STEPS_KEY_NAME)) : 0;
+		final long timeoutMillis = settings.containsKey(TIMEOUT_KEY_NAME) ? Long.parseLong(settings.get(TIMEOUT_KEY_NAME)) : 0;
+		final boolean failWhenExceeded = !settings.containsKey(EXCEEDED_KEY_NAME) || isFailAction(settings.get(EXCEEDED_KEY_NAME));
+
+		if (maxSteps == 0 && timeoutMillis == 0) {
+			return UNLIMITED;
+		}
+
+		return new RegexBudget(maxSteps, timeoutMillis, failWhenExceeded);
+	}
+
+	/**
+	 *
+	 * @param action The name of the action, either fail or allow
+	 * @return true if the action is fail, and false if it is allow
+	 */
+	public static boolean isFailAction(final String action) {
+		checkNotNull(action);
+
+		if (FAIL_ACTION.equals(action)) {
+			return true;
+		}
+
+		checkArgument(ALLOW_ACTION.equals(action), "PVF-CONFIGURATION-0021: The action taken when the regex budget is exceeded must be " + FAIL_ACTION + " or " + ALLOW_ACTION);
+		return false;
+	}
+
+	/**
+	 *
+	 * @return true if either the step budget or the timeout is set
+	 */
+	public boolean isLimited() {
+		return maxSteps != 0 || timeoutMillis != 0;
+	}
+
+	/**
+	 *
+	 * @return The number of characters the matcher may read while looking for a match, or 0 for no limit
+	 */
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 *
+	 * @return The number of milliseconds the matcher may spend on a value, or 0 for no limit
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 *
+	 * @return true if validation should fail when the budget is exceeded, and false if the value should be let through
+	 */
+	public boolean isFailWhenExceeded() {
+		return failWhenExceeded;
+	}
+
+	/**
+	 *
+	 * @return The number of times a value has exceeded this budget
+	 */
+	public long getExceededCount() {
+		return exceededCount.sum();
+	}
+
+	/**
+	 * Wraps a value so the matcher reading it is held to this budget. The timeout starts now.
+	 * @param input The value to be matched
+	 * @return The wrapped value
+	 */
+	public BudgetedCharSequence wrap(final CharSequence input) {
+		return startSession().wrap(input);
+	}
+
+	/**
+	 * Starts the budget for one value. The timeout starts now.
+	 * @return The session, which wraps the value and any copies of it that are matched
+	 */
+	public Session startSession() {
+		return new Session(this);
+	}
+
+	/**
+	 * The equivalent of Pattern.matcher(input).find(), held to this budget
+	 * @param pattern The pattern to find
+	 * @param input The value to search
+	 * @return true if the pattern matches somewhere in the input
+	 * @throws com.matthewcasperson.validation.exception.RegexBudgetExceededException if the budget was exceeded
+	 */
+	public boolean find(final Pattern pattern, final CharSequence input) {
+		checkNotNull(pattern);
+		checkNotNull(input);
+
+		return pattern.matcher(isLimited() ? wrap(input) : input).find();
+	}
+
+	@Override
+	public String toString() {
+		return "RegexBudget[maxSteps=" + maxSteps + ", timeoutMillis=" + timeoutMillis + ", budgetExceeded=" + (failWhenExceeded ? FAIL_ACTION : ALLOW_ACTION) + "]";
+	}
+
+	void recordExceeded() {
+		exceededCount.increment();
+	}
+
+	/**
+	 * The budget for one value. Every sequence the session wraps counts its steps against the same
+	 * step budget, and stops at the same deadline.
+	 * <p>
+	 * The clock is only read every CLOCK_INTERVAL steps. Instances are not safe to share between threads.
+	 */
+	public static final class Session {
+		/**
+		 * The number of steps between reads of the clock
+		 */
+		private static final long CLOCK_INTERVAL = 1024;
+
+		private final RegexBudget budget;
+		private final long deadline;
+		private long steps;
+		/**
+		 * The step at which the step budget or the clock needs to be checked
+		 */
+		private long nextCheck;
+
+		private Session(final RegexBudget budget) {
+			this.budget = budget;
+			this.deadline = budget.getTimeoutMillis() == 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget.getTimeoutMillis());
+			resetSteps();
+		}
+
+		/**
+		 * Wraps a value, or a copy of it, so the matcher reading it is held to this session's budget
+		 * @param input The value to be matched
+		 * @return The wrapped value
+		 */
+		public BudgetedCharSequence wrap(final CharSequence input) {
+			checkNotNull(input);
+
+			return new BudgetedCharSequence(input, this);
+		}
+
+		/**
+		 * Starts a new step budget, for when the matcher is about to look for another match. The
+		 * timeout still counts from when the session was started.
+		 */
+		public void resetSteps() {
+			steps = 0;
+			nextCheck = nextCheck();
+		}
+
+		/**
+		 *
+		 * @return The number of characters read since the step budget was last started
+		 */
+		public long getSteps() {
+			return steps;
+		}
+
+		/**
+		 * Counts a character read by the matcher
+		 * @throws RegexBudgetExceededException if the budget was exceeded
+		 */
+		void step() {
+			if (++steps >= nextCheck) {
+				checkBudget();
+			}
+		}
+
+		private void checkBudget() {
+			if (budget.getMaxSteps() != 0 && steps > budget.getMaxSteps()) {
+				budget.recordExceeded();
+				throw new RegexBudgetExceededException("The regex read more than " + budget.getMaxSteps() + " characters looking for a match");
+			}
+
+			if (deadline != 0 && System.nanoTime() - deadline > 0) {
+				budget.recordExceeded();
+				throw new RegexBudgetExceededException("The regex took more than " + budget.getTimeoutMillis() + " ms to match the value");
+			}
+
+			nextCheck = nextCheck();
+		}
+
+		private long nextCheck() {
+			final long clockCheck = deadline == 0 ? Long.MAX_VALUE : steps + CLOCK_INTERVAL;
+			final long stepCheck = budget.getMaxSteps() == 0 ? Long.MAX_VALUE : budget.getMaxSteps() + 1;
+			return Math.min(clockCheck, stepCheck);
+		}
+	}
+}
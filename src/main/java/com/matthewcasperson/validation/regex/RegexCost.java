@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The worst case cost of matching a regular expression with java.util.regex, as worked out
+ * by RegexCostAnalyser. The cost is either exponential in the length of the input, or a
+ * polynomial of some degree. Costs are ordered from the cheapest to the most expensive, with
+ * patterns that could not be analysed coming first.
+ * @author mcasperson
+ *
+ */
+public final class RegexCost implements Comparable<RegexCost> {
+	private final String pattern;
+	private final boolean analysed;
+	private final boolean exponential;
+	private final int degree;
+	private final List<String> findings;
+
+	RegexCost(final String pattern, final boolean analysed, final boolean exponential, final int degree, final List<String> findings) {
+		checkNotNull(pattern);
+		checkNotNull(findings);
+		checkArgument(degree >= 0);
+
+		this.pattern = pattern;
+		this.analysed = analysed;
+		this.exponential = exponential;
+		this.degree = degree;
+		this.findings = Collections.unmodifiableList(findings);
+	}
+
+	/**
+	 *
+	 * @return The regular expression that was analysed
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 *
+	 * @return false if the pattern uses a feature, like a backreference or lookaround, that the
+	 * analyser does not understand, in which case the cost is unknown
+	 */
+	public boolean isAnalysed() {
+		return analysed;
+	}
+
+	/**
+	 *
+	 * @return true if the worst case cost grows exponentially with the length of the input
+	 */
+	public boolean isExponential() {
+		return exponential;
+	}
+
+	/**
+	 *
+	 * @return The degree of the polynomial that bounds the worst case cost, e.g. 2 for a pattern
+	 * that is quadratic in the length of the input, or 0 if the pattern could not be analysed
+	 */
+	public int getDegree() {
+		return degree;
+	}
+
+	/**
+	 *
+	 * @return A description of each construct that makes the pattern expensive, or of why it could not be analysed
+	 */
+	public List<String> getFindings() {
+		return findings;
+	}
+
+	/**
+	 *
+	 * @param maxDegree The highest polynomial degree that is acceptable
+	 * @return true if the cost is exponential, or a polynomial of a higher degree than maxDegree
+	 */
+	public boolean isPathological(final int maxDegree) {
+		return exponential || degree > maxDegree;
+	}
+
+	/**
+	 *
+	 * @param length The length of an input
+	 * @return Roughly how many characters java.util.regex would read matching an input of the length
+	 * in the worst case, or 0 if the pattern could not be analysed
+	 */
+	public double estimateSteps(final int length) {
+		checkArgument(length >= 0);
+
+		if (exponential) {
+			return Math.pow(2, length);
+		}
+		return analysed ? Math.pow(length, degree) : 0;
+	}
+
+	@Override
+	public int compareTo(final RegexCost other) {
+		if (exponential != other.exponential) {
+			return exponential ? 1 : -1;
+		}
+		if (analysed != other.analysed) {
+			return analysed ? 1 : -1;
+		}
+		return degree < other.degree ? -1 : degree == other.degree ? 0 : 1;
+	}
+
+	@Override
+	public String toString() {
+		if (exponential) {
+			return "O(2^n)";
+		}
+		if (!analysed) {
+			return "unknown";
+		}
+		return degree == 1 ? "O(n)" : "O(n^" + degree + ")";
+	}
+}
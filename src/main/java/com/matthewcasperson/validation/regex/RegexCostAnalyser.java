@@ -0,0 +1,647 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+
+/**
+ * Estimates how much work java.util.regex can be made to do matching a regular expression, by
+ * looking for the constructs that make a backtracking engine try an input in many different ways:
+ * <ul>
+ * <li>A nested quantifier, like (a+)+, where a repeated group starts or ends with a quantifier that
+ * can match the same characters as the group. Each way of splitting the input between the iterations
+ * of the group is tried, so the cost is exponential.</li>
+ * <li>An overlapping alternation under a repeat, like (\d|\w)+ or (a|b|ab)+, where two alternatives
+ * can match the same text, or some iterations of the alternatives put together can match the same
+ * text as others. This is also exponential.</li>
+ * <li>Adjacent quantifiers that can match the same characters, like \d+\d+ or .*a.*, with nothing
+ * in between that only one of them can match. Each quantifier adds one to the degree of the
+ * polynomial that bounds the cost.</li>
+ * <li>An unanchored pattern that starts with a quantifier. Matcher.find() tries the pattern again
+ * at every index, which adds one to the degree.</li>
+ * </ul>
+ * The analysis is a heuristic. It errs on the side of reporting a pattern as expensive, and can't
+ * say anything about patterns that use backreferences, lookaround, atomic groups or possessive
+ * quantifiers.
+ * @author mcasperson
+ *
+ */
+public final class RegexCostAnalyser {
+	/**
+	 * Bounded repeats of something that contains a quantifier are treated as this many copies
+	 * of it at most
+	 */
+	private static final int MAX_COPIES = 10;
+
+	/**
+	 * The most sequences a repeated group is expanded into when looking for iterations that can
+	 * match the same text
+	 */
+	private static final int MAX_SEQUENCES = 64;
+
+	private static final CharClass NO_CHARS = CharClass.builder().build();
+
+	private final Set<String> findings = new LinkedHashSet<String>();
+	private boolean exponential;
+	/**
+	 * The highest degree found inside an alternation
+	 */
+	private int alternationDegree;
+
+	private RegexCostAnalyser() {
+
+	}
+
+	/**
+	 * Works out the worst case cost of matching a regular expression with java.util.regex
+	 * @param pattern The regular expression
+	 * @return The cost of the pattern
+	 */
+	public static RegexCost analyse(final String pattern) {
+		checkNotNull(pattern);
+
+		final RegexNode root;
+		try {
+			root = RegexParser.parseForAnalysis(pattern);
+		} catch (final UnsupportedRegexException ex) {
+			final List<String> findings = new ArrayList<String>();
+			findings.add("The cost can not be worked out. " + ex.getMessage());
+			return new RegexCost(pattern, false, false, 0, findings);
+		}
+
+		final RegexCostAnalyser analyser = new RegexCostAnalyser();
+		analyser.findExponential(root);
+		final int degree = analyser.findDegree(root);
+		return new RegexCost(pattern, true, analyser.exponential, degree, new ArrayList<String>(analyser.findings));
+	}
+
+	/**
+	 * Works out the worst case cost of matching a regular expression with the linear engine, or
+	 * with the automaton that matches parameter names. Patterns the automaton can't match are
+	 * matched by java.util.regex instead, and are analysed as such.
+	 * @param pattern The regular expression
+	 * @return The cost of the pattern
+	 */
+	public static RegexCost analyseLinear(final String pattern) {
+		checkNotNull(pattern);
+
+		try {
+			LinearPattern.compile(pattern);
+		} catch (final UnsupportedRegexException ex) {
+			return analyse(pattern);
+		}
+
+		final List<String> findings = new ArrayList<String>();
+		findings.add("Matched by an automaton");
+		return new RegexCost(pattern, true, false, 1, findings);
+	}
+
+	/**
+	 * Looks for nested quantifiers and overlapping alternations under every unbounded repeat
+	 * @param node The node to search
+	 */
+	private void findExponential(final RegexNode node) {
+		if (node.type == RegexNode.Type.REPEAT && node.max == RegexNode.UNBOUNDED) {
+			final RegexNode body = node.children.get(0);
+
+			final List<RegexNode> trailing = new ArrayList<RegexNode>();
+			collectEdgeRepeats(body, trailing, false);
+			final CharClass bodyFirst = first(body);
+			for (final RegexNode repeat : trailing) {
+				if (chars(repeat).intersects(bodyFirst)) {
+					reportExponential("A repeated group ends with a quantifier that can also match the start of the group, like (a+)+");
+				}
+			}
+
+			final List<RegexNode> leading = new ArrayList<RegexNode>();
+			collectEdgeRepeats(body, leading, true);
+			final CharClass bodyLast = last(body);
+			for (final RegexNode repeat : leading) {
+				if (chars(repeat).intersects(bodyLast)) {
+					reportExponential("A repeated group starts with a quantifier that can also match the end of the group, like (.*,)+");
+				}
+			}
+
+			if (!findOverlappingAlternations(body) && isAmbiguousRepeat(body)) {
+				reportExponential("A repeated group holds alternatives that can be put together to match the same text, like (a|b|ab)+");
+			}
+		}
+
+		for (final RegexNode child : node.children) {
+			findExponential(child);
+		}
+	}
+
+	/**
+	 * @return true if an overlapping alternation was found
+	 */
+	private boolean findOverlappingAlternations(final RegexNode node) {
+		boolean found = false;
+		if (node.type == RegexNode.Type.ALTERNATE) {
+			for (int first = 0; first < node.children.size(); ++first) {
+				for (int second = first + 1; second < node.children.size(); ++second) {
+					if (mayMatchSameText(node.children.get(first), node.children.get(second))) {
+						reportExponential("A repeated group holds alternatives that can match the same text, like (\\d|\\w)+");
+						found = true;
+					}
+				}
+			}
+		}
+
+		for (final RegexNode child : node.children) {
+			found |= findOverlappingAlternations(child);
+		}
+		return found;
+	}
+
+	/**
+	 * Checks whether the text matched by a repeated group can be split into iterations in more than
+	 * one way, like "ab" in (a|b|ab)+. The group is expanded into the fixed sequences it can match,
+	 * and the Sardinas-Patterson test is run on them: each dangling suffix, left over when one way of
+	 * splitting the text gets ahead of another, is followed until either an empty suffix shows the two
+	 * ways have met, or no new suffixes are found. Character classes are assumed to match the same
+	 * character whenever they intersect.
+	 * @param body The repeated group
+	 * @return true if some text can be split into iterations of the group in more than one way. Groups that
+	 * can't be expanded into a small number of fixed sequences are not checked, and return false.
+	 */
+	private static boolean isAmbiguousRepeat(final RegexNode body) {
+		final List<List<CharClass>> expanded = expand(body);
+		if (expanded == null) {
+			return false;
+		}
+
+		/*
+		 * Empty iterations are stopped by java.util.regex, so they can't be used to split the text
+		 */
+		final List<List<CharClass>> words = new ArrayList<List<CharClass>>();
+		for (final List<CharClass> word : expanded) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+
+		/*
+		 * A dangling suffix is the tail of one of the words, so it is stored as the index of
+		 * the word and the offset of the tail
+		 */
+		final Set<Long> seen = new HashSet<Long>();
+		final Deque<long[]> pending = new ArrayDeque<long[]>();
+		for (int first = 0; first < words.size(); ++first) {
+			for (int second = 0; second < words.size(); ++second) {
+				final List<CharClass> firstWord = words.get(first);
+				final List<CharClass> secondWord = words.get(second);
+				if (first == second || firstWord.size() > secondWord.size() || !matchesPrefix(firstWord, 0, secondWord, 0, firstWord.size())) {
+					continue;
+				}
+				if (firstWord.size() == secondWord.size()) {
+					return true;
+				}
+				addSuffix(second, firstWord.size(), seen, pending);
+			}
+		}
+
+		while (!pending.isEmpty()) {
+			final long[] suffix = pending.removeFirst();
+			final List<CharClass> suffixWord = words.get((int)suffix[0]);
+			final int offset = (int)suffix[1];
+			final int suffixLength = suffixWord.size() - offset;
+
+			for (int index = 0; index < words.size(); ++index) {
+				final List<CharClass> word = words.get(index);
+				final int length = Math.min(word.size(), suffixLength);
+				if (!matchesPrefix(word, 0, suffixWord, offset, length)) {
+					continue;
+				}
+				if (word.size() == suffixLength) {
+					return true;
+				}
+				if (word.size() < suffixLength) {
+					addSuffix((int)suffix[0], offset + word.size(), seen, pending);
+				} else {
+					addSuffix(index, suffixLength, seen, pending);
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void addSuffix(final int word, final int offset, final Set<Long> seen, final Deque<long[]> pending) {
+		if (seen.add(((long)word << 32) | offset)) {
+			pending.addLast(new long[] {word, offset});
+		}
+	}
+
+	/**
+	 * @return true if every class in a run of one sequence intersects the class at the same position in another
+	 */
+	private static boolean matchesPrefix(final List<CharClass> first, final int firstOffset, final List<CharClass> second, final int secondOffset, final int length) {
+		for (int index = 0; index < length; ++index) {
+			if (!first.get(firstOffset + index).intersects(second.get(secondOffset + index))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Expands a node into the fixed sequences of characters it can match
+	 * @param node The node to expand
+	 * @return The sequences, or null if the node has anchors or repeats, or expands into more than MAX_SEQUENCES
+	 */
+	private static List<List<CharClass>> expand(final RegexNode node) {
+		final List<List<CharClass>> retValue = new ArrayList<List<CharClass>>();
+		switch (node.type) {
+			case EMPTY:
+				retValue.add(new ArrayList<CharClass>());
+				return retValue;
+			case CHARS:
+				final List<CharClass> sequence = new ArrayList<CharClass>();
+				sequence.add(node.charClass);
+				retValue.add(sequence);
+				return retValue;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					final List<List<CharClass>> alternative = expand(child);
+					if (alternative == null || retValue.size() + alternative.size() > MAX_SEQUENCES) {
+						return null;
+					}
+					retValue.addAll(alternative);
+				}
+				return retValue;
+			case CONCAT:
+				retValue.add(new ArrayList<CharClass>());
+				for (final RegexNode child : node.children) {
+					final List<List<CharClass>> tails = expand(child);
+					if (tails == null || retValue.size() * tails.size() > MAX_SEQUENCES) {
+						return null;
+					}
+					final List<List<CharClass>> combined = new ArrayList<List<CharClass>>();
+					for (final List<CharClass> head : retValue) {
+						for (final List<CharClass> tail : tails) {
+							final List<CharClass> joined = new ArrayList<CharClass>(head);
+							joined.addAll(tail);
+							combined.add(joined);
+						}
+					}
+					retValue.clear();
+					retValue.addAll(combined);
+				}
+				return retValue;
+			default:
+				return null;
+		}
+	}
+
+	private void reportExponential(final String finding) {
+		exponential = true;
+		findings.add(finding);
+	}
+
+	/**
+	 * Works out the degree of the polynomial that bounds the cost of the pattern
+	 * @param root The root of the syntax tree
+	 * @return The degree, which is at least 1
+	 */
+	private int findDegree(final RegexNode root) {
+		final List<Item> items = new ArrayList<Item>();
+		flatten(root, items);
+
+		final int[] chains = scanChains(items);
+		final int longestChain = chains[0];
+		final int leadingChain = chains[1];
+
+		if (longestChain > 1) {
+			findings.add(longestChain + " adjacent quantifiers can match the same characters, like \\d+\\d+");
+		}
+
+		int degree = Math.max(1, Math.max(longestChain, alternationDegree));
+		if (!isAnchored(root) && leadingChain != 0) {
+			findings.add("The pattern is not anchored with ^ and starts with a quantifier, which find() retries at every index");
+			degree = Math.max(degree, leadingChain + 1);
+		}
+		return degree;
+	}
+
+	/**
+	 * Looks for runs of unbounded quantifiers that can match the same characters, with nothing
+	 * in between them that the earlier quantifier can't also match
+	 * @param items The flattened pattern
+	 * @return The length of the longest run, and the length of the run that starts with the first item
+	 */
+	private static int[] scanChains(final List<Item> items) {
+		int longestChain = 0;
+		int leadingChain = 0;
+		boolean leading = !items.isEmpty() && items.get(0).unbounded;
+		int chain = 0;
+		CharClass chainChars = NO_CHARS;
+
+		for (final Item item : items) {
+			if (item.chars == null) {
+				/*
+				 * A ^ in the middle of the pattern can only match at the start of the input
+				 */
+				chain = 0;
+				leading = false;
+			} else if (item.unbounded) {
+				if (chain != 0 && item.chars.intersects(chainChars)) {
+					++chain;
+				} else {
+					chain = 1;
+					leading = leading && chainChars == NO_CHARS;
+				}
+				chainChars = item.chars;
+			} else if (chain != 0 && !item.chars.intersects(chainChars)) {
+				chain = 0;
+				leading = false;
+			}
+
+			longestChain = Math.max(longestChain, chain);
+			if (leading) {
+				leadingChain = chain;
+			}
+		}
+
+		return new int[] {longestChain, leadingChain};
+	}
+
+	/**
+	 * Flattens the syntax tree into a sequence of items. Unbounded repeats become single items,
+	 * and bounded repeats of anything containing an unbounded repeat are copied out.
+	 * @param node The node to flatten
+	 * @param items The list the items are added to
+	 */
+	private void flatten(final RegexNode node, final List<Item> items) {
+		switch (node.type) {
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					flatten(child, items);
+				}
+				break;
+			case BEGIN:
+				items.add(new Item(null, false));
+				break;
+			case CHARS:
+				items.add(new Item(node.charClass, false));
+				break;
+			case REPEAT:
+				if (node.max == RegexNode.UNBOUNDED) {
+					items.add(new Item(chars(node), true));
+				} else if (containsUnbounded(node)) {
+					for (int copy = 0; copy < Math.min(node.max, MAX_COPIES); ++copy) {
+						flatten(node.children.get(0), items);
+					}
+				} else {
+					items.add(new Item(chars(node), false));
+				}
+				break;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					final List<Item> alternative = new ArrayList<Item>();
+					flatten(child, alternative);
+					alternationDegree = Math.max(alternationDegree, scanChains(alternative)[0]);
+				}
+				items.add(new Item(chars(node), containsUnbounded(node)));
+				break;
+			default:
+				/*
+				 * EMPTY and END don't consume anything
+				 */
+				break;
+		}
+	}
+
+	/**
+	 * Finds the repeats of a variable number of iterations, like a+ or a{2,4}, that can be the first,
+	 * or the last, thing to consume characters in a node
+	 * @param node The node to search
+	 * @param repeats The list the repeats are added to
+	 * @param fromStart true to find the first repeats, and false to find the last ones
+	 */
+	private static void collectEdgeRepeats(final RegexNode node, final List<RegexNode> repeats, final boolean fromStart) {
+		switch (node.type) {
+			case REPEAT:
+				if (node.max == RegexNode.UNBOUNDED || node.max > node.min) {
+					repeats.add(node);
+				}
+				collectEdgeRepeats(node.children.get(0), repeats, fromStart);
+				break;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					collectEdgeRepeats(child, repeats, fromStart);
+				}
+				break;
+			case CONCAT:
+				final int size = node.children.size();
+				for (int index = 0; index < size; ++index) {
+					final RegexNode child = node.children.get(fromStart ? index : size - 1 - index);
+					collectEdgeRepeats(child, repeats, fromStart);
+					if (!RegexParser.isNullable(child)) {
+						break;
+					}
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Compares two alternatives. Alternatives that are just sequences of characters are compared
+	 * character by character, and anything else is assumed to overlap if it can start with the same character.
+	 * @return true if the alternatives might match the same text
+	 */
+	private static boolean mayMatchSameText(final RegexNode first, final RegexNode second) {
+		if (RegexParser.isNullable(first) && RegexParser.isNullable(second)) {
+			return true;
+		}
+
+		final List<CharClass> firstSequence = sequence(first);
+		final List<CharClass> secondSequence = sequence(second);
+		if (firstSequence == null || secondSequence == null) {
+			return first(first).intersects(first(second));
+		}
+
+		if (firstSequence.size() != secondSequence.size()) {
+			return false;
+		}
+		for (int index = 0; index < firstSequence.size(); ++index) {
+			if (!firstSequence.get(index).intersects(secondSequence.get(index))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The classes of a node that matches a fixed number of characters, or null if the node
+	 * has anchors, alternations or repeats
+	 */
+	private static List<CharClass> sequence(final RegexNode node) {
+		final List<CharClass> sequence = new ArrayList<CharClass>();
+		if (node.type == RegexNode.Type.CHARS) {
+			sequence.add(node.charClass);
+			return sequence;
+		}
+		if (node.type != RegexNode.Type.CONCAT) {
+			return null;
+		}
+		for (final RegexNode child : node.children) {
+			if (child.type != RegexNode.Type.CHARS) {
+				return null;
+			}
+			sequence.add(child.charClass);
+		}
+		return sequence;
+	}
+
+	private static boolean containsUnbounded(final RegexNode node) {
+		if (node.type == RegexNode.Type.REPEAT && node.max == RegexNode.UNBOUNDED) {
+			return true;
+		}
+		for (final RegexNode child : node.children) {
+			if (containsUnbounded(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every match has to start at the beginning of the input
+	 */
+	private static boolean isAnchored(final RegexNode node) {
+		switch (node.type) {
+			case BEGIN:
+				return true;
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					if (child.type != RegexNode.Type.EMPTY) {
+						return isAnchored(child);
+					}
+				}
+				return false;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					if (!isAnchored(child)) {
+						return false;
+					}
+				}
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return Every character the node can match
+	 */
+	private static CharClass chars(final RegexNode node) {
+		final CharClass.Builder builder = CharClass.builder();
+		addChars(node, builder);
+		return builder.build();
+	}
+
+	private static void addChars(final RegexNode node, final CharClass.Builder builder) {
+		if (node.type == RegexNode.Type.CHARS) {
+			builder.addClass(node.charClass);
+		}
+		for (final RegexNode child : node.children) {
+			addChars(child, builder);
+		}
+	}
+
+	/**
+	 * @return The characters the node can start a match with
+	 */
+	private static CharClass first(final RegexNode node) {
+		final CharClass.Builder builder = CharClass.builder();
+		addEdgeChars(node, builder, true);
+		return builder.build();
+	}
+
+	/**
+	 * @return The characters the node can end a match with
+	 */
+	private static CharClass last(final RegexNode node) {
+		final CharClass.Builder builder = CharClass.builder();
+		addEdgeChars(node, builder, false);
+		return builder.build();
+	}
+
+	private static void addEdgeChars(final RegexNode node, final CharClass.Builder builder, final boolean fromStart) {
+		switch (node.type) {
+			case CHARS:
+				builder.addClass(node.charClass);
+				break;
+			case REPEAT:
+				addEdgeChars(node.children.get(0), builder, fromStart);
+				break;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					addEdgeChars(child, builder, fromStart);
+				}
+				break;
+			case CONCAT:
+				final int size = node.children.size();
+				for (int index = 0; index < size; ++index) {
+					final RegexNode child = node.children.get(fromStart ? index : size - 1 - index);
+					addEdgeChars(child, builder, fromStart);
+					if (!RegexParser.isNullable(child)) {
+						break;
+					}
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * One element of the flattened pattern
+	 */
+	private static final class Item {
+		/**
+		 * The characters the element can match, or null for a ^ anchor
+		 */
+		private final CharClass chars;
+		private final boolean unbounded;
+
+		Item(final CharClass chars, final boolean unbounded) {
+			this.chars = chars;
+			this.unbounded = unbounded;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the syntax tree produced by RegexParser
+ * @author mcasperson
+ *
+ */
+final class RegexNode {
+	/**
+	 * The kinds of node in the tree
+	 */
+	enum Type {
+		/**
+		 * Matches the empty string
+		 */
+		EMPTY,
+		/**
+		 * Matches one code point from charClass
+		 */
+		CHARS,
+		/**
+		 * The ^ anchor
+		 */
+		BEGIN,
+		/**
+		 * The $ anchor
+		 */
+		END,
+		/**
+		 * Matches each child in turn
+		 */
+		CONCAT,
+		/**
+		 * Matches any one child, preferring earlier children
+		 */
+		ALTERNATE,
+		/**
+		 * Matches the first child between min and max times
+		 */
+		REPEAT
+	}
+
+	/**
+	 * Used as the max of a REPEAT node when there is no upper bound
+	 */
+	static final int UNBOUNDED = -1;
+
+	final Type type;
+	final CharClass charClass;
+	final List<RegexNode> children;
+	final int min;
+	final int max;
+	final boolean greedy;
+
+	private RegexNode(final Type type, final CharClass charClass, final List<RegexNode> children, final int min, final int max, final boolean greedy) {
+		this.type = type;
+		this.charClass = charClass;
+		this.children = children;
+		this.min = min;
+		this.max = max;
+		this.greedy = greedy;
+	}
+
+	static RegexNode empty() {
+		return new RegexNode(Type.EMPTY, null, Collections.<RegexNode>emptyList(), 0, 0, true);
+	}
+
+	static RegexNode chars(final CharClass charClass) {
+		return new RegexNode(Type.CHARS, charClass, Collections.<RegexNode>emptyList(), 0, 0, true);
+	}
+
+	static RegexNode begin() {
+		return new RegexNode(Type.BEGIN, null, Collections.<RegexNode>emptyList(), 0, 0, true);
+	}
+
+	static RegexNode end() {
+		return new RegexNode(Type.END, null, Collections.<RegexNode>emptyList(), 0, 0, true);
+	}
+
+	static RegexNode concat(final List<RegexNode> children) {
+		return children.size() == 1 ? children.get(0) : new RegexNode(Type.CONCAT, null, children, 0, 0, true);
+	}
+
+	static RegexNode alternate(final List<RegexNode> children) {
+		return children.size() == 1 ? children.get(0) : new RegexNode(Type.ALTERNATE, null, children, 0, 0, true);
+	}
+
+	static RegexNode repeat(final RegexNode child, final int min, final int max, final boolean greedy) {
+		return new RegexNode(Type.REPEAT, null, Collections.singletonList(child), min, max, greedy);
+	}
+}
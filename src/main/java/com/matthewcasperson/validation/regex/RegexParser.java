@@ -0,0 +1,494 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.regex;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+
+/**
+ * Parses the subset of the java.util.regex syntax that can be matched by an automaton. This
+ * covers literals, character classes (including the \d, \w and \s shorthands), the . wildcard,
+ * the ^ and $ anchors, groups, alternation and the greedy and reluctant quantifiers.
+ * <p>
+ * Anything that needs backtracking (backreferences, lookaround, atomic groups and possessive
+ * quantifiers), as well as inline flags and the rarer escapes, is rejected with an
+ * UnsupportedRegexException. The patterns are expected to have already been accepted by
+ * Pattern.compile(), so syntax errors are also simply reported as unsupported.
+ * <p>
+ * RegexCostAnalyser parses in a looser mode, as it only needs the shape of the pattern. This
+ * also accepts repeats of something that can be empty, inline flags, zero width escapes like
+ * \b and Unicode property classes, none of which change how a backtracking engine explores
+ * the pattern.
+ * @author mcasperson
+ *
+ */
+final class RegexParser {
+	/**
+	 * Bounded repeats are expanded into copies of the repeated expression, so the bounds are capped
+	 */
+	private static final int MAX_REPEAT = 100;
+
+	private final String pattern;
+	/**
+	 * true if the tree is only going to be analysed, rather than compiled into an automaton
+	 */
+	private final boolean forAnalysis;
+	private int position;
+
+	private RegexParser(final String pattern, final boolean forAnalysis) {
+		this.pattern = pattern;
+		this.forAnalysis = forAnalysis;
+	}
+
+	/**
+	 * Parses a regular expression
+	 * @param pattern The regular expression, using the java.util.regex syntax
+	 * @return The root of the syntax tree
+	 * @throws UnsupportedRegexException if the regular expression uses a feature that is not supported
+	 */
+	static RegexNode parse(final String pattern) throws UnsupportedRegexException {
+		return parse(pattern, false);
+	}
+
+	/**
+	 * Parses a regular expression so its shape can be analysed. Inline flags are ignored, zero
+	 * width escapes are parsed as EMPTY nodes, and Unicode property classes are parsed as the
+	 * . wildcard, so the tree can not be used to match anything.
+	 * @param pattern The regular expression, using the java.util.regex syntax
+	 * @return The root of the syntax tree
+	 * @throws UnsupportedRegexException if the regular expression uses backreferences, lookaround,
+	 * atomic groups, possessive quantifiers or another feature that is not supported
+	 */
+	static RegexNode parseForAnalysis(final String pattern) throws UnsupportedRegexException {
+		return parse(pattern, true);
+	}
+
+	private static RegexNode parse(final String pattern, final boolean forAnalysis) throws UnsupportedRegexException {
+		checkNotNull(pattern);
+
+		final RegexParser parser = new RegexParser(pattern, forAnalysis);
+		final RegexNode root = parser.parseAlternation();
+		if (parser.position != pattern.length()) {
+			throw parser.unsupported("unbalanced parenthesis");
+		}
+		return root;
+	}
+
+	private RegexNode parseAlternation() throws UnsupportedRegexException {
+		final List<RegexNode> alternatives = new ArrayList<RegexNode>();
+		alternatives.add(parseConcatenation());
+		while (more() && peek() == '|') {
+			++position;
+			alternatives.add(parseConcatenation());
+		}
+		return RegexNode.alternate(alternatives);
+	}
+
+	private RegexNode parseConcatenation() throws UnsupportedRegexException {
+		final List<RegexNode> sequence = new ArrayList<RegexNode>();
+		while (more() && peek() != '|' && peek() != ')') {
+			sequence.add(parseQuantified());
+		}
+		return sequence.isEmpty() ? RegexNode.empty() : RegexNode.concat(sequence);
+	}
+
+	private RegexNode parseQuantified() throws UnsupportedRegexException {
+		final RegexNode atom = parseAtom();
+		if (!more()) {
+			return atom;
+		}
+
+		final int min;
+		final int max;
+		final char quantifier = peek();
+		if (quantifier == '*') {
+			++position;
+			min = 0;
+			max = RegexNode.UNBOUNDED;
+		} else if (quantifier == '+') {
+			++position;
+			min = 1;
+			max = RegexNode.UNBOUNDED;
+		} else if (quantifier == '?') {
+			++position;
+			min = 0;
+			max = 1;
+		} else if (quantifier == '{') {
+			++position;
+			min = parseNumber();
+			if (more() && peek() == ',') {
+				++position;
+				max = more() && peek() == '}' ? RegexNode.UNBOUNDED : parseNumber();
+			} else {
+				max = min;
+			}
+			expect('}');
+			if (max != RegexNode.UNBOUNDED && max < min) {
+				throw unsupported("illegal repeat bounds");
+			}
+			if (!forAnalysis && (min > MAX_REPEAT || max > MAX_REPEAT)) {
+				throw unsupported("repeat bounds are too large");
+			}
+		} else {
+			return atom;
+		}
+
+		if (atom.type == RegexNode.Type.BEGIN || atom.type == RegexNode.Type.END) {
+			throw unsupported("quantified anchor");
+		}
+
+		if (!forAnalysis && isNullable(atom)) {
+			/*
+			 * java.util.regex has its own rules for repeats whose body matched nothing, which
+			 * don't always agree with an automaton. "(^|\\s){2}x" doesn't find " x", for example.
+			 */
+			throw unsupported("quantified expression that can match the empty string");
+		}
+
+		boolean greedy = true;
+		if (more() && peek() == '?') {
+			++position;
+			greedy = false;
+		} else if (more() && peek() == '+') {
+			throw unsupported("possessive quantifier");
+		}
+
+		if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+			throw unsupported("stacked quantifier");
+		}
+
+		return RegexNode.repeat(atom, min, max, greedy);
+	}
+
+	/**
+	 * @param node A node in the syntax tree
+	 * @return true if the node can match without consuming any characters
+	 */
+	static boolean isNullable(final RegexNode node) {
+		switch (node.type) {
+			case CHARS:
+				return false;
+			case CONCAT:
+				for (final RegexNode child : node.children) {
+					if (!isNullable(child)) {
+						return false;
+					}
+				}
+				return true;
+			case ALTERNATE:
+				for (final RegexNode child : node.children) {
+					if (isNullable(child)) {
+						return true;
+					}
+				}
+				return false;
+			case REPEAT:
+				return node.min == 0 || isNullable(node.children.get(0));
+			default:
+				return true;
+		}
+	}
+
+	private RegexNode parseAtom() throws UnsupportedRegexException {
+		final char next = peek();
+		switch (next) {
+			case '(':
+				return parseGroup();
+			case '[':
+				++position;
+				return RegexNode.chars(parseClass());
+			case '.':
+				++position;
+				return RegexNode.chars(CharClass.DOT);
+			case '^':
+				++position;
+				return RegexNode.begin();
+			case '$':
+				++position;
+				return RegexNode.end();
+			case '\\':
+				++position;
+				if (forAnalysis && more() && "bBAGzZ".indexOf(peek()) != -1) {
+					++position;
+					return RegexNode.empty();
+				}
+				return RegexNode.chars(parseEscape(false));
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw unsupported("dangling quantifier");
+			default:
+				final int codePoint = pattern.codePointAt(position);
+				position += Character.charCount(codePoint);
+				return RegexNode.chars(CharClass.builder().add(codePoint).build());
+		}
+	}
+
+	private RegexNode parseGroup() throws UnsupportedRegexException {
+		expect('(');
+		if (more() && peek() == '?') {
+			++position;
+			if (more() && peek() == ':') {
+				++position;
+			} else if (more() && peek() == '<' && position + 1 < pattern.length() && Character.isLetter(pattern.charAt(position + 1))) {
+				/*
+				 * A named group. The name is irrelevant as we never report groups.
+				 */
+				while (more() && peek() != '>') {
+					++position;
+				}
+				expect('>');
+			} else if (forAnalysis && more() && isFlag(peek())) {
+				while (more() && isFlag(peek())) {
+					++position;
+				}
+				if (more() && peek() == ')') {
+					/*
+					 * Flags like (?i) that apply to the rest of the group
+					 */
+					++position;
+					return RegexNode.empty();
+				}
+				expect(':');
+			} else {
+				throw unsupported("lookaround, atomic group or inline flag");
+			}
+		}
+
+		final RegexNode body = parseAlternation();
+		expect(')');
+		return body;
+	}
+
+	/**
+	 * @param next A character from an inline flag group
+	 * @return true if the character is one of the inline flags, or the - that turns flags off
+	 */
+	private static boolean isFlag(final char next) {
+		return "idmsuxU-".indexOf(next) != -1;
+	}
+
+	private CharClass parseClass() throws UnsupportedRegexException {
+		boolean negated = false;
+		if (more() && peek() == '^') {
+			++position;
+			negated = true;
+		}
+
+		if (more() && peek() == ']') {
+			throw unsupported("leading ] in a character class");
+		}
+
+		final CharClass.Builder builder = CharClass.builder();
+		while (true) {
+			if (!more()) {
+				throw unsupported("unclosed character class");
+			}
+
+			final char next = peek();
+			if (next == ']') {
+				++position;
+				break;
+			}
+			if (next == '[') {
+				throw unsupported("nested character class");
+			}
+			if (next == '&' && position + 1 < pattern.length() && pattern.charAt(position + 1) == '&') {
+				throw unsupported("character class intersection");
+			}
+
+			final int start;
+			if (next == '\\') {
+				++position;
+				final CharClass escaped = parseEscape(true);
+				if (escaped.size() != 1) {
+					/*
+					 * A shorthand class like \d can't be the start of a range
+					 */
+					if (more() && peek() == '-' && position + 1 < pattern.length() && pattern.charAt(position + 1) != ']') {
+						throw unsupported("range starting with a shorthand class");
+					}
+					builder.addClass(escaped);
+					continue;
+				}
+				start = escaped.first();
+			} else {
+				start = pattern.codePointAt(position);
+				position += Character.charCount(start);
+			}
+
+			if (more() && peek() == '-' && position + 1 < pattern.length() && pattern.charAt(position + 1) != ']') {
+				++position;
+				final int end;
+				if (peek() == '\\') {
+					++position;
+					final CharClass escaped = parseEscape(true);
+					if (escaped.size() != 1) {
+						throw unsupported("range ending with a shorthand class");
+					}
+					end = escaped.first();
+				} else if (peek() == '[') {
+					throw unsupported("nested character class");
+				} else {
+					end = pattern.codePointAt(position);
+					position += Character.charCount(end);
+				}
+
+				if (end < start) {
+					throw unsupported("illegal character range");
+				}
+				builder.addRange(start, end);
+			} else {
+				builder.add(start);
+			}
+		}
+
+		final CharClass charClass = builder.build();
+		return negated ? charClass.negate() : charClass;
+	}
+
+	private CharClass parseEscape(final boolean inClass) throws UnsupportedRegexException {
+		if (!more()) {
+			throw unsupported("trailing backslash");
+		}
+
+		final int escaped = pattern.codePointAt(position);
+		position += Character.charCount(escaped);
+
+		switch (escaped) {
+			case 'd':
+				return CharClass.DIGIT;
+			case 'D':
+				return CharClass.DIGIT.negate();
+			case 'w':
+				return CharClass.WORD;
+			case 'W':
+				return CharClass.WORD.negate();
+			case 's':
+				return CharClass.SPACE;
+			case 'S':
+				return CharClass.SPACE.negate();
+			case 't':
+				return CharClass.builder().add('\t').build();
+			case 'n':
+				return CharClass.builder().add('\n').build();
+			case 'r':
+				return CharClass.builder().add('\r').build();
+			case 'f':
+				return CharClass.builder().add('\f').build();
+			case 'a':
+				return CharClass.builder().add(0x07).build();
+			case 'e':
+				return CharClass.builder().add(0x1B).build();
+			case 'x':
+				return CharClass.builder().add(parseHex(2)).build();
+			case 'u':
+				final int unicode = parseHex(4);
+				if (Character.isSurrogate((char)unicode)) {
+					/*
+					 * java.util.regex joins escaped surrogate pairs into one code point
+					 */
+					throw unsupported("escaped surrogate");
+				}
+				return CharClass.builder().add(unicode).build();
+			case 'p':
+			case 'P':
+				if (forAnalysis) {
+					/*
+					 * A Unicode property like \p{L} or \pL. The analysis only needs a class that
+					 * overlaps anything the property might.
+					 */
+					if (more() && peek() == '{') {
+						while (more() && peek() != '}') {
+							++position;
+						}
+						expect('}');
+					} else if (more()) {
+						++position;
+					} else {
+						throw unsupported("truncated property escape");
+					}
+					return CharClass.DOT;
+				}
+				throw unsupported("escape \\" + (char)escaped + (inClass ? " in a character class" : ""));
+			default:
+				if (escaped < 128 && Character.isLetterOrDigit(escaped)) {
+					throw unsupported("escape \\" + (char)escaped + (inClass ? " in a character class" : ""));
+				}
+				return CharClass.builder().add(escaped).build();
+		}
+	}
+
+	private int parseHex(final int digits) throws UnsupportedRegexException {
+		if (position + digits > pattern.length()) {
+			throw unsupported("truncated hex escape");
+		}
+
+		int value = 0;
+		for (int index = 0; index < digits; ++index) {
+			final int digit = Character.digit(pattern.charAt(position++), 16);
+			if (digit < 0) {
+				throw unsupported("invalid hex escape");
+			}
+			value = value * 16 + digit;
+		}
+		return value;
+	}
+
+	private int parseNumber() throws UnsupportedRegexException {
+		final int start = position;
+		while (more() && peek() >= '0' && peek() <= '9' && position - start < 6) {
+			++position;
+		}
+		if (start == position || (more() && peek() >= '0' && peek() <= '9')) {
+			throw unsupported("invalid repeat bounds");
+		}
+		return Integer.parseInt(pattern.substring(start, position));
+	}
+
+	private void expect(final char expected) throws UnsupportedRegexException {
+		if (!more() || peek() != expected) {
+			throw unsupported("expected " + expected);
+		}
+		++position;
+	}
+
+	private boolean more() {
+		return position < pattern.length();
+	}
+
+	private char peek() {
+		return pattern.charAt(position);
+	}
+
+	private UnsupportedRegexException unsupported(final String feature) {
+		return new UnsupportedRegexException("PVF-REGEX-0001: The regex " + pattern + " uses an unsupported feature (" + feature + ") at index " + position);
+	}
+}
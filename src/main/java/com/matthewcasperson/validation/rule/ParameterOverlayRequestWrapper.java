@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.rule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * A request wrapper that holds the parameter values changed by the validation rules. All the
+ * rules write into the same wrapper, so looking up a parameter is a single hash lookup no matter
+ * how many rules modified the request.
+ * <p>
+ * The filter freezes the wrapper once every rule has run, after which the parameters can no longer
+ * be changed and the request is passed on to the rest of the application.
+ * @author mcasperson
+ *
+ */
+public final class ParameterOverlayRequestWrapper extends HttpServletRequestWrapper {
+	private final Map<String, String[]> overrides = new HashMap<String, String[]>();
+	private volatile boolean frozen;
+	/**
+	 * The merged parameter map, built the first time it is requested after the wrapper is frozen
+	 */
+	private volatile Map<String, String[]> frozenParameterMap;
+
+	/**
+	 * @param request The request whose parameters are being validated
+	 */
+	public ParameterOverlayRequestWrapper(final HttpServletRequest request) {
+		super(request);
+	}
+
+	/**
+	 * Replaces the values of a parameter
+	 * @param name The name of the parameter
+	 * @param values The new values of the parameter
+	 */
+	public void setParameterValues(final String name, final String[] values) {
+		checkNotNull(name);
+		checkState(!frozen, "PVF-BUG-0008: Parameters can not be modified once the request has been validated");
+
+		overrides.put(name, values);
+	}
+
+	/**
+	 * Prevents any further changes to the parameters
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	/**
+	 *
+	 * @return true if the parameters can no longer be changed
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 *
+	 * @return The number of parameters that have been changed
+	 */
+	public int getOverrideCount() {
+		return overrides.size();
+	}
+
+	/**
+	 * Returns the modified values of the parameter if it was changed by a rule, or the
+	 * original values otherwise.
+	 */
+	@Override
+	public String[] getParameterValues(final String name) {
+		final String[] values = overrides.get(name);
+		if (values != null || overrides.containsKey(name)) {
+			return values;
+		}
+
+		return super.getParameterValues(name);
+	}
+
+	/**
+	 * Returns the first value in the array returned by getParameterValues()
+	 */
+	@Override
+	public String getParameter(final String name) {
+		if (overrides.containsKey(name)) {
+			final String[] values = overrides.get(name);
+			if (values == null || values.length == 0) {
+				return null;
+			}
+
+			return values[0];
+		}
+
+		return super.getParameter(name);
+	}
+
+	/**
+	 * Returns the original parameters, with the values changed by the rules replacing the original values
+	 */
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		if (!frozen) {
+			return buildParameterMap();
+		}
+
+		Map<String, String[]> parameterMap = frozenParameterMap;
+		if (parameterMap == null) {
+			/*
+			 * Two threads could build this at once, but they will build the same map
+			 */
+			parameterMap = buildParameterMap();
+			frozenParameterMap = parameterMap;
+		}
+		return parameterMap;
+	}
+
+	/**
+	 * Returns the names of the original parameters, along with any parameters added by the rules
+	 */
+	@Override
+	public Enumeration<String> getParameterNames() {
+		if (overrides.isEmpty()) {
+			return super.getParameterNames();
+		}
+
+		return Collections.enumeration(getParameterMap().keySet());
+	}
+
+	private Map<String, String[]> buildParameterMap() {
+		final Map<String, String[]> original = super.getParameterMap();
+		if (overrides.isEmpty()) {
+			return original;
+		}
+
+		final Map<String, String[]> merged = new LinkedHashMap<String, String[]>(original);
+		merged.putAll(overrides);
+		return Collections.unmodifiableMap(merged);
+	}
+}
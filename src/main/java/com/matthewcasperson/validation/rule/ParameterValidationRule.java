@@ -56,7 +56,9 @@ public interface ParameterValidationRule {
 	 * @param name The name of the parameter
 	 * @param url The page that is being requested
 	 * @param params The input parameters
-	 * @return The validated parameters
+	 * @return The validated parameters. If no value was changed, implementations should return the
+	 * params array itself, which lets the caller skip comparing the values. The params array must
+	 * never be modified.
 	 * @throws ValidationFailedException when the parameter is invalid and can not be made valid
 	 */
 	String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException;
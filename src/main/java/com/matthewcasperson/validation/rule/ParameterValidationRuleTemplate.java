@@ -29,12 +29,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.utils.RequestParameterUtils;
@@ -56,8 +56,27 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 	@Override
 	public ServletRequest processParameter(final ServletRequest request, final String name) throws ValidationFailedException {
 		checkNotNull(request);
+		
+		if (request instanceof HttpServletRequest) {
+			return processParameter(request, name, new ValidationContext((HttpServletRequest)request, true));
+		}
+
+		return request;
+	}
+
+	/**
+	 * Process the specified parameter, using the details of the request that were already read into the context.
+	 * @param request The request that holds the parameters we will be modifying
+	 * @param name The name of the parameter we are checking
+	 * @param context The details of the request that are shared by every rule
+	 * @return A wrapped ServletRequest if some validation was required and instructions on how to proceed
+	 * @throws ValidationFailedException if the validation failed
+	 */
+	public ServletRequest processParameter(final ServletRequest request, final String name, final ValidationContext context) throws ValidationFailedException {
+		checkNotNull(request);
 		checkNotNull(name);
 		checkArgument(!name.trim().isEmpty());
+		checkNotNull(context);
 		
 		if (request instanceof HttpServletRequest) {			
 			final HttpServletRequest httpServletRequest = (HttpServletRequest)request;	
@@ -70,51 +89,31 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 			/*
 			 * Defer to a child class for the actual logic that processes the parameter
 			 */
-			final String[] processedParams = fixParams(name, ((HttpServletRequest) request).getRequestURL().toString(), params);
+			final String[] processedParams = fixParamsInContext(name, context, params);
 			
 			checkState(processedParams.length == params.length, "PVF-BUG-0001: fixParams should always return the same number of parameters as it was passed");
 							
 			/*
-			 * Did it make any difference?
+			 * Did it make any difference? Rules return the same array when nothing changed,
+			 * so the values only need to be compared for rules that always copy them.
 			 */
-			if (!Arrays.equals(processedParams, params)) {
-				/*
-				 * If so, wrap up the request with a new version that will return the trimmed version of the param
-				 */
-				final HttpServletRequestWrapper newRequest = new HttpServletRequestWrapper(httpServletRequest) {
-
-					/**
-					 * Override the getParameterValues returning our new array of parameters.
-					 */
-					public String[] getParameterValues(final String newName) {
-						if (name.equals(newName)) {
-							return processedParams;
-						}
-
-						return super.getParameterValues(newName);
-					}
-
-                    /**
-                     * Override the getParameter which returns the first value in the array
-                     */
-                    public String getParameter(final String newName) {
-                        if (name.equals(newName)) {
-                            if (processedParams == null || processedParams.length == 0) {
-                                return null;
-                            }
-
-                            return processedParams[0];
-                        }
-
-                        return super.getParameter(newName);
-                    }
-				};
-				
+			final boolean changed = processedParams != params && !Arrays.equals(processedParams, params);
+			context.recordRuleApplication(changed);
+
+			if (changed) {
 				/*
-				 * Return the wrapped request and forward the processing instruction from
-				 * the validation rule
+				 * If so, record the new values in the overlay wrapper. The filter passes the same
+				 * wrapper to every rule, so the request is only ever wrapped once.
 				 */
-				return newRequest;									
+				final ParameterOverlayRequestWrapper overlay;
+				if (request instanceof ParameterOverlayRequestWrapper && !((ParameterOverlayRequestWrapper)request).isFrozen()) {
+					overlay = (ParameterOverlayRequestWrapper)request;
+				} else {
+					overlay = new ParameterOverlayRequestWrapper(httpServletRequest);
+				}
+
+				overlay.setParameterValues(name, processedParams);
+				return overlay;
 			}
 			
 		}
@@ -140,6 +139,68 @@ abstract public class ParameterValidationRuleTemplate implements ParameterValida
 		return retValue[0];
 	}
 	
+	/**
+	 * Fixes the values of a parameter while a request is being validated. This passes the values to
+	 * fixParams. Rules that have more to report than a failure, like a value they let through because
+	 * their regex ran out of budget, override this to record it in the context.
+	 * @param name The name of the parameter
+	 * @param context The details of the request that are shared by every rule
+	 * @param params The values of the parameter
+	 * @return The fixed values, or params itself if nothing was changed
+	 * @throws ValidationFailedException if the values are invalid and can not be made valid
+	 */
+	protected String[] fixParamsInContext(final String name, final ValidationContext context, final String[] params) throws ValidationFailedException {
+		return fixParams(name, context.getRequestURL(), params);
+	}
+
+	/**
+	 * Fixes every parameter in a batch by passing each one to fixParams. This lets the filter hand
+	 * a rule all the parameters selected by a chain in one call.
+	 * @param context The details of the request that are shared by every rule
+	 * @param params Maps the name of each parameter to its values. Values that are changed are
+	 * replaced in the map. When the context is not enforcing, parameters that fail validation are
+	 * recorded in the context and removed from the map.
+	 * @throws ValidationFailedException when a parameter is invalid and can not be made valid, and
+	 * the context is enforcing
+	 */
+	public void fixAll(final ValidationContext context, final Map<String, String[]> params) throws ValidationFailedException {
+		checkNotNull(context);
+		checkNotNull(params);
+
+		final Iterator<Map.Entry<String, String[]>> iter = params.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<String, String[]> param = iter.next();
+			final String[] values = param.getValue();
+
+			try {
+				final String[] processedParams = fixParamsInContext(param.getKey(), context, values);
+
+				checkState(processedParams.length == values.length, "PVF-BUG-0001: fixParams should always return the same number of parameters as it was passed");
+
+				final boolean changed = processedParams != values && !Arrays.equals(processedParams, values);
+				context.recordRuleApplication(changed);
+
+				if (changed) {
+					param.setValue(processedParams);
+				}
+			} catch (final ValidationFailedException ex) {
+				/*
+				 * Record the failure so the filter can report it
+				 */
+				context.addFailure(param.getKey(), ex, values.length == 0 ? null : values[0]);
+
+				if (context.isEnforcingMode()) {
+					throw ex;
+				}
+
+				/*
+				 * Drop the parameter so no other rules are applied to it
+				 */
+				iter.remove();
+			}
+		}
+	}
+
 	/**
 	 * A default implementation that does nothing
 	 */
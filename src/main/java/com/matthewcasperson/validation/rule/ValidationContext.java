@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.rule;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+
+/**
+ * Holds the details of the request being validated that are shared by every rule, and
+ * collects the parameters that failed validation. The request URL, URI, method and content
+ * type are only read from the request the first time they are needed, and then remembered
+ * for the rest of the request.
+ * <p>
+ * The filter recycles one context per thread with acquire() and release(), so validating a
+ * request doesn't allocate a new context. A context must not be used after it is released.
+ * @author mcasperson
+ *
+ */
+public final class ValidationContext {
+	/**
+	 * The chain index of failures that were recorded outside of a chain
+	 */
+	public static final int NO_CHAIN = -1;
+
+	private static final Function<ValidationFailure, ValidationFailedException> TO_EXCEPTION = new Function<ValidationFailure, ValidationFailedException>() {
+		@Override
+		public ValidationFailedException apply(final ValidationFailure failure) {
+			return failure.getException();
+		}
+	};
+
+	private static final ThreadLocal<ValidationContext> RECYCLED = new ThreadLocal<ValidationContext>() {
+		@Override
+		protected ValidationContext initialValue() {
+			return new ValidationContext();
+		}
+	};
+
+	private HttpServletRequest request;
+	private boolean enforcingMode;
+	private String requestURL;
+	private String requestURI;
+	private String method;
+	private String contentType;
+	private boolean contentTypeRead;
+	private int ruleApplications;
+	private int changedParams;
+	private boolean recycled;
+	private boolean inUse;
+	private int chainIndex = NO_CHAIN;
+	private String ruleName;
+	private final Map<String, ValidationFailure> failures = new LinkedHashMap<String, ValidationFailure>();
+	private final Map<String, ValidationFailedException> failuresView = Maps.transformValues(Collections.unmodifiableMap(failures), TO_EXCEPTION);
+	private final Collection<ValidationFailure> failureDetailsView = Collections.unmodifiableCollection(failures.values());
+	private final List<ValidationFailure> regexBudgetOverruns = new ArrayList<ValidationFailure>();
+	private final Collection<ValidationFailure> regexBudgetOverrunsView = Collections.unmodifiableCollection(regexBudgetOverruns);
+
+	private ValidationContext() {
+
+	}
+
+	/**
+	 * @param request The request being validated
+	 * @param enforcingMode true if a failed parameter should stop the request, and false if
+	 * the failure should be recorded and the parameter skipped
+	 */
+	public ValidationContext(final HttpServletRequest request, final boolean enforcingMode) {
+		checkNotNull(request);
+
+		this.request = request;
+		this.enforcingMode = enforcingMode;
+	}
+
+	/**
+	 * @param requestURL The page that is being requested
+	 * @param enforcingMode true if a failed parameter should stop the request, and false if
+	 * the failure should be recorded and the parameter skipped
+	 */
+	public ValidationContext(final String requestURL, final boolean enforcingMode) {
+		checkNotNull(requestURL);
+
+		this.requestURL = requestURL;
+		this.enforcingMode = enforcingMode;
+	}
+
+	/**
+	 * Returns this thread's recycled context, reset for a new request. If the recycled context is
+	 * already in use, which happens when the filter runs again for a forwarded request, a new
+	 * context is returned instead.
+	 * @param request The request being validated
+	 * @param enforcingMode true if a failed parameter should stop the request
+	 * @return A context that must be passed to release() once the request has been validated
+	 */
+	public static ValidationContext acquire(final HttpServletRequest request, final boolean enforcingMode) {
+		checkNotNull(request);
+
+		final ValidationContext recycledContext = RECYCLED.get();
+		final ValidationContext context = recycledContext.inUse ? new ValidationContext() : recycledContext;
+
+		context.recycled = context == recycledContext;
+		context.inUse = true;
+		context.request = request;
+		context.enforcingMode = enforcingMode;
+		return context;
+	}
+
+	/**
+	 * Clears the context so it can be used by the next request on this thread. The request
+	 * is released so it isn't held on to between requests.
+	 */
+	public void release() {
+		checkState(inUse, "PVF-BUG-0004: A validation context was released without being acquired");
+
+		request = null;
+		requestURL = null;
+		requestURI = null;
+		method = null;
+		contentType = null;
+		contentTypeRead = false;
+		ruleApplications = 0;
+		changedParams = 0;
+		chainIndex = NO_CHAIN;
+		ruleName = null;
+		failures.clear();
+		regexBudgetOverruns.clear();
+		inUse = false;
+	}
+
+	/**
+	 *
+	 * @return true if this context was recycled from an earlier request on the same thread
+	 */
+	public boolean isRecycled() {
+		return recycled;
+	}
+
+	/**
+	 *
+	 * @return The page that is being requested
+	 */
+	public String getRequestURL() {
+		if (requestURL == null && request != null) {
+			/*
+			 * getRequestURL() builds a new StringBuffer every time it is called
+			 */
+			requestURL = request.getRequestURL().toString();
+		}
+		return requestURL;
+	}
+
+	/**
+	 *
+	 * @return The URI of the request, or null if the context was not created from a request
+	 */
+	public String getRequestURI() {
+		if (requestURI == null && request != null) {
+			requestURI = request.getRequestURI();
+		}
+		return requestURI;
+	}
+
+	/**
+	 *
+	 * @return The HTTP method of the request, or null if the context was not created from a request
+	 */
+	public String getMethod() {
+		if (method == null && request != null) {
+			method = request.getMethod();
+		}
+		return method;
+	}
+
+	/**
+	 *
+	 * @return The content type of the request, or null if there is none
+	 */
+	public String getContentType() {
+		if (!contentTypeRead && request != null) {
+			contentType = request.getContentType();
+			contentTypeRead = true;
+		}
+		return contentType;
+	}
+
+	/**
+	 *
+	 * @return true if a failed parameter should stop the request, and false if the failure
+	 * should be recorded and the parameter skipped
+	 */
+	public boolean isEnforcingMode() {
+		return enforcingMode;
+	}
+
+	/**
+	 * Counts a rule being applied to a parameter
+	 * @param changed true if the rule changed the parameter
+	 */
+	public void recordRuleApplication(final boolean changed) {
+		++ruleApplications;
+		if (changed) {
+			++changedParams;
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of times a rule has been applied to a parameter
+	 */
+	public int getRuleApplications() {
+		return ruleApplications;
+	}
+
+	/**
+	 *
+	 * @return The number of times a rule has changed a parameter
+	 */
+	public int getChangedParams() {
+		return changedParams;
+	}
+
+	/**
+	 * Records the rule that is about to be run, so any failures it records can be traced back to it
+	 * @param chainIndex The index of the validation chain
+	 * @param ruleName The name of the rule
+	 */
+	public void setCurrentRule(final int chainIndex, final String ruleName) {
+		this.chainIndex = chainIndex;
+		this.ruleName = ruleName;
+	}
+
+	/**
+	 * Records a parameter that failed validation. No further rules will be applied to it.
+	 * @param name The name of the parameter
+	 * @param failure The reason the parameter failed
+	 */
+	public void addFailure(final String name, final ValidationFailedException failure) {
+		addFailure(name, failure, null);
+	}
+
+	/**
+	 * Records a parameter that failed validation, against the current rule. No further rules will be applied to it.
+	 * @param name The name of the parameter
+	 * @param failure The reason the parameter failed
+	 * @param value The value that failed, or null if it is not known
+	 */
+	public void addFailure(final String name, final ValidationFailedException failure, final String value) {
+		checkNotNull(name);
+		checkNotNull(failure);
+
+		if (!failures.containsKey(name)) {
+			failures.put(name, new ValidationFailure(name, failure, chainIndex, ruleName, value));
+		}
+	}
+
+	/**
+	 *
+	 * @param name The name of a parameter
+	 * @return true if the parameter has failed validation
+	 */
+	public boolean isFailed(final String name) {
+		return !failures.isEmpty() && failures.containsKey(name);
+	}
+
+	/**
+	 * Records a value that the current rule let through unchanged, because its regex ran out of budget
+	 * on the value. The parameter has not failed, and later rules are still applied to it.
+	 * @param name The name of the parameter
+	 * @param overrun Describes the overrun, with a message that starts with its PVF code
+	 * @param value The value, or null if it is not known
+	 */
+	public void addRegexBudgetOverrun(final String name, final ValidationFailedException overrun, final String value) {
+		checkNotNull(name);
+		checkNotNull(overrun);
+
+		regexBudgetOverruns.add(new ValidationFailure(name, overrun, chainIndex, ruleName, value));
+	}
+
+	/**
+	 *
+	 * @return The values that rules let through because their regex ran out of budget, with the chain
+	 * and rule that let them through. This is a view that is cleared when the context is released.
+	 */
+	public Collection<ValidationFailure> getRegexBudgetOverruns() {
+		return regexBudgetOverrunsView;
+	}
+
+	/**
+	 *
+	 * @return The parameters that failed validation, mapped to the reason they failed. This is a
+	 * view that is cleared when the context is released.
+	 */
+	public Map<String, ValidationFailedException> getFailures() {
+		return failuresView;
+	}
+
+	/**
+	 *
+	 * @return The parameters that failed validation, with the chain and rule that failed them. This is
+	 * a view that is cleared when the context is released.
+	 */
+	public Collection<ValidationFailure> getValidationFailures() {
+		return failureDetailsView;
+	}
+}
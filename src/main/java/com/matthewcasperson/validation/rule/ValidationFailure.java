@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.rule;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+
+/**
+ * A parameter that failed validation, with the chain and rule that failed it
+ * @author mcasperson
+ *
+ */
+public final class ValidationFailure {
+	private final String paramName;
+	private final ValidationFailedException exception;
+	private final int chainIndex;
+	private final String ruleName;
+	private final String value;
+
+	ValidationFailure(final String paramName, final ValidationFailedException exception, final int chainIndex, final String ruleName, final String value) {
+		this.paramName = paramName;
+		this.exception = exception;
+		this.chainIndex = chainIndex;
+		this.ruleName = ruleName;
+		this.value = value;
+	}
+
+	/**
+	 *
+	 * @return The name of the parameter
+	 */
+	public String getParamName() {
+		return paramName;
+	}
+
+	/**
+	 *
+	 * @return The reason the parameter failed
+	 */
+	public ValidationFailedException getException() {
+		return exception;
+	}
+
+	/**
+	 *
+	 * @return The index of the validation chain that was running, or ValidationContext.NO_CHAIN if it is not known
+	 */
+	public int getChainIndex() {
+		return chainIndex;
+	}
+
+	/**
+	 *
+	 * @return The name of the rule that failed the parameter, or null if it is not known
+	 */
+	public String getRuleName() {
+		return ruleName;
+	}
+
+	/**
+	 *
+	 * @return The value that failed, or null if it is not known
+	 */
+	public String getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,452 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.ruledefinitionimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
+import com.matthewcasperson.validation.regex.RegexBudget;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+
+/**
+ * An immutable, array backed copy of a ParameterValidationDefinitionsImpl. The JAXB beans are
+ * mutable and resolve their rules lazily, so the filter compiles them into a plan once when it
+ * is initialised, and only ever consults the plan while filtering requests.
+ * @author mcasperson
+ *
+ */
+public final class CompiledRulePlan {
+	private static final Logger LOGGER = Logger.getLogger(CompiledRulePlan.class.getName());
+
+	/**
+	 * The number of chains listed when the most expensive chains are logged
+	 */
+	private static final int RANKED_CHAINS = 10;
+
+	private final boolean enforcingMode;
+	private final RegexBudget regexBudget;
+	private final RegexCostReport regexCostReport;
+	private final CompiledChain[] chains;
+
+	private CompiledRulePlan(final boolean enforcingMode, final RegexBudget regexBudget, final RegexCostReport regexCostReport, final CompiledChain[] chains) {
+		this.enforcingMode = enforcingMode;
+		this.regexBudget = regexBudget;
+		this.regexCostReport = regexCostReport;
+		this.chains = chains;
+	}
+
+	/**
+	 * Resolves every rule in the definitions, one at a time, and copies them into a plan
+	 * @param definitions The deserialised configuration
+	 * @return The compiled plan
+	 * @throws InvalidConfigurationException if a chain is missing its patterns, or a rule could not be created
+	 */
+	public static CompiledRulePlan compile(final ParameterValidationDefinitionsImpl definitions) throws InvalidConfigurationException {
+		return compile(definitions, new RuleInstanceRegistry(), 1);
+	}
+
+	/**
+	 * Resolves every rule in the definitions and copies them into a plan
+	 * @param definitions The deserialised configuration
+	 * @param registry The registry that shares rule instances between chains
+	 * @param threads The number of threads used to create the rules
+	 * @return The compiled plan
+	 * @throws InvalidConfigurationException if a chain is missing its patterns, a rule could not be created,
+	 * or RegexAnalysis is reject and a pathological regular expression was found
+	 */
+	public static CompiledRulePlan compile(final ParameterValidationDefinitionsImpl definitions, final RuleInstanceRegistry registry, final int threads) throws InvalidConfigurationException {
+		checkNotNull(definitions);
+		checkNotNull(registry);
+
+		final List<ParameterValidationChain> definedChains = definitions.getParameterValidationDefinitions();
+		final int chainCount = definedChains == null ? 0 : definedChains.size();
+
+		final RegexBudget regexBudget = new RegexBudget(
+				definitions.getRegexMaxSteps(),
+				definitions.getRegexTimeoutMillis(),
+				RegexBudget.isFailAction(definitions.getRegexBudgetExceeded()));
+
+		/*
+		 * Look for expensive patterns before any rules are created, so a configuration that is
+		 * going to be refused is refused quickly
+		 */
+		final RegexCostReport regexCostReport = RegexCostReport.OFF_ACTION.equals(RegexCostReport.checkAction(definitions.getRegexAnalysis()))
+				? null
+				: analyseRegexCosts(definitions);
+
+		if (threads > 1) {
+			createRulesInParallel(definedChains, registry, threads);
+		}
+
+		final CompiledChain[] chains = new CompiledChain[chainCount];
+		for (int chainIndex = 0; chainIndex < chainCount; ++chainIndex) {
+			chains[chainIndex] = compileChain(chainIndex, definedChains.get(chainIndex), registry, regexBudget);
+		}
+
+		return new CompiledRulePlan(definitions.getEnforcingMode(), regexBudget, regexCostReport, chains);
+	}
+
+	/**
+	 * Analyses the regular expressions in the configuration, logging the pathological ones and the
+	 * most expensive chains
+	 * @param definitions The deserialised configuration
+	 * @return The report
+	 * @throws InvalidConfigurationException if RegexAnalysis is reject and a pathological regular expression
+	 * is not held to a regex budget
+	 */
+	private static RegexCostReport analyseRegexCosts(final ParameterValidationDefinitionsImpl definitions) throws InvalidConfigurationException {
+		checkArgument(definitions.getRegexAnalysisMaxDegree() > 0, "PVF-CONFIGURATION-0023: RegexAnalysisMaxDegree must be greater than 0");
+
+		final RegexCostReport report = RegexCostReport.analyse(definitions);
+		final boolean reject = RegexCostReport.REJECT_ACTION.equals(definitions.getRegexAnalysis());
+
+		final List<RegexCostReport.Entry> rejected = new ArrayList<RegexCostReport.Entry>();
+		for (final RegexCostReport.Entry entry : report.getPathological(definitions.getRegexAnalysisMaxDegree())) {
+			if (reject && !entry.isBudgeted()) {
+				rejected.add(entry);
+			} else {
+				LOGGER.log(Level.WARNING, "PVF-CONFIGURATION-0024: " + entry
+						+ (entry.isBudgeted() ? ". The regex budget limits the work done matching it." : ""));
+			}
+		}
+
+		if (!rejected.isEmpty()) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0025: These regular expressions are pathological, and are not held to a regex budget: " + rejected);
+		}
+
+		if (LOGGER.isLoggable(Level.INFO)) {
+			final StringBuilder ranking = new StringBuilder("PVF-INFO-0005: The validation chains with the most expensive regular expressions are:");
+			for (final RegexCostReport.Entry entry : report.getMostExpensiveChains(RANKED_CHAINS)) {
+				ranking.append(System.lineSeparator()).append(entry);
+			}
+			LOGGER.log(Level.INFO, ranking.toString());
+		}
+
+		return report;
+	}
+
+	/**
+	 * Creates the rules on a thread pool. Rules like SanitizeHTMLValidationRule do a
+	 * reasonable amount of work in configure(), which adds up with hundreds of chains.
+	 * Any failures are ignored here, and reported when the chains are compiled.
+	 * @param definedChains The chains whose rules are to be created
+	 * @param registry The registry that shares rule instances between chains
+	 * @param threads The number of threads to use
+	 * @throws InvalidConfigurationException if the thread creating a rule was interrupted
+	 */
+	private static void createRulesInParallel(final List<ParameterValidationChain> definedChains, final RuleInstanceRegistry registry, final int threads) throws InvalidConfigurationException {
+		if (definedChains == null) {
+			return;
+		}
+
+		final List<Callable<ParameterValidationRule>> tasks = new ArrayList<Callable<ParameterValidationRule>>();
+		for (final ParameterValidationChain chain : definedChains) {
+			if (chain == null || chain.getList() == null) {
+				continue;
+			}
+
+			for (final ParameterValidationDefinitionImpl definition : chain.getList()) {
+				if (definition == null || definition.getValidationRuleName() == null) {
+					continue;
+				}
+
+				tasks.add(new Callable<ParameterValidationRule>() {
+					@Override
+					public ParameterValidationRule call() throws InvalidConfigurationException {
+						return definition.getRule(registry);
+					}
+				});
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Future<ParameterValidationRule> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (final ExecutionException ex) {
+					/*
+					 * compileChain() will try again and report the error against the chain
+					 */
+				}
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InvalidConfigurationException(ex);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static CompiledChain compileChain(final int chainIndex, final ParameterValidationChain chain, final RuleInstanceRegistry registry, final RegexBudget regexBudget) throws InvalidConfigurationException {
+		if (chain == null) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0005: Validation chain " + chainIndex + " is empty");
+		}
+
+		if (chain.getParamNamePattern() == null || chain.getRequestURIPattern() == null) {
+			throw new InvalidConfigurationException("PVF-CONFIGURATION-0006: Validation chain " + chainIndex + " must define both paramNamePatternString and requestURIPatternString");
+		}
+
+		final List<ParameterValidationDefinitionImpl> definitions = chain.getList();
+		final int ruleCount = definitions == null ? 0 : definitions.size();
+		final ParameterValidationRule[] rules = new ParameterValidationRule[ruleCount];
+		final String[] ruleNames = new String[ruleCount];
+
+		for (int ruleIndex = 0; ruleIndex < ruleCount; ++ruleIndex) {
+			final ParameterValidationDefinitionImpl definition = definitions.get(ruleIndex);
+			if (definition == null || definition.getValidationRuleName() == null) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0007: Rule " + ruleIndex + " in validation chain " + chainIndex + " has no validationRuleName");
+			}
+
+			final ParameterValidationRule rule = definition.getRule(registry);
+			if (rule == null) {
+				throw new InvalidConfigurationException("PVF-CONFIGURATION-0008: Rule " + definition.getValidationRuleName() + " could not be created");
+			}
+
+			rules[ruleIndex] = rule;
+			ruleNames[ruleIndex] = definition.getValidationRuleName();
+		}
+
+		return new CompiledChain(
+				chainIndex,
+				chain.getParamNamePattern(),
+				chain.isParamNamePatternNegated(),
+				chain.getRequestURIPattern(),
+				chain.isRequestURIPatternNegated(),
+				regexBudget,
+				rules,
+				ruleNames);
+	}
+
+	/**
+	 *
+	 * @return true if the filter should return an error code when a rule fails, and false otherwise
+	 */
+	public boolean isEnforcingMode() {
+		return enforcingMode;
+	}
+
+	/**
+	 *
+	 * @return The limit on the work java.util.regex does matching a request URI or parameter name against
+	 * the patterns of a chain
+	 */
+	public RegexBudget getRegexBudget() {
+		return regexBudget;
+	}
+
+	/**
+	 *
+	 * @return The cost of the regular expressions in the configuration, or null if RegexAnalysis is off
+	 */
+	public RegexCostReport getRegexCostReport() {
+		return regexCostReport;
+	}
+
+	/**
+	 *
+	 * @return The number of chains in the plan
+	 */
+	public int getChainCount() {
+		return chains.length;
+	}
+
+	/**
+	 *
+	 * @param index The index of the chain
+	 * @return The chain at the supplied index
+	 */
+	public CompiledChain getChain(final int index) {
+		return chains[index];
+	}
+
+	/**
+	 * A validation chain with its rules resolved
+	 */
+	public static final class CompiledChain {
+		private final int index;
+		private final Pattern paramNamePattern;
+		private final boolean paramNamePatternNegated;
+		private final Pattern requestURIPattern;
+		private final boolean requestURIPatternNegated;
+		private final RegexBudget regexBudget;
+		private final ParameterValidationRule[] rules;
+		private final String[] ruleNames;
+
+		private CompiledChain(
+				final int index,
+				final Pattern paramNamePattern,
+				final boolean paramNamePatternNegated,
+				final Pattern requestURIPattern,
+				final boolean requestURIPatternNegated,
+				final RegexBudget regexBudget,
+				final ParameterValidationRule[] rules,
+				final String[] ruleNames) {
+			this.index = index;
+			this.paramNamePattern = paramNamePattern;
+			this.paramNamePatternNegated = paramNamePatternNegated;
+			this.requestURIPattern = requestURIPattern;
+			this.requestURIPatternNegated = requestURIPatternNegated;
+			this.regexBudget = regexBudget;
+			this.rules = rules;
+			this.ruleNames = ruleNames;
+		}
+
+		/**
+		 *
+		 * @return The position of this chain in the plan
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 *
+		 * @param requestURI The URI of the request being filtered
+		 * @param exceeded The bit for this chain's index is set if the pattern exceeded the regex budget
+		 * and the chain was applied anyway
+		 * @return true if this chain applies to the URI, taking any negation into account
+		 * @throws RegexBudgetExceededException if the pattern exceeded the regex budget, and the budget fails
+		 * requests when it is exceeded
+		 */
+		public boolean appliesToURI(final String requestURI, final BitSet exceeded) {
+			try {
+				return regexBudget.find(requestURIPattern, requestURI) ^ requestURIPatternNegated;
+			} catch (final RegexBudgetExceededException ex) {
+				final boolean applies = appliesWhenBudgetExceeded("requestURIPatternString", requestURI, ex.getMessage());
+				exceeded.set(index);
+				return applies;
+			}
+		}
+
+		/**
+		 *
+		 * @param paramName The name of a parameter
+		 * @param exceeded The bit for this chain's index is set if the pattern exceeded the regex budget
+		 * and the chain was applied anyway
+		 * @return true if this chain applies to the parameter, taking any negation into account
+		 * @throws RegexBudgetExceededException if the pattern exceeded the regex budget, and the budget fails
+		 * requests when it is exceeded
+		 */
+		public boolean appliesToParamName(final String paramName, final BitSet exceeded) {
+			try {
+				return regexBudget.find(paramNamePattern, paramName) ^ paramNamePatternNegated;
+			} catch (final RegexBudgetExceededException ex) {
+				final boolean applies = appliesToParamNameWhenBudgetExceeded(paramName, ex.getMessage());
+				exceeded.set(index);
+				return applies;
+			}
+		}
+
+		/**
+		 * Decides whether the chain applies to a parameter whose name could not be matched within the regex budget
+		 * @param paramName The name of the parameter
+		 * @param reason Why the budget was exceeded
+		 * @return true, as the chain is applied when the budget lets the parameter through
+		 * @throws RegexBudgetExceededException if the budget fails requests when it is exceeded
+		 */
+		public boolean appliesToParamNameWhenBudgetExceeded(final String paramName, final String reason) {
+			return appliesWhenBudgetExceeded("paramNamePatternString", paramName, reason);
+		}
+
+		/**
+		 * When the regex budget is exceeded, either the request fails, or the chain is applied so the
+		 * parameters still get validated. The filter audits and counts the chains that are applied this
+		 * way, so they are not logged here.
+		 */
+		private boolean appliesWhenBudgetExceeded(final String patternName, final String value, final String reason) {
+			if (regexBudget.isFailWhenExceeded()) {
+				throw new RegexBudgetExceededException("PVF-SECURITY-0006: The " + patternName + " of validation chain " + index + " exceeded the regex budget matching " + value + ". " + reason);
+			}
+
+			return true;
+		}
+
+		/**
+		 *
+		 * @param paramNamePatternFound true if the param name pattern was found in the parameter name
+		 * @return true if this chain applies to the parameter, taking any negation into account
+		 */
+		public boolean appliesToParamName(final boolean paramNamePatternFound) {
+			return paramNamePatternFound ^ paramNamePatternNegated;
+		}
+
+		/**
+		 *
+		 * @return The regex that is matched against the name of the param
+		 */
+		public Pattern getParamNamePattern() {
+			return paramNamePattern;
+		}
+
+		/**
+		 *
+		 * @return The regex that is matched against the request URI
+		 */
+		public Pattern getRequestURIPattern() {
+			return requestURIPattern;
+		}
+
+		/**
+		 *
+		 * @return The number of rules in the chain
+		 */
+		public int getRuleCount() {
+			return rules.length;
+		}
+
+		/**
+		 *
+		 * @param index The index of the rule
+		 * @return The rule at the supplied index
+		 */
+		public ParameterValidationRule getRule(final int index) {
+			return rules[index];
+		}
+
+		/**
+		 *
+		 * @param index The index of the rule
+		 * @return The class name of the rule at the supplied index
+		 */
+		public String getRuleName(final int index) {
+			return ruleNames[index];
+		}
+	}
+}
@@ -24,8 +24,6 @@
 
 package com.matthewcasperson.validation.ruledefinitionimpl;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -46,7 +44,10 @@ public class ParameterValidationDefinitionImpl {
 	
 	private String validationRuleName;
 	private Map<String, String> settings;
-	transient private ParameterValidationRule rule;
+	/**
+	 * Written once, under the lock, and then only read
+	 */
+	transient private volatile ParameterValidationRule rule;
 	
 	/**
 	 * 
@@ -87,20 +88,35 @@ public class ParameterValidationDefinitionImpl {
 	 * @throws InvalidConfigurationException If the rule class could not be constructed
 	 */
 	public ParameterValidationRule getRule() throws InvalidConfigurationException {
-		if (rule == null) {
-			try {
-				final Class<?> klass = Class.forName(validationRuleName);
-				final Constructor<?> ctor = klass.getConstructor();
-				this.rule =  (ParameterValidationRule)ctor.newInstance();
-				if (this.settings != null) {
-					this.rule.configure(this.settings);
+		return getRule(null);
+	}
+
+	/**
+	 * Returns the rule, creating it the first time this is called. Concurrent callers
+	 * all receive the same instance, which is only ever constructed and configured once.
+	 * @param registry The registry used to share rule instances between definitions, or
+	 * null to create an instance that is only used by this definition
+	 * @return An instance of the class referenced in validationRuleName
+	 * @throws InvalidConfigurationException If the rule class could not be constructed
+	 */
+	public ParameterValidationRule getRule(final RuleInstanceRegistry registry) throws InvalidConfigurationException {
+		/*
+		 * Double checked locking, which is safe because rule is volatile
+		 */
+		ParameterValidationRule result = rule;
+		if (result == null) {
+			synchronized (this) {
+				result = rule;
+				if (result == null) {
+					result = registry == null
+							? RuleInstanceRegistry.createRule(validationRuleName, settings)
+							: registry.getRule(validationRuleName, settings);
+					rule = result;
 				}
-			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-				throw new InvalidConfigurationException(ex);
 			}
 		}
 		
-		return rule;
+		return result;
 	}
 	
 	/**
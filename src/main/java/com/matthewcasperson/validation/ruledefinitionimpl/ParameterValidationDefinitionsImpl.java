@@ -47,6 +47,29 @@ public class ParameterValidationDefinitionsImpl {
 	
 	private List<ParameterValidationChain> parameterValidationDefinitions;
 	private boolean enforcingMode = false;
+	private int uriCacheSize = 1000;
+	private int paramNameCacheSize = 10000;
+	private String paramNameMatchingEngine = "jdk";
+	private int ruleInstantiationThreads = 1;
+	private long regexMaxSteps = 0;
+	private long regexTimeoutMillis = 0;
+	private String regexBudgetExceeded = "fail";
+	private String regexAnalysis = "warn";
+	private int regexAnalysisMaxDegree = 3;
+	private String auditLogFile;
+	private int auditBufferSize = 8192;
+	private String auditOverflowPolicy = "drop";
+	private long auditMaxFileSize = 10 * 1024 * 1024;
+	private int auditMaxFiles = 5;
+	private int auditWindowSeconds = 0;
+	private int auditMaxTuples = 10000;
+	private boolean jmxMetrics = false;
+	private boolean servletMetrics = false;
+	private int metricsSampleRate = 16;
+	private int traceSampleRate = 0;
+	private String traceHeader;
+	private String traceTrustedAddresses;
+	private int traceBufferSize = 100;
 	
 	
 	/**
@@ -105,5 +128,408 @@ public class ParameterValidationDefinitionsImpl {
 		this.enforcingMode = enforcingMode;
 	}
 
+	/**
+	 * 
+	 * @return The maximum number of request URIs whose matching validation chains are remembered. 0 disables the cache.
+	 */
+	@XmlElement(name="URICacheSize")
+	public int getURICacheSize() {
+		return uriCacheSize;
+	}
+
+	/**
+	 * 
+	 * @param uriCacheSize The maximum number of request URIs whose matching validation chains are remembered. 0 disables the cache.
+	 */
+	public void setURICacheSize(final int uriCacheSize) {
+		this.uriCacheSize = uriCacheSize;
+	}
+
+	/**
+	 * 
+	 * @return The maximum number of parameter names whose matching validation chains are remembered. 0 disables the cache.
+	 */
+	@XmlElement(name="ParamNameCacheSize")
+	public int getParamNameCacheSize() {
+		return paramNameCacheSize;
+	}
+
+	/**
+	 * 
+	 * @param paramNameCacheSize The maximum number of parameter names whose matching validation chains are remembered. 0 disables the cache.
+	 */
+	public void setParamNameCacheSize(final int paramNameCacheSize) {
+		this.paramNameCacheSize = paramNameCacheSize;
+	}
+
+	/**
+	 * 
+	 * @return jdk if each param name pattern is tested in turn, or automaton if they are all tested in a single pass
+	 */
+	@XmlElement(name="ParamNameMatchingEngine")
+	public String getParamNameMatchingEngine() {
+		return paramNameMatchingEngine;
+	}
+
+	/**
+	 * 
+	 * @param paramNameMatchingEngine jdk if each param name pattern is tested in turn, or automaton if they are all tested in a single pass
+	 */
+	public void setParamNameMatchingEngine(final String paramNameMatchingEngine) {
+		this.paramNameMatchingEngine = paramNameMatchingEngine;
+	}
+
+	/**
+	 * 
+	 * @return The number of threads used to create the validation rules when the filter is initialised
+	 */
+	@XmlElement(name="RuleInstantiationThreads")
+	public int getRuleInstantiationThreads() {
+		return ruleInstantiationThreads;
+	}
+
+	/**
+	 * 
+	 * @param ruleInstantiationThreads The number of threads used to create the validation rules when the filter is initialised
+	 */
+	public void setRuleInstantiationThreads(final int ruleInstantiationThreads) {
+		this.ruleInstantiationThreads = ruleInstantiationThreads;
+	}
+
+	/**
+	 * 
+	 * @return The number of characters java.util.regex may read while matching a request URI or parameter
+	 * name against the patterns of a chain. 0 means there is no limit.
+	 */
+	@XmlElement(name="RegexMaxSteps")
+	public long getRegexMaxSteps() {
+		return regexMaxSteps;
+	}
+
+	/**
+	 * 
+	 * @param regexMaxSteps The number of characters java.util.regex may read while matching a request URI or
+	 * parameter name against the patterns of a chain. 0 means there is no limit.
+	 */
+	public void setRegexMaxSteps(final long regexMaxSteps) {
+		this.regexMaxSteps = regexMaxSteps;
+	}
+
+	/**
+	 * 
+	 * @return The number of milliseconds java.util.regex may spend matching a request URI or parameter
+	 * name against the patterns of a chain. 0 means there is no limit.
+	 */
+	@XmlElement(name="RegexTimeoutMillis")
+	public long getRegexTimeoutMillis() {
+		return regexTimeoutMillis;
+	}
+
+	/**
+	 * 
+	 * @param regexTimeoutMillis The number of milliseconds java.util.regex may spend matching a request URI or
+	 * parameter name against the patterns of a chain. 0 means there is no limit.
+	 */
+	public void setRegexTimeoutMillis(final long regexTimeoutMillis) {
+		this.regexTimeoutMillis = regexTimeoutMillis;
+	}
+
+	/**
+	 * 
+	 * @return fail if the request fails validation when a chain's patterns exceed the regex budget, or allow
+	 * if the chain is applied
+	 */
+	@XmlElement(name="RegexBudgetExceeded")
+	public String getRegexBudgetExceeded() {
+		return regexBudgetExceeded;
+	}
+
+	/**
+	 * 
+	 * @param regexBudgetExceeded fail if the request fails validation when a chain's patterns exceed the regex
+	 * budget, or allow if the chain is applied
+	 */
+	public void setRegexBudgetExceeded(final String regexBudgetExceeded) {
+		this.regexBudgetExceeded = regexBudgetExceeded;
+	}
+
+	/**
+	 * 
+	 * @return off to skip the analysis of the regular expressions in the configuration, warn to log the
+	 * pathological ones, or reject to stop the filter from starting if any are not held to a regex budget
+	 */
+	@XmlElement(name="RegexAnalysis")
+	public String getRegexAnalysis() {
+		return regexAnalysis;
+	}
+
+	/**
+	 * 
+	 * @param regexAnalysis off to skip the analysis of the regular expressions in the configuration, warn to
+	 * log the pathological ones, or reject to stop the filter from starting if any are not held to a regex budget
+	 */
+	public void setRegexAnalysis(final String regexAnalysis) {
+		this.regexAnalysis = regexAnalysis;
+	}
+
+	/**
+	 * 
+	 * @return The highest degree of polynomial cost a regular expression can have before it is considered pathological
+	 */
+	@XmlElement(name="RegexAnalysisMaxDegree")
+	public int getRegexAnalysisMaxDegree() {
+		return regexAnalysisMaxDegree;
+	}
+
+	/**
+	 * 
+	 * @param regexAnalysisMaxDegree The highest degree of polynomial cost a regular expression can have before
+	 * it is considered pathological
+	 */
+	public void setRegexAnalysisMaxDegree(final int regexAnalysisMaxDegree) {
+		this.regexAnalysisMaxDegree = regexAnalysisMaxDegree;
+	}
+
+	/**
+	 * 
+	 * @return The file that violations are written to by a background thread, or null if they are logged
+	 */
+	@XmlElement(name="AuditLogFile")
+	public String getAuditLogFile() {
+		return auditLogFile;
+	}
+
+	/**
+	 * 
+	 * @param auditLogFile The file that violations are written to by a background thread, or null if they are logged
+	 */
+	public void setAuditLogFile(final String auditLogFile) {
+		this.auditLogFile = auditLogFile;
+	}
+
+	/**
+	 * 
+	 * @return The number of violations that can be waiting to be written to the audit log
+	 */
+	@XmlElement(name="AuditBufferSize")
+	public int getAuditBufferSize() {
+		return auditBufferSize;
+	}
+
+	/**
+	 * 
+	 * @param auditBufferSize The number of violations that can be waiting to be written to the audit log
+	 */
+	public void setAuditBufferSize(final int auditBufferSize) {
+		this.auditBufferSize = auditBufferSize;
+	}
+
+	/**
+	 * 
+	 * @return drop if violations are dropped when the audit buffer is full, or block if the request waits
+	 */
+	@XmlElement(name="AuditOverflowPolicy")
+	public String getAuditOverflowPolicy() {
+		return auditOverflowPolicy;
+	}
+
+	/**
+	 * 
+	 * @param auditOverflowPolicy drop if violations are dropped when the audit buffer is full, or block if the request waits
+	 */
+	public void setAuditOverflowPolicy(final String auditOverflowPolicy) {
+		this.auditOverflowPolicy = auditOverflowPolicy;
+	}
+
+	/**
+	 * 
+	 * @return The size in bytes the audit log can grow to before it is rolled over
+	 */
+	@XmlElement(name="AuditMaxFileSize")
+	public long getAuditMaxFileSize() {
+		return auditMaxFileSize;
+	}
+
+	/**
+	 * 
+	 * @param auditMaxFileSize The size in bytes the audit log can grow to before it is rolled over
+	 */
+	public void setAuditMaxFileSize(final long auditMaxFileSize) {
+		this.auditMaxFileSize = auditMaxFileSize;
+	}
+
+	/**
+	 * 
+	 * @return The number of rolled over audit logs that are kept
+	 */
+	@XmlElement(name="AuditMaxFiles")
+	public int getAuditMaxFiles() {
+		return auditMaxFiles;
+	}
+
+	/**
+	 * 
+	 * @param auditMaxFiles The number of rolled over audit logs that are kept
+	 */
+	public void setAuditMaxFiles(final int auditMaxFiles) {
+		this.auditMaxFiles = auditMaxFiles;
+	}
+
+	/**
+	 * 
+	 * @return The number of seconds that repeated violations are counted for before one summary record
+	 * is written for them. 0 means every violation is written.
+	 */
+	@XmlElement(name="AuditWindowSeconds")
+	public int getAuditWindowSeconds() {
+		return auditWindowSeconds;
+	}
+
+	/**
+	 * 
+	 * @param auditWindowSeconds The number of seconds that repeated violations are counted for before one
+	 * summary record is written for them. 0 means every violation is written.
+	 */
+	public void setAuditWindowSeconds(final int auditWindowSeconds) {
+		this.auditWindowSeconds = auditWindowSeconds;
+	}
+
+	/**
+	 * 
+	 * @return The number of distinct violations that are counted in a window
+	 */
+	@XmlElement(name="AuditMaxTuples")
+	public int getAuditMaxTuples() {
+		return auditMaxTuples;
+	}
+
+	/**
+	 * 
+	 * @param auditMaxTuples The number of distinct violations that are counted in a window
+	 */
+	public void setAuditMaxTuples(final int auditMaxTuples) {
+		this.auditMaxTuples = auditMaxTuples;
+	}
+
+	/**
+	 * 
+	 * @return true if the counts and timings of each chain and rule are published over JMX
+	 */
+	@XmlElement(name="JMXMetrics")
+	public boolean getJMXMetrics() {
+		return jmxMetrics;
+	}
+
+	/**
+	 * 
+	 * @param jmxMetrics true if the counts and timings of each chain and rule are published over JMX
+	 */
+	public void setJMXMetrics(final boolean jmxMetrics) {
+		this.jmxMetrics = jmxMetrics;
+	}
+
+	/**
+	 * 
+	 * @return true if the filter's metrics are published to the servlet context for ParameterValidationMetricsServlet
+	 */
+	@XmlElement(name="ServletMetrics")
+	public boolean getServletMetrics() {
+		return servletMetrics;
+	}
+
+	/**
+	 * 
+	 * @param servletMetrics true if the filter's metrics are published to the servlet context for ParameterValidationMetricsServlet
+	 */
+	public void setServletMetrics(final boolean servletMetrics) {
+		this.servletMetrics = servletMetrics;
+	}
+
+	/**
+	 * 
+	 * @return One in this many requests is timed when JMXMetrics or ServletMetrics is enabled
+	 */
+	@XmlElement(name="MetricsSampleRate")
+	public int getMetricsSampleRate() {
+		return metricsSampleRate;
+	}
+
+	/**
+	 * 
+	 * @param metricsSampleRate One in this many requests is timed when JMXMetrics or ServletMetrics is enabled
+	 */
+	public void setMetricsSampleRate(final int metricsSampleRate) {
+		this.metricsSampleRate = metricsSampleRate;
+	}
+
+	/**
+	 * 
+	 * @return One in this many requests is traced. 0 means requests are only traced when they carry the TraceHeader.
+	 */
+	@XmlElement(name="TraceSampleRate")
+	public int getTraceSampleRate() {
+		return traceSampleRate;
+	}
+
+	/**
+	 * 
+	 * @param traceSampleRate One in this many requests is traced. 0 means requests are only traced when they
+	 * carry the TraceHeader.
+	 */
+	public void setTraceSampleRate(final int traceSampleRate) {
+		this.traceSampleRate = traceSampleRate;
+	}
+
+	/**
+	 * 
+	 * @return The header that asks for a request from a trusted address to be traced, or null
+	 */
+	@XmlElement(name="TraceHeader")
+	public String getTraceHeader() {
+		return traceHeader;
+	}
+
+	/**
+	 * 
+	 * @param traceHeader The header that asks for a request from a trusted address to be traced, or null
+	 */
+	public void setTraceHeader(final String traceHeader) {
+		this.traceHeader = traceHeader;
+	}
+
+	/**
+	 * 
+	 * @return A comma separated list of the remote addresses the TraceHeader is accepted from
+	 */
+	@XmlElement(name="TraceTrustedAddresses")
+	public String getTraceTrustedAddresses() {
+		return traceTrustedAddresses;
+	}
+
+	/**
+	 * 
+	 * @param traceTrustedAddresses A comma separated list of the remote addresses the TraceHeader is accepted from
+	 */
+	public void setTraceTrustedAddresses(final String traceTrustedAddresses) {
+		this.traceTrustedAddresses = traceTrustedAddresses;
+	}
+
+	/**
+	 * 
+	 * @return The number of request traces that are kept
+	 */
+	@XmlElement(name="TraceBufferSize")
+	public int getTraceBufferSize() {
+		return traceBufferSize;
+	}
+
+	/**
+	 * 
+	 * @param traceBufferSize The number of request traces that are kept
+	 */
+	public void setTraceBufferSize(final int traceBufferSize) {
+		this.traceBufferSize = traceBufferSize;
+	}
+
 
 }
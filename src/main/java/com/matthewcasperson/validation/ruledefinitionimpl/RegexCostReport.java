@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.ruledefinitionimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.matthewcasperson.validation.regex.LinearPattern;
+import com.matthewcasperson.validation.regex.RegexBudget;
+import com.matthewcasperson.validation.regex.RegexCost;
+import com.matthewcasperson.validation.regex.RegexCostAnalyser;
+
+/**
+ * The worst case cost of every regular expression in a configuration: the paramNamePatternString
+ * and requestURIPatternString of each chain, and the pattern setting of rules like RemoveRegexMatches.
+ * This is built when the filter is initialised, so expensive patterns can be reported, or refused,
+ * before any requests are processed.
+ * @author mcasperson
+ *
+ */
+public final class RegexCostReport {
+	/**
+	 * The RegexAnalysis value that skips the analysis
+	 */
+	public static final String OFF_ACTION = "off";
+
+	/**
+	 * The RegexAnalysis value that logs a warning for each pathological pattern
+	 */
+	public static final String WARN_ACTION = "warn";
+
+	/**
+	 * The RegexAnalysis value that stops the filter from starting if there are any pathological
+	 * patterns that are not held to a regex budget
+	 */
+	public static final String REJECT_ACTION = "reject";
+
+	private static final String PARAM_NAME_SOURCE = "paramNamePatternString";
+	private static final String REQUEST_URI_SOURCE = "requestURIPatternString";
+	private static final String PATTERN_KEY_NAME = "pattern";
+	private static final String ENGINE_KEY_NAME = "engine";
+	private static final String AUTOMATON_ENGINE = "automaton";
+
+	/**
+	 * Sorts entries from the most expensive to the cheapest, and then by chain
+	 */
+	private static final Comparator<Entry> MOST_EXPENSIVE_FIRST = new Comparator<Entry>() {
+		@Override
+		public int compare(final Entry first, final Entry second) {
+			final int cost = second.getCost().compareTo(first.getCost());
+			if (cost != 0) {
+				return cost;
+			}
+			return first.getChainIndex() < second.getChainIndex() ? -1 : first.getChainIndex() == second.getChainIndex() ? 0 : 1;
+		}
+	};
+
+	private final List<Entry> entries;
+
+	private RegexCostReport(final List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Analyses every regular expression in a configuration. Chains and rules that are missing their
+	 * patterns are skipped, as they are reported when the plan is compiled.
+	 * @param definitions The deserialised configuration
+	 * @return The report
+	 */
+	public static RegexCostReport analyse(final ParameterValidationDefinitionsImpl definitions) {
+		checkNotNull(definitions);
+
+		final boolean automaton = AUTOMATON_ENGINE.equals(definitions.getParamNameMatchingEngine());
+		final boolean chainsBudgeted = definitions.getRegexMaxSteps() != 0 || definitions.getRegexTimeoutMillis() != 0;
+
+		final List<Entry> entries = new ArrayList<Entry>();
+		final List<ParameterValidationChain> chains = definitions.getParameterValidationDefinitions();
+		for (int chainIndex = 0; chains != null && chainIndex < chains.size(); ++chainIndex) {
+			final ParameterValidationChain chain = chains.get(chainIndex);
+			if (chain == null) {
+				continue;
+			}
+
+			if (chain.getParamNamePatternString() != null) {
+				final String pattern = chain.getParamNamePatternString();
+				entries.add(new Entry(chainIndex, PARAM_NAME_SOURCE,
+						automaton ? RegexCostAnalyser.analyseLinear(pattern) : RegexCostAnalyser.analyse(pattern),
+						chainsBudgeted));
+			}
+
+			if (chain.getRequestURIPatternString() != null) {
+				entries.add(new Entry(chainIndex, REQUEST_URI_SOURCE, RegexCostAnalyser.analyse(chain.getRequestURIPatternString()), chainsBudgeted));
+			}
+
+			final List<ParameterValidationDefinitionImpl> rules = chain.getList();
+			for (int ruleIndex = 0; rules != null && ruleIndex < rules.size(); ++ruleIndex) {
+				final ParameterValidationDefinitionImpl rule = rules.get(ruleIndex);
+				final Map<String, String> settings = rule == null ? null : rule.getSettings();
+				if (settings == null || settings.get(PATTERN_KEY_NAME) == null) {
+					continue;
+				}
+
+				final String pattern = settings.get(PATTERN_KEY_NAME);
+				final boolean linear = LinearPattern.LINEAR_ENGINE.equals(settings.get(ENGINE_KEY_NAME));
+				final boolean ruleBudgeted = settings.containsKey(RegexBudget.MAX_STEPS_KEY_NAME) || settings.containsKey(RegexBudget.TIMEOUT_KEY_NAME);
+				entries.add(new Entry(chainIndex, "rule " + ruleIndex + " (" + rule.getValidationRuleName() + ") " + PATTERN_KEY_NAME,
+						linear ? RegexCostAnalyser.analyseLinear(pattern) : RegexCostAnalyser.analyse(pattern),
+						ruleBudgeted));
+			}
+		}
+
+		return new RegexCostReport(entries);
+	}
+
+	/**
+	 *
+	 * @param action The name of the action, either off, warn or reject
+	 * @return The action
+	 */
+	public static String checkAction(final String action) {
+		checkArgument(OFF_ACTION.equals(action) || WARN_ACTION.equals(action) || REJECT_ACTION.equals(action),
+				"PVF-CONFIGURATION-0022: RegexAnalysis must be " + OFF_ACTION + ", " + WARN_ACTION + " or " + REJECT_ACTION);
+		return action;
+	}
+
+	/**
+	 *
+	 * @return Every pattern in the configuration, in the order they were defined
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 *
+	 * @param maxDegree The highest polynomial degree that is acceptable
+	 * @return The patterns whose cost is exponential or of a higher degree than maxDegree, most expensive first
+	 */
+	public List<Entry> getPathological(final int maxDegree) {
+		final List<Entry> pathological = new ArrayList<Entry>();
+		for (final Entry entry : entries) {
+			if (entry.getCost().isPathological(maxDegree)) {
+				pathological.add(entry);
+			}
+		}
+		Collections.sort(pathological, MOST_EXPENSIVE_FIRST);
+		return pathological;
+	}
+
+	/**
+	 *
+	 * @param count The maximum number of chains to return
+	 * @return The most expensive pattern of each chain, for the most expensive chains
+	 */
+	public List<Entry> getMostExpensiveChains(final int count) {
+		checkArgument(count >= 0);
+
+		final List<Entry> chains = new ArrayList<Entry>();
+		for (final Entry entry : entries) {
+			final Entry last = chains.isEmpty() ? null : chains.get(chains.size() - 1);
+			if (last == null || last.getChainIndex() != entry.getChainIndex()) {
+				chains.add(entry);
+			} else if (entry.getCost().compareTo(last.getCost()) > 0) {
+				chains.set(chains.size() - 1, entry);
+			}
+		}
+
+		Collections.sort(chains, MOST_EXPENSIVE_FIRST);
+		return chains.subList(0, Math.min(count, chains.size()));
+	}
+
+	/**
+	 * The cost of one pattern in the configuration
+	 */
+	public static final class Entry {
+		private final int chainIndex;
+		private final String source;
+		private final RegexCost cost;
+		private final boolean budgeted;
+
+		private Entry(final int chainIndex, final String source, final RegexCost cost, final boolean budgeted) {
+			this.chainIndex = chainIndex;
+			this.source = source;
+			this.cost = cost;
+			this.budgeted = budgeted;
+		}
+
+		/**
+		 *
+		 * @return The index of the chain the pattern belongs to
+		 */
+		public int getChainIndex() {
+			return chainIndex;
+		}
+
+		/**
+		 *
+		 * @return Where in the chain the pattern was defined
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/**
+		 *
+		 * @return The worst case cost of the pattern
+		 */
+		public RegexCost getCost() {
+			return cost;
+		}
+
+		/**
+		 *
+		 * @return true if java.util.regex is held to a step budget or timeout when matching the pattern
+		 */
+		public boolean isBudgeted() {
+			return budgeted;
+		}
+
+		@Override
+		public String toString() {
+			return "Validation chain " + chainIndex + " " + source + " " + cost.getPattern() + " costs " + cost
+					+ (cost.getFindings().isEmpty() ? "" : ". " + cost.getFindings());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.ruledefinitionimpl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+
+/**
+ * Shares rule instances between validation chains. Rules are configured once and then only
+ * read, so every definition that names the same class with the same settings can use the same
+ * instance. Each rule is constructed and configured exactly once, even when many threads ask
+ * for it at the same time.
+ * @author mcasperson
+ *
+ */
+public final class RuleInstanceRegistry {
+	private final Cache<RuleKey, ParameterValidationRule> rules = CacheBuilder.newBuilder().build();
+
+	/**
+	 * Returns the shared instance of a rule, creating it if this is the first time it has been requested
+	 * @param validationRuleName The fully qualified name of the rule class
+	 * @param settings The settings passed to the rule's configure() method, or null for none
+	 * @return The shared, configured rule
+	 * @throws InvalidConfigurationException If the rule class could not be constructed
+	 */
+	public ParameterValidationRule getRule(final String validationRuleName, final Map<String, String> settings) throws InvalidConfigurationException {
+		checkNotNull(validationRuleName);
+
+		final RuleKey key = new RuleKey(validationRuleName, settings);
+
+		try {
+			return rules.get(key, new Callable<ParameterValidationRule>() {
+				@Override
+				public ParameterValidationRule call() throws InvalidConfigurationException {
+					return createRule(key.validationRuleName, key.settings);
+				}
+			});
+		} catch (final ExecutionException ex) {
+			if (ex.getCause() instanceof InvalidConfigurationException) {
+				throw (InvalidConfigurationException)ex.getCause();
+			}
+			throw new InvalidConfigurationException(ex.getCause());
+		} catch (final UncheckedExecutionException ex) {
+			/*
+			 * A rule's configure() method threw an unchecked exception
+			 */
+			throw new InvalidConfigurationException(ex.getCause());
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of distinct rule instances that have been created
+	 */
+	public long size() {
+		return rules.size();
+	}
+
+	/**
+	 * Constructs and configures a new rule
+	 * @param validationRuleName The fully qualified name of the rule class
+	 * @param settings The settings passed to the rule's configure() method, or null for none
+	 * @return The new rule
+	 * @throws InvalidConfigurationException If the rule class could not be constructed
+	 */
+	static ParameterValidationRule createRule(final String validationRuleName, final Map<String, String> settings) throws InvalidConfigurationException {
+		try {
+			final Class<?> klass = Class.forName(validationRuleName);
+			final Constructor<?> ctor = klass.getConstructor();
+			final ParameterValidationRule rule = (ParameterValidationRule)ctor.newInstance();
+			if (settings != null) {
+				rule.configure(settings);
+			}
+			return rule;
+		} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | ClassCastException ex) {
+			throw new InvalidConfigurationException(ex);
+		}
+	}
+
+	/**
+	 * Identifies a rule by its class and settings
+	 */
+	private static final class RuleKey {
+		private final String validationRuleName;
+		private final Map<String, String> settings;
+
+		private RuleKey(final String validationRuleName, final Map<String, String> settings) {
+			this.validationRuleName = validationRuleName;
+			/*
+			 * Copy the settings, so later changes to the JAXB bean can't alter the key
+			 */
+			this.settings = settings == null ? null : Collections.unmodifiableMap(new HashMap<String, String>(settings));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * validationRuleName.hashCode() + (settings == null ? 0 : settings.hashCode());
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof RuleKey)) {
+				return false;
+			}
+
+			final RuleKey other = (RuleKey)obj;
+			return validationRuleName.equals(other.validationRuleName)
+					&& (settings == null ? other.settings == null : settings.equals(other.settings));
+		}
+	}
+}
@@ -24,11 +24,11 @@
 
 package com.matthewcasperson.validation.ruleimpl;
 
+import java.util.Map;
 import java.util.logging.Logger;
 
-import org.owasp.esapi.Encoder;
-import org.owasp.esapi.reference.DefaultEncoder;
-
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.canonicalizationimpl.CanonicalizerFactory;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
 
@@ -37,11 +37,23 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * A validation rule to unencode a value. Sending through pre-encoded values is often a sign 
- * of an injection attack. Uses the OWASP ESAPI library.
+ * of an injection attack. Uses the OWASP ESAPI library, unless the engine setting is builtin.
  * @author mcasperson
  */
 public class CanonicalizeTextValidationRule extends ParameterValidationRuleTemplate {
 	private static final Logger LOGGER = Logger.getLogger(CanonicalizeTextValidationRule.class.getName());
+
+	private static final String ENGINE = "engine";
+	private Canonicalizer canonicalizer = CanonicalizerFactory.getDefaultCanonicalizer();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void configure(final Map<String, String> settings) {
+		if (settings.containsKey(ENGINE)) {
+			canonicalizer = CanonicalizerFactory.getCanonicalizer(settings.get(ENGINE));
+		}
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -55,17 +67,22 @@ public class CanonicalizeTextValidationRule extends ParameterValidationRuleTempl
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them is changed by canonicalization
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				final Encoder encoder = DefaultEncoder.getInstance();
-				final String canonicalized = encoder.canonicalize(param, false);
-				retValues[paramIndex] = canonicalized;
+			if (param != null) {
+				final String canonicalized = canonicalizer.canonicalize(param);
+				if (canonicalized != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = canonicalized;
+				}
 			}
 		}
 		
@@ -30,29 +30,41 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.text.Normalizer;
 import java.util.Map;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.text.HtmlEscaper;
 
 /**
  * A validation rule that will cause the request to fail if the parameter includes any special
  * HTML characters
+ * <p>
+ * Values are checked with a lookup table of the characters that can never cause a failure, built
+ * from the allow flags in configure(). Values made up only of those characters pass without any
+ * copying. Anything else, including surrogate pairs, is checked by escaping the value and comparing
+ * it to the original, which is how this rule has always decided what counts as HTML.
  * @author mcasperson
  */
 public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTemplate {
 	private static final Logger LOGGER = Logger.getLogger(FailIfContainsHTMLValidationRule.class.getName());
 
-    private static final String ELLIPSIS = "…";
+    private static final String ELLIPSIS = "\u2026";
 
     private static final String ALLOW_AMPERSANDS = "allowAmpersands";
 	private static final String ALLOW_ACCENTS = "allowAccents";
     private static final String ALLOW_ELLIPSIS = "allowEllipsis";
+
+	/**
+	 * The tables of allowed characters for each combination of allow flags, built when first needed
+	 */
+	private static final boolean[][] ALLOWED_CHARS_TABLES = new boolean[8][];
+
 	private boolean allowAmpersands = false;
 	private boolean allowAccents = false;
     private boolean allowEllipsis = false;
+	private boolean[] allowedChars = getAllowedChars(false, false, false);
 
 	/**
 	 * {@inheritDoc}
@@ -69,6 +81,8 @@ public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTem
         if (settings.containsKey(ALLOW_ELLIPSIS)) {
             allowEllipsis = Boolean.parseBoolean(settings.get(ALLOW_ELLIPSIS));
         }
+
+		allowedChars = getAllowedChars(allowAmpersands, allowAccents, allowEllipsis);
 	}
 	
 	/**
@@ -84,29 +98,118 @@ public class FailIfContainsHTMLValidationRule extends ParameterValidationRuleTem
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
-			String param = params[paramIndex];
+			final String param = params[paramIndex];
+
+			if (param != null && !containsOnlyAllowedChars(param)) {
+				checkEscaped(name, url, param);
+			}
+		}
+		
+		return params;
+	}
+
+	/**
+	 * @param param The parameter value
+	 * @return true if every character in the value is in the table of allowed characters
+	 */
+	private boolean containsOnlyAllowedChars(final String param) {
+		final boolean[] allowed = allowedChars;
+		for (int charIndex = 0, length = param.length(); charIndex < length; ++charIndex) {
+			if (!allowed[param.charAt(charIndex)]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Escapes the value and compares it to the original
+	 * @param name The name of the parameter
+	 * @param url The page that is being requested
+	 * @param value The parameter value
+	 * @throws ValidationFailedException if escaping the value changed it
+	 */
+	private void checkEscaped(final String name, final String url, final String value) throws ValidationFailedException {
+		String param = value;
+
+		if (allowAmpersands) {
+			param = param.replace("&", "");
+		}
 
-			if (allowAmpersands) {
-				param = param.replaceAll("&", "");
+		if (allowAccents) {
+			param = Normalizer.normalize(param, Normalizer.Form.NFD);
+		}
+
+		if (allowEllipsis) {
+			param = param.replace(ELLIPSIS, "");
+		}
+
+		final String encoded = StringEscapeUtils.escapeHtml4(param);
+
+		if (!encoded.equals(param)) {
+			throw new ValidationFailedException("PVF-SECURITY-0001: Parameter found to have special HTML characters.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
+		}
+	}
+
+	/**
+	 * Returns the table of allowed characters for a combination of allow flags
+	 * @param allowAmpersands true if ampersands are removed before checking
+	 * @param allowAccents true if the value is decomposed before checking
+	 * @param allowEllipsis true if ellipses are removed before checking
+	 * @return The table of allowed characters, indexed by character
+	 */
+	private static synchronized boolean[] getAllowedChars(final boolean allowAmpersands, final boolean allowAccents, final boolean allowEllipsis) {
+		final int tableIndex = (allowAmpersands ? 1 : 0) | (allowAccents ? 2 : 0) | (allowEllipsis ? 4 : 0);
+		if (ALLOWED_CHARS_TABLES[tableIndex] == null) {
+			ALLOWED_CHARS_TABLES[tableIndex] = buildAllowedChars(allowAmpersands, allowAccents, allowEllipsis);
+		}
+		return ALLOWED_CHARS_TABLES[tableIndex];
+	}
+
+	/**
+	 * Works out which characters can never cause a value to fail. A value without surrogates fails
+	 * if, after ampersands are removed, the value is decomposed and ellipses are removed, any of the
+	 * remaining characters is escaped. Each character is removed or decomposed independently of the
+	 * characters around it, so this can be decided one character at a time.
+	 * <p>
+	 * Surrogates are never allowed, because escapeHtml4() handles surrogate pairs as a whole.
+	 * @param allowAmpersands true if ampersands are removed before checking
+	 * @param allowAccents true if the value is decomposed before checking
+	 * @param allowEllipsis true if ellipses are removed before checking
+	 * @return The table of allowed characters, indexed by character
+	 */
+	private static boolean[] buildAllowedChars(final boolean allowAmpersands, final boolean allowAccents, final boolean allowEllipsis) {
+		final char ellipsis = ELLIPSIS.charAt(0);
+		final boolean[] allowed = new boolean[Character.MAX_VALUE + 1];
+
+		for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+			if (Character.isSurrogate((char)c)) {
+				continue;
 			}
 
-			if (allowAccents) {
-                param = Normalizer.normalize(param, Normalizer.Form.NFD);
-            }
-
-            if (allowEllipsis) {
-                param = param.replaceAll(ELLIPSIS, "");
-            }
-			
-			if (param != null) {
-				final String encoded = StringEscapeUtils.escapeHtml4(param);
-				
-				if (!encoded.equals(param)) {
-					throw new ValidationFailedException("PVF-SECURITY-0001: Parameter found to have special HTML characters.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
+			if (allowAmpersands && c == '&') {
+				allowed[c] = true;
+				continue;
+			}
+
+			/*
+			 * Characters below U+00C0 are not decomposed, so only need a lookup
+			 */
+			final String checked = allowAccents && c >= '\u00C0'
+					? Normalizer.normalize(String.valueOf((char)c), Normalizer.Form.NFD)
+					: String.valueOf((char)c);
+
+			boolean charAllowed = true;
+			for (int checkedIndex = 0, length = checked.length(); checkedIndex < length; ++checkedIndex) {
+				final char checkedChar = checked.charAt(checkedIndex);
+				if (HtmlEscaper.HTML4.isEscaped(checkedChar) && !(allowEllipsis && checkedChar == ellipsis)) {
+					charAllowed = false;
+					break;
 				}
 			}
+			allowed[c] = charAllowed;
 		}
-		
-		return params;
+
+		return allowed;
 	}
-}
\ No newline at end of file
+}
@@ -30,9 +30,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import org.owasp.esapi.Encoder;
-import org.owasp.esapi.reference.DefaultEncoder;
-
+import com.matthewcasperson.validation.canonicalization.Canonicalizer;
+import com.matthewcasperson.validation.canonicalizationimpl.CanonicalizerFactory;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
 
@@ -45,7 +44,9 @@ public class FailIfNotCanonicalizedValidationRule extends ParameterValidationRul
 	private static final Logger LOGGER = Logger.getLogger(FailIfNotCanonicalizedValidationRule.class.getName());
 
 	private static final String ALLOW_BACK_SLASH = "allowBackSlash";
+	private static final String ENGINE = "engine";
 	private boolean allowBackSlash = false;
+	private Canonicalizer canonicalizer = CanonicalizerFactory.getDefaultCanonicalizer();
 
 	/**
 	 * {@inheritDoc}
@@ -54,6 +55,10 @@ public class FailIfNotCanonicalizedValidationRule extends ParameterValidationRul
 		if (settings.containsKey(ALLOW_BACK_SLASH)) {
 			allowBackSlash = Boolean.parseBoolean(settings.get(ALLOW_BACK_SLASH));
 		}
+
+		if (settings.containsKey(ENGINE)) {
+			canonicalizer = CanonicalizerFactory.getCanonicalizer(settings.get(ENGINE));
+		}
 	}
 	
 	/**
@@ -70,16 +75,15 @@ public class FailIfNotCanonicalizedValidationRule extends ParameterValidationRul
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			String param = params[paramIndex];
-
-			if (allowBackSlash) {
-				param = param.replaceAll("\\\\", "");
-			}
 			
 			if (param != null) {
-				final Encoder encoder = DefaultEncoder.getInstance();
-				final String canonicalized = encoder.canonicalize(param, false);
+				if (allowBackSlash && param.indexOf('\\') != -1) {
+					param = param.replace("\\", "");
+				}
+
+				final String canonicalized = canonicalizer.canonicalize(param);
 				
-				if (!canonicalized.equals(param)) {
+				if (canonicalized != param) {
 					throw new ValidationFailedException("PVF-SECURITY-0002: Param was found to already be encoded.\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
 				}
 			}
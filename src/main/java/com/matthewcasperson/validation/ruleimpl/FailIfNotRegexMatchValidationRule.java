@@ -29,20 +29,27 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.Map;
-import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.LinearPattern;
+import com.matthewcasperson.validation.regex.RegexBudget;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 /**
- * A validation rule that will fail if the param does not match the supplied regex
+ * A validation rule that will fail if the param does not match the supplied regex. The regex
+ * is matched with java.util.regex, unless the engine setting is linear. The work java.util.regex
+ * does on each value can be limited with the maxSteps and timeoutMillis settings.
  * @author mcasperson
  */
 public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTemplate {
-	private static final Logger LOGGER = Logger.getLogger(FailIfNotRegexMatchValidationRule.class.getName());
 	private static final String PATTERN_KEY_NAME = "pattern";
+	private static final String ENGINE_KEY_NAME = "engine";
 	private Pattern pattern;
+	private LinearPattern linearPattern;
+	private RegexBudget budget = RegexBudget.UNLIMITED;
 	
 	/**
 	 * 
@@ -60,11 +67,50 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 		this.pattern = pattern;
 	}
 
+	/**
+	 * 
+	 * @return The pattern matched by the linear engine, or null if the pattern is matched with java.util.regex
+	 */
+	public LinearPattern getLinearPattern() {
+		return linearPattern;
+	}
+
+	/**
+	 * 
+	 * @param linearPattern The pattern matched by the linear engine, or null to match the pattern with java.util.regex
+	 */
+	public void setLinearPattern(final LinearPattern linearPattern) {
+		this.linearPattern = linearPattern;
+	}
+
+	/**
+	 * 
+	 * @return The limit on the work java.util.regex does matching each value
+	 */
+	public RegexBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * 
+	 * @param budget The limit on the work java.util.regex does matching each value
+	 */
+	public void setBudget(final RegexBudget budget) {
+		checkNotNull(budget);
+		this.budget = budget;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void configure(final Map<String, String> settings) {
 		pattern = Pattern.compile(settings.get(PATTERN_KEY_NAME));
+
+		if (settings.containsKey(ENGINE_KEY_NAME)) {
+			linearPattern = LinearPattern.compileForEngine(settings.get(ENGINE_KEY_NAME), pattern.pattern());
+		}
+
+		budget = RegexBudget.fromSettings(settings);
 	}
 	
 	/**
@@ -72,6 +118,23 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 	 */
 	@Override
 	public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+		return fixParams(name, url, params, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected String[] fixParamsInContext(final String name, final ValidationContext context, final String[] params) throws ValidationFailedException {
+		checkNotNull(context);
+		return fixParams(name, context.getRequestURL(), params, context);
+	}
+
+	/**
+	 * @param context The request being validated, or null. Values that are let through because the
+	 * regex exceeded its budget are recorded in the context.
+	 */
+	private String[] fixParams(final String name, final String url, final String[] params, final ValidationContext context) throws ValidationFailedException {
 		checkNotNull(name);
 		checkArgument(!name.trim().isEmpty());
 		checkNotNull(url);
@@ -93,7 +156,25 @@ public class FailIfNotRegexMatchValidationRule extends ParameterValidationRuleTe
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (!pattern.matcher(param).find()) {
+			final boolean found;
+			try {
+				found = linearPattern != null ? linearPattern.find(param) : budget.find(pattern, param);
+			} catch (final RegexBudgetExceededException ex) {
+				final ValidationFailedException overrun = new ValidationFailedException("PVF-SECURITY-0005: " + ex.getMessage() + ". The regex was " + pattern.toString() + "\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
+				if (budget.isFailWhenExceeded()) {
+					throw overrun;
+				}
+
+				/*
+				 * The value is let through, and left to the filter to audit and count
+				 */
+				if (context != null) {
+					context.addRegexBudgetOverrun(name, overrun, param);
+				}
+				continue;
+			}
+
+			if (!found) {
 				throw new ValidationFailedException("PVF-SECURITY-0003: Param did not find a match with the regex " + pattern.toString() + "\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
 			}
 		}
@@ -30,18 +30,35 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.StringEscapeUtils;
-
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.text.HtmlEscaper;
 
 /**
  * A validation rule to encode any special characters found in HTML. This is essential
- * if text is going to be redisplayed in a HTML page. Uses the Apache Commons library.
+ * if text is going to be redisplayed in a HTML page. By default every character with a named
+ * entity in HTML 4 is encoded, the same as the Apache Commons escapeHtml4() method.
  * @author mcasperson
  */
 public class HTMLEncodeTextValidationRule extends ParameterValidationRuleTemplate {
 	private static final Logger LOGGER = Logger.getLogger(HTMLEncodeTextValidationRule.class.getName());
+
+	private static final String ESCAPE_SET = "escapeSet";
+	private static final String HTML4_ESCAPE_SET = "html4";
+	private static final String MINIMAL_ESCAPE_SET = "minimal";
+	private HtmlEscaper escaper = HtmlEscaper.HTML4;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void configure(final Map<String, String> settings) {
+		if (settings.containsKey(ESCAPE_SET)) {
+			final String escapeSet = settings.get(ESCAPE_SET);
+			checkArgument(HTML4_ESCAPE_SET.equals(escapeSet) || MINIMAL_ESCAPE_SET.equals(escapeSet),
+					"PVF-CONFIGURATION-0017: " + ESCAPE_SET + " must be " + HTML4_ESCAPE_SET + " or " + MINIMAL_ESCAPE_SET);
+			escaper = MINIMAL_ESCAPE_SET.equals(escapeSet) ? HtmlEscaper.MINIMAL : HtmlEscaper.HTML4;
+		}
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -55,16 +72,22 @@ public class HTMLEncodeTextValidationRule extends ParameterValidationRuleTemplat
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them needs to be encoded
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				final String encoded = StringEscapeUtils.escapeHtml4(param);
-				retValues[paramIndex] = encoded;	
+			if (param != null) {
+				final String encoded = escaper.escape(param);
+				if (encoded != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = encoded;
+				}
 			}
 		}
 		
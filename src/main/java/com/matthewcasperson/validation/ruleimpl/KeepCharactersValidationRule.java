@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.ruleimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.text.CharacterFilter;
+
+/**
+ * A validation rule that removes every character that is not in a character class. The class is
+ * written as a regex character class, so this rule keeps the same characters as RemoveRegexMatches
+ * with the negated class, e.g. a characters setting of [a-zA-Z0-9 ] is the same as a pattern of [^a-zA-Z0-9 ].
+ * @author mcasperson
+ */
+public class KeepCharactersValidationRule extends ParameterValidationRuleTemplate {
+	private static final String CHARACTERS_KEY_NAME = "characters";
+	private CharacterFilter filter;
+
+	/**
+	 *
+	 * @return The filter compiled from the supplied settings
+	 */
+	public CharacterFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 *
+	 * @param filter The filter compiled from the supplied settings
+	 */
+	public void setFilter(final CharacterFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void configure(final Map<String, String> settings) {
+		if (settings.containsKey(CHARACTERS_KEY_NAME)) {
+			filter = CharacterFilter.compile(settings.get(CHARACTERS_KEY_NAME));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+		checkNotNull(name);
+		checkArgument(!name.trim().isEmpty());
+		checkNotNull(url);
+		checkArgument(!url.trim().isEmpty());
+		checkNotNull(params);
+		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
+
+		checkState(filter != null, "PVF-CONFIGURATION-0014: The characters to keep should not be null. Make sure the rule is assigned a regex character class, like [a-z0-9], with the setting key " + CHARACTERS_KEY_NAME);
+
+		/*
+		 * The params are only copied if one of them has characters to remove
+		 */
+		String[] retValues = params;
+
+		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
+			final String param = params[paramIndex];
+
+			if (param != null) {
+				final String fixed = filter.retain(param);
+				if (fixed != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = fixed;
+				}
+			}
+		}
+
+		return retValues;
+	}
+}
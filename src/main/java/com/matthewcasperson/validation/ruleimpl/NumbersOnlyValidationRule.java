@@ -31,6 +31,7 @@ import java.util.logging.Logger;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.text.CharacterFilter;
 
 /**
  * A validation rule that removes any characters that are not numbers (or the negative sign)
@@ -38,6 +39,7 @@ import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
  */
 public class NumbersOnlyValidationRule extends ParameterValidationRuleTemplate {
 	private static final Logger LOGGER = Logger.getLogger(NumbersOnlyValidationRule.class.getName());
+	private static final CharacterFilter NUMBERS = CharacterFilter.compile("[0-9\\-]");
 	
 	/**
 	 * {@inheritDoc}
@@ -51,15 +53,22 @@ public class NumbersOnlyValidationRule extends ParameterValidationRuleTemplate {
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them has characters to remove
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				retValues[paramIndex] = param.replaceAll("[^0-9\\-]", "");
+			if (param != null) {
+				final String fixed = NUMBERS.retain(param);
+				if (fixed != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = fixed;
+				}
 			}
 		}
 		
@@ -7,20 +7,47 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.BudgetedCharSequence;
+import com.matthewcasperson.validation.regex.LinearPattern;
+import com.matthewcasperson.validation.regex.RegexBudget;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 /**
  * Strips out ant text that is matched by the supplied regexes. This is useful
  * for custom sanitisation.
+ * <p>
+ * By default removal is repeated until the value contains no more matches, so text like
+ * "&lt;scr&lt;script&gt;ipt&gt;" can not be used to rebuild a match out of the text around it. This
+ * is done in a single pass over the value: after each removal only the last rescanWindow characters
+ * before the removal are scanned again, and a final scan of the whole value picks up any longer
+ * matches. Set fixedPoint to false to remove each match once, like Matcher.replaceAll().
+ * <p>
+ * Only the text at the positions the regex matched is removed. Earlier versions removed every copy
+ * of the matched text, so anchors and lookarounds could remove text they did not match: ^a used to
+ * turn "aXa" into "X", and now turns it into "Xa".
+ * <p>
+ * Set engine to linear to match the regex with LinearPattern, which can't be made to backtrack.
+ * Otherwise the work java.util.regex does looking for each match can be limited with the maxSteps
+ * setting, and the time spent on each value with the timeoutMillis setting.
  * 
  * @author mcasperson
  *
  */
 public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 	private static final String PATTERN_KEY_NAME = "pattern";
+	private static final String FIXED_POINT_KEY_NAME = "fixedPoint";
+	private static final String RESCAN_WINDOW_KEY_NAME = "rescanWindow";
+	private static final String ENGINE_KEY_NAME = "engine";
+	private static final int DEFAULT_RESCAN_WINDOW = 64;
 
 	private Pattern pattern;
+	private LinearPattern linearPattern;
+	private RegexBudget budget = RegexBudget.UNLIMITED;
+	private boolean fixedPoint = true;
+	private int rescanWindow = DEFAULT_RESCAN_WINDOW;
 
 	/**
 	 * 
@@ -39,15 +66,116 @@ public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 		this.pattern = pattern;
 	}
 
+	/**
+	 * 
+	 * @return The pattern matched by the linear engine, or null if the pattern is matched with java.util.regex
+	 */
+	public LinearPattern getLinearPattern() {
+		return linearPattern;
+	}
+
+	/**
+	 * 
+	 * @param linearPattern
+	 *            The pattern matched by the linear engine, or null to match the pattern with java.util.regex
+	 */
+	public void setLinearPattern(final LinearPattern linearPattern) {
+		this.linearPattern = linearPattern;
+	}
+
+	/**
+	 * 
+	 * @return The limit on the work java.util.regex does matching each value
+	 */
+	public RegexBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * 
+	 * @param budget
+	 *            The limit on the work java.util.regex does matching each value
+	 */
+	public void setBudget(final RegexBudget budget) {
+		checkNotNull(budget);
+		this.budget = budget;
+	}
+
+	/**
+	 * 
+	 * @return true if matches are removed until none are left, and false if each match is removed once
+	 */
+	public boolean isFixedPoint() {
+		return fixedPoint;
+	}
+
+	/**
+	 * 
+	 * @param fixedPoint
+	 *            true if matches are removed until none are left, and false if each match is removed once
+	 */
+	public void setFixedPoint(final boolean fixedPoint) {
+		this.fixedPoint = fixedPoint;
+	}
+
+	/**
+	 * 
+	 * @return The number of characters before each removal that are scanned again for new matches
+	 */
+	public int getRescanWindow() {
+		return rescanWindow;
+	}
+
+	/**
+	 * 
+	 * @param rescanWindow
+	 *            The number of characters before each removal that are scanned again for new matches
+	 */
+	public void setRescanWindow(final int rescanWindow) {
+		checkArgument(rescanWindow >= 0, "PVF-CONFIGURATION-0010: The rescan window can not be negative");
+		this.rescanWindow = rescanWindow;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void configure(final Map<String, String> settings) {
 		pattern = Pattern.compile(settings.get(PATTERN_KEY_NAME));
+
+		if (settings.containsKey(ENGINE_KEY_NAME)) {
+			linearPattern = LinearPattern.compileForEngine(settings.get(ENGINE_KEY_NAME), pattern.pattern());
+		}
+
+		budget = RegexBudget.fromSettings(settings);
+
+		if (settings.containsKey(FIXED_POINT_KEY_NAME)) {
+			setFixedPoint(Boolean.parseBoolean(settings.get(FIXED_POINT_KEY_NAME)));
+		}
+
+		if (settings.containsKey(RESCAN_WINDOW_KEY_NAME)) {
+			setRescanWindow(Integer.parseInt(settings.get(RESCAN_WINDOW_KEY_NAME)));
+		}
 	}
 
 	@Override
 	public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+		return fixParams(name, url, params, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected String[] fixParamsInContext(final String name, final ValidationContext context, final String[] params) throws ValidationFailedException {
+		checkNotNull(context);
+		return fixParams(name, context.getRequestURL(), params, context);
+	}
+
+	/**
+	 * @param context The request being validated, or null. Values that are let through because the
+	 * regex exceeded its budget are recorded in the context.
+	 */
+	private String[] fixParams(final String name, final String url, final String[] params, final ValidationContext context) throws ValidationFailedException {
 		checkNotNull(name);
 		checkArgument(!name.trim().isEmpty());
 		checkNotNull(url);
@@ -56,28 +184,40 @@ public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
 
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them has a match removed
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				/*
-				 * Loop over the paramater and strip out ever instance of text that 
-				 * matches the regex.
-				 */
-				String fixedString = param;
-				while (true) {
-					final Matcher matcher = pattern.matcher(fixedString);
-					if (!matcher.find()) {
-						break;
+			if (param != null) {
+				final String fixedString;
+				try {
+					fixedString = removeMatches(param);
+				} catch (final RegexBudgetExceededException ex) {
+					final ValidationFailedException overrun = new ValidationFailedException("PVF-SECURITY-0005: " + ex.getMessage() + ". The regex was " + pattern.toString() + "\nNAME: " + name + "\nVALUE: " + param + "\nURL: " + url);
+					if (budget.isFailWhenExceeded()) {
+						throw overrun;
+					}
+
+					/*
+					 * The value is left as it was. A hostile client can make this happen on every
+					 * request, so rather than being logged here, it is left to the filter to audit and count.
+					 */
+					if (context != null) {
+						context.addRegexBudgetOverrun(name, overrun, param);
+					}
+					continue;
+				}
+
+				if (fixedString != param) {
+					if (retValues == params) {
+						retValues = params.clone();
 					}
-					fixedString = fixedString.replace(matcher.group(), "");
+					retValues[paramIndex] = fixedString;
 				}
-				
-				retValues[paramIndex] = fixedString;
 			}
 		}
 		
@@ -85,4 +225,165 @@ public class RemoveRegexMatches extends ParameterValidationRuleTemplate {
 
 	}
 
+	/**
+	 * Removes the matches from a value
+	 * @param param The value
+	 * @return The value itself if there were no matches, or the value with the matches removed
+	 * @throws RegexBudgetExceededException if java.util.regex exceeded its budget
+	 */
+	private String removeMatches(final String param) {
+		/*
+		 * The first scan, the rescans and the final scan all share one budget
+		 */
+		final RegexBudget.Session session = linearPattern == null && budget.isLimited() ? budget.startSession() : null;
+
+		/*
+		 * Most values don't match at all, so look for a match before copying anything
+		 */
+		final CharSequence paramText = session != null ? session.wrap(param) : param;
+		final Matcher paramMatcher = linearPattern == null ? pattern.matcher(paramText) : null;
+		final long firstMatch = nextMatch(paramText, paramMatcher, 0);
+		if (firstMatch == -1) {
+			return param;
+		}
+
+		final RemovalBuffer buffer = new RemovalBuffer(param);
+		final CharSequence bufferText = session != null ? session.wrap(buffer) : buffer;
+		/*
+		 * Transparent, non-anchoring bounds mean lookarounds and anchors see the whole
+		 * value, and not just the region being scanned
+		 */
+		final Matcher matcher = linearPattern == null
+				? pattern.matcher(bufferText).useTransparentBounds(true).useAnchoringBounds(false)
+				: null;
+
+		int from = LinearPattern.matchStart(firstMatch);
+		while (true) {
+			final long match = nextMatch(bufferText, matcher, from);
+			if (match != -1) {
+				final int matchStart = LinearPattern.matchStart(match);
+				buffer.delete(matchStart, LinearPattern.matchEnd(match));
+
+				/*
+				 * The removal can only create a new match out of the text either side of it. The
+				 * text after it is scanned anyway, so only the text before it needs to be scanned again.
+				 */
+				from = fixedPoint ? Math.max(0, matchStart - rescanWindow) : matchStart;
+				continue;
+			}
+
+			/*
+			 * A match longer than the rescan window could have been missed, so finish
+			 * with a scan of the whole value
+			 */
+			if (!fixedPoint || from == 0) {
+				break;
+			}
+			from = 0;
+		}
+
+		return buffer.toString();
+	}
+
+	/**
+	 * Finds the next match that is not empty. Empty matches have nothing to remove.
+	 * @param text The text being matched
+	 * @param matcher The matcher for the text, or null if the linear engine is used
+	 * @param from The index to start searching from
+	 * @return The match, packed as (start << 32) | end like LinearPattern.find(), or -1 if there is no match
+	 */
+	private long nextMatch(final CharSequence text, final Matcher matcher, final int from) {
+		final int to = text.length();
+		for (int start = from; start <= to; ) {
+			final long match;
+			if (matcher == null) {
+				match = linearPattern.find(text, start);
+			} else {
+				if (text instanceof BudgetedCharSequence) {
+					/*
+					 * The step budget applies to each match
+					 */
+					((BudgetedCharSequence)text).resetSteps();
+				}
+				matcher.region(start, to);
+				match = matcher.find() ? ((long)matcher.start() << 32) | matcher.end() : -1;
+			}
+
+			if (match == -1) {
+				return -1;
+			}
+
+			final int matchEnd = LinearPattern.matchEnd(match);
+			if (matchEnd > LinearPattern.matchStart(match)) {
+				return match;
+			}
+
+			start = matchEnd + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * A gap buffer holding the value as matches are removed from it. Matches are removed
+	 * from left to right, so the gap only ever moves a short distance and every removal
+	 * costs no more than the length of the match and the rescan window.
+	 */
+	private static final class RemovalBuffer implements CharSequence {
+		private final char[] chars;
+		private int gapStart;
+		private int gapEnd;
+
+		private RemovalBuffer(final String value) {
+			chars = value.toCharArray();
+			gapStart = chars.length;
+			gapEnd = chars.length;
+		}
+
+		@Override
+		public int length() {
+			return chars.length - (gapEnd - gapStart);
+		}
+
+		@Override
+		public char charAt(final int index) {
+			return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return toString().substring(start, end);
+		}
+
+		/**
+		 * Removes a range of characters
+		 * @param start The index of the first character to remove
+		 * @param end The index after the last character to remove
+		 */
+		private void delete(final int start, final int end) {
+			moveGap(start);
+			gapEnd += end - start;
+		}
+
+		private void moveGap(final int index) {
+			if (index < gapStart) {
+				final int count = gapStart - index;
+				System.arraycopy(chars, index, chars, gapEnd - count, count);
+				gapStart -= count;
+				gapEnd -= count;
+			} else if (index > gapStart) {
+				final int count = index - gapStart;
+				System.arraycopy(chars, gapEnd, chars, gapStart, count);
+				gapStart += count;
+				gapEnd += count;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(length())
+				.append(chars, 0, gapStart)
+				.append(chars, gapEnd, chars.length - gapEnd)
+				.toString();
+		}
+	}
 }
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.ruleimpl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.text.LiteralReplacer;
+
+/**
+ * A validation rule that replaces fixed pieces of text. Each literal is supplied with a setting key
+ * of literal followed by a number, like literal1, and is replaced by the setting with the key
+ * replacement and the same number, like replacement1. A literal with no replacement is removed.
+ * <p>
+ * All the literals are replaced in a single pass. Where literals overlap, the longest one is replaced.
+ * @author mcasperson
+ */
+public class ReplaceLiteralsValidationRule extends ParameterValidationRuleTemplate {
+	private static final String LITERAL_KEY_PREFIX = "literal";
+	private static final String REPLACEMENT_KEY_PREFIX = "replacement";
+	private LiteralReplacer replacer;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void configure(final Map<String, String> settings) {
+		final LiteralReplacer.Builder builder = LiteralReplacer.builder();
+		boolean hasLiterals = false;
+
+		for (final Map.Entry<String, String> setting : settings.entrySet()) {
+			final String key = setting.getKey();
+
+			if (isNumberedKey(key, LITERAL_KEY_PREFIX)) {
+				final String replacement = settings.get(REPLACEMENT_KEY_PREFIX + key.substring(LITERAL_KEY_PREFIX.length()));
+				builder.add(setting.getValue(), replacement == null ? "" : replacement);
+				hasLiterals = true;
+			} else if (isNumberedKey(key, REPLACEMENT_KEY_PREFIX)) {
+				checkArgument(settings.containsKey(LITERAL_KEY_PREFIX + key.substring(REPLACEMENT_KEY_PREFIX.length())),
+						"PVF-CONFIGURATION-0037: The setting " + key + " has no matching " + LITERAL_KEY_PREFIX + " setting");
+			}
+		}
+
+		replacer = hasLiterals ? builder.build() : null;
+	}
+
+	/**
+	 * @param key A setting key
+	 * @param prefix The prefix of the key
+	 * @return true if the key is the prefix followed by a number
+	 */
+	private static boolean isNumberedKey(final String key, final String prefix) {
+		if (!key.startsWith(prefix) || key.length() == prefix.length()) {
+			return false;
+		}
+
+		for (int index = prefix.length(); index < key.length(); ++index) {
+			if (key.charAt(index) < '0' || key.charAt(index) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+		checkNotNull(name);
+		checkArgument(!name.trim().isEmpty());
+		checkNotNull(url);
+		checkArgument(!url.trim().isEmpty());
+		checkNotNull(params);
+		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
+
+		checkState(replacer != null, "PVF-CONFIGURATION-0016: No literals were supplied. Make sure the rule is assigned at least one literal with a setting key like " + LITERAL_KEY_PREFIX + "1");
+
+		/*
+		 * The params are only copied if one of them contains a literal
+		 */
+		String[] retValues = params;
+
+		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
+			final String param = params[paramIndex];
+
+			if (param != null) {
+				final String fixed = replacer.replace(param);
+				if (fixed != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = fixed;
+				}
+			}
+		}
+
+		return retValues;
+	}
+}
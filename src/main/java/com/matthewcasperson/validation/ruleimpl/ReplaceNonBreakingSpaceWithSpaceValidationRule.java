@@ -2,10 +2,7 @@ package com.matthewcasperson.validation.ruleimpl;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
-
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.matthewcasperson.validation.text.LiteralReplacer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -17,6 +14,16 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  */
 public class ReplaceNonBreakingSpaceWithSpaceValidationRule extends ParameterValidationRuleTemplate {
+	/**
+	 * Every form of non-breaking space we replace is either an entity or the character itself
+	 */
+	private static final LiteralReplacer NON_BREAKING_SPACES = LiteralReplacer.builder()
+			.add("&nbsp;", " ")
+			.add("&#160;", " ")
+			.add("&#xa0;", " ")
+			.add("\u00A0", " ")
+			.build();
+
 	@Override
 	public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
 		checkNotNull(name);
@@ -27,19 +34,22 @@ public class ReplaceNonBreakingSpaceWithSpaceValidationRule extends ParameterVal
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
 
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them contains a non-breaking space
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				retValues[paramIndex] = param
-						.replaceAll("&nbsp;", " ")
-						.replaceAll("&#160;", " ")
-						.replaceAll("&#xa0;", " ")
-						.replaceAll("\u00A0", " ");
+			if (param != null) {
+				final String fixed = NON_BREAKING_SPACES.replace(param);
+				if (fixed != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = fixed;
+				}
 			}
 		}
 		
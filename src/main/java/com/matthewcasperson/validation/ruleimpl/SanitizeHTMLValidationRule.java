@@ -1,9 +1,12 @@
 package com.matthewcasperson.validation.ruleimpl;
 
+import com.google.common.base.Splitter;
 import com.matthewcasperson.validation.exception.ValidationFailedException;
 import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
 import org.owasp.html.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -12,7 +15,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Sanitizes html using the OWASP HTML sanitizer with some common defaults
+ * Sanitizes html using the OWASP HTML sanitizer with some common defaults.
+ * <p>
+ * The policy is compiled once when the rule is configured, and every value is sanitized
+ * through it. Values made up only of characters that the renderer writes out as they are
+ * would come back unchanged, so they are returned without being sanitized.
  */
 public class SanitizeHTMLValidationRule extends ParameterValidationRuleTemplate {
     private static final Logger LOGGER = Logger.getLogger(SanitizeHTMLValidationRule.class.getName());
@@ -22,14 +29,152 @@ public class SanitizeHTMLValidationRule extends ParameterValidationRuleTemplate
     private static final String[] URL_PROTOCOLS = new String[] {"https", "http"};
 
     private static final String ALLOW_LINKS = "allowLinks";
+    private static final String ALLOWED_ELEMENTS = "allowedElements";
+    private static final String ALLOWED_ATTRIBUTES = "allowedAttributes";
+    private static final String ALLOWED_PROTOCOLS = "allowedProtocols";
+
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    /**
+     * Buffers larger than this are not kept for the next value, so one huge value doesn't
+     * hold on to memory for the life of the thread
+     */
+    private static final int MAX_POOLED_BUFFER_LENGTH = 64 * 1024;
+
+    /**
+     * The renderer encodes the characters that are special in HTML text or attributes, and the
+     * characters from U+FF00 to U+FFFD. It drops the other control characters, U+FFFE, U+FFFF and
+     * lone surrogates, and writes supplementary characters as numeric references.
+     */
+    private static final String ENCODED_CHARS = "\"&'+<=>@`";
+
+    /**
+     * One bit for each char, set if the renderer writes the char out as it is
+     */
+    private static final long[] PLAIN_CHARS = buildPlainChars();
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
 
+    private static final Handler<String> LOGGING_HANDLER = new Handler<String>() {
+        public void handle(final String errorMessage) {
+            LOGGER.log(Level.INFO, errorMessage);
+        }
+    };
+
+    /**
+     * The policy used when the rule has no settings
+     */
+    private static final PolicyFactory DEFAULT_POLICY = buildPolicy(false, new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>());
+
+    private PolicyFactory policy = DEFAULT_POLICY;
+
+    /**
+     * Compiles the policy from the settings. Supported settings are:
+     * <ul>
+     * <li>allowLinks - true to allow a elements with http and https links in their href attribute</li>
+     * <li>allowedElements - A comma separated list of elements to allow, as well as the common block
+     * and inline formatting elements</li>
+     * <li>allowedAttributes - A comma separated list of attributes to allow. An attribute is allowed on
+     * every element, or on a single element if it is written as element:attribute.</li>
+     * <li>allowedProtocols - A comma separated list of the protocols allowed in URLs. This replaces the
+     * http and https protocols allowed by allowLinks.</li>
+     * </ul>
+     */
+    public void configure(final Map<String, String> settings) {
+        final boolean allowLinks = settings.containsKey(ALLOW_LINKS) && Boolean.parseBoolean(settings.get(ALLOW_LINKS));
 
-    private boolean allowLinks = false;
+        policy = buildPolicy(
+                allowLinks,
+                splitList(settings.get(ALLOWED_ELEMENTS)),
+                splitList(settings.get(ALLOWED_ATTRIBUTES)),
+                splitList(settings.get(ALLOWED_PROTOCOLS)));
+    }
 
-    public void configure(final Map<String, String> settings) {
-        if (settings.containsKey(ALLOW_LINKS)) {
-            allowLinks = Boolean.parseBoolean(settings.get(ALLOW_LINKS));
+    private static long[] buildPlainChars() {
+        final long[] retValue = new long[(Character.MAX_VALUE + 1) / Long.SIZE];
+        for (int c = 0; c < '\uff00'; ++c) {
+            final boolean control = c < ' ' && c != '\t' && c != '\n' && c != '\r';
+            if (!control && !Character.isSurrogate((char)c) && ENCODED_CHARS.indexOf(c) == -1) {
+                retValue[c >>> 6] |= 1L << c;
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * @param param The value
+     * @return true if the sanitizer would return the value unchanged, because every char is written out as it is
+     */
+    private static boolean isPlain(final String param) {
+        for (int index = 0, length = param.length(); index < length; ++index) {
+            final char c = param.charAt(index);
+            if ((PLAIN_CHARS[c >>> 6] & (1L << c)) == 0) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    private static List<String> splitList(final String list) {
+        final List<String> retValue = new ArrayList<String>();
+        if (list != null) {
+            for (final String item : LIST_SPLITTER.split(list)) {
+                retValue.add(item);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * @param allowLinks true to allow a elements with links
+     * @param elements The extra elements to allow
+     * @param attributes The attributes to allow, either on their own or as element:attribute
+     * @param protocols The protocols to allow in URLs, or an empty list for the defaults
+     * @return The compiled policy
+     */
+    private static PolicyFactory buildPolicy(final boolean allowLinks, final List<String> elements, final List<String> attributes, final List<String> protocols) {
+        HtmlPolicyBuilder policyBuilder = new HtmlPolicyBuilder()
+                .allowCommonBlockElements()
+                .allowCommonInlineFormattingElements();
+
+        if (allowLinks) {
+            policyBuilder = policyBuilder
+                .allowElements(A_ELEMENT)
+                .allowAttributes(HREF_ATTR).onElements(A_ELEMENT)
+                .allowUrlProtocols(URL_PROTOCOLS);
+        }
+
+        if (!elements.isEmpty()) {
+            policyBuilder = policyBuilder.allowElements(elements.toArray(new String[elements.size()]));
+        }
+
+        for (final String attribute : attributes) {
+            final int separator = attribute.indexOf(':');
+            checkArgument(separator != 0 && separator != attribute.length() - 1,
+                    "PVF-CONFIGURATION-0013: " + attribute + " is not a valid attribute. Use attribute or element:attribute.");
+
+            if (separator == -1) {
+                policyBuilder = policyBuilder.allowAttributes(attribute).globally();
+            } else {
+                policyBuilder = policyBuilder
+                        .allowAttributes(attribute.substring(separator + 1).trim())
+                        .onElements(attribute.substring(0, separator).trim());
+            }
+        }
+
+        if (!protocols.isEmpty()) {
+            if (allowLinks) {
+                policyBuilder = policyBuilder.disallowUrlProtocols(URL_PROTOCOLS);
+            }
+            policyBuilder = policyBuilder.allowUrlProtocols(protocols.toArray(new String[protocols.size()]));
+        }
+
+        return policyBuilder.toFactory();
     }
 
     @Override
@@ -41,43 +186,45 @@ public class SanitizeHTMLValidationRule extends ParameterValidationRuleTemplate
         checkNotNull(params);
         checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 
-        final String[] retValues = new String[params.length];
+        /*
+         * The params are only copied if the sanitizer changes one of them
+         */
+        String[] retValues = params;
 
         for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
             final String param = params[paramIndex];
 
-            if (param == null) {
-                retValues[paramIndex] = null;
-            } else {
-                final StringBuilder sb = new StringBuilder();
-                final HtmlStreamRenderer renderer = HtmlStreamRenderer.create(
-                        sb,
-                        new Handler<String>() {
-                            public void handle(final String errorMessage) {
-                                LOGGER.log(Level.INFO, errorMessage);
-                            }
-                        });
-
-                HtmlPolicyBuilder policyBuilder = new HtmlPolicyBuilder()
-                        .allowCommonBlockElements()
-                        .allowCommonInlineFormattingElements();
-
-                if (allowLinks) {
-                    policyBuilder = policyBuilder
-                        .allowElements(A_ELEMENT)
-                        .allowAttributes(HREF_ATTR).onElements(A_ELEMENT)
-                        .allowUrlProtocols(URL_PROTOCOLS);
-
+            if (param != null && !isPlain(param)) {
+                final String sanitized = sanitize(param);
+                if (sanitized != param) {
+                    if (retValues == params) {
+                        retValues = params.clone();
+                    }
+                    retValues[paramIndex] = sanitized;
                 }
-
-                final HtmlSanitizer.Policy policy =  policyBuilder.build(renderer);
-
-                HtmlSanitizer.sanitize(param, policy);
-
-                retValues[paramIndex] = sb.toString();
             }
         }
 
         return retValues;
     }
+
+    /**
+     * Sanitizes a value into this thread's buffer
+     * @param param The value to sanitize
+     * @return The value itself if the sanitizer did not change it, or the sanitized value
+     */
+    private String sanitize(final String param) {
+        final StringBuilder sb = BUFFERS.get();
+        sb.setLength(0);
+
+        try {
+            HtmlSanitizer.sanitize(param, policy.apply(HtmlStreamRenderer.create(sb, LOGGING_HANDLER)));
+
+            return param.contentEquals(sb) ? param : sb.toString();
+        } finally {
+            if (sb.capacity() > MAX_POOLED_BUFFER_LENGTH) {
+                BUFFERS.remove();
+            }
+        }
+    }
 }
@@ -52,15 +52,25 @@ public class TrimTextValidationRule extends ParameterValidationRuleTemplate {
 		checkNotNull(params);
 		checkArgument(params.length != 0, "PVF-BUG-0003: params should always have at least one value");
 		
-		final String[] retValues = new String[params.length];
+		/*
+		 * The params are only copied if one of them needs to be trimmed
+		 */
+		String[] retValues = params;
 
 		for (int paramIndex = 0, paramLength = params.length; paramIndex < paramLength; ++paramIndex) {
 			final String param = params[paramIndex];
 			
-			if (param == null) {
-				retValues[paramIndex] = null;
-			} else {
-				retValues[paramIndex] = param.trim();
+			if (param != null) {
+				/*
+				 * trim() returns the same string if there is no whitespace to remove
+				 */
+				final String trimmed = param.trim();
+				if (trimmed != param) {
+					if (retValues == params) {
+						retValues = params.clone();
+					}
+					retValues[paramIndex] = trimmed;
+				}
 			}
 		}
 		
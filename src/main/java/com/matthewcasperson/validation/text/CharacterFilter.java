@@ -0,0 +1,210 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.text;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps or removes the characters of a value that belong to a character class. The class is
+ * written the way it would be in a java.util.regex pattern, like [0-9\-] or [\p{L} ], and is
+ * tested against every character in the BMP once, when the filter is compiled. Filtering a value
+ * is then a bitmap lookup per character.
+ * <p>
+ * Filtering a value gives the same result as java.util.regex removing every match of the class,
+ * or of its negation, except that a surrogate pair is always kept or removed as a whole. When
+ * java.util.regex fails to match a pair, it goes on to match the low surrogate by itself, which
+ * leaves half of the pair behind. Supplementary code points are rare enough that they are tested
+ * against the pattern itself.
+ * @author mcasperson
+ *
+ */
+public final class CharacterFilter {
+	private static final int BMP_SIZE = Character.MAX_VALUE + 1;
+
+	/**
+	 * A bit for each BMP character in the class
+	 */
+	private final long[] bitmap = new long[BMP_SIZE / 64];
+	private final Pattern pattern;
+
+	private CharacterFilter(final Pattern pattern) {
+		this.pattern = pattern;
+
+		final Matcher matcher = pattern.matcher("");
+		for (int c = 0; c < BMP_SIZE; ++c) {
+			if (matcher.reset(String.valueOf((char)c)).matches()) {
+				bitmap[c >>> 6] |= 1L << c;
+			}
+		}
+	}
+
+	/**
+	 * @param characterClass A java.util.regex character class, including the square brackets
+	 * @return The compiled filter
+	 * @throws java.util.regex.PatternSyntaxException if the class is not a valid regex
+	 * @throws IllegalArgumentException if the regex is anything other than a single bracketed class
+	 */
+	public static CharacterFilter compile(final String characterClass) {
+		checkNotNull(characterClass);
+
+		/*
+		 * A regex like \d{2} or ab never matches a single character, so it would remove every character
+		 */
+		final Pattern pattern = Pattern.compile(characterClass);
+		checkArgument(isBracketedClass(characterClass), "PVF-CONFIGURATION-0038: " + characterClass + " is not a single character class in square brackets, like [a-z]");
+		return new CharacterFilter(pattern);
+	}
+
+	/**
+	 * Finds the bracket that closes the class opened by the first character, following the
+	 * java.util.regex rules for escapes, quotes, nested classes and a leading ]
+	 * @param regex A regex that compiles
+	 * @return true if the regex is one bracketed class with nothing after it
+	 */
+	private static boolean isBracketedClass(final String regex) {
+		if (regex.isEmpty() || regex.charAt(0) != '[') {
+			return false;
+		}
+
+		final int length = regex.length();
+		int depth = 0;
+		for (int index = 0; index < length; ++index) {
+			final char c = regex.charAt(index);
+			if (c == '\\') {
+				if (index + 1 < length && regex.charAt(index + 1) == 'Q') {
+					final int quoteEnd = regex.indexOf("\\E", index + 2);
+					index = quoteEnd == -1 ? length : quoteEnd + 1;
+				} else {
+					++index;
+				}
+			} else if (c == '[') {
+				++depth;
+
+				/*
+				 * A ] that comes first in a class, or straight after the ^ that negates it, is a literal
+				 */
+				if (index + 1 < length && regex.charAt(index + 1) == '^') {
+					++index;
+				}
+				if (index + 1 < length && regex.charAt(index + 1) == ']') {
+					++index;
+				}
+			} else if (c == ']' && --depth == 0) {
+				return index == length - 1;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 *
+	 * @param c The character to test
+	 * @return true if the character is in the class
+	 */
+	public boolean contains(final char c) {
+		return (bitmap[c >>> 6] & (1L << c)) != 0;
+	}
+
+	/**
+	 *
+	 * @param codePoint The code point to test
+	 * @return true if the code point is in the class
+	 */
+	public boolean contains(final int codePoint) {
+		if (codePoint < BMP_SIZE) {
+			return contains((char)codePoint);
+		}
+
+		return pattern.matcher(new String(Character.toChars(codePoint))).matches();
+	}
+
+	/**
+	 * Removes every character that is not in the class
+	 * @param input The value to filter
+	 * @return The value itself if every character is in the class, or a copy with the other characters removed
+	 */
+	public String retain(final String input) {
+		return filter(input, true);
+	}
+
+	/**
+	 * Removes every character that is in the class
+	 * @param input The value to filter
+	 * @return The value itself if no character is in the class, or a copy with those characters removed
+	 */
+	public String remove(final String input) {
+		return filter(input, false);
+	}
+
+	private String filter(final String input, final boolean keepMembers) {
+		checkNotNull(input);
+
+		final int length = input.length();
+
+		/*
+		 * Most values have nothing to remove, so find the first character to remove before copying anything
+		 */
+		int index = 0;
+		int width = 0;
+		for (; index < length; index += width) {
+			width = charCount(input, index);
+			if (isMember(input, index, width) != keepMembers) {
+				break;
+			}
+		}
+
+		if (index == length) {
+			return input;
+		}
+
+		final StringBuilder retValue = new StringBuilder(length);
+		retValue.append(input, 0, index);
+		for (index += width; index < length; index += width) {
+			width = charCount(input, index);
+			if (isMember(input, index, width) == keepMembers) {
+				retValue.append(input, index, index + width);
+			}
+		}
+		return retValue.toString();
+	}
+
+	/**
+	 * @return 2 if a surrogate pair starts at the index, and 1 otherwise
+	 */
+	private static int charCount(final String input, final int index) {
+		return Character.isHighSurrogate(input.charAt(index))
+				&& index + 1 < input.length()
+				&& Character.isLowSurrogate(input.charAt(index + 1)) ? 2 : 1;
+	}
+
+	private boolean isMember(final String input, final int index, final int width) {
+		return width == 1 ? contains(input.charAt(index)) : contains(input.codePointAt(index));
+	}
+}
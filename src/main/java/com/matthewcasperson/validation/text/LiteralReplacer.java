@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.text;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+
+/**
+ * Replaces a fixed set of literals in a single pass over a value. The literals are held in a trie,
+ * and a bitmap of their first characters means most characters of a value are skipped with a
+ * single lookup.
+ * <p>
+ * At each position the longest literal that starts there is replaced, and the scan continues
+ * after it, so replacement text is never scanned again.
+ * @author mcasperson
+ *
+ */
+public final class LiteralReplacer {
+	private static final int BMP_SIZE = Character.MAX_VALUE + 1;
+
+	/**
+	 * A bit for each character that starts a literal
+	 */
+	private final long[] firstChars;
+	private final Node root;
+
+	private LiteralReplacer(final long[] firstChars, final Node root) {
+		this.firstChars = firstChars;
+		this.root = root;
+	}
+
+	/**
+	 *
+	 * @return A builder used to create a new replacer
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Replaces every literal in a value
+	 * @param input The value
+	 * @return The value itself if it contains no literals, or a copy with the literals replaced
+	 */
+	public String replace(final String input) {
+		checkNotNull(input);
+
+		StringBuilder retValue = null;
+		int copyFrom = 0;
+
+		for (int index = 0, length = input.length(); index < length; ) {
+			final char c = input.charAt(index);
+			if ((firstChars[c >>> 6] & (1L << c)) == 0) {
+				++index;
+				continue;
+			}
+
+			/*
+			 * Walk the trie for the longest literal starting here
+			 */
+			Node node = root;
+			Node match = null;
+			int matchEnd = -1;
+			for (int end = index; end < length; ++end) {
+				node = node.getChild(input.charAt(end));
+				if (node == null) {
+					break;
+				}
+				if (node.replacement != null) {
+					match = node;
+					matchEnd = end + 1;
+				}
+			}
+
+			if (match == null) {
+				++index;
+				continue;
+			}
+
+			if (retValue == null) {
+				retValue = new StringBuilder(length);
+			}
+			retValue.append(input, copyFrom, index).append(match.replacement);
+			copyFrom = matchEnd;
+			index = matchEnd;
+		}
+
+		if (retValue == null) {
+			return input;
+		}
+
+		retValue.append(input, copyFrom, input.length());
+		return retValue.toString();
+	}
+
+	/**
+	 * A node of the literal trie
+	 */
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		/**
+		 * The text that replaces the literal ending at this node, or null if no literal ends here
+		 */
+		private String replacement;
+
+		private Node getChild(final char key) {
+			/*
+			 * Nodes rarely have more than a few children, so a linear scan beats a binary search
+			 */
+			for (int index = 0; index < keys.length; ++index) {
+				if (keys[index] == key) {
+					return children[index];
+				}
+			}
+			return null;
+		}
+
+		private Node getOrAddChild(final char key) {
+			final Node existing = getChild(key);
+			if (existing != null) {
+				return existing;
+			}
+
+			final Node child = new Node();
+			keys = Arrays.copyOf(keys, keys.length + 1);
+			keys[keys.length - 1] = key;
+			children = Arrays.copyOf(children, children.length + 1);
+			children[children.length - 1] = child;
+			return child;
+		}
+	}
+
+	/**
+	 * Collects the literals and their replacements
+	 */
+	public static final class Builder {
+		private final long[] firstChars = new long[BMP_SIZE / 64];
+		private final Node root = new Node();
+		private boolean built;
+
+		private Builder() {
+
+		}
+
+		/**
+		 * @param literal The text to find
+		 * @param replacement The text to replace it with
+		 * @return This builder
+		 */
+		public Builder add(final String literal, final String replacement) {
+			checkNotNull(literal);
+			checkNotNull(replacement);
+			checkArgument(!literal.isEmpty(), "PVF-CONFIGURATION-0015: A literal to replace can not be empty");
+			checkState(!built, "PVF-BUG-0005: A literal was added after the replacer was built");
+
+			Node node = root;
+			for (int index = 0; index < literal.length(); ++index) {
+				node = node.getOrAddChild(literal.charAt(index));
+			}
+
+			checkArgument(node.replacement == null, "PVF-CONFIGURATION-0015: The literal " + literal + " was added more than once");
+			node.replacement = replacement;
+
+			final char first = literal.charAt(0);
+			firstChars[first >>> 6] |= 1L << first;
+			return this;
+		}
+
+		/**
+		 *
+		 * @return The replacer. The builder can not be used once this has been called.
+		 */
+		public LiteralReplacer build() {
+			built = true;
+			return new LiteralReplacer(firstChars, root);
+		}
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.matthewcasperson.validation.audit.AuditEvent;
+import com.matthewcasperson.validation.audit.AuditLog;
+import com.matthewcasperson.validation.audit.AuditRecord;
+import com.matthewcasperson.validation.audit.AuditWriter;
+import com.matthewcasperson.validation.auditimpl.AggregatingAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RingBufferAuditLogImpl;
+import com.matthewcasperson.validation.auditimpl.RollingFileAuditWriterImpl;
+import com.matthewcasperson.validation.metrics.StripedCounter;
+
+/**
+ * Tests of the asynchronous audit log
+ */
+public class AuditLogTests {
+	/**
+	 * Collects the param names of the records it is given, optionally waiting on a latch before each one
+	 */
+	private static final class CollectingWriter implements AuditWriter {
+		private final List<String> paramNames = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch latch;
+
+		CollectingWriter(final CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void write(final AuditRecord record) throws IOException {
+			try {
+				latch.await();
+			} catch (final InterruptedException ex) {
+				throw new IOException(ex);
+			}
+			paramNames.add(record.getParamName());
+		}
+
+		@Override
+		public void flush() {
+
+		}
+
+		@Override
+		public void close() {
+
+		}
+	}
+
+	/**
+	 * Collects the records it is given
+	 */
+	private static final class CollectingLog implements AuditLog {
+		private final List<AuditRecord> records = Collections.synchronizedList(new ArrayList<AuditRecord>());
+		private boolean closed;
+
+		@Override
+		public boolean record(final AuditRecord record) {
+			records.add(record);
+			return true;
+		}
+
+		@Override
+		public long getWrittenCount() {
+			return records.size();
+		}
+
+		@Override
+		public long getDroppedCount() {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@Test
+	public void testConcurrentRecords() throws InterruptedException {
+		final CollectingWriter writer = new CollectingWriter(new CountDownLatch(0));
+		final AuditLog auditLog = new RingBufferAuditLogImpl(writer, 64, RingBufferAuditLogImpl.BLOCK_POLICY);
+
+		final Thread[] threads = new Thread[4];
+		for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+			final int offset = threadIndex * 10000;
+			threads[threadIndex] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int index = 0; index < 10000; ++index) {
+						auditLog.record(record(AuditEvent.FAILED, "PVF-SECURITY-0001", "/uri", Integer.toString(offset + index)));
+					}
+				}
+			});
+			threads[threadIndex].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		auditLog.close();
+
+		Assert.assertEquals(auditLog.getWrittenCount(), 40000);
+		Assert.assertEquals(auditLog.getDroppedCount(), 0);
+		Assert.assertEquals(writer.paramNames.size(), 40000);
+
+		/*
+		 * Each thread's records are written in the order they were made
+		 */
+		final int[] last = {-1, -1, -1, -1};
+		for (final String paramName : writer.paramNames) {
+			final int value = Integer.parseInt(paramName);
+			Assert.assertTrue(value % 10000 > last[value / 10000]);
+			last[value / 10000] = value % 10000;
+		}
+	}
+
+	@Test
+	public void testDropWhenFull() {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final CollectingWriter writer = new CollectingWriter(latch);
+		final AuditLog auditLog = new RingBufferAuditLogImpl(writer, 4, RingBufferAuditLogImpl.DROP_POLICY);
+
+		for (int index = 0; index < 10; ++index) {
+			auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/uri", "param" + index));
+		}
+		latch.countDown();
+		auditLog.close();
+
+		Assert.assertTrue(auditLog.getDroppedCount() >= 5, Long.toString(auditLog.getDroppedCount()));
+		Assert.assertEquals(auditLog.getWrittenCount() + auditLog.getDroppedCount(), 10);
+		Assert.assertEquals(writer.paramNames.get(0), "param0");
+		Assert.assertFalse(auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/uri", "closed")));
+	}
+
+	@Test
+	public void testBlockWhenFull() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final CollectingWriter writer = new CollectingWriter(latch);
+		final AuditLog auditLog = new RingBufferAuditLogImpl(writer, 2, RingBufferAuditLogImpl.BLOCK_POLICY);
+
+		final Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int index = 0; index < 10; ++index) {
+					auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/uri", "param" + index));
+				}
+			}
+		});
+		producer.start();
+
+		Thread.sleep(50);
+		Assert.assertTrue(producer.isAlive());
+
+		latch.countDown();
+		producer.join();
+		auditLog.close();
+
+		Assert.assertEquals(auditLog.getWrittenCount(), 10);
+		Assert.assertEquals(auditLog.getDroppedCount(), 0);
+	}
+
+	@Test
+	public void testRecordsRacingClose() throws InterruptedException {
+		for (int round = 0; round < 20; ++round) {
+			final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+			final CollectingWriter collectingWriter = new CollectingWriter(new CountDownLatch(0));
+			final AuditWriter writer = new AuditWriter() {
+				private volatile boolean closed;
+
+				@Override
+				public void write(final AuditRecord record) throws IOException {
+					if (closed) {
+						problems.add("A record was written after the writer was closed");
+					}
+					collectingWriter.write(record);
+				}
+
+				@Override
+				public void flush() {
+
+				}
+
+				@Override
+				public void close() {
+					closed = true;
+					if (!Thread.currentThread().getName().equals("PVF audit writer")) {
+						problems.add("The writer was closed by " + Thread.currentThread().getName());
+					}
+				}
+			};
+			final AuditLog auditLog = new RingBufferAuditLogImpl(writer, 8, RingBufferAuditLogImpl.DROP_POLICY);
+
+			final int[] accepted = new int[4];
+			final Thread[] threads = new Thread[accepted.length];
+			for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+				final int producer = threadIndex;
+				threads[threadIndex] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int index = 0; index < 2000; ++index) {
+							if (auditLog.record(record(AuditEvent.FAILED, "PVF-SECURITY-0001", "/uri", "param"))) {
+								++accepted[producer];
+							}
+						}
+					}
+				});
+				threads[threadIndex].start();
+			}
+
+			auditLog.close();
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+
+			/*
+			 * Every record that was accepted was written, and every other one was counted as dropped
+			 */
+			int acceptedCount = 0;
+			for (final int count : accepted) {
+				acceptedCount += count;
+			}
+			Assert.assertEquals(problems, Collections.emptyList());
+			Assert.assertEquals(collectingWriter.paramNames.size(), acceptedCount);
+			Assert.assertEquals(auditLog.getWrittenCount(), acceptedCount);
+			Assert.assertEquals(auditLog.getWrittenCount() + auditLog.getDroppedCount(), 8000);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testBufferSizeMustBePowerOfTwo() {
+		new RingBufferAuditLogImpl(new CollectingWriter(new CountDownLatch(0)), 100, RingBufferAuditLogImpl.DROP_POLICY);
+	}
+
+	@Test
+	public void testRollingFile() throws IOException {
+		final File directory = Files.createTempDir();
+		final File file = new File(directory, "audit.log");
+
+		final RollingFileAuditWriterImpl writer = new RollingFileAuditWriterImpl(file, 200, 2);
+		writer.write(new AuditRecord(0, AuditEvent.FAILED, "PVF-SECURITY-0001", 2, "com.example.Rule", "/page.jsp", "evil\tname\r\nFAKE\\", "<script>", 3));
+		writer.flush();
+
+		Assert.assertEquals(Files.toString(file, Charsets.UTF_8),
+				"1970-01-01T00:00:00.000Z\tFAILED\tPVF-SECURITY-0001\t3\t2\tRule\t/page.jsp\tevil\\tname\\r\\nFAKE\\\\\t<script>\n");
+
+		final StringBuilder longName = new StringBuilder();
+		for (int index = 0; index < 1000; ++index) {
+			longName.append('x');
+		}
+		for (int index = 0; index < 10; ++index) {
+			writer.write(new AuditRecord(index, AuditEvent.UNVALIDATED, "PVF-INFO-0001", AuditRecord.NO_CHAIN, null, null, longName.toString(), null, 1));
+		}
+		writer.close();
+
+		/*
+		 * Every record is longer than half the maximum size, so each one starts a new file
+		 */
+		Assert.assertTrue(file.exists());
+		Assert.assertTrue(new File(directory, "audit.log.1").exists());
+		Assert.assertTrue(new File(directory, "audit.log.2").exists());
+		Assert.assertFalse(new File(directory, "audit.log.3").exists());
+
+		final String last = Files.toString(file, Charsets.UTF_8);
+		Assert.assertTrue(last.startsWith("1970-01-01T00:00:00.009Z\tUNVALIDATED\tPVF-INFO-0001\t1\t-\t-\t-\txxx"), last);
+		Assert.assertTrue(last.endsWith("x...\t-\n"), last);
+	}
+
+	@Test
+	public void testAggregation() throws InterruptedException {
+		final CollectingLog collectingLog = new CollectingLog();
+		final AggregatingAuditLogImpl auditLog = new AggregatingAuditLogImpl(collectingLog, 1, TimeUnit.HOURS, 100);
+
+		final Thread[] threads = new Thread[4];
+		for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+			threads[threadIndex] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int index = 0; index < 1000; ++index) {
+						auditLog.record(new AuditRecord(AuditEvent.FAILED, "PVF-SECURITY-0001", 0, "Rule",
+								"/orders/" + index + "/items;jsessionid=ABC", "comment", "<script>"));
+					}
+				}
+			});
+			threads[threadIndex].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/orders/1/items", "page"));
+		auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/orders/2/items", "page"));
+
+		Assert.assertEquals(auditLog.getTupleCount(), 2);
+		Assert.assertTrue(collectingLog.records.isEmpty());
+
+		auditLog.flush();
+
+		Assert.assertEquals(collectingLog.records.size(), 2);
+		for (final AuditRecord record : collectingLog.records) {
+			Assert.assertEquals(record.getRequestURI(), "/orders/{n}/items");
+			if (record.getEvent() == AuditEvent.FAILED) {
+				Assert.assertEquals(record.getCount(), 4000);
+				Assert.assertEquals(record.getValue(), "<script>");
+				Assert.assertEquals(record.getChainIndex(), 0);
+				Assert.assertEquals(record.getRuleName(), "Rule");
+			} else {
+				Assert.assertEquals(record.getCount(), 2);
+				Assert.assertEquals(record.getParamName(), "page");
+			}
+		}
+
+		/*
+		 * Violations that were not seen for a whole window are forgotten
+		 */
+		collectingLog.records.clear();
+		auditLog.flush();
+		Assert.assertTrue(collectingLog.records.isEmpty());
+		Assert.assertEquals(auditLog.getTupleCount(), 0);
+
+		auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/orders/3/items", "page"));
+		auditLog.close();
+		Assert.assertEquals(collectingLog.records.size(), 1);
+		Assert.assertTrue(collectingLog.closed);
+		Assert.assertFalse(auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/uri", "closed")));
+	}
+
+	@Test
+	public void testAggregationOverflow() {
+		final CollectingLog collectingLog = new CollectingLog();
+		final AggregatingAuditLogImpl auditLog = new AggregatingAuditLogImpl(collectingLog, 1, TimeUnit.HOURS, 2);
+
+		for (int index = 0; index < 5; ++index) {
+			auditLog.record(record(AuditEvent.UNVALIDATED, "PVF-INFO-0001", "/uri", "param" + index));
+		}
+
+		/*
+		 * Records for new violations are passed straight on once the map is full
+		 */
+		Assert.assertEquals(auditLog.getTupleCount(), 2);
+		Assert.assertEquals(collectingLog.records.size(), 3);
+		auditLog.close();
+		Assert.assertEquals(collectingLog.records.size(), 5);
+	}
+
+	@Test
+	public void testAggregationRacingClose() throws InterruptedException {
+		for (int round = 0; round < 20; ++round) {
+			final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+			final AtomicLong summarised = new AtomicLong();
+			final AuditLog delegate = new AuditLog() {
+				private volatile boolean closed;
+
+				@Override
+				public boolean record(final AuditRecord record) {
+					if (closed) {
+						problems.add("A summary was recorded after the log was closed");
+					}
+					summarised.addAndGet(record.getCount());
+					return true;
+				}
+
+				@Override
+				public long getWrittenCount() {
+					return 0;
+				}
+
+				@Override
+				public long getDroppedCount() {
+					return 0;
+				}
+
+				@Override
+				public void close() {
+					closed = true;
+				}
+			};
+			final AuditLog auditLog = new AggregatingAuditLogImpl(delegate, 1, TimeUnit.HOURS, 100);
+
+			final int[] accepted = new int[4];
+			final Thread[] threads = new Thread[accepted.length];
+			for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+				final int producer = threadIndex;
+				threads[threadIndex] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int index = 0; index < 2000; ++index) {
+							if (auditLog.record(record(AuditEvent.FAILED, "PVF-SECURITY-0001", "/uri", "param" + (index % 8)))) {
+								++accepted[producer];
+							}
+						}
+					}
+				});
+				threads[threadIndex].start();
+			}
+
+			auditLog.close();
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+
+			/*
+			 * Every record that was accepted is in the last summary, and every other one was counted as dropped
+			 */
+			int acceptedCount = 0;
+			for (final int count : accepted) {
+				acceptedCount += count;
+			}
+			Assert.assertEquals(problems, Collections.emptyList());
+			Assert.assertEquals(summarised.get(), acceptedCount);
+			Assert.assertEquals(acceptedCount + auditLog.getDroppedCount(), 8000);
+		}
+	}
+
+	@Test
+	public void testURITemplate() {
+		Assert.assertNull(AggregatingAuditLogImpl.toURITemplate(null));
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate(""), "");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/"), "/");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/app/page.jsp"), "/app/page.jsp");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/users/42/"), "/users/{n}/");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/files/3f2504e0-4f89-11d3-9a0c-0305e82c3301/view"), "/files/{id}/view");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/commit/da39a3ee5e6b4b0d3255bfef95601890afd80709"), "/commit/{id}");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/cafe/beef"), "/cafe/beef");
+		Assert.assertEquals(AggregatingAuditLogImpl.toURITemplate("/app/page.jsp;jsessionid=0123456789ABCDEF"), "/app/page.jsp");
+	}
+
+	@Test
+	public void testStripedCounter() throws InterruptedException {
+		final StripedCounter counter = new StripedCounter(4);
+
+		final Thread[] threads = new Thread[8];
+		for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+			threads[threadIndex] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int index = 0; index < 10000; ++index) {
+						counter.increment();
+					}
+				}
+			});
+			threads[threadIndex].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(counter.sum(), 80000);
+		counter.add(5);
+		Assert.assertEquals(counter.sumThenReset(), 80005);
+		Assert.assertEquals(counter.sum(), 0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testStripesMustBePowerOfTwo() {
+		new StripedCounter(3);
+	}
+
+	private static AuditRecord record(final AuditEvent event, final String code, final String requestURI, final String paramName) {
+		return new AuditRecord(event, code, AuditRecord.NO_CHAIN, null, requestURI, paramName, null);
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.owasp.esapi.Encoder;
+import org.owasp.esapi.codecs.Codec;
+import org.owasp.esapi.codecs.HTMLEntityCodec;
+import org.owasp.esapi.codecs.JavaScriptCodec;
+import org.owasp.esapi.codecs.PercentCodec;
+import org.owasp.esapi.errors.EncodingException;
+import org.owasp.esapi.reference.DefaultEncoder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.canonicalizationimpl.BuiltinCanonicalizerImpl;
+import com.matthewcasperson.validation.canonicalizationimpl.EsapiCanonicalizerImpl;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.ruleimpl.CanonicalizeTextValidationRule;
+
+/**
+ * Tests of the canonicalizers used by the canonicalization rules
+ * @author mcasperson
+ *
+ */
+public class CanonicalizerTests {
+	private static final String FUZZ_CHARS = "&%\\#;xX0123456789abcdefABCDEFltgampquotu+<>\"' \t\u00E0\u2026\uD83D\uDE00";
+	/**
+	 * Also includes the characters that are special to the JavaScript and CSS codecs, and the
+	 * first letters of some longer entity names
+	 */
+	private static final String BUILTIN_FUZZ_CHARS = FUZZ_CHARS + "\\\\&&%%##uUvbnrtf\r\n\f\u0000\u0660\u0663NnsSpPhiIyY";
+	private static final String[] ENTITY_FRAGMENTS = {"&lt", "&LT;", "&amp;", "&nbsp", "&notin;", "&thetasym;", "&#", "&#x", "&#X1F600;", "&#99999999999;", "\\u00", "\\x2", "\\377", "%2", "%25"};
+
+	private EsapiCanonicalizerImpl createCanonicalizer(final String... codecNames) {
+		return new EsapiCanonicalizerImpl(DefaultEncoder.getInstance(), Arrays.asList(codecNames));
+	}
+
+	@Test
+	public void testPlainValuesAreSkipped() {
+		final EsapiCanonicalizerImpl canonicalizer = createCanonicalizer("HTMLEntityCodec", "PercentCodec", "JavaScriptCodec");
+
+		final String value = "John Smith <john@example.org> + caf\u00E9";
+		Assert.assertSame(canonicalizer.canonicalize(value), value);
+		Assert.assertEquals(canonicalizer.getSkippedCount(), 1);
+		Assert.assertEquals(canonicalizer.getCanonicalizedCount(), 0);
+	}
+
+	@Test
+	public void testEncodedValuesAreCanonicalized() {
+		final EsapiCanonicalizerImpl canonicalizer = createCanonicalizer("HTMLEntityCodec", "PercentCodec", "JavaScriptCodec");
+
+		Assert.assertEquals(canonicalizer.canonicalize("%3Cb%3E"), "<b>");
+		Assert.assertEquals(canonicalizer.canonicalize("&lt;b&gt;"), "<b>");
+		Assert.assertEquals(canonicalizer.canonicalize("\\x3cb\\x3e"), "<b>");
+
+		/*
+		 * A value with a trigger character that isn't encoded is returned as is
+		 */
+		final String value = "100% & more";
+		Assert.assertSame(canonicalizer.canonicalize(value), value);
+		Assert.assertEquals(canonicalizer.getSkippedCount(), 0);
+		Assert.assertEquals(canonicalizer.getCanonicalizedCount(), 4);
+	}
+
+	@Test
+	public void testUnknownCodecDisablesSkipping() {
+		final EsapiCanonicalizerImpl canonicalizer = createCanonicalizer("HTMLEntityCodec", "com.example.CustomCodec");
+
+		canonicalizer.canonicalize("plain");
+		Assert.assertEquals(canonicalizer.getSkippedCount(), 0);
+		Assert.assertEquals(canonicalizer.getCanonicalizedCount(), 1);
+	}
+
+	@Test
+	public void testSkippingMatchesEncoder() {
+		final Encoder encoder = DefaultEncoder.getInstance();
+		final EsapiCanonicalizerImpl canonicalizer = createCanonicalizer("HTMLEntityCodec", "PercentCodec", "JavaScriptCodec");
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 20000; ++round) {
+			final StringBuilder value = new StringBuilder();
+			for (int index = 0, length = random.nextInt(12); index < length; ++index) {
+				if (random.nextInt(4) == 0) {
+					value.append((char)random.nextInt(Character.MAX_VALUE + 1));
+				} else {
+					value.append(FUZZ_CHARS.charAt(random.nextInt(FUZZ_CHARS.length())));
+				}
+			}
+
+			Assert.assertEquals(canonicalizer.canonicalize(value.toString()), encoder.canonicalize(value.toString(), false), value.toString());
+		}
+
+		Assert.assertTrue(canonicalizer.getSkippedCount() > 0);
+	}
+
+	@Test
+	public void testBuiltinMatchesEncoder() throws EncodingException {
+		final Encoder encoder = DefaultEncoder.getInstance();
+		final BuiltinCanonicalizerImpl canonicalizer = new BuiltinCanonicalizerImpl(EsapiCanonicalizerImpl.DEFAULT_ENCODER_CODECS);
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 50000; ++round) {
+			final String value = createFuzzValue(random);
+			Assert.assertEquals(canonicalizer.canonicalize(value), encoder.canonicalize(value, false), value);
+		}
+
+		/*
+		 * Values that have been encoded more than once
+		 */
+		for (int round = 0; round < 5000; ++round) {
+			final String value = createEncodedValue(encoder, random);
+			Assert.assertEquals(canonicalizer.canonicalize(value), encoder.canonicalize(value, false), value);
+		}
+	}
+
+	@Test
+	public void testBuiltinCssMatchesEncoder() {
+		final List<String> codecNames = Arrays.asList("HTMLEntityCodec", "PercentCodec", "JavaScriptCodec", "CSSCodec");
+		final Encoder encoder = new DefaultEncoder(codecNames);
+		final BuiltinCanonicalizerImpl canonicalizer = new BuiltinCanonicalizerImpl(codecNames);
+		final Random random = new Random(42);
+
+		Assert.assertEquals(new BuiltinCanonicalizerImpl(Arrays.asList("CSSCodec")).canonicalize("\\3c b\\3E"), "<b>");
+
+		for (int round = 0; round < 50000; ++round) {
+			final String value = createFuzzValue(random);
+			Assert.assertEquals(canonicalizer.canonicalize(value), encoder.canonicalize(value, false), value);
+		}
+	}
+
+	@Test
+	public void testBuiltinDetectsMultipleAndMixedEncoding() throws EncodingException {
+		final BuiltinCanonicalizerImpl canonicalizer = new BuiltinCanonicalizerImpl(EsapiCanonicalizerImpl.DEFAULT_ENCODER_CODECS);
+
+		Assert.assertEquals(canonicalizer.canonicalize("%253C"), "<");
+		Assert.assertEquals(canonicalizer.getMultipleEncodingCount(), 1);
+		Assert.assertEquals(canonicalizer.getMixedEncodingCount(), 0);
+
+		Assert.assertEquals(canonicalizer.canonicalize("&lt;%3C"), "<<");
+		Assert.assertEquals(canonicalizer.getMultipleEncodingCount(), 1);
+		Assert.assertEquals(canonicalizer.getMixedEncodingCount(), 1);
+
+		/*
+		 * Compare the counts with ESAPI's own codecs, applied the way DefaultEncoder applies them
+		 */
+		final Codec[] codecs = {new HTMLEntityCodec(), new PercentCodec(), new JavaScriptCodec()};
+		final Encoder encoder = DefaultEncoder.getInstance();
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 5000; ++round) {
+			final String value = random.nextBoolean() ? createFuzzValue(random) : createEncodedValue(encoder, random);
+			final long multiple = canonicalizer.getMultipleEncodingCount();
+			final long mixed = canonicalizer.getMixedEncodingCount();
+
+			canonicalizer.canonicalize(value);
+
+			final int[] counts = countEncodings(codecs, value);
+			Assert.assertEquals(canonicalizer.getMultipleEncodingCount() - multiple, counts[0] >= 2 ? 1 : 0, value);
+			Assert.assertEquals(canonicalizer.getMixedEncodingCount() - mixed, counts[1] > 1 ? 1 : 0, value);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testBuiltinRejectsUnsupportedCodec() {
+		new BuiltinCanonicalizerImpl(Arrays.asList("HTMLEntityCodec", "XMLEntityCodec"));
+	}
+
+	@Test
+	public void testEngineSetting() throws ValidationFailedException {
+		final CanonicalizeTextValidationRule rule = new CanonicalizeTextValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("engine", "builtin");
+		rule.configure(settings);
+
+		final String[] params = new String[] {"plain", "%3Cb&gt;"};
+		final String[] fixedParams = rule.fixParams("name", "http://example.org", params);
+		Assert.assertEquals(fixedParams, new String[] {"plain", "<b>"});
+		Assert.assertSame(fixedParams[0], params[0]);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownEngineSetting() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("engine", "unknown");
+		new CanonicalizeTextValidationRule().configure(settings);
+	}
+
+	private String createFuzzValue(final Random random) {
+		final StringBuilder value = new StringBuilder();
+		for (int index = 0, length = random.nextInt(16); index < length; ++index) {
+			final int choice = random.nextInt(8);
+			if (choice == 0) {
+				value.append((char)random.nextInt(Character.MAX_VALUE + 1));
+			} else if (choice == 1) {
+				value.append(ENTITY_FRAGMENTS[random.nextInt(ENTITY_FRAGMENTS.length)]);
+			} else {
+				value.append(BUILTIN_FUZZ_CHARS.charAt(random.nextInt(BUILTIN_FUZZ_CHARS.length())));
+			}
+		}
+		return value.toString();
+	}
+
+	private String createEncodedValue(final Encoder encoder, final Random random) throws EncodingException {
+		String value = createFuzzValue(random);
+		for (int encoding = 0, encodings = 1 + random.nextInt(3); encoding < encodings; ++encoding) {
+			switch (random.nextInt(3)) {
+				case 0:
+					value = encoder.encodeForHTML(value);
+					break;
+				case 1:
+					value = encoder.encodeForURL(value);
+					break;
+				default:
+					value = encoder.encodeForJavaScript(value);
+					break;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Counts the encodings in a value the same way as DefaultEncoder.canonicalize()
+	 * @return The number of times the value was found to be encoded, and the number of codecs mixed together
+	 */
+	private int[] countEncodings(final Codec[] codecs, final String input) {
+		String working = input;
+		Codec codecFound = null;
+		int mixedCount = 1;
+		int foundCount = 0;
+		boolean clean = false;
+
+		while (!clean) {
+			clean = true;
+			for (final Codec codec : codecs) {
+				final String old = working;
+				working = codec.decode(working);
+				if (old.equals(working)) {
+					continue;
+				}
+				if (codecFound != null && codecFound != codec) {
+					++mixedCount;
+				}
+				codecFound = codec;
+				if (clean) {
+					++foundCount;
+				}
+				clean = false;
+			}
+		}
+
+		return new int[] {foundCount, mixedCount};
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.metrics.LatencyHistogram;
+import com.matthewcasperson.validation.metricsimpl.ValidationMetricsImpl;
+
+/**
+ * Tests of the histograms and counters published over JMX
+ */
+public class LatencyHistogramTests {
+	@Test
+	public void testEmpty() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		Assert.assertEquals(histogram.getCount(), 0);
+		Assert.assertEquals(histogram.getMax(), 0);
+		Assert.assertEquals(histogram.getPercentile(50), 0);
+	}
+
+	@Test
+	public void testPercentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int value = 1; value <= 1000; ++value) {
+			histogram.record(value * 1000L);
+		}
+
+		Assert.assertEquals(histogram.getCount(), 1000);
+		Assert.assertEquals(histogram.getMax(), 1000000);
+		assertWithin(histogram.getPercentile(50), 500000);
+		assertWithin(histogram.getPercentile(99), 990000);
+		Assert.assertEquals(histogram.getPercentile(100), 1000000);
+		assertWithin(histogram.getPercentile(0), 1000);
+	}
+
+	@Test
+	public void testExtremes() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(0);
+		histogram.record(7);
+		histogram.record(Long.MAX_VALUE);
+
+		Assert.assertEquals(histogram.getCount(), 4);
+		Assert.assertEquals(histogram.getPercentile(50), 0);
+		Assert.assertEquals(histogram.getPercentile(75), 7);
+		Assert.assertEquals(histogram.getPercentile(100), Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testConcurrentRecords() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		final Thread[] threads = new Thread[4];
+		for (int threadIndex = 0; threadIndex < threads.length; ++threadIndex) {
+			final int offset = threadIndex;
+			threads[threadIndex] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int index = 0; index < 10000; ++index) {
+						histogram.record(index + offset);
+					}
+				}
+			});
+			threads[threadIndex].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(histogram.getCount(), 40000);
+		Assert.assertEquals(histogram.getMax(), 10002);
+	}
+
+	@Test
+	public void testMetrics() {
+		final ValidationMetricsImpl metrics = new ValidationMetricsImpl("rule");
+		metrics.record(3, 1, 1, 2000);
+		metrics.record(2, 0, 0, ValidationMetricsImpl.NOT_TIMED);
+
+		Assert.assertEquals(metrics.getInvocations(), 5);
+		Assert.assertEquals(metrics.getModifications(), 1);
+		Assert.assertEquals(metrics.getFailures(), 1);
+		Assert.assertEquals(metrics.getTimedCount(), 1);
+		Assert.assertEquals(metrics.getTotalNanos(), 2000);
+		Assert.assertEquals(metrics.getMaxNanos(), 2000);
+	}
+
+	/**
+	 * Checks a percentile is within the 1/8 error of the histogram's buckets
+	 */
+	private static void assertWithin(final long actual, final long expected) {
+		Assert.assertTrue(actual >= expected && actual <= expected + expected / 8, actual + " is not close to " + expected);
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.exception.UnsupportedRegexException;
+import com.matthewcasperson.validation.regex.LinearPattern;
+
+/**
+ * Checks that LinearPattern finds the same matches as java.util.regex
+ */
+public class LinearPatternTests {
+	private static final String[] PATTERNS = {
+		".*", "^id$", "^user\\.", "name", "^(first|last)Name$", "\\d+", "^[a-z_][a-z0-9_]*$",
+		"[^\\w]", "\\s", "^$", "$", "^", "a|b|", "(ab)*c", "x{2,3}", "^x{2}$", "colou?r",
+		"^.+@.+\\..+$", "a+?b", "^[^\\r\\n]*$", "\\u00e9",
+		"(a|ab)(c|bcd)", "x*?", "x+?", "(x|xx)+", "[a-z]{1,3}?x", "<[^>]*>", "\\w+@\\w+"
+	};
+
+	private static final String[] INPUTS = {
+		"", "id", "ID", "id\n", "id\r\n", "id\r", "id\n\n", "user.name", "username", "firstName",
+		"lastName", "middleName", "abc123", "_private", "a b", "x", "xx", "xxx", "xxxx", "color",
+		"colour", "abcd", "abab", "ababc", "a word here", "\u00e9t\u00e9", "me@example.com",
+		"line ", "line\u0085", "\uD83D\uDE00", "a\uD83D\uDE00b", "aab", "z", "\r\n", "<b>bold</b>"
+	};
+
+	private static final String ALPHABET = "abx019_.\n\r\u00e9 <>@";
+
+	@Test
+	public void testHandcrafted() throws UnsupportedRegexException {
+		for (final String expression : PATTERNS) {
+			final Pattern pattern = Pattern.compile(expression);
+			final LinearPattern linearPattern = LinearPattern.compile(expression);
+
+			for (final String input : INPUTS) {
+				assertSameMatches(pattern, linearPattern, input);
+			}
+		}
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(42);
+		final String[] atoms = {"a", "b", "x", ".", "\\d", "\\w", "\\s", "[a-c]", "[^ab]", "\\.", "^", "$", "\u00e9"};
+		final String[] quantifiers = {"", "", "", "*", "+", "?", "{1,2}", "*?", "+?", "??", "{2}"};
+		int compiled = 0;
+
+		for (int round = 0; round < 1000; ++round) {
+			final StringBuilder expression = new StringBuilder();
+			final int length = 1 + random.nextInt(4);
+			for (int atom = 0; atom < length; ++atom) {
+				if (random.nextInt(4) == 0) {
+					expression.append("(" + atoms[random.nextInt(atoms.length)] + "|" + atoms[random.nextInt(atoms.length)] + ")");
+				} else {
+					expression.append(atoms[random.nextInt(atoms.length)]);
+				}
+				expression.append(quantifiers[random.nextInt(quantifiers.length)]);
+			}
+
+			final Pattern pattern;
+			final LinearPattern linearPattern;
+			try {
+				pattern = Pattern.compile(expression.toString());
+				linearPattern = LinearPattern.compile(expression.toString());
+			} catch (final PatternSyntaxException | UnsupportedRegexException ex) {
+				/*
+				 * Randomly generated expressions like "^*" are not valid, and expressions
+				 * like "(a?)*" repeat something that can be empty
+				 */
+				continue;
+			}
+			++compiled;
+
+			for (int inputCount = 0; inputCount < 20; ++inputCount) {
+				final StringBuilder input = new StringBuilder();
+				final int inputLength = random.nextInt(10);
+				for (int index = 0; index < inputLength; ++index) {
+					input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+				assertSameMatches(pattern, linearPattern, input.toString());
+			}
+		}
+
+		Assert.assertTrue(compiled > 500);
+	}
+
+	@Test
+	public void testPathological() throws UnsupportedRegexException {
+		final StringBuilder input = new StringBuilder();
+		for (int index = 0; index < 100000; ++index) {
+			input.append('a');
+		}
+
+		Assert.assertFalse(LinearPattern.compile("^(a+)+b").find(input));
+		Assert.assertFalse(LinearPattern.compile("(a|aa)*c").find(input));
+		Assert.assertFalse(LinearPattern.compile("(\\w|a)+b$").find(input));
+
+		final long match = LinearPattern.compile("a+").find(input, 10);
+		Assert.assertEquals(LinearPattern.matchStart(match), 10);
+		Assert.assertEquals(LinearPattern.matchEnd(match), input.length());
+	}
+
+	@Test
+	public void testUnsupported() {
+		final String[] expressions = {"(a)\\1", "foo(?=bar)", "(?<=a)b", "(?i)id", "a*+", "(?>a)", "\\bword\\b", "(a?)*"};
+
+		for (final String expression : expressions) {
+			try {
+				LinearPattern.compile(expression);
+				Assert.fail(expression + " should not compile");
+			} catch (final UnsupportedRegexException ex) {
+				Assert.assertTrue(ex.getMessage().startsWith("PVF-REGEX-"), ex.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testCompileForEngine() {
+		Assert.assertNull(LinearPattern.compileForEngine(LinearPattern.JDK_ENGINE, "(a)\\1"));
+		Assert.assertEquals(LinearPattern.compileForEngine(LinearPattern.LINEAR_ENGINE, "a+").pattern(), "a+");
+
+		try {
+			LinearPattern.compileForEngine(LinearPattern.LINEAR_ENGINE, "(a)\\1");
+			Assert.fail();
+		} catch (final IllegalArgumentException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0019"), ex.getMessage());
+		}
+	}
+
+	/**
+	 * Checks that every match found by walking through the input has the same extent
+	 */
+	private static void assertSameMatches(final Pattern pattern, final LinearPattern linearPattern, final String input) {
+		final String description = "Pattern " + pattern.pattern() + " against \"" + input + "\"";
+		final Matcher matcher = pattern.matcher(input).useTransparentBounds(true).useAnchoringBounds(false);
+
+		Assert.assertEquals(linearPattern.find(input), pattern.matcher(input).find(), description);
+
+		for (int from = 0; from <= input.length(); ++from) {
+			matcher.region(from, input.length());
+			final long match = linearPattern.find(input, from);
+
+			if (matcher.find()) {
+				Assert.assertEquals(LinearPattern.matchStart(match), matcher.start(), description + " from " + from);
+				Assert.assertEquals(LinearPattern.matchEnd(match), matcher.end(), description + " from " + from);
+			} else {
+				Assert.assertEquals(match, -1L, description + " from " + from);
+			}
+		}
+	}
+}
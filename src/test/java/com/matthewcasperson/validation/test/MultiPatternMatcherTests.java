@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.regex.MultiPatternMatcher;
+
+/**
+ * Checks that MultiPatternMatcher finds the same patterns as java.util.regex
+ */
+public class MultiPatternMatcherTests {
+	private static final String[] PATTERNS = {
+		".*", "^id$", "^user\\.", "name", "^(first|last)Name$", "\\d+", "^[a-z_][a-z0-9_]*$",
+		"[^\\w]", "\\s", "^$", "$", "^", "a|b|", "(ab)*c", "x{2,3}", "^x{2}$", "colou?r",
+		"^\\Qliteral\\E$", "(?i)^ID$", "(a)\\1", "foo(?=bar)", "\\bword\\b", "[\\p{L}]+",
+		"^.+@.+\\..+$", "\\x41\\u0042", "[a-c[x-z]]", "a+?b", "\\.\\*", "^[^\\r\\n]*$", "\\u00e9", "a$\\n", "$\\s*", "(^|\\s){2}x"
+	};
+
+	private static final String[] INPUTS = {
+		"", "id", "ID", "id\n", "id\r\n", "id\r", "id\n\n", "user.name", "username", "firstName",
+		"lastName", "middleName", "abc123", "_private", "a b", "x", "xx", "xxx", "xxxx", "color",
+		"colour", "literal", "abab", "ababc", "foobar", "a word here", "été", "me@example.com",
+		"AB", ".*", "line ", "line\u0085", "😀", "aab", "z", "\r\n"
+	};
+
+	private static final String ALPHABET = "abx019_.\n\ré  ";
+
+	@Test
+	public void testHandcrafted() {
+		final List<Pattern> patterns = compile(PATTERNS);
+		final MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+
+		Assert.assertTrue(matcher.getCompiledCount() > 0);
+		Assert.assertTrue(matcher.getCompiledCount() < patterns.size());
+
+		for (final String input : INPUTS) {
+			assertSameMatches(patterns, matcher, input);
+		}
+	}
+
+	@Test
+	public void testCandidates() {
+		final List<Pattern> patterns = compile(PATTERNS);
+		final MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+
+		final BitSet candidates = new BitSet();
+		candidates.set(1);
+		candidates.set(18);
+
+		final BitSet found = matcher.find("ID", candidates);
+		Assert.assertFalse(found.get(0));
+		Assert.assertFalse(found.get(1));
+		Assert.assertTrue(found.get(18));
+	}
+
+	@Test
+	public void testRandom() {
+		final Random random = new Random(42);
+		final String[] atoms = {"a", "b", "x", ".", "\\d", "\\w", "\\s", "[a-c]", "[^ab]", "\\.", "^", "$", "é"};
+		final String[] quantifiers = {"", "", "", "*", "+", "?", "{1,2}", "*?", "{2}"};
+
+		for (int round = 0; round < 50; ++round) {
+			final List<String> expressions = new ArrayList<String>();
+			for (int count = 0; count < 20; ++count) {
+				final StringBuilder expression = new StringBuilder();
+				final int length = 1 + random.nextInt(4);
+				for (int atom = 0; atom < length; ++atom) {
+					if (random.nextInt(6) == 0) {
+						expression.append("(" + atoms[random.nextInt(atoms.length)] + "|" + atoms[random.nextInt(atoms.length)] + ")");
+					} else {
+						expression.append(atoms[random.nextInt(atoms.length)]);
+					}
+					expression.append(quantifiers[random.nextInt(quantifiers.length)]);
+				}
+				expressions.add(expression.toString());
+			}
+
+			final List<Pattern> patterns = compile(expressions.toArray(new String[expressions.size()]));
+			final MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+
+			for (int inputCount = 0; inputCount < 50; ++inputCount) {
+				final StringBuilder input = new StringBuilder();
+				final int length = random.nextInt(8);
+				for (int index = 0; index < length; ++index) {
+					input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+				assertSameMatches(patterns, matcher, input.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testNonAsciiTransitionsAndCacheReset() {
+		/*
+		 * The second pattern needs a DFA state for every arrangement of \u0430 in the last 12
+		 * characters, so these inputs fill the state cache and force it to be rebuilt
+		 */
+		final List<Pattern> patterns = compile(new String[] {"^\u0430\u0431$", "\u0430.{12}\u0431", "[\u0400-\u04ff]+x", "\u0431$"});
+		final MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+		Assert.assertEquals(matcher.getCompiledCount(), patterns.size());
+
+		final Random random = new Random(7);
+		final String alphabet = "\u0430\u0431\u0432x\n";
+		for (int inputCount = 0; inputCount < 4000; ++inputCount) {
+			final StringBuilder input = new StringBuilder();
+			final int length = random.nextInt(40);
+			for (int index = 0; index < length; ++index) {
+				input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			assertSameMatches(patterns, matcher, input.toString());
+		}
+
+		assertSameMatches(patterns, matcher, "\u0430\u0431");
+	}
+
+	private static List<Pattern> compile(final String[] expressions) {
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+		for (final String expression : expressions) {
+			try {
+				patterns.add(Pattern.compile(expression));
+			} catch (final PatternSyntaxException ex) {
+				/*
+				 * Randomly generated expressions like "^*" are not valid
+				 */
+			}
+		}
+		return patterns;
+	}
+
+	private static void assertSameMatches(final List<Pattern> patterns, final MultiPatternMatcher matcher, final String input) {
+		final BitSet all = new BitSet();
+		all.set(0, patterns.size());
+
+		final BitSet found = matcher.find(input, all);
+		for (int index = 0; index < patterns.size(); ++index) {
+			Assert.assertEquals(
+					found.get(index),
+					patterns.get(index).matcher(input).find(),
+					"Pattern " + patterns.get(index).pattern() + " against \"" + input + "\"");
+		}
+	}
+}
@@ -0,0 +1,765 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.Files;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.filter.ParameterValidationFilter;
+import com.matthewcasperson.validation.filter.ParameterValidationMetricsServlet;
+import com.matthewcasperson.validation.metrics.RequestTrace;
+import com.matthewcasperson.validation.metricsimpl.TraceBufferImpl;
+import com.matthewcasperson.validation.metricsimpl.ValidationMetricsRegistry;
+import com.matthewcasperson.validation.rule.ParameterOverlayRequestWrapper;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+
+/**
+ * Tests of the filter running against mock requests
+ * @author mcasperson
+ *
+ */
+public class ParameterValidationFilterTests {
+	private static final String CONFIG_FILE = "/WEB-INF/xml/pvf.xml";
+
+	private static final String CONFIG =
+			"<ParameterValidationChainDatabase>\n" +
+			"    <EnforcingMode>true</EnforcingMode>\n" +
+			"    <ParameterValidationChains>\n" +
+			"        <ParameterValidationDefinition>\n" +
+			"            <ParameterValidationRuleList>\n" +
+			"                <ParameterValidationRule>\n" +
+			"                    <validationRuleName>com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule</validationRuleName>\n" +
+			"                </ParameterValidationRule>\n" +
+			"            </ParameterValidationRuleList>\n" +
+			"            <paramNamePatternString>.*</paramNamePatternString>\n" +
+			"            <requestURIPatternString>.*</requestURIPatternString>\n" +
+			"            <paramNamePatternNegated>false</paramNamePatternNegated>\n" +
+			"            <requestURIPatternNegated>false</requestURIPatternNegated>\n" +
+			"        </ParameterValidationDefinition>\n" +
+			"        <ParameterValidationDefinition>\n" +
+			"            <ParameterValidationRuleList>\n" +
+			"                <ParameterValidationRule>\n" +
+			"                    <validationRuleName>com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule</validationRuleName>\n" +
+			"                </ParameterValidationRule>\n" +
+			"            </ParameterValidationRuleList>\n" +
+			"            <paramNamePatternString>^id$</paramNamePatternString>\n" +
+			"            <requestURIPatternString>^/numbers/</requestURIPatternString>\n" +
+			"            <paramNamePatternNegated>false</paramNamePatternNegated>\n" +
+			"            <requestURIPatternNegated>false</requestURIPatternNegated>\n" +
+			"        </ParameterValidationDefinition>\n" +
+			"        <ParameterValidationDefinition>\n" +
+			"            <ParameterValidationRuleList>\n" +
+			"                <ParameterValidationRule>\n" +
+			"                    <validationRuleName>com.matthewcasperson.validation.ruleimpl.FailIfContainsHTMLValidationRule</validationRuleName>\n" +
+			"                </ParameterValidationRule>\n" +
+			"            </ParameterValidationRuleList>\n" +
+			"            <paramNamePatternString>^comment$</paramNamePatternString>\n" +
+			"            <requestURIPatternString>^/open/</requestURIPatternString>\n" +
+			"            <paramNamePatternNegated>false</paramNamePatternNegated>\n" +
+			"            <requestURIPatternNegated>true</requestURIPatternNegated>\n" +
+			"        </ParameterValidationDefinition>\n" +
+			"    </ParameterValidationChains>\n" +
+			"</ParameterValidationChainDatabase>";
+
+	/**
+	 * Creates a filter that has been initialised with the supplied configuration
+	 * @param config The XML configuration
+	 * @return The initialised filter
+	 * @throws Exception if the filter could not be initialised
+	 */
+	private ParameterValidationFilter createFilter(final String config) throws Exception {
+		return createFilter(createServletContext(config));
+	}
+
+	/**
+	 * Creates a servlet context that serves the supplied configuration
+	 * @param config The XML configuration
+	 * @return The servlet context
+	 */
+	private MockServletContext createServletContext(final String config) {
+		return new MockServletContext() {
+			@Override
+			public InputStream getResourceAsStream(final String path) {
+				if (CONFIG_FILE.equals(path)) {
+					return new ByteArrayInputStream(config.getBytes(Charsets.UTF_8));
+				}
+
+				return super.getResourceAsStream(path);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that has been initialised with the configuration served by a servlet context
+	 * @param servletContext The servlet context
+	 * @return The initialised filter
+	 * @throws Exception if the filter could not be initialised
+	 */
+	private ParameterValidationFilter createFilter(final MockServletContext servletContext) throws Exception {
+		final MockFilterConfig filterConfig = new MockFilterConfig(servletContext);
+		filterConfig.addInitParameter("configFile", CONFIG_FILE);
+
+		final ParameterValidationFilter filter = new ParameterValidationFilter();
+		filter.init(filterConfig);
+		return filter;
+	}
+
+	/**
+	 * Runs a request through the filter
+	 * @param filter The filter
+	 * @param request The request
+	 * @param response The response
+	 * @return The request passed to the next filter, or null if the request was blocked
+	 * @throws Exception if the filter failed
+	 */
+	private ServletRequest filter(final ParameterValidationFilter filter, final MockHttpServletRequest request, final MockHttpServletResponse response) throws Exception {
+		final MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(request, response, chain);
+		return chain.getRequest();
+	}
+
+	@Test
+	public void testChainsSelectedByURI() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG);
+
+		/*
+		 * Run the same URIs twice so the second pass is served from the URI cache
+		 */
+		for (int pass = 0; pass < 2; ++pass) {
+			final MockHttpServletRequest numbersRequest = new MockHttpServletRequest("GET", "/numbers/page");
+			numbersRequest.addParameter("id", " a123 ");
+			numbersRequest.addParameter("name", " bob ");
+			final ServletRequest numbersResult = filter(filter, numbersRequest, new MockHttpServletResponse());
+			Assert.assertEquals(numbersResult.getParameter("id"), "123");
+			Assert.assertEquals(numbersResult.getParameter("name"), "bob");
+
+			final MockHttpServletRequest otherRequest = new MockHttpServletRequest("GET", "/other/page");
+			otherRequest.addParameter("id", " a123 ");
+			final ServletRequest otherResult = filter(filter, otherRequest, new MockHttpServletResponse());
+			Assert.assertEquals(otherResult.getParameter("id"), "a123");
+		}
+	}
+
+	@Test
+	public void testPlainParameterValidationRule() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace(
+				"com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule", UpperCaseRule.class.getName()));
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+		request.addParameter("id", " abc ");
+		Assert.assertEquals(filter(filter, request, new MockHttpServletResponse()).getParameter("id"), "ABC");
+
+		final MockHttpServletRequest badRequest = new MockHttpServletRequest("GET", "/numbers/page");
+		badRequest.addParameter("id", "fail");
+		final MockHttpServletResponse badResponse = new MockHttpServletResponse();
+		filter(filter, badRequest, badResponse);
+		Assert.assertEquals(badResponse.getStatus(), 400);
+	}
+
+	@Test
+	public void testNegatedURIPattern() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG);
+
+		final MockHttpServletRequest openRequest = new MockHttpServletRequest("GET", "/open/page");
+		openRequest.addParameter("comment", "<b>hi</b>");
+		final MockHttpServletResponse openResponse = new MockHttpServletResponse();
+		Assert.assertNotNull(filter(filter, openRequest, openResponse));
+		Assert.assertEquals(openResponse.getStatus(), 200);
+
+		final MockHttpServletRequest closedRequest = new MockHttpServletRequest("GET", "/closed/page");
+		closedRequest.addParameter("comment", "<b>hi</b>");
+		final MockHttpServletResponse closedResponse = new MockHttpServletResponse();
+		Assert.assertNull(filter(filter, closedRequest, closedResponse));
+		Assert.assertEquals(closedResponse.getStatus(), 400);
+	}
+
+	@Test
+	public void testParamNameCacheStats() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG);
+
+		for (int pass = 0; pass < 3; ++pass) {
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+			request.addParameter("id", "1");
+			filter(filter, request, new MockHttpServletResponse());
+		}
+
+		final CacheStats stats = filter.getParamNameCacheStats();
+		Assert.assertEquals(stats.missCount(), 1);
+		Assert.assertEquals(stats.hitCount(), 2);
+		Assert.assertEquals(stats.evictionCount(), 0);
+	}
+
+	@Test
+	public void testSingleOverlayWrapper() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG);
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+		request.addParameter("id", " a123 ");
+		request.addParameter("name", " bob ");
+		request.addParameter("clean", "value");
+
+		final ServletRequest result = filter(filter, request, new MockHttpServletResponse());
+
+		/*
+		 * Three rules changed two parameters, but the request is only wrapped once
+		 */
+		Assert.assertTrue(result instanceof ParameterOverlayRequestWrapper);
+		final ParameterOverlayRequestWrapper overlay = (ParameterOverlayRequestWrapper)result;
+		Assert.assertSame(overlay.getRequest(), request);
+		Assert.assertEquals(overlay.getOverrideCount(), 2);
+
+		Assert.assertEquals(overlay.getParameterMap().get("id"), new String[] {"123"});
+		Assert.assertEquals(overlay.getParameterMap().get("name"), new String[] {"bob"});
+		Assert.assertEquals(overlay.getParameterMap().get("clean"), new String[] {"value"});
+		Assert.assertEquals(Collections.list(overlay.getParameterNames()).size(), 3);
+
+		Assert.assertTrue(overlay.isFrozen());
+		try {
+			overlay.setParameterValues("id", new String[] {"456"});
+			Assert.fail("A frozen overlay should not accept new values");
+		} catch (final IllegalStateException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-BUG-0008"), ex.getMessage());
+			Assert.assertEquals(overlay.getParameter("id"), "123");
+		}
+	}
+
+	@Test
+	public void testParallelRuleInstantiation() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace(
+				"<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><RuleInstantiationThreads>4</RuleInstantiationThreads>"));
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+		request.addParameter("id", " a123 ");
+		Assert.assertEquals(filter(filter, request, new MockHttpServletResponse()).getParameter("id"), "123");
+	}
+
+	/**
+	 * @param action The RegexBudgetExceeded setting
+	 * @param engine The ParamNameMatchingEngine setting
+	 * @return A configuration whose id chain has a param name pattern that backtracks, and a small regex budget
+	 */
+	private String createBudgetConfig(final String action, final String engine) {
+		return CONFIG
+				.replace("<EnforcingMode>true</EnforcingMode>",
+						"<EnforcingMode>true</EnforcingMode><ParamNameMatchingEngine>" + engine + "</ParamNameMatchingEngine>" +
+						"<RegexMaxSteps>10000</RegexMaxSteps><RegexBudgetExceeded>" + action + "</RegexBudgetExceeded>")
+				.replace("^id$", "^(a+)+(?=b)");
+	}
+
+	/**
+	 * @return A parameter name that takes ^(a+)+(?=b) exponential time to reject
+	 */
+	private String createBacktrackingParamName() {
+		final StringBuilder name = new StringBuilder();
+		for (int index = 0; index < 30; ++index) {
+			name.append('a');
+		}
+		return name.append('!').toString();
+	}
+
+	@Test
+	public void testRegexBudgetExceededFailsRequest() throws Exception {
+		for (final String engine : new String[] {"jdk", "automaton"}) {
+			final ParameterValidationFilter filter = createFilter(createBudgetConfig("fail", engine));
+
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+			request.addParameter(createBacktrackingParamName(), "1");
+			final MockHttpServletResponse response = new MockHttpServletResponse();
+			Assert.assertNull(filter(filter, request, response));
+			Assert.assertEquals(response.getStatus(), 400);
+			Assert.assertEquals(filter.getRegexBudgetExceededCount(), 1);
+
+			final MockHttpServletRequest matchingRequest = new MockHttpServletRequest("GET", "/numbers/page");
+			matchingRequest.addParameter("aaab", "a1");
+			Assert.assertEquals(filter(filter, matchingRequest, new MockHttpServletResponse()).getParameter("aaab"), "1");
+		}
+	}
+
+	@Test
+	public void testRegexBudgetExceededAppliesChain() throws Exception {
+		for (final String engine : new String[] {"jdk", "automaton"}) {
+			final ParameterValidationFilter filter = createFilter(createBudgetConfig("allow", engine));
+
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+			request.addParameter(createBacktrackingParamName(), "a1");
+			final MockHttpServletResponse response = new MockHttpServletResponse();
+			Assert.assertEquals(filter(filter, request, response).getParameter(createBacktrackingParamName()), "1");
+			Assert.assertEquals(response.getStatus(), 200);
+			Assert.assertEquals(filter.getRegexBudgetExceededCount(), 1);
+		}
+	}
+
+	@Test
+	public void testRegexBudgetExceededIsNotCached() throws Exception {
+		for (final String engine : new String[] {"jdk", "automaton"}) {
+			final ParameterValidationFilter filter = createFilter(createBudgetConfig("allow", engine));
+
+			/*
+			 * Each request has to match the name again, rather than reuse a result that
+			 * only applied the chain because the budget ran out
+			 */
+			for (int pass = 1; pass <= 2; ++pass) {
+				final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+				request.addParameter(createBacktrackingParamName(), "a1");
+				Assert.assertEquals(filter(filter, request, new MockHttpServletResponse()).getParameter(createBacktrackingParamName()), "1");
+				Assert.assertEquals(filter.getRegexBudgetExceededCount(), pass);
+			}
+			Assert.assertEquals(filter.getParamNameCacheStats().hitCount(), 0);
+
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+			request.addParameter("aaab", "a1");
+			Assert.assertEquals(filter(filter, request, new MockHttpServletResponse()).getParameter("aaab"), "1");
+			final MockHttpServletRequest repeatedRequest = new MockHttpServletRequest("GET", "/numbers/page");
+			repeatedRequest.addParameter("aaab", "a1");
+			Assert.assertEquals(filter(filter, repeatedRequest, new MockHttpServletResponse()).getParameter("aaab"), "1");
+			Assert.assertEquals(filter.getParamNameCacheStats().hitCount(), 1);
+		}
+
+		/*
+		 * The same goes for request URIs
+		 */
+		final ParameterValidationFilter filter = createFilter(createBudgetConfig("allow", "jdk").replace("^/numbers/", "^/(a+)+(?=b)"));
+		final String backtrackingURI = "/" + createBacktrackingParamName();
+		for (int pass = 1; pass <= 2; ++pass) {
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", backtrackingURI);
+			request.addParameter("name", "bob");
+			filter(filter, request, new MockHttpServletResponse());
+			Assert.assertEquals(filter.getRegexBudgetExceededCount(), pass);
+		}
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/aab");
+		request.addParameter("aaab", "a1");
+		Assert.assertEquals(filter(filter, request, new MockHttpServletResponse()).getParameter("aaab"), "1");
+		Assert.assertEquals(filter.getRegexBudgetExceededCount(), 2);
+	}
+
+	@Test
+	public void testRegexBudgetOverrunsAreAudited() throws Exception {
+		final File auditLogFile = new File(Files.createTempDir(), "audit.log");
+		final ParameterValidationFilter filter = createFilter(createBudgetConfig("allow", "jdk")
+				.replace("<EnforcingMode>true</EnforcingMode>",
+						"<EnforcingMode>true</EnforcingMode><AuditLogFile>" + auditLogFile.getPath() + "</AuditLogFile><JMXMetrics>true</JMXMetrics>")
+				.replace("<validationRuleName>com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule</validationRuleName>",
+						"<settings>" +
+						"<entry><key>pattern</key><value>(a+)+b</value></entry>" +
+						"<entry><key>engine</key><value>jdk</value></entry>" +
+						"<entry><key>maxSteps</key><value>10000</value></entry>" +
+						"<entry><key>budgetExceeded</key><value>allow</value></entry>" +
+						"</settings>" +
+						"<validationRuleName>com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches</validationRuleName>"));
+
+		/*
+		 * The name runs the id chain's pattern out of budget, and the value runs the rule's regex out
+		 * of budget. Both are let through, and both are audited and counted.
+		 */
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/numbers/page");
+		request.addParameter(createBacktrackingParamName(), createBacktrackingParamName() + "1");
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		try {
+			Assert.assertEquals(filter(filter, request, response).getParameter(createBacktrackingParamName()), "1");
+			Assert.assertEquals(response.getStatus(), 200);
+			Assert.assertEquals(filter.getValidationMetrics().getFailuresByCode().get("PVF-SECURITY-0005").sum(), 1);
+			Assert.assertEquals(filter.getValidationMetrics().getFailuresByCode().get("PVF-SECURITY-0006").sum(), 1);
+		} finally {
+			filter.destroy();
+		}
+
+		Assert.assertEquals(filter.getAuditLog().getWrittenCount(), 2);
+		final String audit = Files.toString(auditLogFile, Charsets.UTF_8);
+		Assert.assertTrue(audit.contains("\tREGEX_BUDGET\tPVF-SECURITY-0006\t1\t1\t"), audit);
+		Assert.assertTrue(audit.contains("\tREGEX_BUDGET\tPVF-SECURITY-0005\t1\t0\tRemoveRegexMatches\t/numbers/page\t"
+				+ createBacktrackingParamName() + "\t" + createBacktrackingParamName() + "1\n"), audit);
+	}
+
+	@Test
+	public void testRegexAnalysis() throws Exception {
+		final String pathological = CONFIG.replace("^comment$", "^(\\w+\\s?)*$");
+
+		try {
+			createFilter(pathological.replace("<EnforcingMode>true</EnforcingMode>",
+					"<EnforcingMode>true</EnforcingMode><RegexAnalysis>reject</RegexAnalysis>"));
+			Assert.fail();
+		} catch (final ServletException ex) {
+			Assert.assertTrue(ex.getMessage().contains("PVF-CONFIGURATION-0025"), ex.getMessage());
+			Assert.assertTrue(ex.getMessage().contains("Validation chain 2 paramNamePatternString"), ex.getMessage());
+		}
+
+		/*
+		 * Patterns held to a budget, or matched by the automaton, are not refused
+		 */
+		createFilter(pathological.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><RegexAnalysis>reject</RegexAnalysis><RegexMaxSteps>10000</RegexMaxSteps>"));
+		createFilter(pathological.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><RegexAnalysis>reject</RegexAnalysis><ParamNameMatchingEngine>automaton</ParamNameMatchingEngine>"));
+
+		/*
+		 * The default only warns
+		 */
+		createFilter(pathological);
+	}
+
+	@Test(expectedExceptions = ServletException.class)
+	public void testUnknownRegexAnalysisFailsAtInit() throws Exception {
+		createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><RegexAnalysis>ignore</RegexAnalysis>"));
+	}
+
+	@Test
+	public void testAuditLog() throws Exception {
+		final File auditLogFile = new File(Files.createTempDir(), "audit.log");
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>false</EnforcingMode><AuditLogFile>" + auditLogFile.getPath() + "</AuditLogFile>"));
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/page");
+		request.addParameter("comment", "<script>");
+		filter(filter, request, new MockHttpServletResponse());
+		filter.destroy();
+
+		Assert.assertEquals(filter.getAuditLog().getWrittenCount(), 1);
+		Assert.assertEquals(filter.getAuditLog().getDroppedCount(), 0);
+		final String audit = Files.toString(auditLogFile, Charsets.UTF_8);
+		Assert.assertTrue(audit.endsWith("\tFAILED\tPVF-SECURITY-0001\t1\t2\tFailIfContainsHTMLValidationRule\t/page\tcomment\t<script>\n"), audit);
+	}
+
+	@Test
+	public void testAuditAggregation() throws Exception {
+		final File auditLogFile = new File(Files.createTempDir(), "audit.log");
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>false</EnforcingMode><AuditLogFile>" + auditLogFile.getPath() + "</AuditLogFile><AuditWindowSeconds>3600</AuditWindowSeconds>"));
+
+		for (int index = 0; index < 3; ++index) {
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/page/" + index);
+			request.addParameter("comment", "<script>" + index);
+			filter(filter, request, new MockHttpServletResponse());
+		}
+
+		/*
+		 * The window has not ended, so the summary is written when the filter is destroyed
+		 */
+		filter.destroy();
+
+		Assert.assertEquals(filter.getAuditLog().getWrittenCount(), 1);
+		final String audit = Files.toString(auditLogFile, Charsets.UTF_8);
+		Assert.assertTrue(audit.endsWith("\tFAILED\tPVF-SECURITY-0001\t3\t2\tFailIfContainsHTMLValidationRule\t/page/{n}\tcomment\t<script>0\n"), audit);
+	}
+
+	@Test
+	public void testJMXMetrics() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>false</EnforcingMode><JMXMetrics>true</JMXMetrics><MetricsSampleRate>1</MetricsSampleRate>"));
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/page");
+		request.addParameter("comment", "<script>");
+		request.addParameter("name", " bob ");
+		filter(filter, request, new MockHttpServletResponse());
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final String domain = ValidationMetricsRegistry.DOMAIN + ":filter=\"ParameterValidationFilter\",";
+		final ObjectName dispatch = new ObjectName(domain + "type=Dispatch");
+		final ObjectName trimChain = new ObjectName(domain + "type=Chain,chain=0");
+		final ObjectName htmlRule = new ObjectName(domain + "type=Rule,chain=2,rule=0");
+
+		try {
+			Assert.assertEquals(server.getAttribute(dispatch, "Invocations"), 2L);
+			Assert.assertEquals(server.getAttribute(trimChain, "Invocations"), 2L);
+			Assert.assertEquals(server.getAttribute(trimChain, "Modifications"), 1L);
+			Assert.assertEquals(server.getAttribute(trimChain, "TimedCount"), 1L);
+			Assert.assertEquals(server.getAttribute(htmlRule, "Invocations"), 1L);
+			Assert.assertEquals(server.getAttribute(htmlRule, "Failures"), 1L);
+			Assert.assertTrue((Long)server.getAttribute(htmlRule, "MaxNanos") >= (Long)server.getAttribute(htmlRule, "P50Nanos"));
+			Assert.assertTrue(((String)server.getAttribute(htmlRule, "Name")).endsWith("FailIfContainsHTMLValidationRule"));
+		} finally {
+			filter.destroy();
+		}
+
+		Assert.assertFalse(server.isRegistered(dispatch));
+		Assert.assertFalse(server.isRegistered(htmlRule));
+	}
+
+	@Test
+	public void testMetricsServlet() throws Exception {
+		final MockServletContext servletContext = createServletContext(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><ServletMetrics>true</ServletMetrics><MetricsSampleRate>1</MetricsSampleRate>"));
+		final ParameterValidationFilter filter = createFilter(servletContext);
+
+		final ParameterValidationMetricsServlet servlet = new ParameterValidationMetricsServlet();
+		servlet.init(new MockServletConfig(servletContext));
+
+		final MockHttpServletRequest goodRequest = new MockHttpServletRequest("GET", "/numbers/page");
+		goodRequest.addParameter("id", " 42 ");
+		goodRequest.addParameter("name", "bob");
+		filter(filter, goodRequest, new MockHttpServletResponse());
+
+		final MockHttpServletRequest badRequest = new MockHttpServletRequest("GET", "/page");
+		badRequest.addParameter("comment", "<script>");
+		final MockHttpServletResponse badResponse = new MockHttpServletResponse();
+		filter(filter, badRequest, badResponse);
+		Assert.assertEquals(badResponse.getStatus(), 400);
+
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		servlet.service(new MockHttpServletRequest("GET", "/metrics"), response);
+
+		Assert.assertEquals(response.getStatus(), 200);
+		Assert.assertTrue(response.getContentType().startsWith("text/plain; version=0.0.4"), response.getContentType());
+		final String metrics = response.getContentAsString();
+		Assert.assertTrue(metrics.contains("\npvf_requests_total 2\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_params_checked_total 3\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_chains_matched_total 4\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_rules_run_total 4\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_values_modified_total 1\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_bad_requests_total 1\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_failures_total{code=\"PVF-SECURITY-0001\"} 1\n"), metrics);
+		Assert.assertTrue(metrics.contains("\npvf_filter_time_seconds_count 2\n"), metrics);
+		Assert.assertTrue(Pattern.compile("\npvf_filter_time_seconds_sum \\d+\\.\\d{9}\n").matcher(metrics).find(), metrics);
+
+		/*
+		 * The metrics are withdrawn when the filter is destroyed
+		 */
+		filter.destroy();
+		final MockHttpServletResponse destroyedResponse = new MockHttpServletResponse();
+		servlet.service(new MockHttpServletRequest("GET", "/metrics"), destroyedResponse);
+		Assert.assertEquals(destroyedResponse.getStatus(), 404);
+	}
+
+	@Test
+	public void testCanonicalizerMetrics() throws Exception {
+		final MockServletContext servletContext = createServletContext(CONFIG
+				.replace("<EnforcingMode>true</EnforcingMode>", "<EnforcingMode>true</EnforcingMode><JMXMetrics>true</JMXMetrics><ServletMetrics>true</ServletMetrics>")
+				.replace("TrimTextValidationRule", "CanonicalizeTextValidationRule"));
+		final ParameterValidationFilter filter = createFilter(servletContext);
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName esapi = new ObjectName(ValidationMetricsRegistry.DOMAIN + ":filter=\"ParameterValidationFilter\",type=Canonicalizer,engine=esapi");
+
+		try {
+			/*
+			 * The canonicalizers are shared with the other tests, so only the change in their counts is checked
+			 */
+			final long skipped = (Long)server.getAttribute(esapi, "SkippedCount");
+			final long canonicalized = (Long)server.getAttribute(esapi, "CanonicalizedCount");
+
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/page");
+			request.addParameter("name", "bob");
+			request.addParameter("query", "a%20b");
+			filter(filter, request, new MockHttpServletResponse());
+
+			Assert.assertEquals(server.getAttribute(esapi, "Engine"), "esapi");
+			Assert.assertEquals((Long)server.getAttribute(esapi, "SkippedCount") - skipped, 1L);
+			Assert.assertEquals((Long)server.getAttribute(esapi, "CanonicalizedCount") - canonicalized, 1L);
+			Assert.assertEquals(server.getAttribute(esapi, "MultipleEncodingCount"), -1L);
+
+			final ParameterValidationMetricsServlet servlet = new ParameterValidationMetricsServlet();
+			servlet.init(new MockServletConfig(servletContext));
+			final MockHttpServletResponse response = new MockHttpServletResponse();
+			servlet.service(new MockHttpServletRequest("GET", "/metrics"), response);
+
+			final String metrics = response.getContentAsString();
+			Assert.assertTrue(metrics.contains("\npvf_canonicalizer_skipped_total{engine=\"esapi\"} " + (skipped + 1) + "\n"), metrics);
+			Assert.assertTrue(metrics.contains("\npvf_canonicalizer_decoded_total{engine=\"esapi\"} " + (canonicalized + 1) + "\n"), metrics);
+			Assert.assertFalse(metrics.contains("pvf_canonicalizer_multiple_encoding_total{engine=\"esapi\"}"), metrics);
+		} finally {
+			filter.destroy();
+		}
+
+		Assert.assertFalse(server.isRegistered(esapi));
+	}
+
+	@Test
+	public void testTrace() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>false</EnforcingMode><TraceHeader>X-PVF-Trace</TraceHeader>" +
+				"<TraceTrustedAddresses>10.0.0.1, 127.0.0.1</TraceTrustedAddresses><TraceBufferSize>2</TraceBufferSize>"));
+		final TraceBufferImpl traceBuffer = filter.getTraceBuffer();
+
+		/*
+		 * Requests without the header, or from an address that isn't trusted, are not traced
+		 */
+		final MockHttpServletRequest plainRequest = new MockHttpServletRequest("GET", "/page");
+		plainRequest.addParameter("name", "bob");
+		filter(filter, plainRequest, new MockHttpServletResponse());
+
+		final MockHttpServletRequest untrustedRequest = new MockHttpServletRequest("GET", "/page");
+		untrustedRequest.addHeader("X-PVF-Trace", "1");
+		untrustedRequest.setRemoteAddr("10.0.0.2");
+		untrustedRequest.addParameter("name", "bob");
+		filter(filter, untrustedRequest, new MockHttpServletResponse());
+
+		Assert.assertEquals(traceBuffer.getTracedCount(), 0L);
+
+		final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/page");
+		request.addHeader("X-PVF-Trace", "1");
+		request.addParameter("comment", "<script>");
+		request.addParameter("name", " bob ");
+		filter(filter, request, new MockHttpServletResponse());
+
+		Assert.assertEquals(traceBuffer.getTracedCount(), 1L);
+		final RequestTrace trace = traceBuffer.getTraces().get(0);
+		Assert.assertEquals(trace.getTrigger(), TraceBufferImpl.HEADER_TRIGGER);
+		Assert.assertEquals(trace.getFailures(), 1);
+		Assert.assertEquals(trace.getChainMatches().size(), 2);
+		Assert.assertEquals(trace.getRuleInvocations().size(), 2);
+
+		final String dump = traceBuffer.dump();
+		Assert.assertTrue(dump.startsWith("#0 "), dump);
+		Assert.assertTrue(dump.contains(" POST /page (header) "), dump);
+		Assert.assertTrue(dump.contains("\n  match comment -> chains [0, 2] "), dump);
+		Assert.assertTrue(dump.contains("\n  chain 0 rule 0 TrimTextValidationRule "), dump);
+		Assert.assertTrue(dump.contains("\n    name 5 -> 3\n"), dump);
+		Assert.assertTrue(dump.contains("\n    comment 8 -> failed\n"), dump);
+		Assert.assertFalse(dump.contains("script"), dump);
+
+		/*
+		 * Only the most recent traces are kept
+		 */
+		for (int count = 0; count < 2; ++count) {
+			filter(filter, request, new MockHttpServletResponse());
+		}
+		Assert.assertEquals(traceBuffer.getTraces().size(), 2);
+		Assert.assertEquals(traceBuffer.getTraces().get(0).getSequence(), 1L);
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName traceName = new ObjectName(ValidationMetricsRegistry.DOMAIN + ":filter=\"ParameterValidationFilter\",type=Trace");
+
+		try {
+			final CompositeData[] traces = (CompositeData[])server.getAttribute(traceName, "Traces");
+			Assert.assertEquals(traces.length, 2);
+			Assert.assertEquals(traces[1].get("sequence"), 2L);
+			Assert.assertEquals(traces[1].get("requestURI"), "/page");
+			Assert.assertEquals(((CompositeData[])traces[1].get("ruleInvocations")).length, 2);
+			Assert.assertEquals(server.invoke(traceName, "dump", null, null), traceBuffer.dump());
+
+			server.invoke(traceName, "clear", null, null);
+			Assert.assertTrue(traceBuffer.getTraces().isEmpty());
+		} finally {
+			filter.destroy();
+		}
+
+		Assert.assertFalse(server.isRegistered(traceName));
+	}
+
+	@Test
+	public void testTraceSampleRate() throws Exception {
+		final ParameterValidationFilter filter = createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><TraceSampleRate>1</TraceSampleRate>"));
+
+		try {
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/page");
+			request.setRemoteAddr("10.0.0.2");
+			request.addParameter("name", "bob");
+			filter(filter, request, new MockHttpServletResponse());
+
+			Assert.assertEquals(filter.getTraceBuffer().getTraces().get(0).getTrigger(), TraceBufferImpl.SAMPLED_TRIGGER);
+		} finally {
+			filter.destroy();
+		}
+	}
+
+	@Test(expectedExceptions = ServletException.class)
+	public void testTraceHeaderNeedsTrustedAddresses() throws Exception {
+		createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><TraceHeader>X-PVF-Trace</TraceHeader>"));
+	}
+
+	@Test(expectedExceptions = ServletException.class)
+	public void testNegativeAuditWindowFailsAtInit() throws Exception {
+		createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><AuditWindowSeconds>-1</AuditWindowSeconds>"));
+	}
+
+	@Test(expectedExceptions = ServletException.class)
+	public void testUnknownAuditOverflowPolicyFailsAtInit() throws Exception {
+		final File auditLogFile = new File(Files.createTempDir(), "audit.log");
+		createFilter(CONFIG.replace("<EnforcingMode>true</EnforcingMode>",
+				"<EnforcingMode>true</EnforcingMode><AuditLogFile>" + auditLogFile.getPath() + "</AuditLogFile><AuditOverflowPolicy>wait</AuditOverflowPolicy>"));
+	}
+
+	@Test(expectedExceptions = ServletException.class)
+	public void testUnknownRuleFailsAtInit() throws Exception {
+		createFilter(CONFIG.replace(
+				"com.matthewcasperson.validation.ruleimpl.NumbersOnlyValidationRule",
+				"com.matthewcasperson.validation.ruleimpl.DoesNotExist"));
+	}
+
+	/**
+	 * A rule that only implements ParameterValidationRule, and upper cases values through processParameter
+	 */
+	public static class UpperCaseRule implements ParameterValidationRule {
+		@Override
+		public void configure(final Map<String, String> settings) {
+
+		}
+
+		@Override
+		public ServletRequest processParameter(final ServletRequest request, final String name) throws ValidationFailedException {
+			final ParameterOverlayRequestWrapper wrapper = new ParameterOverlayRequestWrapper((HttpServletRequest)request);
+			wrapper.setParameterValues(name, fixParams(name, "", request.getParameterValues(name)));
+			return wrapper;
+		}
+
+		@Override
+		public String[] fixParams(final String name, final String url, final String[] params) throws ValidationFailedException {
+			final String[] retValue = new String[params.length];
+			for (int index = 0; index < params.length; ++index) {
+				if ("fail".equals(params[index])) {
+					throw new ValidationFailedException("PVF-TEST-0001: " + name + " failed");
+				}
+				retValue[index] = params[index].toUpperCase(Locale.ROOT);
+			}
+			return retValue;
+		}
+
+		@Override
+		public String fixParam(final String name, final String url, final String param) throws ValidationFailedException {
+			return fixParams(name, url, new String[] {param})[0];
+		}
+	}
+}
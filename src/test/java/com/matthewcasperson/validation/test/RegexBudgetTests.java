@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.exception.RegexBudgetExceededException;
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.regex.BudgetedCharSequence;
+import com.matthewcasperson.validation.regex.RegexBudget;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.RemoveRegexMatches;
+
+/**
+ * Checks that RegexBudget stops java.util.regex from backtracking without limit
+ */
+public class RegexBudgetTests {
+	private static final Pattern NESTED = Pattern.compile("^(a+)+$");
+
+	/**
+	 * @param length The number of repeated characters
+	 * @return A value that takes ^(a+)+$ exponential time to reject
+	 */
+	private static String createBacktrackingValue(final int length) {
+		final StringBuilder value = new StringBuilder();
+		for (int index = 0; index < length; ++index) {
+			value.append('a');
+		}
+		return value.append('!').toString();
+	}
+
+	@Test
+	public void testStepBudget() {
+		final RegexBudget budget = new RegexBudget(10000, 0, true);
+
+		Assert.assertTrue(budget.find(NESTED, "aaaa"));
+		Assert.assertFalse(budget.find(NESTED, "aaaa!"));
+		Assert.assertEquals(budget.getExceededCount(), 0);
+
+		try {
+			budget.find(NESTED, createBacktrackingValue(40));
+			Assert.fail();
+		} catch (final RegexBudgetExceededException ex) {
+			Assert.assertEquals(budget.getExceededCount(), 1);
+		}
+	}
+
+	@Test
+	public void testTimeout() {
+		final RegexBudget budget = new RegexBudget(0, 50, true);
+		final long start = System.nanoTime();
+
+		try {
+			budget.find(NESTED, createBacktrackingValue(40));
+			Assert.fail();
+		} catch (final RegexBudgetExceededException ex) {
+			Assert.assertTrue(System.nanoTime() - start < 5000000000L);
+			Assert.assertEquals(budget.getExceededCount(), 1);
+		}
+	}
+
+	@Test
+	public void testResetSteps() {
+		final BudgetedCharSequence value = new RegexBudget(5, 0, true).wrap("abc");
+		value.charAt(0);
+		value.charAt(1);
+		value.charAt(2);
+		Assert.assertEquals(value.getSteps(), 3);
+
+		value.resetSteps();
+		value.charAt(0);
+		Assert.assertEquals(value.getSteps(), 1);
+	}
+
+	@Test
+	public void testSessionSharesSteps() {
+		final RegexBudget.Session session = new RegexBudget(5, 0, true).startSession();
+		final BudgetedCharSequence first = session.wrap("abc");
+		final BudgetedCharSequence second = session.wrap("abc");
+		first.charAt(0);
+		first.charAt(1);
+		second.charAt(0);
+		second.charAt(1);
+		second.charAt(2);
+		Assert.assertEquals(first.getSteps(), 5);
+
+		try {
+			first.charAt(2);
+			Assert.fail();
+		} catch (final RegexBudgetExceededException ex) {
+			Assert.assertTrue(ex.getMessage().contains("more than 5 characters"), ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testSessionSharesDeadline() throws InterruptedException {
+		final RegexBudget budget = new RegexBudget(0, 20, true);
+		final RegexBudget.Session session = budget.startSession();
+		session.wrap("a");
+		Thread.sleep(40);
+
+		/*
+		 * A copy wrapped after the deadline has passed is still held to it
+		 */
+		final BudgetedCharSequence copy = session.wrap("a");
+		try {
+			for (int step = 0; step < 2048; ++step) {
+				copy.charAt(0);
+			}
+			Assert.fail();
+		} catch (final RegexBudgetExceededException ex) {
+			Assert.assertEquals(budget.getExceededCount(), 1);
+		}
+	}
+
+	@Test
+	public void testFromSettings() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		Assert.assertSame(RegexBudget.fromSettings(settings), RegexBudget.UNLIMITED);
+
+		settings.put("maxSteps", "100");
+		settings.put("budgetExceeded", "allow");
+		final RegexBudget budget = RegexBudget.fromSettings(settings);
+		Assert.assertTrue(budget.isLimited());
+		Assert.assertEquals(budget.getMaxSteps(), 100);
+		Assert.assertFalse(budget.isFailWhenExceeded());
+	}
+
+	@Test
+	public void testNegativeLimits() {
+		try {
+			new RegexBudget(-1, 0, true);
+			Assert.fail();
+		} catch (final IllegalArgumentException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0020"), ex.getMessage());
+		}
+
+		try {
+			new RegexBudget(0, -1, true);
+			Assert.fail();
+		} catch (final IllegalArgumentException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0036"), ex.getMessage());
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownAction() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("maxSteps", "100");
+		settings.put("budgetExceeded", "ignore");
+		RegexBudget.fromSettings(settings);
+	}
+
+	@Test
+	public void testFailIfNotRegexMatchBudget() throws ValidationFailedException {
+		final FailIfNotRegexMatchValidationRule rule = new FailIfNotRegexMatchValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", NESTED.pattern());
+		settings.put("maxSteps", "10000");
+		rule.configure(settings);
+
+		Assert.assertEquals(rule.fixParam("test", "test", "aaaa"), "aaaa");
+
+		try {
+			rule.fixParam("test", "test", createBacktrackingValue(40));
+			Assert.fail();
+		} catch (final ValidationFailedException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-SECURITY-0005"), ex.getMessage());
+		}
+
+		settings.put("budgetExceeded", "allow");
+		rule.configure(settings);
+		Assert.assertEquals(rule.fixParam("test", "test", createBacktrackingValue(40)), createBacktrackingValue(40));
+		Assert.assertEquals(rule.getBudget().getExceededCount(), 1);
+	}
+
+	@Test
+	public void testRemoveRegexMatchesBudget() throws ValidationFailedException {
+		final RemoveRegexMatches rule = new RemoveRegexMatches();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "(a+)+b");
+		settings.put("maxSteps", "10000");
+		settings.put("budgetExceeded", "allow");
+		rule.configure(settings);
+
+		/*
+		 * The step budget applies to each match, so a long value with many matches is fine
+		 */
+		final StringBuilder value = new StringBuilder();
+		for (int index = 0; index < 2000; ++index) {
+			value.append("aab-");
+		}
+		Assert.assertEquals(rule.fixParam("test", "test", value.toString()), value.toString().replace("aab", ""));
+
+		final String backtracking = createBacktrackingValue(40);
+		Assert.assertEquals(rule.fixParam("test", "test", backtracking), backtracking);
+		Assert.assertEquals(rule.getBudget().getExceededCount(), 1);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.regex.RegexCost;
+import com.matthewcasperson.validation.regex.RegexCostAnalyser;
+
+/**
+ * Checks that RegexCostAnalyser finds the constructs that make java.util.regex backtrack
+ */
+public class RegexCostAnalyserTests {
+	private static final String[] EXPONENTIAL = {
+		"^(a+)+$", "(a*)*b", "^(\\w+\\s?)*$", "(x+x+)+y", "(.*,)+", "^(\\d|\\w)+$", "(a|a)*", "(?:ab|a\\w*)+c",
+		"^([a-z0-9]{2,4})+$", "(?i)^(a+)+$", "^(\\p{L}+\\s?)+$", "\\b(\\w+)+\\b", "^(a|b|ab)*$", "^(a|aa)+$",
+		"^(ab|a|ba)+$", "^(?:x(a|ab)|xa)+$"
+	};
+
+	private static final String[] LINEAR = {
+		"^id$", "^user\\.", "^(first|last)Name$", "^[a-z_][a-z0-9_]*$", "^\\d+-\\d+$", "^(\\w+\\s)+$", "^(a|ab)*c",
+		"^(\\d{1,3}\\.)+$", "^(foo|f\\d)+$", "^/numbers/", "^(ab|ba)+$", "^((a|ab)c)+$"
+	};
+
+	@Test
+	public void testExponential() {
+		for (final String pattern : EXPONENTIAL) {
+			final RegexCost cost = RegexCostAnalyser.analyse(pattern);
+			Assert.assertTrue(cost.isAnalysed(), pattern);
+			Assert.assertTrue(cost.isExponential(), pattern);
+			Assert.assertTrue(cost.isPathological(100), pattern);
+			Assert.assertEquals(cost.toString(), "O(2^n)");
+			Assert.assertFalse(cost.getFindings().isEmpty(), pattern);
+		}
+	}
+
+	@Test
+	public void testLinear() {
+		for (final String pattern : LINEAR) {
+			final RegexCost cost = RegexCostAnalyser.analyse(pattern);
+			Assert.assertTrue(cost.isAnalysed(), pattern);
+			Assert.assertFalse(cost.isExponential(), pattern);
+			Assert.assertEquals(cost.getDegree(), 1, pattern + " " + cost.getFindings());
+			Assert.assertFalse(cost.isPathological(1), pattern);
+		}
+	}
+
+	@Test
+	public void testPolynomial() {
+		Assert.assertEquals(RegexCostAnalyser.analyse("^\\d+\\d+$").getDegree(), 2);
+		Assert.assertEquals(RegexCostAnalyser.analyse("^a*a*a*b$").getDegree(), 3);
+		Assert.assertEquals(RegexCostAnalyser.analyse("^.*a.*b$").getDegree(), 2);
+		Assert.assertEquals(RegexCostAnalyser.analyse("^(.*a){10}b").getDegree(), 10);
+		Assert.assertEquals(RegexCostAnalyser.analyse("^(x|a*a*)$").getDegree(), 2);
+
+		final RegexCost cost = RegexCostAnalyser.analyse("^a*a*a*b$");
+		Assert.assertEquals(cost.toString(), "O(n^3)");
+		Assert.assertTrue(cost.isPathological(2));
+		Assert.assertFalse(cost.isPathological(3));
+		Assert.assertEquals(cost.estimateSteps(10), 1000.0);
+	}
+
+	@Test
+	public void testUnambiguousRepeat() {
+		/*
+		 * One alternative is a prefix of the other, but there is only one way to split any text into them
+		 */
+		final RegexCost cost = RegexCostAnalyser.analyse("(a|ab)*c");
+		Assert.assertTrue(cost.isAnalysed());
+		Assert.assertFalse(cost.isExponential(), cost.getFindings().toString());
+		Assert.assertEquals(cost.getDegree(), 2, cost.getFindings().toString());
+	}
+
+	@Test
+	public void testUnanchoredPrefix() {
+		Assert.assertEquals(RegexCostAnalyser.analyse("\\d+x").getDegree(), 2);
+		Assert.assertEquals(RegexCostAnalyser.analyse("^\\d+x").getDegree(), 1);
+		Assert.assertEquals(RegexCostAnalyser.analyse("a*a*b").getDegree(), 3);
+		Assert.assertEquals(RegexCostAnalyser.analyse("x\\d+").getDegree(), 1);
+		Assert.assertEquals(RegexCostAnalyser.analyse(".*").getDegree(), 2);
+	}
+
+	@Test
+	public void testUnknown() {
+		final RegexCost cost = RegexCostAnalyser.analyse("(a+)\\1");
+		Assert.assertFalse(cost.isAnalysed());
+		Assert.assertFalse(cost.isPathological(1));
+		Assert.assertEquals(cost.toString(), "unknown");
+		Assert.assertTrue(cost.getFindings().get(0).contains("PVF-REGEX-0001"), cost.getFindings().toString());
+	}
+
+	@Test
+	public void testAnalyseLinear() {
+		Assert.assertFalse(RegexCostAnalyser.analyseLinear("^(a+)+$").isExponential());
+		Assert.assertEquals(RegexCostAnalyser.analyseLinear("^(a+)+$").getDegree(), 1);
+		Assert.assertFalse(RegexCostAnalyser.analyseLinear("(a+)+\\1").isAnalysed());
+	}
+
+	@Test
+	public void testOrdering() {
+		final RegexCost exponential = RegexCostAnalyser.analyse("^(a+)+$");
+		final RegexCost cubic = RegexCostAnalyser.analyse("^a*a*a*b$");
+		final RegexCost linear = RegexCostAnalyser.analyse("^id$");
+		final RegexCost unknown = RegexCostAnalyser.analyse("(a)\\1");
+
+		Assert.assertTrue(exponential.compareTo(cubic) > 0);
+		Assert.assertTrue(cubic.compareTo(linear) > 0);
+		Assert.assertTrue(linear.compareTo(unknown) > 0);
+		Assert.assertEquals(linear.compareTo(RegexCostAnalyser.analyse("^name$")), 0);
+	}
+}
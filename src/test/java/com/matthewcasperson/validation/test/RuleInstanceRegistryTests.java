@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.exception.InvalidConfigurationException;
+import com.matthewcasperson.validation.rule.ParameterValidationRule;
+import com.matthewcasperson.validation.ruledefinitionimpl.ParameterValidationDefinitionImpl;
+import com.matthewcasperson.validation.ruledefinitionimpl.RuleInstanceRegistry;
+import com.matthewcasperson.validation.ruleimpl.FailIfNotRegexMatchValidationRule;
+import com.matthewcasperson.validation.ruleimpl.TrimTextValidationRule;
+
+/**
+ * Tests of how rule instances are created and shared
+ * @author mcasperson
+ *
+ */
+public class RuleInstanceRegistryTests {
+	@Test
+	public void testIdenticalRulesAreShared() throws InvalidConfigurationException {
+		final RuleInstanceRegistry registry = new RuleInstanceRegistry();
+
+		final Map<String, String> digits = new HashMap<String, String>();
+		digits.put("pattern", "^\\d+$");
+		final Map<String, String> letters = new HashMap<String, String>();
+		letters.put("pattern", "^[a-z]+$");
+
+		final ParameterValidationRule first = registry.getRule(FailIfNotRegexMatchValidationRule.class.getName(), digits);
+		final ParameterValidationRule second = registry.getRule(FailIfNotRegexMatchValidationRule.class.getName(), new HashMap<String, String>(digits));
+		final ParameterValidationRule third = registry.getRule(FailIfNotRegexMatchValidationRule.class.getName(), letters);
+
+		Assert.assertSame(first, second);
+		Assert.assertNotSame(first, third);
+		Assert.assertEquals(registry.size(), 2);
+	}
+
+	@Test(expectedExceptions = InvalidConfigurationException.class)
+	public void testUnknownRule() throws InvalidConfigurationException {
+		new RuleInstanceRegistry().getRule("com.matthewcasperson.validation.ruleimpl.DoesNotExist", null);
+	}
+
+	@Test
+	public void testConcurrentGetRule() throws Exception {
+		final ParameterValidationDefinitionImpl definition = new ParameterValidationDefinitionImpl();
+		definition.setValidationRuleName(TrimTextValidationRule.class.getName());
+
+		final int threads = 16;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			final List<Future<ParameterValidationRule>> futures = new ArrayList<Future<ParameterValidationRule>>();
+			for (int thread = 0; thread < threads; ++thread) {
+				futures.add(executor.submit(new Callable<ParameterValidationRule>() {
+					@Override
+					public ParameterValidationRule call() throws Exception {
+						start.await();
+						return definition.getRule();
+					}
+				}));
+			}
+
+			start.countDown();
+
+			final ParameterValidationRule rule = futures.get(0).get();
+			Assert.assertNotNull(rule);
+			for (final Future<ParameterValidationRule> future : futures) {
+				Assert.assertSame(future.get(), rule);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Matthew Casperson
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.matthewcasperson.validation.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.ruleimpl.KeepCharactersValidationRule;
+import com.matthewcasperson.validation.ruleimpl.ReplaceLiteralsValidationRule;
+import com.matthewcasperson.validation.text.CharacterFilter;
+import com.matthewcasperson.validation.text.HtmlEscaper;
+import com.matthewcasperson.validation.text.LiteralReplacer;
+
+/**
+ * Checks that CharacterFilter and LiteralReplacer give the same results as java.util.regex
+ */
+public class TextFilterTests {
+	/**
+	 * Pairs of a character class and its negation
+	 */
+	private static final String[][] CLASSES = {
+		{"[0-9\\-]", "[^0-9\\-]"},
+		{"[a-zA-Z0-9 ]", "[^a-zA-Z0-9 ]"},
+		{"[\\p{L}\\s]", "[^\\p{L}\\s]"},
+		{"[^<>&\"']", "[<>&\"']"},
+		{"[\\w&&[^_]]", "[^\\w]|_"},
+		{"[\\x{1F600}-\\x{1F64F}a]", "[^\\x{1F600}-\\x{1F64F}a]"}
+	};
+
+	private static final String ALPHABET = "az AZ09-_<>&\"'\t\n\u00A0\u00E9\u4E2D\uD83D\uDE00\uD800";
+
+	@Test
+	public void testCharacterFilterMatchesRegex() {
+		final Random random = new Random(42);
+
+		for (final String[] characterClass : CLASSES) {
+			final CharacterFilter filter = CharacterFilter.compile(characterClass[0]);
+
+			for (int round = 0; round < 2000; ++round) {
+				final StringBuilder value = new StringBuilder();
+				for (int index = 0, length = random.nextInt(20); index < length; ++index) {
+					if (random.nextInt(5) == 0) {
+						value.append((char)random.nextInt(Character.MAX_VALUE + 1));
+					} else {
+						value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+					}
+				}
+
+				final String input = value.toString();
+				final Pattern pattern = Pattern.compile(characterClass[0]);
+				Assert.assertEquals(filter.retain(input), filterCodePoints(pattern, input, true), characterClass[0] + " " + input);
+				Assert.assertEquals(filter.remove(input), filterCodePoints(pattern, input, false), characterClass[0] + " " + input);
+
+				/*
+				 * java.util.regex can split surrogate pairs, so only compare with it when there are none
+				 */
+				if (!hasSurrogates(input)) {
+					Assert.assertEquals(filter.retain(input), input.replaceAll(characterClass[1], ""), characterClass[0] + " " + input);
+					Assert.assertEquals(filter.remove(input), input.replaceAll(characterClass[0], ""), characterClass[0] + " " + input);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests each code point of a value against a pattern
+	 */
+	private String filterCodePoints(final Pattern pattern, final String input, final boolean keepMatches) {
+		final StringBuilder retValue = new StringBuilder();
+		for (int index = 0; index < input.length(); ) {
+			final int codePoint = input.codePointAt(index);
+			final String c = new String(Character.toChars(codePoint));
+			if (pattern.matcher(c).matches() == keepMatches) {
+				retValue.append(c);
+			}
+			index += Character.charCount(codePoint);
+		}
+		return retValue.toString();
+	}
+
+	private boolean hasSurrogates(final String input) {
+		for (int index = 0; index < input.length(); ++index) {
+			if (Character.isSurrogate(input.charAt(index))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testCharacterFilterReturnsSameString() {
+		final CharacterFilter filter = CharacterFilter.compile("[0-9]");
+
+		final String numbers = "12345";
+		Assert.assertSame(filter.retain(numbers), numbers);
+
+		final String letters = "abc";
+		Assert.assertSame(filter.remove(letters), letters);
+	}
+
+	@Test
+	public void testLiteralReplacer() {
+		final LiteralReplacer replacer = LiteralReplacer.builder()
+				.add("ab", "1")
+				.add("abc", "2")
+				.add("b", "3")
+				.add("\uD83D\uDE00", ":)")
+				.build();
+
+		Assert.assertEquals(replacer.replace("abcab b a"), "21 3 a");
+		Assert.assertEquals(replacer.replace("a\uD83D\uDE00bb"), "a:)33");
+
+		/*
+		 * Replacements are not scanned again
+		 */
+		Assert.assertEquals(LiteralReplacer.builder().add("x", "xx").build().replace("xax"), "xxaxx");
+
+		final String plain = "nothing to see";
+		Assert.assertSame(replacer.replace(plain), plain);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testLiteralReplacerRejectsDuplicates() {
+		LiteralReplacer.builder().add("a", "b").add("a", "c");
+	}
+
+	@Test
+	public void testKeepCharactersRule() throws ValidationFailedException {
+		final KeepCharactersValidationRule rule = new KeepCharactersValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("characters", "[a-z ]");
+		rule.configure(settings);
+
+		final String[] params = new String[] {"hello world", "<b>bold</b>!"};
+		final String[] fixedParams = rule.fixParams("test", "test", params);
+		Assert.assertEquals(fixedParams, new String[] {"hello world", "bboldb"});
+		Assert.assertSame(fixedParams[0], params[0]);
+	}
+
+	@Test
+	public void testKeepCharactersRuleNeedsOneClass() {
+		for (final String characters : new String[] {"[]a]", "[^]a]", "[a[b-c]]", "[a-z&&[^aeiou]]", "[\\]]", "[\\Q]\\E]", "[\\p{L} ]"}) {
+			final Map<String, String> settings = new HashMap<String, String>();
+			settings.put("characters", characters);
+			new KeepCharactersValidationRule().configure(settings);
+		}
+
+		for (final String characters : new String[] {"\\d{2}", "ab", "\\d", "[a]{2}", "[a]+", "[a]|b", "[a][b]", "(?i)[a]", "[a]\\Q\\E"}) {
+			final Map<String, String> settings = new HashMap<String, String>();
+			settings.put("characters", characters);
+
+			try {
+				new KeepCharactersValidationRule().configure(settings);
+				Assert.fail(characters);
+			} catch (final IllegalArgumentException ex) {
+				Assert.assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0038"), ex.getMessage());
+			}
+		}
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testKeepCharactersRuleNeedsCharacters() throws ValidationFailedException {
+		new KeepCharactersValidationRule().fixParams("test", "test", new String[] {"value"});
+	}
+
+	@Test
+	public void testReplaceLiteralsRule() throws ValidationFailedException {
+		final ReplaceLiteralsValidationRule rule = new ReplaceLiteralsValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("literal1", "<script>");
+		settings.put("literal2", "&amp;");
+		settings.put("replacement2", "&");
+		rule.configure(settings);
+
+		Assert.assertEquals(rule.fixParam("test", "test", "a<script>b&amp;c"), "ab&c");
+	}
+
+	@Test
+	public void testReplaceLiteralsRuleRejectsOrphanReplacement() {
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("literal1", "a");
+		settings.put("replacement2", "b");
+
+		try {
+			new ReplaceLiteralsValidationRule().configure(settings);
+			Assert.fail();
+		} catch (final IllegalArgumentException ex) {
+			Assert.assertTrue(ex.getMessage().startsWith("PVF-CONFIGURATION-0037"), ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testHtml4EscaperMatchesCommonsLang() {
+		for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+			final String value = "a" + (char)c + "b";
+			Assert.assertEquals(HtmlEscaper.HTML4.escape(value), StringEscapeUtils.escapeHtml4(value), Integer.toHexString(c));
+		}
+
+		final Random random = new Random(42);
+		for (int round = 0; round < 10000; ++round) {
+			final StringBuilder value = new StringBuilder();
+			for (int index = 0, length = random.nextInt(20); index < length; ++index) {
+				if (random.nextInt(3) == 0) {
+					value.append((char)random.nextInt(Character.MAX_VALUE + 1));
+				} else {
+					value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+				}
+			}
+
+			/*
+			 * escapeHtml4() garbles supplementary characters, so escape those values a character at a time
+			 */
+			final String input = value.toString();
+			if (input.codePointCount(0, input.length()) == input.length()) {
+				Assert.assertEquals(HtmlEscaper.HTML4.escape(input), StringEscapeUtils.escapeHtml4(input), input);
+			} else {
+				final StringBuilder expected = new StringBuilder();
+				for (int index = 0; index < input.length(); ++index) {
+					final char c = input.charAt(index);
+					expected.append(Character.isSurrogate(c) ? String.valueOf(c) : StringEscapeUtils.escapeHtml4(String.valueOf(c)));
+				}
+				Assert.assertEquals(HtmlEscaper.HTML4.escape(input), expected.toString(), input);
+			}
+		}
+	}
+
+	@Test
+	public void testHtmlEscaperReturnsSameString() {
+		final String plain = "plain text 123";
+		Assert.assertSame(HtmlEscaper.HTML4.escape(plain), plain);
+
+		final String accented = "caf\u00E9";
+		Assert.assertSame(HtmlEscaper.MINIMAL.escape(accented), accented);
+		Assert.assertEquals(HtmlEscaper.HTML4.escape(accented), "caf&eacute;");
+		Assert.assertEquals(HtmlEscaper.MINIMAL.escape("'quoted'"), "&#39;quoted&#39;");
+	}
+}
@@ -24,14 +24,23 @@
 
 package com.matthewcasperson.validation.test;
 
+import java.text.Normalizer;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import com.matthewcasperson.validation.ruleimpl.*;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.matthewcasperson.validation.exception.ValidationFailedException;
+import com.matthewcasperson.validation.rule.ParameterValidationRuleTemplate;
+import com.matthewcasperson.validation.rule.ValidationContext;
 
 public class ValidationRulesTests {
 	@Test
@@ -56,6 +65,18 @@ public class ValidationRulesTests {
 		}
 	}
 
+	@Test
+	public void testEncodeMinimalEscapeSet() throws ValidationFailedException {
+		final HTMLEncodeTextValidationRule rule = new HTMLEncodeTextValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("escapeSet", "minimal");
+		rule.configure(settings);
+
+		Assert.assertEquals(
+				rule.fixParam("test", "test", "<a title='caf\u00E9'>\"&\"</a>"),
+				"&lt;a title=&#39;caf\u00E9&#39;&gt;&quot;&amp;&quot;&lt;/a&gt;");
+	}
+
 	@Test
 	public void testEncode3() {
 		try {
@@ -201,6 +222,67 @@ public class ValidationRulesTests {
 
 	}
 
+	/**
+	 * The check FailIfContainsHTMLValidationRule used to make for every value
+	 */
+	private boolean legacyContainsHTML(final String value, final boolean allowAmpersands, final boolean allowAccents, final boolean allowEllipsis) {
+		String param = value;
+		if (allowAmpersands) {
+			param = param.replaceAll("&", "");
+		}
+		if (allowAccents) {
+			param = Normalizer.normalize(param, Normalizer.Form.NFD);
+		}
+		if (allowEllipsis) {
+			param = param.replaceAll("\u2026", "");
+		}
+		return !StringEscapeUtils.escapeHtml4(param).equals(param);
+	}
+
+	private boolean failsHtml(final FailIfContainsHTMLValidationRule rule, final String value) {
+		try {
+			rule.fixParam("test", "test", value);
+			return false;
+		} catch (final ValidationFailedException ex) {
+			return true;
+		}
+	}
+
+	@Test
+	public void testFailHtmlMatchesEscaping() {
+		final Random random = new Random(42);
+		final char[] interesting = new char[] {'a', '&', '<', '"', '\'', '\u00E0', '\u00A0', '\u2026', '\u0301', '\uD83D', '\uDE00', '\uD834', '\uDD5E', '\u1E9B'};
+
+		for (int flags = 0; flags < 8; ++flags) {
+			final boolean allowAmpersands = (flags & 1) != 0;
+			final boolean allowAccents = (flags & 2) != 0;
+			final boolean allowEllipsis = (flags & 4) != 0;
+
+			final Map<String, String> config = new HashMap<String, String>();
+			config.put("allowAmpersands", Boolean.toString(allowAmpersands));
+			config.put("allowAccents", Boolean.toString(allowAccents));
+			config.put("allowEllipsis", Boolean.toString(allowEllipsis));
+			final FailIfContainsHTMLValidationRule rule = new FailIfContainsHTMLValidationRule();
+			rule.configure(config);
+
+			for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+				final String value = "x" + (char)c;
+				Assert.assertEquals(failsHtml(rule, value), legacyContainsHTML(value, allowAmpersands, allowAccents, allowEllipsis), "U+" + Integer.toHexString(c) + " with flags " + flags);
+			}
+
+			/*
+			 * Surrogate pairs, and characters that only form pairs once the characters between them are removed
+			 */
+			for (int round = 0; round < 2000; ++round) {
+				final StringBuilder value = new StringBuilder();
+				for (int index = 0, length = 1 + random.nextInt(6); index < length; ++index) {
+					value.append(interesting[random.nextInt(interesting.length)]);
+				}
+				Assert.assertEquals(failsHtml(rule, value.toString()), legacyContainsHTML(value.toString(), allowAmpersands, allowAccents, allowEllipsis), value + " with flags " + flags);
+			}
+		}
+	}
+
 	@Test
 	public void testFailEncoded1() {
 		final FailIfNotCanonicalizedValidationRule rule = new FailIfNotCanonicalizedValidationRule();
@@ -269,6 +351,149 @@ public class ValidationRulesTests {
 		}
 	}
 
+	/**
+	 * @param settings The settings, as pairs of keys and values
+	 * @return A RemoveRegexMatches rule configured with the settings
+	 */
+	private RemoveRegexMatches createRemoveRegexMatches(final String... settings) {
+		final Map<String, String> settingsMap = new HashMap<String, String>();
+		for (int index = 0; index < settings.length; index += 2) {
+			settingsMap.put(settings[index], settings[index + 1]);
+		}
+
+		final RemoveRegexMatches rule = new RemoveRegexMatches();
+		rule.configure(settingsMap);
+		return rule;
+	}
+
+	@Test
+	public void testRegexRemoveFixedPoint() throws ValidationFailedException {
+		final RemoveRegexMatches rule = createRemoveRegexMatches("pattern", "<script>");
+		Assert.assertEquals(rule.fixParam("test", "test", "<scr<script>ipt>alert(1)"), "alert(1)");
+		Assert.assertEquals(rule.fixParam("test", "test", "<<<script>script>script>a<script>b"), "ab");
+	}
+
+	@Test
+	public void testRegexRemoveOutsideRescanWindow() throws ValidationFailedException {
+		/*
+		 * With no rescan window the rebuilt match is only found by the final scan
+		 */
+		final RemoveRegexMatches rule = createRemoveRegexMatches("pattern", "<script>", "rescanWindow", "0");
+		Assert.assertEquals(rule.fixParam("test", "test", "<scr<script>ipt>alert(1)"), "alert(1)");
+	}
+
+	@Test
+	public void testRegexRemoveSinglePass() throws ValidationFailedException {
+		final RemoveRegexMatches rule = createRemoveRegexMatches("pattern", "<script>", "fixedPoint", "false");
+		Assert.assertEquals(rule.fixParam("test", "test", "<scr<script>ipt>alert(1)"), "<script>alert(1)");
+		Assert.assertEquals(rule.fixParam("test", "test", "a<script>b<script>c"), "abc");
+	}
+
+	@Test
+	public void testRegexRemoveOnlyMatchedPositions() throws ValidationFailedException {
+		/*
+		 * Copies of the matched text that the regex did not match are kept
+		 */
+		Assert.assertEquals(createRemoveRegexMatches("pattern", "^a").fixParam("test", "test", "aXa"), "Xa");
+		Assert.assertEquals(createRemoveRegexMatches("pattern", "a(?=X)").fixParam("test", "test", "aXa"), "Xa");
+		Assert.assertEquals(createRemoveRegexMatches("pattern", "^a", "engine", "linear").fixParam("test", "test", "aXa"), "Xa");
+	}
+
+	@Test
+	public void testRegexRemoveEmptyMatches() throws ValidationFailedException {
+		final RemoveRegexMatches rule = createRemoveRegexMatches("pattern", "a*");
+		Assert.assertEquals(rule.fixParam("test", "test", "banana"), "bnn");
+		Assert.assertEquals(rule.fixParam("test", "test", "bnn"), "bnn");
+	}
+
+	@Test
+	public void testRegexRemoveLeavesNoMatches() throws ValidationFailedException {
+		final String[] patterns = new String[] {"ab", "a+b", "(?<=a)b", "^ab", "ab$", "a.{0,3}b", "(ab|ba)"};
+		final Random random = new Random(42);
+
+		for (final String patternString : patterns) {
+			final RemoveRegexMatches rule = createRemoveRegexMatches("pattern", patternString, "rescanWindow", "2");
+			final Pattern pattern = Pattern.compile(patternString);
+
+			for (int round = 0; round < 200; ++round) {
+				final StringBuilder value = new StringBuilder();
+				for (int index = 0, length = random.nextInt(40); index < length; ++index) {
+					value.append("abc".charAt(random.nextInt(3)));
+				}
+
+				final String fixed = rule.fixParam("test", "test", value.toString());
+				Assert.assertFalse(pattern.matcher(fixed).find(), patternString + " still matches " + fixed + ", from " + value);
+			}
+		}
+	}
+
+	@Test
+	public void testRegexLinearEngine() throws ValidationFailedException {
+		final FailIfNotRegexMatchValidationRule rule = new FailIfNotRegexMatchValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "^(a+)+$");
+		settings.put("engine", "linear");
+		rule.configure(settings);
+
+		Assert.assertNotNull(rule.getLinearPattern());
+		Assert.assertEquals(rule.fixParam("test", "test", "aaaa"), "aaaa");
+
+		/*
+		 * This input takes java.util.regex exponential time to reject
+		 */
+		final StringBuilder value = new StringBuilder();
+		for (int index = 0; index < 5000; ++index) {
+			value.append('a');
+		}
+		value.append('b');
+
+		try {
+			rule.fixParam("test", "test", value.toString());
+			Assert.fail();
+		} catch (final ValidationFailedException ex) {
+
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testRegexLinearEngineRejectsBackreferences() {
+		final FailIfNotRegexMatchValidationRule rule = new FailIfNotRegexMatchValidationRule();
+		final Map<String, String> settings = new HashMap<String, String>();
+		settings.put("pattern", "(a)\\1");
+		settings.put("engine", "linear");
+		rule.configure(settings);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testRegexUnknownEngine() {
+		createRemoveRegexMatches("pattern", "a", "engine", "backtracking");
+	}
+
+	@Test
+	public void testRegexRemoveLinearEngine() throws ValidationFailedException {
+		final String[] patterns = new String[] {"ab", "a+b", "^ab", "ab$", "a.{0,3}b", "(ab|ba)", "a*", "b*?c", "(a|ab)(c|bcd)"};
+		final Random random = new Random(42);
+
+		for (final String patternString : patterns) {
+			for (final String fixedPoint : new String[] {"true", "false"}) {
+				final RemoveRegexMatches jdk = createRemoveRegexMatches("pattern", patternString, "fixedPoint", fixedPoint, "rescanWindow", "2");
+				final RemoveRegexMatches linear = createRemoveRegexMatches("pattern", patternString, "fixedPoint", fixedPoint, "rescanWindow", "2", "engine", "linear");
+
+				for (int round = 0; round < 200; ++round) {
+					final StringBuilder value = new StringBuilder();
+					for (int index = 0, length = random.nextInt(40); index < length; ++index) {
+						value.append("abcd".charAt(random.nextInt(4)));
+					}
+
+					Assert.assertEquals(
+							linear.fixParam("test", "test", value.toString()),
+							jdk.fixParam("test", "test", value.toString()),
+							patternString + " against " + value);
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testSanitizeHTML() {
 		final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
@@ -320,6 +545,65 @@ public class ValidationRulesTests {
         }
     }
 
+    @Test
+    public void testSanitizeHTMLAllowedLists() throws ValidationFailedException {
+        final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
+        final Map<String, String> settings = new HashMap<String, String>();
+        settings.put("allowedElements", "img, span");
+        settings.put("allowedAttributes", "img:src, title");
+        settings.put("allowedProtocols", "https");
+        rule.configure(settings);
+
+        Assert.assertEquals(
+                rule.fixParam(
+                        "test",
+                        "test",
+                        "<span title=\"x\" onclick=\"doEvil()\">a</span><img src=\"https://example.org/a.png\"><img src=\"http://example.org/a.png\" title=\"y\">"),
+                "<span title=\"x\">a</span><img src=\"https://example.org/a.png\" /><img title=\"y\" />");
+    }
+
+    @Test
+    public void testSanitizeHTMLPlainValuesAreUntouched() throws ValidationFailedException {
+        final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
+
+        final String[] params = new String[] {"Hello, world! 100% caf\u00e9\r\n", "a &lt; b", "<b>bold</b>"};
+        final String[] fixedParams = rule.fixParams("test", "test", params);
+        Assert.assertSame(fixedParams, params);
+    }
+
+    @Test
+    public void testSanitizeHTMLEncodesTextWithoutMarkup() throws ValidationFailedException {
+        final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
+
+        Assert.assertEquals(rule.fixParam("test", "test", "\" onmouseover=\"alert(1)"), "&#34; onmouseover&#61;&#34;alert(1)");
+        Assert.assertEquals(rule.fixParam("test", "test", "It's > 1"), "It&#39;s &gt; 1");
+        Assert.assertEquals(rule.fixParam("test", "test", "`a+b`@c"), "&#96;a&#43;b&#96;&#64;c");
+        Assert.assertEquals(rule.fixParam("test", "test", "a\u0000b\uffffc"), "abc");
+    }
+
+    @Test
+    public void testSanitizeHTMLPlainCharsMatchSanitizer() throws ValidationFailedException {
+        final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
+
+        /*
+         * A leading element makes the rule sanitize the value, so every char can be checked
+         * against what the sanitizer does with it
+         */
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            final String value = "x" + (char)c + "y";
+            final String sanitized = rule.fixParam("test", "test", "<b></b>" + value);
+            Assert.assertEquals("<b></b>" + rule.fixParam("test", "test", value), sanitized, "Char " + Integer.toHexString(c));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSanitizeHTMLInvalidAttribute() {
+        final SanitizeHTMLValidationRule rule = new SanitizeHTMLValidationRule();
+        final Map<String, String> settings = new HashMap<String, String>();
+        settings.put("allowedAttributes", "img:");
+        rule.configure(settings);
+    }
+
 	@Test
 	public void testNonBreakingSpaceRemovalHTML() {
 		final ReplaceNonBreakingSpaceWithSpaceValidationRule rule = new ReplaceNonBreakingSpaceWithSpaceValidationRule();
@@ -332,4 +616,111 @@ public class ValidationRulesTests {
 
 		}
 	}
+
+	@Test
+	public void testFixAll() throws ValidationFailedException {
+		final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+		final String[] clean = new String[] {"clean"};
+		params.put("clean", clean);
+		params.put("padded", new String[] {" padded ", "  "});
+
+		new TrimTextValidationRule().fixAll(new ValidationContext("http://localhost/page", true), params);
+
+		Assert.assertSame(params.get("clean"), clean);
+		Assert.assertEquals(params.get("padded"), new String[] {"padded", ""});
+	}
+
+	@Test
+	public void testFixAllRecordsFailures() throws ValidationFailedException {
+		final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+		params.put("good", new String[] {"hello"});
+		params.put("bad", new String[] {"<b>bold</b>"});
+
+		final ValidationContext context = new ValidationContext("http://localhost/page", false);
+		new FailIfContainsHTMLValidationRule().fixAll(context, params);
+
+		Assert.assertEquals(params.keySet(), Collections.singleton("good"));
+		Assert.assertTrue(context.isFailed("bad"));
+		Assert.assertEquals(context.getFailures().size(), 1);
+	}
+
+	@Test(expectedExceptions = ValidationFailedException.class)
+	public void testFixAllEnforcing() throws ValidationFailedException {
+		final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+		params.put("bad", new String[] {"<b>bold</b>"});
+
+		new FailIfContainsHTMLValidationRule().fixAll(new ValidationContext("http://localhost/page", true), params);
+	}
+
+	@Test
+	public void testValidationContextRecycling() throws ValidationFailedException {
+		final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/page");
+		request.setContentType("application/x-www-form-urlencoded");
+
+		final ValidationContext context = ValidationContext.acquire(request, false);
+		Assert.assertEquals(context.getRequestURI(), "/page");
+		Assert.assertEquals(context.getRequestURL(), "http://localhost/page");
+		Assert.assertEquals(context.getMethod(), "POST");
+		Assert.assertEquals(context.getContentType(), "application/x-www-form-urlencoded");
+
+		final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+		params.put("padded", new String[] {" padded "});
+		params.put("bad", new String[] {"<b>bold</b>"});
+		new TrimTextValidationRule().fixAll(context, params);
+		new FailIfContainsHTMLValidationRule().fixAll(context, params);
+		Assert.assertEquals(context.getRuleApplications(), 3);
+		Assert.assertEquals(context.getChangedParams(), 1);
+		Assert.assertTrue(context.isFailed("bad"));
+
+		/*
+		 * A nested request on the same thread gets its own context
+		 */
+		final ValidationContext nested = ValidationContext.acquire(new MockHttpServletRequest("GET", "/nested"), true);
+		Assert.assertNotSame(nested, context);
+		nested.release();
+
+		context.release();
+
+		final ValidationContext recycled = ValidationContext.acquire(new MockHttpServletRequest("GET", "/other"), true);
+		Assert.assertSame(recycled, context);
+		Assert.assertEquals(recycled.getRequestURI(), "/other");
+		Assert.assertEquals(recycled.getRuleApplications(), 0);
+		Assert.assertFalse(recycled.isFailed("bad"));
+		recycled.release();
+	}
+
+	@Test
+	public void testUnchangedParamsAreNotCopied() throws ValidationFailedException {
+		final ParameterValidationRuleTemplate[] rules = new ParameterValidationRuleTemplate[] {
+				new TrimTextValidationRule(),
+				new HTMLEncodeTextValidationRule(),
+				new CanonicalizeTextValidationRule(),
+				new NumbersOnlyValidationRule(),
+				new ReplaceNonBreakingSpaceWithSpaceValidationRule(),
+				new SanitizeHTMLValidationRule()
+		};
+
+		final String[] params = new String[] {"12345", null, "-42"};
+		for (final ParameterValidationRuleTemplate rule : rules) {
+			Assert.assertSame(rule.fixParams("param", "http://localhost/page", params), params, rule.getClass().getName());
+		}
+	}
+
+	@Test
+	public void testChangedParamsAreCopied() throws ValidationFailedException {
+		final String[] params = new String[] {"12", " 34 ", null, "5a6"};
+
+		final String[] trimmed = new TrimTextValidationRule().fixParams("param", "http://localhost/page", params);
+		Assert.assertNotSame(trimmed, params);
+		Assert.assertEquals(trimmed, new String[] {"12", "34", null, "5a6"});
+		Assert.assertSame(trimmed[0], params[0]);
+
+		final String[] numbers = new NumbersOnlyValidationRule().fixParams("param", "http://localhost/page", params);
+		Assert.assertEquals(numbers, new String[] {"12", "34", null, "56"});
+
+		/*
+		 * The original values must never be modified
+		 */
+		Assert.assertEquals(params, new String[] {"12", " 34 ", null, "5a6"});
+	}
 }